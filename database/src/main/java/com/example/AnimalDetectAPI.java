@@ -1,42 +1,126 @@
 package com.example;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import java.awt.image.BufferedImage;
+import com.google.common.util.concurrent.RateLimiter;
 import java.io.*;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Logger;
-import javax.imageio.ImageIO;
-import javax.imageio.ImageReadParam;
-import javax.imageio.ImageReader;
-import javax.imageio.stream.ImageInputStream;
 
 /**
  * AnimalDetectAPI client for wildlife detection.
  * 
  * Calls the AnimalDetect API to detect animals in images and extract elk
- * counts.
+ * counts. All instances share one HttpClient (HTTP/2 preferred, pooled keep-alive
+ * connections) and one ObjectMapper, so TLS sessions survive across requests; ingest
+ * paths and batch jobs use the process-wide shared() instance, whose in-flight limit
+ * (ANIMALDETECT_MAX_IN_FLIGHT) bounds how many detections run against the API at once.
  * Usage:
- * AnimalDetectAPI api = new AnimalDetectAPI(apiKey, timeout);
- * Map<String, Object> response = api.callAnimalDetectAPI(imageBytes, filename,
- * "USA", 0.2);
- * int elkCount = api.countElkFromResponse(response, 0.2);
+ * AnimalDetectAPI api = AnimalDetectAPI.shared();
+ * AnimalDetectAPI.ElkRule rule = db.getElkRule(conn);
+ * Map<String, Object> response = api.callAnimalDetectAPIWithFallback(imageBytes, filename,
+ * "USA", rule.threshold());
+ * int elkCount = api.countElkFromResponse(response, rule);
+ * CompletableFuture<Map<String, Object>> pending = api.callAnimalDetectAPIWithFallbackAsync(imageBytes,
+ * filename, "USA", rule.threshold());
  */
 public class AnimalDetectAPI {
     private static final Logger logger = Logger.getLogger(AnimalDetectAPI.class.getName());
     private static final String ANIMALDETECT_URL = "https://www.animaldetect.com/api/v1/detect";
     private static final int DEFAULT_TIMEOUT = 60;
+    static final int DEFAULT_MAX_IN_FLIGHT = 8;
+    static final String PROVIDER = "animaldetect";
+    // Rule the elk_rule table starts from; the stored row is what ingest and recounts use.
+    public static final List<String> ELK_MARKERS = List.of("elk", "wapiti", "cervus canadensis");
+    public static final double DEFAULT_ELK_THRESHOLD = 0.2;
     // Practical raw payload budget before request encoding/multipart overhead.
     private static final int PRACTICAL_RAW_LIMIT_BYTES = 1_100_000;
+    // Budget for the one re-encode after a 413, when the gateway limit is tighter than expected.
+    private static final int RETRY_RAW_LIMIT_BYTES = 660_000;
+    private static final PayloadBudgetCompressor COMPRESSOR = new PayloadBudgetCompressor(256);
+    // Async 413 retries wait for their rate permit and re-encode here, never on the common pool.
+    private static final ExecutorService RETRIES = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "animaldetect-retry");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final HttpClient HTTP = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Object SHARED_LOCK = new Object();
+    private static volatile AnimalDetectAPI shared;
+
+    private final String apiKey;
+    private final int timeout;
+    private final URI endpoint;
+    private final int maxInFlight;
+    // Callers waiting for an in-flight permit, oldest first; guards active too.
+    private final ArrayDeque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    private int active;
 
-    private String apiKey;
-    private int timeout;
-    private HttpClient httpClient;
-    private ObjectMapper objectMapper;
+    /**
+     * One detection as stored in postgres.detections. matchText is what elk markers are matched
+     * against; score is null when the API gave none, which counts as passing any threshold.
+     */
+    public record Detection(int ordinal, String label, String matchText, Double score,
+            Map<String, Object> taxonomy, Object bbox) {
+        public boolean matches(double threshold, Collection<String> markers) {
+            if (score != null && score < threshold) {
+                return false;
+            }
+            for (String marker : markers) {
+                if (matchText.contains(marker)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The rule that turns detections into an elk count: a minimum score and the label substrings
+     * counted as elk, trimmed and lower-cased. The active rule lives in the elk_rule table
+     * (db.getElkRule); the constructor rejects a threshold outside [0, 1] or an empty marker list.
+     */
+    public record ElkRule(double threshold, List<String> markers) {
+        public static final ElkRule DEFAULT = new ElkRule(DEFAULT_ELK_THRESHOLD, ELK_MARKERS);
+
+        public ElkRule {
+            if (!validThreshold(threshold)) {
+                throw new IllegalArgumentException("threshold must be between 0 and 1, got " + threshold);
+            }
+            markers = markers.stream()
+                    .map(m -> m.trim().toLowerCase(Locale.ROOT))
+                    .filter(m -> !m.isEmpty())
+                    .distinct()
+                    .toList();
+            if (markers.isEmpty()) {
+                throw new IllegalArgumentException("markers must name at least one label");
+            }
+        }
+
+        public static boolean validThreshold(double threshold) {
+            return !Double.isNaN(threshold) && threshold >= 0 && threshold <= 1;
+        }
+
+        public int count(List<Detection> detections) {
+            return countElk(detections, threshold, markers);
+        }
+    }
 
     private static class PreparedUploadImage {
         final byte[] bytes;
@@ -53,8 +137,7 @@ public class AnimalDetectAPI {
      * Outputs:     AnimalDetectAPI instance with DEFAULT_TIMEOUT (60s)
      * Functionality: Convenience constructor that delegates to the two-arg constructor with a default timeout.
      * Dependencies: None
-     * Called by:   FileProcessor.uploadAndProcessFiles, FileProcessor.processAllUnprocessedWithAnimalDetect,
-     *              EmailProcessor.pollAndProcess, MessagingController.sendGridEmailWebhook
+     * Called by:   Legacy/manual tooling (application code uses shared())
      */
     public AnimalDetectAPI(String apiKey) {
         this(apiKey, DEFAULT_TIMEOUT);
@@ -62,16 +145,54 @@ public class AnimalDetectAPI {
 
     /**
      * Inputs:      apiKey (String) — AnimalDetect API key; timeout (int) — HTTP timeout in seconds
-     * Outputs:     Fully initialized AnimalDetectAPI instance
-     * Functionality: Initializes the HTTP client and JSON object mapper used for all API calls.
-     * Dependencies: java.net.http.HttpClient, com.fasterxml.jackson.databind.ObjectMapper
+     * Outputs:     AnimalDetectAPI instance against the production endpoint with DEFAULT_MAX_IN_FLIGHT
+     * Functionality: Delegates to the full constructor; the HTTP client and mapper are shared.
+     * Dependencies: None
      * Called by:   AnimalDetectAPI(String) single-arg constructor; callers that need a custom timeout
      */
     public AnimalDetectAPI(String apiKey, int timeout) {
+        this(apiKey, timeout, URI.create(ANIMALDETECT_URL), DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Inputs:      apiKey (String) — AnimalDetect API key; timeout (int) — HTTP timeout in seconds;
+     *              endpoint (URI) — detect URL (a local stub in tests);
+     *              maxInFlight (int) — requests this instance lets run at once
+     * Outputs:     Fully initialized AnimalDetectAPI instance
+     * Functionality: Stores the settings; at least one request is always allowed in flight.
+     * Dependencies: None
+     * Called by:   AnimalDetectAPI(String, int), shared(), AnimalDetectAPITest
+     */
+    AnimalDetectAPI(String apiKey, int timeout, URI endpoint, int maxInFlight) {
         this.apiKey = apiKey;
         this.timeout = timeout;
-        this.httpClient = HttpClient.newHttpClient();
-        this.objectMapper = new ObjectMapper();
+        this.endpoint = endpoint;
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * Inputs:      None
+     * Outputs:     AnimalDetectAPI — the process-wide client (60 s timeout,
+     *              ANIMALDETECT_MAX_IN_FLIGHT concurrent requests, default 8)
+     * Functionality: Created on first use. A missing API key throws and is not cached, so a key
+     *               added later is picked up by the next call.
+     * Dependencies: resolveApiKey, db.intSetting
+     * Called by:   FileProcessor.uploadAndProcessFiles, FileProcessor.processAllUnprocessedWithAnimalDetect,
+     *              EmailProcessor.pollAndProcess, MessagingController.sendGridEmailWebhook
+     */
+    public static AnimalDetectAPI shared() throws Exception {
+        AnimalDetectAPI client = shared;
+        if (client == null) {
+            synchronized (SHARED_LOCK) {
+                client = shared;
+                if (client == null) {
+                    client = new AnimalDetectAPI(resolveApiKey(null), DEFAULT_TIMEOUT, URI.create(ANIMALDETECT_URL),
+                            db.intSetting("ANIMALDETECT_MAX_IN_FLIGHT", DEFAULT_MAX_IN_FLIGHT));
+                    shared = client;
+                }
+            }
+        }
+        return client;
     }
 
     /**
@@ -79,67 +200,164 @@ public class AnimalDetectAPI {
      *              country (String) — country code for detection context (e.g. "USA");
      *              threshold (double) — minimum confidence score to include a detection
      * Outputs:     Map<String, Object> — parsed JSON response from the AnimalDetect API
-     * Functionality: Sends the image to the AnimalDetect REST API as a multipart/form-data POST and returns the parsed response.
-     * Dependencies: java.net.http.HttpClient, java.net.http.HttpRequest/HttpResponse,
-     *               com.fasterxml.jackson.databind.ObjectMapper
-     * Called by:   callAnimalDetectAPIWithFallback (retry loop)
+     * Functionality: Blocking form of callAnimalDetectAPIAsync; failures are rethrown as they were raised.
+     * Dependencies: callAnimalDetectAPIAsync, await
+     * Called by:   callAnimalDetectAPIWithFallback, retrySmaller
      */
     public Map<String, Object> callAnimalDetectAPI(
             byte[] imageBytes,
             String filename,
             String country,
             double threshold) throws Exception {
+        return await(callAnimalDetectAPIAsync(imageBytes, filename, country, threshold));
+    }
 
-        String safeFilename = (filename == null || filename.isBlank()) ? "upload.jpeg" : filename;
-        String imageContentType = detectImageContentType(safeFilename);
+    /**
+     * Inputs:      imageBytes (byte[]) — raw image data; filename (String) — original file name;
+     *              country (String) — country code for detection context (e.g. "USA");
+     *              threshold (double) — minimum confidence score to include a detection
+     * Outputs:     CompletableFuture<Map<String, Object>> — parsed JSON response; fails with
+     *              RuntimeException("AnimalDetect API <status>: ...") on HTTP errors
+     * Functionality: Sends the multipart/form-data POST with sendAsync on the shared client. The
+     *               body streams the caller's array between small pre-encoded part headers, so the
+     *               image is never copied, and the response is parsed straight from the socket.
+     *               Never blocks the caller: when the in-flight limit is reached the request is
+     *               queued and sent, in arrival order, as soon as an earlier one has been read.
+     * Dependencies: java.net.http.HttpClient, acquirePermit, releasePermit, multipartBody,
+     *               parseResponse
+     * Called by:   callAnimalDetectAPI, callAnimalDetectAPIWithFallbackAsync
+     */
+    public CompletableFuture<Map<String, Object>> callAnimalDetectAPIAsync(
+            byte[] imageBytes,
+            String filename,
+            String country,
+            double threshold) {
 
+        String safeFilename = (filename == null || filename.isBlank()) ? "upload.jpeg" : filename;
         String boundary = "----AnimalDetectBoundary" + System.currentTimeMillis();
-        ByteArrayOutputStream body = new ByteArrayOutputStream();
-
-        // Add image file part
-        body.write(("--" + boundary + "\r\n").getBytes());
-        body.write("Content-Disposition: form-data; name=\"image\"; filename=\"".getBytes());
-        body.write(safeFilename.getBytes(StandardCharsets.UTF_8));
-        body.write(("\"\r\nContent-Type: " + imageContentType + "\r\n\r\n")
-                .getBytes(StandardCharsets.UTF_8));
-        body.write(imageBytes);
-        body.write("\r\n".getBytes());
-
-        // Add country parameter
-        body.write(("--" + boundary + "\r\n").getBytes());
-        body.write("Content-Disposition: form-data; name=\"country\"\r\n\r\n".getBytes());
-        body.write(country.getBytes());
-        body.write("\r\n".getBytes());
-
-        // Add threshold parameter
-        body.write(("--" + boundary + "\r\n").getBytes());
-        body.write("Content-Disposition: form-data; name=\"threshold\"\r\n\r\n".getBytes());
-        body.write(String.valueOf(threshold).getBytes());
-        body.write("\r\n".getBytes());
-
-        // Final boundary
-        body.write(("--" + boundary + "--\r\n").getBytes());
 
         HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(ANIMALDETECT_URL))
+                .uri(endpoint)
                 .header("Authorization", "Bearer " + apiKey)
                 .header("Content-Type", "multipart/form-data; boundary=" + boundary)
-                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
-                .timeout(java.time.Duration.ofSeconds(timeout))
+                .POST(multipartBody(boundary, safeFilename, detectImageContentType(safeFilename),
+                        HttpRequest.BodyPublishers.ofByteArray(imageBytes), country, threshold))
+                .timeout(Duration.ofSeconds(timeout))
                 .build();
 
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        return acquirePermit().thenCompose(permit -> {
+            CompletableFuture<HttpResponse<InputStream>> sent;
+            try {
+                sent = HTTP.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+            } catch (RuntimeException e) {
+                releasePermit();
+                throw e;
+            }
+            return sent.thenApply(this::parseResponse)
+                    .whenComplete((response, error) -> releasePermit());
+        });
+    }
 
-        if (response.statusCode() >= 400) {
-            String body_text = response.body().substring(0, Math.min(1000, response.body().length()));
-            throw new RuntimeException("AnimalDetect API " + response.statusCode() + ": " + body_text);
+    /**
+     * Inputs:      None
+     * Outputs:     CompletableFuture<Void> — completes once the caller holds an in-flight permit
+     * Functionality: Takes a free permit at once, otherwise queues the caller behind the earlier
+     *               waiters. Nothing here blocks, so the servlet thread that starts an upload
+     *               batch is never parked on the limit.
+     * Dependencies: None
+     * Called by:   callAnimalDetectAPIAsync
+     */
+    private CompletableFuture<Void> acquirePermit() {
+        synchronized (waiters) {
+            if (active < maxInFlight) {
+                active++;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            return waiter;
         }
+    }
 
-        try {
-            return objectMapper.readValue(response.body(), Map.class);
-        } catch (Exception e) {
-            throw new RuntimeException("AnimalDetect API returned non-JSON response: " +
-                    response.body().substring(0, Math.min(500, response.body().length())), e);
+    /**
+     * Inputs:      None
+     * Outputs:     None
+     * Functionality: Hands the permit straight to the oldest waiter, whose request is then sent on
+     *               this thread (sendAsync returns immediately), or frees it if nobody waits.
+     * Dependencies: None
+     * Called by:   callAnimalDetectAPIAsync
+     */
+    private void releasePermit() {
+        CompletableFuture<Void> next;
+        synchronized (waiters) {
+            next = waiters.poll();
+            if (next == null) {
+                active--;
+                return;
+            }
+        }
+        next.complete(null);
+    }
+
+    /**
+     * Inputs:      boundary (String); filename (String) — image part file name;
+     *              contentType (String) — image MIME type; image (BodyPublisher) — image bytes
+     *              (ofByteArray wraps the array, ofFile streams a file);
+     *              country (String); threshold (double)
+     * Outputs:     HttpRequest.BodyPublisher — multipart/form-data body with a known length
+     * Functionality: Encodes everything before the image and everything after it into two small
+     *               buffers and concatenates them with the image publisher. Part order and layout
+     *               are image, country, threshold, closing boundary.
+     * Dependencies: java.net.http.HttpRequest.BodyPublishers
+     * Called by:   callAnimalDetectAPIAsync, AnimalDetectAPITest
+     */
+    static HttpRequest.BodyPublisher multipartBody(
+            String boundary,
+            String filename,
+            String contentType,
+            HttpRequest.BodyPublisher image,
+            String country,
+            double threshold) {
+
+        String head = "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"image\"; filename=\"" + filename + "\"\r\n"
+                + "Content-Type: " + contentType + "\r\n\r\n";
+        String tail = "\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"country\"\r\n\r\n"
+                + country + "\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"threshold\"\r\n\r\n"
+                + threshold + "\r\n"
+                + "--" + boundary + "--\r\n";
+        return HttpRequest.BodyPublishers.concat(
+                HttpRequest.BodyPublishers.ofByteArray(head.getBytes(StandardCharsets.UTF_8)),
+                image,
+                HttpRequest.BodyPublishers.ofByteArray(tail.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Inputs:      response (HttpResponse<InputStream>) — AnimalDetect response, body unread
+     * Outputs:     Map<String, Object> — JSON body parsed from the stream
+     * Functionality: Raises RuntimeException with the status and the first 1000 bytes of the body
+     *               for HTTP errors (isPayloadTooLargeError looks for the 413) and with the
+     *               parser's message for non-JSON bodies. Always closes the stream.
+     * Dependencies: com.fasterxml.jackson.databind.ObjectMapper
+     * Called by:   callAnimalDetectAPIAsync
+     */
+    private Map<String, Object> parseResponse(HttpResponse<InputStream> response) {
+        try (InputStream body = response.body()) {
+            if (response.statusCode() >= 400) {
+                String body_text = new String(body.readNBytes(1000), StandardCharsets.UTF_8);
+                throw new RuntimeException("AnimalDetect API " + response.statusCode() + ": " + body_text);
+            }
+            try {
+                return MAPPER.readValue(body, Map.class);
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException("AnimalDetect API returned non-JSON response: " + e.getOriginalMessage(), e);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("AnimalDetect API response could not be read", e);
         }
     }
 
@@ -147,11 +365,10 @@ public class AnimalDetectAPI {
      * Inputs:      imageBytes (byte[]) — raw image data; filename (String) — original file name;
      *              country (String) — country code; threshold (double) — confidence threshold
      * Outputs:     Map<String, Object> — parsed API response after successful call
-     * Functionality: Enforces a payload size limit before calling the API, then retries with
-     *               progressively smaller/lower-quality JPEG compressions on HTTP 413 errors.
-     * Dependencies: compressImageForUpload, prepareImageForPayloadLimit, callAnimalDetectAPI
-     * Called by:   FileProcessor.uploadAndProcessFiles, FileProcessor.processAllUnprocessedWithAnimalDetect,
-     *              EmailProcessor.pollAndProcess, MessagingController.sendGridEmailWebhook
+     * Functionality: Fits the payload to PRACTICAL_RAW_LIMIT_BYTES before calling the API; on an
+     *               HTTP 413 re-encodes once from the original to something strictly smaller.
+     * Dependencies: prepareImageForPayloadLimit, callAnimalDetectAPI, retrySmaller
+     * Called by:   EmailProcessor.pollAndProcess, MessagingController.sendGridEmailWebhook
      */
     public Map<String, Object> callAnimalDetectAPIWithFallback(
             byte[] imageBytes,
@@ -159,7 +376,7 @@ public class AnimalDetectAPI {
             String country,
             double threshold) throws Exception {
 
-        PreparedUploadImage prepared = prepareImageForPayloadLimit(imageBytes, filename);
+        PreparedUploadImage prepared = prepareImageForPayloadLimit(imageBytes, filename, PRACTICAL_RAW_LIMIT_BYTES);
 
         // Initial call uses strictly limited bytes (<= practical raw budget).
         try {
@@ -169,220 +386,187 @@ public class AnimalDetectAPI {
                 throw e;
             }
         }
+        return retrySmaller(imageBytes, filename, country, threshold, prepared.bytes.length);
+    }
 
-        Exception lastError = null;
-        byte[] currentBytes = prepared.bytes;
-        String currentName = prepared.filename;
-        int[][] fallbackSteps = {
-                { 1800, 85 },
-                { 1400, 78 },
-                { 1100, 70 },
-                { 900, 62 },
-                { 720, 55 }
-        };
+    /**
+     * Inputs:      imageBytes (byte[]) — raw image data; filename (String) — original file name;
+     *              country (String) — country code; threshold (double) — confidence threshold
+     * Outputs:     CompletableFuture<Map<String, Object>> — parsed API response
+     * Functionality: Same contract as callAnimalDetectAPIWithFallback, but the first request is sent
+     *               without blocking on the response, so a caller can keep many detections in
+     *               flight (up to the instance limit). Payload preparation runs on the calling
+     *               thread; the rare 413 retry is re-encoded on a small dedicated pool.
+     * Dependencies: callAnimalDetectAPIWithFallbackAsync(byte[], String, String, double, RateLimiter)
+     * Called by:   FileProcessor.uploadAndProcessFiles
+     */
+    public CompletableFuture<Map<String, Object>> callAnimalDetectAPIWithFallbackAsync(
+            byte[] imageBytes,
+            String filename,
+            String country,
+            double threshold) {
+        return callAnimalDetectAPIWithFallbackAsync(imageBytes, filename, country, threshold, null);
+    }
 
-        for (int[] step : fallbackSteps) {
-            try {
-                currentBytes = compressImageForUpload(currentBytes, currentName, step[0], step[1]);
-                if (currentBytes.length > PRACTICAL_RAW_LIMIT_BYTES) {
-                    continue;
-                }
-                currentName = toCompressedFilename(filename);
-                logger.info("Retrying with compressed image (" + (currentBytes.length / 1024) +
-                        " KB, max_side=" + step[0] + ", quality=" + step[1] + ")");
-
-                return callAnimalDetectAPI(currentBytes, currentName, country, threshold);
-            } catch (Exception e) {
-                lastError = e;
-                if (!isPayloadTooLargeError(e)) {
-                    throw e;
-                }
+    /**
+     * Inputs:      imageBytes (byte[]) — raw image data; filename (String) — original file name;
+     *              country (String) — country code; threshold (double) — confidence threshold;
+     *              rateLimiter (RateLimiter) — request quota shared by the caller, or null
+     * Outputs:     CompletableFuture<Map<String, Object>> — parsed API response
+     * Functionality: As above, but every request, including the 413 retry, first takes a permit
+     *               from rateLimiter. The first permit is taken on the calling thread, so a
+     *               caller out of quota is held back before it sends anything. The retry waits for
+     *               its permit and re-encodes on the RETRIES pool, then is sent like the first
+     *               request, so no shared pool thread waits on the quota or the response.
+     * Dependencies: prepareImageForPayloadLimit, callAnimalDetectAPIAsync, fitForRetry,
+     *               com.google.common.util.concurrent.RateLimiter
+     * Called by:   FileProcessor.runDetectionPipeline
+     */
+    public CompletableFuture<Map<String, Object>> callAnimalDetectAPIWithFallbackAsync(
+            byte[] imageBytes,
+            String filename,
+            String country,
+            double threshold,
+            RateLimiter rateLimiter) {
+
+        String safeFilename = (filename == null || filename.isBlank()) ? "upload.jpeg" : filename;
+        CompletableFuture<Map<String, Object>> first;
+        int rejectedLength;
+        try {
+            PreparedUploadImage prepared = prepareImageForPayloadLimit(imageBytes, filename, PRACTICAL_RAW_LIMIT_BYTES);
+            rejectedLength = prepared.bytes.length;
+            if (rateLimiter != null) {
+                rateLimiter.acquire();
             }
+            first = callAnimalDetectAPIAsync(prepared.bytes, prepared.filename, country, threshold);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
         }
 
-        if (lastError != null) {
-            throw lastError;
-        }
-        throw new RuntimeException("AnimalDetect API call failed with unknown error");
+        return first.exceptionallyCompose(error -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause()
+                    : error;
+            if (!(cause instanceof Exception) || !isPayloadTooLargeError((Exception) cause)) {
+                return CompletableFuture.failedFuture(cause);
+            }
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    if (rateLimiter != null) {
+                        rateLimiter.acquire();
+                    }
+                    return fitForRetry(imageBytes, rejectedLength);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, RETRIES).thenCompose(fitted -> callAnimalDetectAPIAsync(fitted.bytes(),
+                    toCompressedFilename(safeFilename), country, threshold));
+        });
     }
 
     /**
-     * Inputs:      imageBytes (byte[]) — raw image data; filename (String) — used for format hints;
-     *              maxSide (int) — maximum pixel length for the longest side after resizing;
-     *              quality (int) — JPEG compression quality (1–100)
-     * Outputs:     byte[] — JPEG-encoded bytes of the resized/compressed image
-     * Functionality: Decodes, optionally downscales, converts to RGB, and JPEG-encodes the image to
-     *               reduce its byte size for upload.
-     * Dependencies: javax.imageio.ImageIO, java.awt.image.BufferedImage, java.awt.Graphics2D
-     * Called by:   callAnimalDetectAPIWithFallback (retry steps), prepareImageForPayloadLimit
+     * Inputs:      imageBytes (byte[]) — original image data; filename (String) — original file name;
+     *              country (String); threshold (double);
+     *              rejectedLength (int) — size of the payload the API refused
+     * Outputs:     Map<String, Object> — parsed API response
+     * Functionality: Makes exactly one more request with the fitForRetry payload; a second 413 is
+     *               thrown.
+     * Dependencies: fitForRetry, toCompressedFilename, callAnimalDetectAPI
+     * Called by:   callAnimalDetectAPIWithFallback
      */
-    public byte[] compressImageForUpload(byte[] imageBytes, String filename, int maxSide, int quality)
-            throws Exception {
-        BufferedImage img = readScaledImageForCompression(imageBytes, maxSide);
-        if (img == null) {
-            throw new IllegalArgumentException("Unsupported or corrupt image payload");
-        }
+    private Map<String, Object> retrySmaller(
+            byte[] imageBytes,
+            String filename,
+            String country,
+            double threshold,
+            int rejectedLength) throws Exception {
 
-        int width = img.getWidth();
-        int height = img.getHeight();
-        int longestSide = Math.max(width, height);
-
-        if (longestSide > maxSide) {
-            float scale = maxSide / (float) longestSide;
-            int newWidth = Math.max(1, (int) (width * scale));
-            int newHeight = Math.max(1, (int) (height * scale));
-            BufferedImage resized = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_RGB);
-            java.awt.Graphics2D g2d = resized.createGraphics();
-            g2d.drawImage(img, 0, 0, newWidth, newHeight, null);
-            g2d.dispose();
-
-            // Null the original decoded image immediately after drawing — it can be
-            // very large (e.g. 4000x3000x4 bytes = ~46MB) and is no longer needed.
-            // This lets the GC reclaim it before we encode the resized copy.
-            img = null;
-            System.gc();
-
-            img = resized;
-        }
+        PayloadBudgetCompressor.Result fitted = fitForRetry(imageBytes, rejectedLength);
+        String safeFilename = (filename == null || filename.isBlank()) ? "upload.jpeg" : filename;
+        return callAnimalDetectAPI(fitted.bytes(), toCompressedFilename(safeFilename), country, threshold);
+    }
 
-        img = convertToRGB(img);
+    /**
+     * Inputs:      imageBytes (byte[]) — original image data;
+     *              rejectedLength (int) — size of the payload the API refused
+     * Outputs:     PayloadBudgetCompressor.Result — the retry payload
+     * Functionality: Re-encodes the original (not the rejected payload) to fit under both
+     *               RETRY_RAW_LIMIT_BYTES and the rejected size, so the retry is always strictly
+     *               smaller. An image the compressor cannot shrink fails here, before any request.
+     * Dependencies: PayloadBudgetCompressor.fit
+     * Called by:   retrySmaller, callAnimalDetectAPIWithFallbackAsync
+     */
+    private static PayloadBudgetCompressor.Result fitForRetry(byte[] imageBytes, int rejectedLength)
+            throws IOException {
+        int budget = Math.min(RETRY_RAW_LIMIT_BYTES, rejectedLength - 1);
+        PayloadBudgetCompressor.Result fitted = COMPRESSOR.fit(imageBytes, budget);
+        logger.info("Payload of " + (rejectedLength / 1024) + " KB rejected as too large, retrying once with "
+                + (fitted.bytes().length / 1024) + " KB (max_side=" + fitted.maxSide() + ", quality="
+                + fitted.quality() + ")");
+        return fitted;
+    }
 
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        javax.imageio.ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+    /**
+     * Inputs:      future (CompletableFuture<T>) — pending call
+     * Outputs:     T — the result
+     * Functionality: Waits for the future and rethrows the original failure instead of the
+     *               ExecutionException wrapper, so blocking callers see the same exceptions as before.
+     * Dependencies: None
+     * Called by:   callAnimalDetectAPI
+     */
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
         try {
-            javax.imageio.ImageWriteParam param = writer.getDefaultWriteParam();
-            param.setCompressionMode(javax.imageio.ImageWriteParam.MODE_EXPLICIT);
-            param.setCompressionQuality(quality / 100f);
-
-            try (javax.imageio.stream.ImageOutputStream imageOut = ImageIO.createImageOutputStream(out)) {
-                writer.setOutput(imageOut);
-                writer.write(null, new javax.imageio.IIOImage(img, null, null), param);
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
             }
-
-            // Null the final image after encoding — the encoded bytes are all we need now.
-            img = null;
-            System.gc();
-
-            return out.toByteArray();
-        } finally {
-            writer.dispose();
+            throw e;
         }
     }
 
     /**
-     * Inputs:      imageBytes (byte[]) — raw image data; maxSide (int) — target maximum side length
-     * Outputs:     BufferedImage — decoded image, sub-sampled if source is larger than maxSide
-     * Functionality: Uses an ImageReader with sub-sampling to decode only enough pixel data needed
-     *               for the target size, avoiding full allocation of very large images.
-     * Dependencies: javax.imageio.ImageIO, javax.imageio.ImageReader, javax.imageio.ImageReadParam,
-     *               javax.imageio.stream.ImageInputStream
-     * Called by:   compressImageForUpload
+     * Inputs:      imageBytes (byte[]) — raw image data; filename (String) — kept for callers, the
+     *              format is sniffed from the bytes; maxSide (int) — maximum pixel length for the
+     *              longest side after resizing; quality (int) — JPEG compression quality (1–100)
+     * Outputs:     byte[] — JPEG-encoded bytes of the resized/compressed image
+     * Functionality: Fixed-settings encode with no budget search: subsampled decode, one
+     *               resize/RGB conversion, one JPEG write.
+     * Dependencies: PayloadBudgetCompressor.compress
+     * Called by:   Manual tooling (uploads go through prepareImageForPayloadLimit)
      */
-    private BufferedImage readScaledImageForCompression(byte[] imageBytes, int maxSide) throws IOException {
-        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(imageBytes))) {
-            if (input == null) {
-                return null;
-            }
-
-            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
-            if (!readers.hasNext()) {
-                return ImageIO.read(new ByteArrayInputStream(imageBytes));
-            }
-
-            ImageReader reader = readers.next();
-            try {
-                reader.setInput(input, true, true);
-                int srcWidth = reader.getWidth(0);
-                int srcHeight = reader.getHeight(0);
-                int longest = Math.max(srcWidth, srcHeight);
-
-                ImageReadParam param = reader.getDefaultReadParam();
-                if (longest > maxSide) {
-                    int subsample = Math.max(1, (int) Math.ceil(longest / (double) maxSide));
-                    param.setSourceSubsampling(subsample, subsample, 0, 0);
-                }
-
-                return reader.read(0, param);
-            } finally {
-                reader.dispose();
-            }
-        }
+    public byte[] compressImageForUpload(byte[] imageBytes, String filename, int maxSide, int quality)
+            throws Exception {
+        return PayloadBudgetCompressor.compress(imageBytes, maxSide, quality);
     }
 
     /**
-     * Inputs:      imageBytes (byte[]) — raw image data; filename (String) — original file name
+     * Inputs:      imageBytes (byte[]) — raw image data; filename (String) — original file name;
+     *              budgetBytes (int) — largest payload to send
      * Outputs:     PreparedUploadImage — wrapper containing (possibly compressed) bytes and a safe filename
-     * Functionality: Returns the image as-is if under the payload limit; otherwise estimates a target
-     *               scale and compresses the image to fit within PRACTICAL_RAW_LIMIT_BYTES.
-     * Dependencies: compressImageForUpload, readImageDimensions, toCompressedFilename
-     * Called by:   callAnimalDetectAPIWithFallback
+     * Functionality: Returns the image as-is if it fits the budget; otherwise lets the shared
+     *               PayloadBudgetCompressor find the largest side/quality that fits, in memory,
+     *               so the request that follows is normally the only one.
+     * Dependencies: PayloadBudgetCompressor.fit, toCompressedFilename
+     * Called by:   callAnimalDetectAPIWithFallback, callAnimalDetectAPIWithFallbackAsync
      */
-    private PreparedUploadImage prepareImageForPayloadLimit(byte[] imageBytes, String filename) throws Exception {
+    private PreparedUploadImage prepareImageForPayloadLimit(byte[] imageBytes, String filename, int budgetBytes)
+            throws Exception {
         if (imageBytes == null || imageBytes.length == 0) {
             throw new IllegalArgumentException("Image payload is empty");
         }
 
         String safeFilename = (filename == null || filename.isBlank()) ? "upload.jpeg" : filename;
-        if (imageBytes.length <= PRACTICAL_RAW_LIMIT_BYTES) {
+        if (imageBytes.length <= budgetBytes) {
             return new PreparedUploadImage(imageBytes, safeFilename);
         }
 
-        // Estimate the scale factor needed to hit the target size.
-        // We use sqrt because area (pixels) scales as the square of linear dimensions.
-        // Apply a 0.85 safety margin since JPEG compression isn't perfectly linear.
-        double ratio = (double) PRACTICAL_RAW_LIMIT_BYTES / imageBytes.length;
-        double scale = Math.sqrt(ratio) * 0.85;
-
-        // Read just the image dimensions without fully decoding the pixel buffer.
-        int[] dims = readImageDimensions(imageBytes);
-        int longestSide = Math.max(dims[0], dims[1]);
-        int targetMaxSide = Math.max(256, (int) (longestSide * scale));
-        int targetQuality = 82; // balanced default
-
-        logger.info("Dynamic compression: " + longestSide + "px → " + targetMaxSide +
-                "px side (ratio=" + String.format("%.2f", ratio) + ", scale=" + String.format("%.2f", scale) + ")");
-
-        byte[] compressed = compressImageForUpload(imageBytes, safeFilename, targetMaxSide, targetQuality);
-
-        // One safety retry if the estimate was slightly off (e.g. very noisy image).
-        if (compressed.length > PRACTICAL_RAW_LIMIT_BYTES) {
-            logger.warning("Dynamic estimate overshot, applying single safety retry at 90% of target side");
-            int fallbackSide = Math.max(256, (int) (targetMaxSide * 0.90));
-            compressed = compressImageForUpload(imageBytes, safeFilename, fallbackSide, 72);
-        }
-
-        if (compressed.length > PRACTICAL_RAW_LIMIT_BYTES) {
-            throw new IllegalArgumentException(
-                    "Image is too large: unable to shrink under practical raw limit (~1.1MB)");
-        }
-
-        System.gc();
+        PayloadBudgetCompressor.Result fitted = COMPRESSOR.fit(imageBytes, budgetBytes);
         logger.info("Compressed oversized image from " + (imageBytes.length / 1024) + " KB to "
-                + (compressed.length / 1024) + " KB");
-        return new PreparedUploadImage(compressed, toCompressedFilename(safeFilename));
-    }
-
-    /**
-     * Inputs:      imageBytes (byte[]) — raw image data
-     * Outputs:     int[] — two-element array [width, height]; defaults to [1920, 1080] if unreadable
-     * Functionality: Reads only the image header to extract dimensions without decoding the full pixel buffer.
-     * Dependencies: javax.imageio.ImageIO, javax.imageio.ImageReader, javax.imageio.stream.ImageInputStream
-     * Called by:   prepareImageForPayloadLimit
-     */
-    private int[] readImageDimensions(byte[] imageBytes) throws IOException {
-        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(imageBytes))) {
-            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
-            if (!readers.hasNext()) {
-                return new int[] { 1920, 1080 }; // safe fallback
-            }
-            ImageReader reader = readers.next();
-            try {
-                reader.setInput(input, true, true);
-                return new int[] { reader.getWidth(0), reader.getHeight(0) };
-            } finally {
-                reader.dispose();
-            }
-        }
+                + (fitted.bytes().length / 1024) + " KB (max_side=" + fitted.maxSide() + ", quality="
+                + fitted.quality() + ", encodes=" + fitted.encodes() + ")");
+        return new PreparedUploadImage(fitted.bytes(), toCompressedFilename(safeFilename));
     }
 
     /**
@@ -390,7 +574,7 @@ public class AnimalDetectAPI {
      * Outputs:     String — new filename with "_compressed.jpeg" suffix
      * Functionality: Strips the original extension and appends "_compressed.jpeg" to produce a storage-safe name.
      * Dependencies: None
-     * Called by:   prepareImageForPayloadLimit, callAnimalDetectAPIWithFallback
+     * Called by:   prepareImageForPayloadLimit, retrySmaller
      */
     private String toCompressedFilename(String filename) {
         String baseName = (filename == null || filename.isBlank()) ? "upload"
@@ -398,34 +582,6 @@ public class AnimalDetectAPI {
         return baseName + "_compressed.jpeg";
     }
 
-    /**
-     * Inputs:      img (BufferedImage) — source image, any color model
-     * Outputs:     BufferedImage — image guaranteed to be TYPE_INT_RGB
-     * Functionality: Redraws the image onto a fresh RGB canvas to strip alpha channels or unusual color spaces
-     *               before JPEG encoding.
-     * Dependencies: java.awt.image.BufferedImage, java.awt.Graphics2D
-     * Called by:   compressImageForUpload
-     */
-    private BufferedImage convertToRGB(BufferedImage img) {
-        if (img == null) {
-            throw new IllegalArgumentException("Image decode returned null");
-        }
-        if (img.getType() == BufferedImage.TYPE_INT_RGB) {
-            return img;
-        }
-        BufferedImage rgbImage = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
-        java.awt.Graphics2D g2d = rgbImage.createGraphics();
-        g2d.drawImage(img, 0, 0, null);
-        g2d.dispose();
-
-        // Null the original so GC can reclaim it — convertToRGB is called just before
-        // JPEG encoding, so both the original and RGB copy would otherwise coexist.
-        img = null;
-        System.gc();
-
-        return rgbImage;
-    }
-
     /**
      * Inputs:      exc (Exception) — exception thrown by an API call
      * Outputs:     boolean — true if the error indicates the payload was too large (HTTP 413)
@@ -471,9 +627,9 @@ public class AnimalDetectAPI {
      * Functionality: Searches common API response field names (annotations, detections, results, predictions, data)
      *               to extract the list of animal detections regardless of the exact response schema.
      * Dependencies: None
-     * Called by:   countElkFromResponse, formatDetectionsForConsole
+     * Called by:   parseDetections, formatDetectionsForConsole
      */
-    private List<Map<String, Object>> extractDetections(Map<String, Object> payload) {
+    private static List<Map<String, Object>> extractDetections(Map<String, Object> payload) {
         Object[] candidates = {
                 payload.get("annotations"),
                 payload.get("detections"),
@@ -530,9 +686,9 @@ public class AnimalDetectAPI {
      * Functionality: Walks the taxonomy hierarchy (species → genus → family → order → class) then
      *               falls back to top-level label fields to return the best available animal name.
      * Dependencies: None
-     * Called by:   countElkFromResponse, formatDetectionsForConsole
+     * Called by:   parseDetections, formatDetectionsForConsole
      */
-    private String getDetectionLabel(Map<String, Object> det) {
+    private static String getDetectionLabel(Map<String, Object> det) {
         Map<String, Object> taxonomy = (Map<String, Object>) det.get("taxonomy");
         if (taxonomy != null) {
             for (String key : new String[] { "species", "genus", "family", "order", "class" }) {
@@ -558,9 +714,9 @@ public class AnimalDetectAPI {
      * Functionality: Checks common confidence field names (confidence, score, probability) and returns
      *               the first numeric value found.
      * Dependencies: None
-     * Called by:   countElkFromResponse, formatDetectionsForConsole
+     * Called by:   parseDetections, formatDetectionsForConsole
      */
-    private Double getDetectionScore(Map<String, Object> det) {
+    private static Double getDetectionScore(Map<String, Object> det) {
         for (String key : new String[] { "confidence", "score", "probability" }) {
             Object value = det.get(key);
             if (value instanceof Number) {
@@ -571,20 +727,22 @@ public class AnimalDetectAPI {
     }
 
     /**
-     * Inputs:      payload (Map<String, Object>) — parsed API response; threshold (double) — minimum confidence score
-     * Outputs:     int — number of elk detections at or above the confidence threshold
-     * Functionality: Filters detections to those labelled as elk/wapiti/cervus canadensis with a confidence
-     *               score meeting the threshold, and returns the total count.
+     * Inputs:      payload (Map<String, Object>) — parsed API response
+     * Outputs:     List<Detection> — every detection in response order, in the shape stored in
+     *              postgres.detections
+     * Functionality: Resolves the label, score, taxonomy and box of each detection, and builds the
+     *               match text (best label, raw label and each taxonomy rank, lowercased and joined
+     *               with " | ") that elk markers are matched against.
      * Dependencies: extractDetections, getDetectionLabel, getDetectionScore
-     * Called by:   FileProcessor.uploadAndProcessFiles, FileProcessor.processAllUnprocessedWithAnimalDetect,
+     * Called by:   countElkFromResponse, FileProcessor.uploadAndProcessFiles, FileProcessor.storeDetection,
      *              EmailProcessor.pollAndProcess, MessagingController.sendGridEmailWebhook
      */
-    public int countElkFromResponse(Map<String, Object> payload, double threshold) {
+    public static List<Detection> parseDetections(Map<String, Object> payload) {
         List<Map<String, Object>> detections = extractDetections(payload);
-        int elkCount = 0;
-        String[] elkMarkers = { "elk", "wapiti", "cervus canadensis" };
+        List<Detection> parsed = new ArrayList<>(detections.size());
 
-        for (Map<String, Object> det : detections) {
+        for (int i = 0; i < detections.size(); i++) {
+            Map<String, Object> det = detections.get(i);
             String label = getDetectionLabel(det);
 
             // Build label text with multiple sources
@@ -594,7 +752,9 @@ public class AnimalDetectAPI {
                 labelText.append(" | ").append(((String) rawLabel).trim().toLowerCase());
             }
 
-            Map<String, Object> taxonomy = (Map<String, Object>) det.get("taxonomy");
+            Map<String, Object> taxonomy = det.get("taxonomy") instanceof Map
+                    ? (Map<String, Object>) det.get("taxonomy")
+                    : null;
             if (taxonomy != null) {
                 for (String taxKey : new String[] { "species", "genus", "family", "order", "class" }) {
                     Object taxVal = taxonomy.get(taxKey);
@@ -604,30 +764,68 @@ public class AnimalDetectAPI {
                 }
             }
 
-            // Check if any elk marker is in the label
-            String labelStr = labelText.toString();
-            boolean isElk = false;
-            for (String marker : elkMarkers) {
-                if (labelStr.contains(marker)) {
-                    isElk = true;
+            Object bbox = null;
+            for (String key : new String[] { "bbox", "box", "bounding_box", "boundingBox" }) {
+                if (det.get(key) != null) {
+                    bbox = det.get(key);
                     break;
                 }
             }
 
-            if (!isElk) {
-                continue;
+            parsed.add(new Detection(i, label, labelText.toString(), getDetectionScore(det), taxonomy, bbox));
+        }
+        return parsed;
+    }
+
+    /**
+     * Inputs:      payload (Map<String, Object>) — parsed API response
+     * Outputs:     String — model/version reported by the API, or null if the response has none
+     * Functionality: Returns the first non-blank string among the common version field names.
+     * Dependencies: None
+     * Called by:   FileProcessor.uploadAndProcessFiles, FileProcessor.storeDetection,
+     *              EmailProcessor.pollAndProcess, MessagingController.sendGridEmailWebhook
+     */
+    public static String modelVersion(Map<String, Object> payload) {
+        for (String key : new String[] { "model_version", "modelVersion", "model", "version" }) {
+            Object value = payload.get(key);
+            if (value instanceof String && !((String) value).isBlank()) {
+                return ((String) value).trim();
             }
+        }
+        return null;
+    }
 
-            // Check score threshold
-            Double score = getDetectionScore(det);
-            if (score == null || score >= threshold) {
+    /**
+     * Inputs:      detections (List<Detection>) — parsed detections; threshold (double) — minimum
+     *              confidence score; markers (Collection<String>) — lowercase label substrings
+     * Outputs:     int — number of detections that match a marker at or above the threshold
+     * Functionality: JVM form of the rule db.recountElk applies in SQL; the two must stay in step.
+     * Dependencies: Detection.matches
+     * Called by:   ElkRule.count
+     */
+    public static int countElk(List<Detection> detections, double threshold, Collection<String> markers) {
+        int elkCount = 0;
+        for (Detection det : detections) {
+            if (det.matches(threshold, markers)) {
                 elkCount++;
             }
         }
-
         return elkCount;
     }
 
+    /**
+     * Inputs:      payload (Map<String, Object>) — parsed API response; rule (ElkRule) — threshold
+     *              and markers, normally db.getElkRule
+     * Outputs:     int — number of elk detections under the rule
+     * Functionality: Parses the detections and counts them with the rule; for display only, since
+     *               the stored elk_count is counted by db.storeDetections against the stored rule.
+     * Dependencies: parseDetections, ElkRule.count
+     * Called by:   Manual tooling and tests
+     */
+    public int countElkFromResponse(Map<String, Object> payload, ElkRule rule) {
+        return rule.count(parseDetections(payload));
+    }
+
     /**
      * Inputs:      payload (Map<String, Object>) — parsed API response
      * Outputs:     List<String> — human-readable lines, one per detection, e.g. "prediction 0: elk (confidence=87.3%)"
@@ -666,8 +864,7 @@ public class AnimalDetectAPI {
      * Functionality: Returns the first non-blank key found across three sources in priority order:
      *               CLI argument → ANIMALDETECT_API_KEY env var → SecretConfig JSON file.
      * Dependencies: SecretConfig
-     * Called by:   FileProcessor.uploadAndProcessFiles, FileProcessor.processAllUnprocessedWithAnimalDetect,
-     *              EmailProcessor.pollAndProcess, MessagingController.sendGridEmailWebhook
+     * Called by:   shared()
      */
     public static String resolveApiKey(String cliKey) throws Exception {
         if (cliKey != null && !cliKey.trim().isEmpty()) {
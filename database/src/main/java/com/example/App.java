@@ -2,12 +2,16 @@ package com.example;
 
 import java.util.Locale;
 import java.util.logging.Logger;
+
+import jakarta.annotation.PreDestroy;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class App {
 	private static final Logger logger = Logger.getLogger(App.class.getName());
 
@@ -91,4 +95,84 @@ public class App {
 			}
 		};
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Inputs: None
+	 * Outputs: CommandLineRunner — a Spring bean that runs after the context is
+	 * fully loaded
+	 * Functionality: Opens the Cloud SQL connection pool and pre-creates its idle
+	 * connections so the first request does not pay the socket-factory handshake.
+	 * Enabled by default; set WARM_DB_POOL_ON_STARTUP to "false", "0", or "no" to
+	 * skip. Failures are logged and startup continues.
+	 * Dependencies: org.springframework.boot.CommandLineRunner, db.warmUpPool
+	 * Called by: Spring Boot framework after application context startup
+	 */
+	@Bean
+	CommandLineRunner warmDatabasePoolOnStartup() {
+		return args -> {
+			String flag = System.getenv("WARM_DB_POOL_ON_STARTUP");
+			boolean shouldSkip = flag != null && ("false".equals(flag.toLowerCase(Locale.ROOT))
+					|| "0".equals(flag)
+					|| "no".equals(flag.toLowerCase(Locale.ROOT)));
+
+			if (shouldSkip) {
+				logger.info("Skipping database pool warm-up (WARM_DB_POOL_ON_STARTUP is disabled).");
+				return;
+			}
+
+			try {
+				db.warmUpPool();
+			} catch (Exception e) {
+				logger.warning("Database pool warm-up failed; connections will open lazily: " + e.getMessage());
+				logger.log(java.util.logging.Level.FINE, "Database pool warm-up stack trace", e);
+			}
+		};
+	}
+
+	/**
+	 * Inputs: None
+	 * Outputs: CommandLineRunner — a Spring bean that runs after the context is
+	 * fully loaded
+	 * Functionality: Loads the in-memory LocationIndex so map and radius queries
+	 * are answered without a database round trip. Enabled by default; set
+	 * LOCATION_INDEX_ENABLED to "false", "0", or "no" to keep those queries on
+	 * Postgres. Failures are logged and the endpoints fall back to SQL.
+	 * Dependencies: org.springframework.boot.CommandLineRunner,
+	 * LocationIndex.load, db.connect
+	 * Called by: Spring Boot framework after application context startup
+	 */
+	@Bean
+	CommandLineRunner loadLocationIndexOnStartup() {
+		return args -> {
+			String flag = System.getenv("LOCATION_INDEX_ENABLED");
+			boolean shouldSkip = flag != null && ("false".equals(flag.toLowerCase(Locale.ROOT))
+					|| "0".equals(flag)
+					|| "no".equals(flag.toLowerCase(Locale.ROOT)));
+
+			if (shouldSkip) {
+				logger.info("Skipping location index load (LOCATION_INDEX_ENABLED is disabled).");
+				return;
+			}
+
+			try (java.sql.Connection conn = db.connect()) {
+				LocationIndex.shared().load(conn);
+			} catch (Exception e) {
+				logger.warning("Location index load failed; spatial endpoints will query Postgres: " + e.getMessage());
+				logger.log(java.util.logging.Level.FINE, "Location index load stack trace", e);
+			}
+		};
+	}
+
+	/**
+	 * Inputs: None
+	 * Outputs: void
+	 * Functionality: Closes the shared database connection pool when the Spring
+	 * context shuts down so Cloud SQL connections are released cleanly.
+	 * Dependencies: db.closePool
+	 * Called by: Spring Boot framework on context shutdown
+	 */
+	@PreDestroy
+	void closeDatabasePool() {
+		db.closePool();
+	}
+}
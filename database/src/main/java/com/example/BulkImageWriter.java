@@ -0,0 +1,478 @@
+package com.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+
+/**
+ * Bulk writer for postgres.images.
+ *
+ * Buffers Metadata rows and flushes them in one transaction per batch: small
+ * flushes go through a JDBC batch of INSERT ... ON CONFLICT statements, large
+ * flushes are streamed with COPY FROM STDIN into a temp staging table and then
+ * merged with a single INSERT ... SELECT. Each row carries its detection result
+ * (elk_count, processed_status), so no follow-up UPDATE is needed.
+ * Usage:
+ * try (BulkImageWriter writer = new BulkImageWriter(conn)) {
+ * for (Metadata meta : rows) writer.add(meta);
+ * }
+ */
+public class BulkImageWriter implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(BulkImageWriter.class.getName());
+
+    static final int DEFAULT_BATCH_SIZE = 1000;
+    static final int DEFAULT_COPY_THRESHOLD = 500;
+
+    private static final String COLUMNS = "img_hash, filename, gps_flag, latitude, longitude, altitude, datetime_taken, "
+            + "cloud_uri, width, height, filesize_bytes, temperature_c, humidity, weather_desc, elk_count, processed_status";
+
+    private static final String STAGE_TABLE = "images_bulk_stage";
+    // Bytes handed to the server per CopyData message; the batch itself is never materialized as text.
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+
+    /** What to do when a row's img_hash already exists. */
+    public enum ConflictMode {
+        /** Keep the existing row untouched. */
+        SKIP,
+        /** Refresh metadata columns; detection results are only overwritten by non-null/processed values. */
+        UPDATE
+    }
+
+    private final Connection conn;
+    private final int batchSize;
+    private final int copyThreshold;
+    private final ConflictMode conflictMode;
+    private final List<Metadata> buffer = new ArrayList<>();
+
+    private long submitted;
+    private long written;
+
+    /**
+     * Inputs:      conn (Connection) — open database connection (left open by close())
+     * Outputs:     BulkImageWriter using BULK_BATCH_SIZE, BULK_COPY_THRESHOLD and ConflictMode.SKIP
+     * Functionality: Convenience constructor reading batch settings from SecretConfig.
+     * Dependencies: db.intSetting
+     * Called by:   main, callers that only need default settings
+     */
+    public BulkImageWriter(Connection conn) {
+        this(conn,
+                db.intSetting("BULK_BATCH_SIZE", DEFAULT_BATCH_SIZE),
+                db.intSetting("BULK_COPY_THRESHOLD", DEFAULT_COPY_THRESHOLD),
+                ConflictMode.SKIP);
+    }
+
+    /**
+     * Inputs:      conn (Connection) — open database connection (left open by close());
+     *              batchSize (int) — rows buffered before an automatic flush;
+     *              copyThreshold (int) — flushes with at least this many rows use COPY, smaller ones a JDBC batch;
+     *              conflictMode (ConflictMode) — behaviour when img_hash already exists
+     * Outputs:     BulkImageWriter
+     * Functionality: Stores settings; no database work happens until the first flush.
+     * Dependencies: None
+     * Called by:   BulkImageWriter(Connection), main
+     */
+    public BulkImageWriter(Connection conn, int batchSize, int copyThreshold, ConflictMode conflictMode) {
+        this.conn = conn;
+        this.batchSize = Math.max(1, batchSize);
+        this.copyThreshold = Math.max(1, copyThreshold);
+        this.conflictMode = conflictMode == null ? ConflictMode.SKIP : conflictMode;
+    }
+
+    /**
+     * Inputs:      meta (Metadata) — row to write; sha256 and cloud_uri must be set
+     * Outputs:     void
+     * Functionality: Buffers the row and flushes once batchSize rows are pending.
+     * Dependencies: flush
+     * Called by:   addAll, main, bulk ingest callers
+     */
+    public void add(Metadata meta) throws SQLException {
+        if (meta == null || meta.sha256 == null) {
+            throw new IllegalArgumentException("Metadata with a sha256 hash is required");
+        }
+        buffer.add(meta);
+        if (buffer.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Inputs:      rows (Iterable<Metadata>) — rows to write
+     * Outputs:     void
+     * Functionality: Adds every row, flushing as batches fill; the remainder is written on flush/close.
+     * Dependencies: add
+     * Called by:   bulk ingest callers
+     */
+    public void addAll(Iterable<Metadata> rows) throws SQLException {
+        for (Metadata meta : rows) {
+            add(meta);
+        }
+    }
+
+    /**
+     * Inputs:      None
+     * Outputs:     void
+     * Functionality: Writes all buffered rows in a single transaction, choosing COPY or a JDBC batch
+     *               by size. Rolls back and rethrows on failure, leaving the buffer intact so the
+     *               caller can inspect or retry it. Restores the connection's auto-commit setting and
+     *               then tells in-process consumers (location index) which rows changed.
+     * Dependencies: writeWithCopy, writeWithBatch, db.notifyRowsChanged
+     * Called by:   add, close
+     */
+    public void flush() throws SQLException {
+        if (buffer.isEmpty()) {
+            return;
+        }
+
+        List<String> flushedHashes = new ArrayList<>(buffer.size());
+        boolean previousAutoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            int affected = buffer.size() >= copyThreshold ? writeWithCopy(buffer) : writeWithBatch(buffer);
+            conn.commit();
+            submitted += buffer.size();
+            written += affected;
+            for (Metadata meta : buffer) {
+                flushedHashes.add(meta.sha256);
+            }
+            buffer.clear();
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(previousAutoCommit);
+        }
+        db.notifyRowsChanged(conn, flushedHashes);
+    }
+
+    /**
+     * Inputs:      None
+     * Outputs:     void
+     * Functionality: Flushes any remaining rows. Does not close the underlying connection.
+     * Dependencies: flush
+     * Called by:   try-with-resources
+     */
+    @Override
+    public void close() throws SQLException {
+        flush();
+    }
+
+    /**
+     * Inputs:      None
+     * Outputs:     long — rows handed to the database so far (committed flushes only)
+     * Functionality: Progress counter for callers and the backfill CLI.
+     * Dependencies: None
+     * Called by:   main
+     */
+    public long getSubmitted() {
+        return submitted;
+    }
+
+    /**
+     * Inputs:      None
+     * Outputs:     long — rows actually inserted or updated (conflicts skipped under SKIP are excluded)
+     * Functionality: Progress counter for callers and the backfill CLI.
+     * Dependencies: None
+     * Called by:   main
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Inputs:      rows (List<Metadata>) — rows to write
+     * Outputs:     int — rows inserted or updated
+     * Functionality: Sends one INSERT ... ON CONFLICT per row as a single JDBC batch; pgjdbc pipelines
+     *               the batch so it costs one network round trip rather than one per row.
+     * Dependencies: conflictClause, bindRow, java.sql.PreparedStatement
+     * Called by:   flush
+     */
+    private int writeWithBatch(List<Metadata> rows) throws SQLException {
+        String sql = "insert into postgres.images (" + COLUMNS + ") "
+                + "values (?, ?, ?, ?, ?, ?, to_timestamp(?, 'YYYY-MM-DD HH24:MI:SS'), "
+                + "?, ?, ?, ?, ?, ?, ?, ?, ?) "
+                + conflictClause();
+
+        int affected = 0;
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (Metadata meta : rows) {
+                bindRow(ps, meta);
+                ps.addBatch();
+            }
+            for (int count : ps.executeBatch()) {
+                if (count > 0) {
+                    affected += count;
+                }
+            }
+        }
+        return affected;
+    }
+
+    /**
+     * Inputs:      rows (List<Metadata>) — rows to write
+     * Outputs:     int — rows inserted or updated
+     * Functionality: Streams the rows as CSV into a transaction-scoped temp table through a
+     *               PGCopyOutputStream, encoding each row straight into the COPY buffer, then merges
+     *               them into postgres.images with one INSERT ... SELECT. Only one COPY_BUFFER_BYTES
+     *               chunk of CSV is held in memory at a time. On a write failure the COPY is cancelled
+     *               and flush rolls the transaction back.
+     *               Duplicate hashes inside the batch are collapsed first because ON CONFLICT cannot
+     *               touch the same row twice in one statement.
+     * Dependencies: org.postgresql.PGConnection, org.postgresql.copy.PGCopyOutputStream, toCsv, conflictClause
+     * Called by:   flush
+     */
+    private int writeWithCopy(List<Metadata> rows) throws SQLException {
+        try (Statement s = conn.createStatement()) {
+            s.execute("create temp table if not exists " + STAGE_TABLE + " ("
+                    + "img_hash text, filename text, gps_flag boolean, latitude double precision, "
+                    + "longitude double precision, altitude double precision, datetime_taken text, "
+                    + "cloud_uri text, width int, height int, filesize_bytes bigint, "
+                    + "temperature_c double precision, humidity double precision, weather_desc text, "
+                    + "elk_count int, processed_status boolean"
+                    + ") on commit delete rows");
+        }
+
+        PGCopyOutputStream copy = new PGCopyOutputStream(conn.unwrap(PGConnection.class),
+                "copy " + STAGE_TABLE + " (" + COLUMNS + ") from stdin with (format csv)", COPY_BUFFER_BYTES);
+        try {
+            Writer out = new OutputStreamWriter(copy, StandardCharsets.UTF_8);
+            for (Metadata meta : rows) {
+                toCsv(out, meta);
+            }
+            // Flushes the encoder and the last buffer, then ends the COPY.
+            out.close();
+        } catch (IOException e) {
+            if (copy.isActive()) {
+                try {
+                    copy.cancelCopy();
+                } catch (SQLException cancelError) {
+                    e.addSuppressed(cancelError);
+                }
+            }
+            throw new SQLException("COPY into " + STAGE_TABLE + " failed: " + e.getMessage(), e);
+        }
+
+        String merge = "insert into postgres.images (" + COLUMNS + ") "
+                + "select img_hash, filename, gps_flag, latitude, longitude, altitude, "
+                + "to_timestamp(datetime_taken, 'YYYY-MM-DD HH24:MI:SS'), cloud_uri, width, height, "
+                + "filesize_bytes, temperature_c, humidity, weather_desc, elk_count, processed_status "
+                + "from (select distinct on (img_hash) * from " + STAGE_TABLE + " order by img_hash) staged "
+                + conflictClause();
+
+        try (Statement s = conn.createStatement()) {
+            return s.executeUpdate(merge);
+        }
+    }
+
+    /**
+     * Inputs:      None
+     * Outputs:     String — ON CONFLICT clause for the configured ConflictMode
+     * Functionality: SKIP leaves existing rows alone. UPDATE refreshes metadata but never discards a
+     *               stored detection: elk_count is only replaced by a non-null value and
+     *               processed_status only moves from false to true.
+     * Dependencies: None
+     * Called by:   writeWithBatch, writeWithCopy
+     */
+    private String conflictClause() {
+        if (conflictMode == ConflictMode.SKIP) {
+            return "on conflict (img_hash) do nothing";
+        }
+        return "on conflict (img_hash) do update set "
+                + "filename = excluded.filename, "
+                + "gps_flag = excluded.gps_flag, "
+                + "latitude = excluded.latitude, "
+                + "longitude = excluded.longitude, "
+                + "altitude = excluded.altitude, "
+                + "datetime_taken = excluded.datetime_taken, "
+                + "cloud_uri = coalesce(nullif(excluded.cloud_uri, ''), images.cloud_uri), "
+                + "width = excluded.width, "
+                + "height = excluded.height, "
+                + "filesize_bytes = excluded.filesize_bytes, "
+                + "temperature_c = coalesce(excluded.temperature_c, images.temperature_c), "
+                + "humidity = coalesce(excluded.humidity, images.humidity), "
+                + "weather_desc = coalesce(excluded.weather_desc, images.weather_desc), "
+                + "elk_count = coalesce(excluded.elk_count, images.elk_count), "
+                + "processed_status = coalesce(images.processed_status, false) or excluded.processed_status";
+    }
+
+    /**
+     * Inputs:      ps (PreparedStatement) — insert statement with 16 parameters;
+     *              meta (Metadata) — row values
+     * Outputs:     void
+     * Functionality: Binds a row in the same column order and null handling as db.insertMeta.
+     * Dependencies: java.sql.Types
+     * Called by:   writeWithBatch
+     */
+    private static void bindRow(PreparedStatement ps, Metadata meta) throws SQLException {
+        ps.setString(1, meta.sha256);
+        ps.setString(2, meta.filename);
+        ps.setBoolean(3, meta.gps_flag);
+        if (meta.gps_flag) {
+            ps.setObject(4, meta.latitude, Types.DOUBLE);
+            ps.setObject(5, meta.longitude, Types.DOUBLE);
+            ps.setObject(6, meta.altitude, Types.DOUBLE);
+        } else {
+            ps.setNull(4, Types.DOUBLE);
+            ps.setNull(5, Types.DOUBLE);
+            ps.setNull(6, Types.DOUBLE);
+        }
+        ps.setString(7, meta.datetime);
+        ps.setString(8, meta.cloud_uri == null ? "" : meta.cloud_uri);
+        ps.setInt(9, meta.width);
+        ps.setInt(10, meta.height);
+        ps.setLong(11, meta.filesize);
+        ps.setObject(12, meta.temperature_c, Types.DOUBLE);
+        ps.setObject(13, meta.humidity, Types.DOUBLE);
+        ps.setString(14, meta.weather_desc);
+        ps.setObject(15, meta.elk_count, Types.INTEGER);
+        ps.setBoolean(16, meta.processed_status);
+    }
+
+    /**
+     * Inputs:      out (Appendable) — COPY stream writer (or a StringBuilder in tests);
+     *              meta (Metadata) — row values
+     * Outputs:     void — appends one CSV line in COLUMNS order
+     * Functionality: Encodes a row for COPY ... (format csv): NULL is an unquoted empty field, text is
+     *               always quoted so an empty string stays distinct from NULL.
+     * Dependencies: csvText, csvValue
+     * Called by:   writeWithCopy, BulkImageWriterTest
+     */
+    static void toCsv(Appendable out, Metadata meta) throws IOException {
+        csvText(out, meta.sha256).append(',');
+        csvText(out, meta.filename).append(',');
+        out.append(meta.gps_flag ? 't' : 'f').append(',');
+        csvValue(out, meta.gps_flag ? meta.latitude : null).append(',');
+        csvValue(out, meta.gps_flag ? meta.longitude : null).append(',');
+        csvValue(out, meta.gps_flag ? meta.altitude : null).append(',');
+        csvText(out, meta.datetime).append(',');
+        csvText(out, meta.cloud_uri == null ? "" : meta.cloud_uri).append(',');
+        csvValue(out, meta.width).append(',');
+        csvValue(out, meta.height).append(',');
+        csvValue(out, meta.filesize).append(',');
+        csvValue(out, meta.temperature_c).append(',');
+        csvValue(out, meta.humidity).append(',');
+        csvText(out, meta.weather_desc).append(',');
+        csvValue(out, meta.elk_count).append(',');
+        out.append(meta.processed_status ? 't' : 'f').append('\n');
+    }
+
+    static Appendable csvText(Appendable out, String value) throws IOException {
+        if (value == null) {
+            return out;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.append('"');
+            }
+            out.append(c);
+        }
+        return out.append('"');
+    }
+
+    private static Appendable csvValue(Appendable out, Object value) throws IOException {
+        return value == null ? out : out.append(String.valueOf(value));
+    }
+
+    /**
+     * Inputs:      args (String[]) — directory [--on-conflict=skip|update] [--batch-size=N]
+     *              [--copy-threshold=N] [--no-upload]
+     * Outputs:     void — prints progress and a summary to stdout
+     * Functionality: Backfills a directory tree of trail-camera images (e.g. a copied SD card). Each
+     *               image is parsed with db.loadMetadata, uploaded to GCS under its SHA-256 name
+     *               (unless --no-upload), and queued as unprocessed so the detection batch picks it
+     *               up. Rows are written through a BulkImageWriter on one pooled connection.
+     * Dependencies: db.connect, db.loadMetadata, GoogleCloudStorageAPI.uploadFile,
+     *               FileProcessor.isAllowedImageName, FileProcessor.normalizedStorageExtension
+     * Called by:   JVM when run directly for backfills
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: BulkImageWriter <directory> [--on-conflict=skip|update] "
+                    + "[--batch-size=N] [--copy-threshold=N] [--no-upload]");
+            System.exit(2);
+        }
+
+        Path root = Paths.get(args[0]);
+        ConflictMode mode = ConflictMode.SKIP;
+        int batchSize = db.intSetting("BULK_BATCH_SIZE", DEFAULT_BATCH_SIZE);
+        int copyThreshold = db.intSetting("BULK_COPY_THRESHOLD", DEFAULT_COPY_THRESHOLD);
+        boolean upload = true;
+
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--on-conflict=")) {
+                mode = ConflictMode.valueOf(arg.substring("--on-conflict=".length()).toUpperCase(Locale.ROOT));
+            } else if (arg.startsWith("--batch-size=")) {
+                batchSize = Integer.parseInt(arg.substring("--batch-size=".length()));
+            } else if (arg.startsWith("--copy-threshold=")) {
+                copyThreshold = Integer.parseInt(arg.substring("--copy-threshold=".length()));
+            } else if ("--no-upload".equals(arg)) {
+                upload = false;
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile)
+                    .filter(p -> FileProcessor.isAllowedImageName(p.getFileName().toString()))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        System.out.println("Found " + files.size() + " image(s) under " + root);
+
+        long started = System.nanoTime();
+        int failed = 0;
+        try (Connection conn = db.connect();
+                BulkImageWriter writer = new BulkImageWriter(conn, batchSize, copyThreshold, mode)) {
+            for (Path path : files) {
+                File file = path.toFile();
+                try {
+                    Metadata meta = db.loadMetadata(file, true);
+                    if (upload) {
+                        String ext = ImageUtils.getExtension(file.getName()).toLowerCase(Locale.ROOT);
+                        String objectName = meta.sha256 + FileProcessor.normalizedStorageExtension(ext);
+                        GoogleCloudStorageAPI.uploadFile(file.getAbsolutePath(), objectName);
+                        meta.cloud_uri = "gs://" + FileProcessor.BUCKET_NAME + "/" + objectName;
+                    }
+                    meta.elk_count = null;
+                    meta.processed_status = false;
+                    writer.add(meta);
+                } catch (SQLException e) {
+                    throw e;
+                } catch (Exception e) {
+                    failed++;
+                    logger.log(Level.WARNING, "Skipping " + path + ": " + e.getMessage(), e);
+                }
+            }
+            writer.flush();
+
+            double seconds = (System.nanoTime() - started) / 1e9;
+            System.out.printf(Locale.ROOT, "submitted=%d, written=%d, failed=%d, %.1f rows/s%n",
+                    writer.getSubmitted(), writer.getWritten(), failed,
+                    seconds > 0 ? writer.getSubmitted() / seconds : 0.0);
+        }
+    }
+}
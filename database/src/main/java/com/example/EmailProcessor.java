@@ -189,12 +189,12 @@ public class EmailProcessor {
      * marks emails as read
      * Functionality: Polls the Gmail inbox for unread emails with image
      * attachments, runs each image
-     * through the full pipeline (EXIF parsing, GCS upload, DB insert,
-     * AnimalDetect),
+     * through the full pipeline (EXIF parsing, DB claim, GCS upload,
+     * AnimalDetect) — duplicates stop at the claim,
      * replies to the sender with elk counts, and marks messages as read.
-     * Dependencies: buildGmailService, AnimalDetectAPI, db.loadMetadata,
-     * db.connect, db.getImageByHash,
-     * db.insertMeta, db.updateMetaWithDetection, GoogleCloudStorageAPI.uploadFile,
+     * Dependencies: buildGmailService, AnimalDetectAPI, ImageAnalyzer.analyze, db.loadMetadata,
+     * db.connect, db.claimNewImage, FileProcessor.uploadClaimed, FileProcessor.storeClaimed,
+     * db.getElkRule,
      * sendReply, markAsRead, collectImageAttachmentParts, SecretConfig
      * Called by: EventScheduler.runEmailPollingJob, TaskController.pollOnStartup
      */
@@ -205,10 +205,12 @@ public class EmailProcessor {
 
         try {
             Gmail gmail = buildGmailService();
+            String owner = FileProcessor.workerId();
+            // Read on the first claim's connection and used for the whole poll.
+            AnimalDetectAPI.ElkRule rule = null;
             AnimalDetectAPI animalDetectAPI = null;
             try {
-                String apiKey = AnimalDetectAPI.resolveApiKey(null);
-                animalDetectAPI = new AnimalDetectAPI(apiKey, 60);
+                animalDetectAPI = AnimalDetectAPI.shared();
             } catch (Exception e) {
                 System.err.println("[EmailProcessor] AnimalDetect API not available: " + e.getMessage());
             }
@@ -324,66 +326,79 @@ public class EmailProcessor {
                         try {
                             Files.write(tempFile, imageBytes);
 
-                            // Run through instant pipeline
-                            Metadata meta = db.loadMetadata(tempFile.toFile(), assumeExifParsable);
+                            // Run through instant pipeline; the attachment is already in memory
+                            ImageAnalyzer.Analysis analysis = ImageAnalyzer.analyze(imageBytes, assumeExifParsable);
+                            Metadata meta = db.loadMetadata(analysis, attachmentDisplayName);
                             meta.processed_status = false;
                             String objectName = meta.sha256 + ".jpg";
+                            meta.cloud_uri = "gs://" + SecretConfig.getRequired("GCS_BUCKET_NAME")
+                                    + "/" + objectName;
+                            meta.filename = attachmentDisplayName;
 
+                            // Claim the hash first; a duplicate costs no upload and no AnimalDetect call
+                            db.UpsertResult claim;
                             try (java.sql.Connection conn = db.connect()) {
-                                // Duplicate check
-                                Metadata existing = db.getImageByHash(conn, meta.sha256);
-                                if (existing != null) {
-                                    System.out.println("[EmailProcessor] Duplicate image, skipping: " + meta.sha256);
-                                    duplicateImages++;
-                                    allImageStatusLines.add(attachmentDisplayName + ": already in database!");
-                                    continue;
+                                if (rule == null) {
+                                    rule = db.getElkRule(conn);
                                 }
+                                claim = db.claimNewImage(conn, meta, owner, FileProcessor.leaseSeconds());
+                            }
+                            if (claim.isPending()) {
+                                System.out.println("[EmailProcessor] Image still being processed, skipping: "
+                                        + meta.sha256);
+                                duplicateImages++;
+                                allImageStatusLines.add(attachmentDisplayName
+                                        + ": already received and still processing; resend if it does not show up");
+                                continue;
+                            }
+                            if (claim.isDuplicate()) {
+                                System.out.println("[EmailProcessor] Duplicate image, skipping: " + meta.sha256);
+                                duplicateImages++;
+                                allImageStatusLines.add(attachmentDisplayName + ": already in database!");
+                                continue;
+                            }
 
-                                // Upload to GCS
-                                GoogleCloudStorageAPI.uploadFile(tempFile.toString(), objectName);
-                                meta.cloud_uri = "gs://" + SecretConfig.getRequired("GCS_BUCKET_NAME")
-                                        + "/" + objectName;
-                                meta.filename = attachmentDisplayName;
-
-                                db.insertMeta(conn, meta);
-
-                                if (animalDetectAPI != null) {
-                                    try {
-                                        java.util.Map<String, Object> response = animalDetectAPI
-                                                .callAnimalDetectAPIWithFallback(
-                                                        imageBytes,
-                                                        meta.filename,
-                                                        "USA",
-                                                        0.2);
-
-                                        List<String> predictionLines = animalDetectAPI
-                                                .formatDetectionsForConsole(response);
-                                        if (predictionLines.isEmpty()) {
-                                            System.out.println("[EmailProcessor] Model predictions for " + meta.filename
-                                                    + ": none");
-                                        } else {
-                                            for (String predictionLine : predictionLines) {
-                                                System.out.println(
-                                                        "[EmailProcessor] Model predictions for " + meta.filename
-                                                                + " -> " + predictionLine);
-                                            }
+                            FileProcessor.uploadClaimed(tempFile, objectName, meta.sha256, owner);
+
+                            boolean detectionFailed = false;
+                            java.util.Map<String, Object> response = null;
+                            if (animalDetectAPI != null) {
+                                try {
+                                    response = animalDetectAPI
+                                            .callAnimalDetectAPIWithFallback(
+                                                    analysis.bytes(),
+                                                    meta.filename,
+                                                    "USA",
+                                                    rule.threshold());
+
+                                    List<String> predictionLines = animalDetectAPI
+                                            .formatDetectionsForConsole(response);
+                                    if (predictionLines.isEmpty()) {
+                                        System.out.println("[EmailProcessor] Model predictions for " + meta.filename
+                                                + ": none");
+                                    } else {
+                                        for (String predictionLine : predictionLines) {
+                                            System.out.println(
+                                                    "[EmailProcessor] Model predictions for " + meta.filename
+                                                            + " -> " + predictionLine);
                                         }
-
-                                        meta.elk_count = animalDetectAPI.countElkFromResponse(response, 0.2);
-                                        meta.processed_status = true;
-                                    } catch (Exception detectionError) {
-                                        System.err.println("[EmailProcessor] Animal detection failed for "
-                                                + meta.filename + ": " + detectionError.getMessage());
-                                        meta.elk_count = null;
-                                        meta.processed_status = false;
-                                        failedImages++;
                                     }
+                                } catch (Exception detectionError) {
+                                    System.err.println("[EmailProcessor] Animal detection failed for "
+                                            + meta.filename + ": " + detectionError.getMessage());
+                                    response = null;
+                                    meta.elk_count = null;
+                                    meta.processed_status = false;
+                                    detectionFailed = true;
                                 }
+                            }
 
-                                db.updateMetaWithDetection(conn, meta.sha256, meta.elk_count, meta.processed_status);
-                                System.out.println("[EmailProcessor] Final elk count for " + meta.filename + ": "
-                                        + (meta.elk_count != null ? meta.elk_count : "unknown"));
+                            FileProcessor.storeClaimed(meta, owner, response);
+                            if (detectionFailed) {
+                                failedImages++;
                             }
+                            System.out.println("[EmailProcessor] Final elk count for " + meta.filename + ": "
+                                    + (meta.elk_count != null ? meta.elk_count : "unknown"));
 
                             String elkStatus = formatElkCount(meta.elk_count) + " elk";
                             allImageStatusLines.add(meta.filename + ": " + elkStatus);
@@ -1,9 +1,14 @@
 package com.example;
 
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 @Component
 public class EventScheduler {
+    private static final Logger logger = Logger.getLogger(EventScheduler.class.getName());
 
     /*
      * Runs every Sunday at 2:00 AM.
@@ -25,4 +30,53 @@ public class EventScheduler {
     public void runEmailPollingJob() {
         EmailProcessor.pollAndProcess();
     }
+
+    /**
+     * Inputs:      None
+     * Outputs:     void
+     * Functionality: Periodically compares the in-memory LocationIndex with Postgres (row count,
+     *               elk total, coordinate checksum) and reloads it on drift, e.g. after rows were
+     *               changed by SQL outside the db write paths. Interval: LOCATION_INDEX_CHECK_MS
+     *               (default 15 minutes). No-op when the index is not loaded.
+     * Dependencies: LocationIndex.checkConsistency
+     * Called by:   Spring scheduler (@EnableScheduling on App)
+     */
+    @Scheduled(fixedDelayString = "${LOCATION_INDEX_CHECK_MS:900000}",
+            initialDelayString = "${LOCATION_INDEX_CHECK_MS:900000}")
+    public void checkLocationIndex() {
+        try {
+            if (!LocationIndex.shared().checkConsistency()) {
+                logger.warning("Location index was out of sync with the database and has been reloaded");
+            }
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Location index consistency check failed", e);
+        }
+    }
+
+    /**
+     * Inputs:      None
+     * Outputs:     void
+     * Functionality: Runs the background weather stage: fills temperature, humidity and weather
+     *               description for rows inserted with weather_status = 'pending'. Interval:
+     *               WEATHER_ENRICH_INTERVAL_MS (default 30 seconds). Set WEATHER_ENRICHMENT_ENABLED
+     *               to "false", "0", or "no" to leave rows pending (e.g. on a read-only replica).
+     * Dependencies: WeatherEnricher.drain
+     * Called by:   Spring scheduler (@EnableScheduling on App)
+     */
+    @Scheduled(fixedDelayString = "${WEATHER_ENRICH_INTERVAL_MS:30000}",
+            initialDelayString = "${WEATHER_ENRICH_INTERVAL_MS:30000}")
+    public void enrichWeather() {
+        String flag = SecretConfig.get("WEATHER_ENRICHMENT_ENABLED");
+        if (flag != null && ("false".equalsIgnoreCase(flag) || "0".equals(flag) || "no".equalsIgnoreCase(flag))) {
+            return;
+        }
+        try {
+            int finished = WeatherEnricher.drain();
+            if (finished > 0) {
+                logger.info("Weather enrichment finished " + finished + " images");
+            }
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Weather enrichment run failed", e);
+        }
+    }
 }
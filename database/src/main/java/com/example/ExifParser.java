@@ -0,0 +1,223 @@
+package com.example;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Stateless EXIF reader for the fields ingest stores: DateTimeOriginal, GPS latitude/longitude
+ * and altitude.
+ *
+ * All parsing state lives on the stack of one call. The input is sliced so that TIFF offsets
+ * index the slice directly (no shared base offset), and every read is an absolute get against a
+ * range-checked offset, so the caller's buffer position is never moved and concurrent calls
+ * cannot see each other's state. IFD0 is read once; the Exif and GPS sub-IFDs it points to are
+ * each read once. Entries or IFDs that point outside the block are skipped rather than read.
+ * Usage:
+ * ImageUtils.ExifData d = ExifParser.parse(ByteBuffer.wrap(app1, offset, length));
+ */
+final class ExifParser {
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_GPS_IFD = 0x8825;
+    private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    private static final int TAG_GPS_LATITUDE_REF = 1;
+    private static final int TAG_GPS_LATITUDE = 2;
+    private static final int TAG_GPS_LONGITUDE_REF = 3;
+    private static final int TAG_GPS_LONGITUDE = 4;
+    private static final int TAG_GPS_ALTITUDE_REF = 5;
+    private static final int TAG_GPS_ALTITUDE = 6;
+
+    private static final int TYPE_ASCII = 2;
+    private static final int ENTRY_SIZE = 12;
+    // Far more than any camera writes; bounds the work a corrupt count can cause.
+    private static final int MAX_ENTRIES = 1024;
+
+    private ExifParser() {
+    }
+
+    /**
+     * Inputs:      block (ByteBuffer) — remaining bytes are either an APP1 payload starting with
+     *              "Exif\0\0" or a bare TIFF header ("II*\0" / "MM\0*"), as found in PNG eXIf
+     * Outputs:     ImageUtils.ExifData — fields that were present and in range; never null
+     * Functionality: Checks the header, slices the TIFF block with the declared byte order, then
+     *               reads IFD0 and the Exif and GPS IFDs it references. block is not modified.
+     *               Throws IllegalArgumentException when the block is not EXIF at all.
+     * Dependencies: readIfd0, readExifIfd, readGpsIfd
+     * Called by:   ImageUtils.parseExif, ImageAnalyzer.analyze
+     */
+    static ImageUtils.ExifData parse(ByteBuffer block) {
+        int start = block.position();
+        int length = block.remaining();
+        if (length >= 6 && block.get(start) == 'E' && block.get(start + 1) == 'x'
+                && block.get(start + 2) == 'i' && block.get(start + 3) == 'f') {
+            start += 6;
+            length -= 6;
+        }
+        if (length < 8) {
+            throw new IllegalArgumentException("Not EXIF: block too short");
+        }
+
+        ByteBuffer tiff = block.slice(start, length);
+        int order = tiff.getShort(0);
+        if (order == 0x4949) {
+            tiff.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (order == 0x4D4D) {
+            tiff.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            throw new IllegalArgumentException("Not EXIF: bad TIFF byte order");
+        }
+        if ((tiff.getShort(2) & 0xFFFF) != 42) {
+            throw new IllegalArgumentException("Not EXIF: bad TIFF magic");
+        }
+
+        ImageUtils.ExifData d = new ImageUtils.ExifData();
+        long[] subIfds = readIfd0(tiff, tiff.getInt(4) & 0xFFFFFFFFL);
+        if (subIfds[0] > 0) {
+            readExifIfd(tiff, subIfds[0], d);
+        }
+        if (subIfds[1] > 0) {
+            readGpsIfd(tiff, subIfds[1], d);
+        }
+        return d;
+    }
+
+    /**
+     * Inputs:      tiff (ByteBuffer) — TIFF block, offset 0 = byte-order mark;
+     *              offset (long) — IFD0 offset
+     * Outputs:     long[] — {Exif IFD offset, GPS IFD offset}; 0 where absent or IFD0 is unreadable
+     * Functionality: One scan of IFD0 for the two sub-IFD pointers.
+     * Dependencies: entryCount
+     * Called by:   parse
+     */
+    private static long[] readIfd0(ByteBuffer tiff, long offset) {
+        long[] subIfds = new long[2];
+        int entries = entryCount(tiff, offset);
+        for (int i = 0; i < entries; i++) {
+            int entry = (int) offset + 2 + i * ENTRY_SIZE;
+            int tag = tiff.getShort(entry) & 0xFFFF;
+            if (tag == TAG_EXIF_IFD) {
+                subIfds[0] = tiff.getInt(entry + 8) & 0xFFFFFFFFL;
+            } else if (tag == TAG_GPS_IFD) {
+                subIfds[1] = tiff.getInt(entry + 8) & 0xFFFFFFFFL;
+            }
+        }
+        return subIfds;
+    }
+
+    /**
+     * Inputs:      tiff (ByteBuffer) — TIFF block; offset (long) — Exif IFD offset;
+     *              d (ImageUtils.ExifData) — receives the date
+     * Outputs:     void — sets d.date from DateTimeOriginal (0x9003) when it is in range
+     * Functionality: One scan of the Exif IFD.
+     * Dependencies: entryCount, inRange
+     * Called by:   parse
+     */
+    private static void readExifIfd(ByteBuffer tiff, long offset, ImageUtils.ExifData d) {
+        int entries = entryCount(tiff, offset);
+        for (int i = 0; i < entries; i++) {
+            int entry = (int) offset + 2 + i * ENTRY_SIZE;
+            if ((tiff.getShort(entry) & 0xFFFF) != TAG_DATE_TIME_ORIGINAL) {
+                continue;
+            }
+            long count = tiff.getInt(entry + 4) & 0xFFFFFFFFL;
+            // Values of four bytes or less are stored inline in the entry.
+            long at = count <= 4 ? entry + 8 : tiff.getInt(entry + 8) & 0xFFFFFFFFL;
+            if (count > 0 && inRange(tiff, at, count)) {
+                byte[] s = new byte[(int) count];
+                tiff.get((int) at, s);
+                d.date = new String(s, StandardCharsets.ISO_8859_1).trim();
+            }
+            return;
+        }
+    }
+
+    /**
+     * Inputs:      tiff (ByteBuffer) — TIFF block; offset (long) — GPS IFD offset;
+     *              d (ImageUtils.ExifData) — receives lat/lon/alt
+     * Outputs:     void — sets d.lat/d.lon (both or neither) and d.alt, signs applied from the
+     *              N/S, E/W and above/below-sea-level references
+     * Functionality: One scan of the GPS IFD collecting value offsets; rationals are read after
+     *               the scan. A coordinate with a zero denominator or out-of-range offset is dropped.
+     * Dependencies: entryCount, rationalTriplet, rational
+     * Called by:   parse
+     */
+    private static void readGpsIfd(ByteBuffer tiff, long offset, ImageUtils.ExifData d) {
+        char latRef = 0;
+        char lonRef = 0;
+        long latOffset = 0;
+        long lonOffset = 0;
+        int altRef = 0;
+        long altOffset = 0;
+
+        int entries = entryCount(tiff, offset);
+        for (int i = 0; i < entries; i++) {
+            int entry = (int) offset + 2 + i * ENTRY_SIZE;
+            int tag = tiff.getShort(entry) & 0xFFFF;
+            int type = tiff.getShort(entry + 2) & 0xFFFF;
+            long value = tiff.getInt(entry + 8) & 0xFFFFFFFFL;
+            switch (tag) {
+                case TAG_GPS_LATITUDE_REF -> latRef = type == TYPE_ASCII ? (char) tiff.get(entry + 8) : 0;
+                case TAG_GPS_LATITUDE -> latOffset = value;
+                case TAG_GPS_LONGITUDE_REF -> lonRef = type == TYPE_ASCII ? (char) tiff.get(entry + 8) : 0;
+                case TAG_GPS_LONGITUDE -> lonOffset = value;
+                // BYTE value, inline in the first byte whatever the byte order.
+                case TAG_GPS_ALTITUDE_REF -> altRef = tiff.get(entry + 8);
+                case TAG_GPS_ALTITUDE -> altOffset = value;
+                default -> {
+                }
+            }
+        }
+
+        if (latOffset > 0 && lonOffset > 0) {
+            double lat = rationalTriplet(tiff, latOffset);
+            double lon = rationalTriplet(tiff, lonOffset);
+            if (!Double.isNaN(lat) && !Double.isNaN(lon)) {
+                d.lat = latRef == 'S' ? -lat : lat;
+                d.lon = lonRef == 'W' ? -lon : lon;
+            }
+        }
+        if (altOffset > 0) {
+            double alt = rational(tiff, altOffset);
+            if (!Double.isNaN(alt)) {
+                d.alt = altRef == 1 ? -alt : alt;
+            }
+        }
+    }
+
+    /** Number of entries of the IFD at offset, or 0 if the IFD does not fit in the block. */
+    private static int entryCount(ByteBuffer tiff, long offset) {
+        if (!inRange(tiff, offset, 2)) {
+            return 0;
+        }
+        int entries = tiff.getShort((int) offset) & 0xFFFF;
+        if (entries > MAX_ENTRIES || !inRange(tiff, offset + 2, (long) entries * ENTRY_SIZE)) {
+            return 0;
+        }
+        return entries;
+    }
+
+    /** Degrees + minutes/60 + seconds/3600 from three RATIONALs at offset; NaN if unreadable. */
+    private static double rationalTriplet(ByteBuffer tiff, long offset) {
+        if (!inRange(tiff, offset, 24)) {
+            return Double.NaN;
+        }
+        double degrees = rational(tiff, offset);
+        double minutes = rational(tiff, offset + 8);
+        double seconds = rational(tiff, offset + 16);
+        return degrees + minutes / 60.0 + seconds / 3600.0;
+    }
+
+    /** One unsigned RATIONAL at offset; NaN if out of range or the denominator is zero. */
+    private static double rational(ByteBuffer tiff, long offset) {
+        if (!inRange(tiff, offset, 8)) {
+            return Double.NaN;
+        }
+        long num = tiff.getInt((int) offset) & 0xFFFFFFFFL;
+        long den = tiff.getInt((int) offset + 4) & 0xFFFFFFFFL;
+        return den == 0 ? Double.NaN : (double) num / den;
+    }
+
+    private static boolean inRange(ByteBuffer tiff, long offset, long length) {
+        return offset >= 0 && length >= 0 && offset + length <= tiff.limit();
+    }
+}
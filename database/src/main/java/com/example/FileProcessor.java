@@ -11,6 +11,7 @@ package com.example;
  * Called by: uploadAndProcessFiles
  */
 
+import java.lang.management.ManagementFactory;
 import java.net.http.HttpClient;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -18,9 +19,22 @@ import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.io.FileInputStream;
@@ -33,6 +47,7 @@ import com.google.cloud.storage.Blob;
 import com.google.cloud.storage.BlobId;
 import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.StorageOptions;
+import com.google.common.util.concurrent.RateLimiter;
 
 import org.springframework.http.MediaType;
 import org.springframework.http.client.JdkClientHttpRequestFactory;
@@ -42,10 +57,16 @@ import org.springframework.web.multipart.MultipartFile;
 public class FileProcessor {
 
     private static final Logger logger = Logger.getLogger(FileProcessor.class.getName());
-    private static final String BUCKET_NAME = "postgresperc-bucket";
+    static final String BUCKET_NAME = "postgresperc-bucket";
     private static final String[] ALLOWED_EXTENSIONS = { ".png", ".jpg", ".jpeg", ".heic" };
     private static final int MAX_FILES_PER_UPLOAD = 10;
     private static final long MAX_FILE_SIZE_BYTES = 10L * 1024L * 1024L;
+    private static final int DEFAULT_CLAIM_BATCH_SIZE = 25;
+    private static final int DEFAULT_LEASE_SECONDS = 600;
+    private static final int DEFAULT_BATCH_WORKERS = 4;
+    private static final int DEFAULT_BATCH_DB_WRITERS = 2;
+    // Requests per minute allowed against AnimalDetect; set to the account's quota.
+    private static final int DEFAULT_DETECT_REQUESTS_PER_MINUTE = 300;
 
     private static class UploadMetadataData {
         public String filename;
@@ -79,11 +100,46 @@ public class FileProcessor {
         public final int attempted;
         public final int processed;
         public final List<String> errors;
+        // Throughput and per-image latency (download to DB update); zero when not measured.
+        public final double seconds;
+        public final double imagesPerSecond;
+        public final long p50Millis;
+        public final long p95Millis;
+        public final long p99Millis;
 
         public BatchResult(int attempted, int processed, List<String> errors) {
+            this(attempted, processed, errors, 0.0, new long[0]);
+        }
+
+        /**
+         * Inputs: attempted, processed (int); errors (List<String>);
+         * seconds (double) — wall-clock run time;
+         * latenciesMillis (long[]) — one entry per processed image, any order
+         * (sorted in place)
+         * Outputs: BatchResult with throughput and nearest-rank p50/p95/p99
+         * Functionality: Derives the summary statistics once at the end of a run.
+         * Dependencies: percentile
+         * Called by: runDetectionPipeline, BatchResult(int, int, List)
+         */
+        public BatchResult(int attempted, int processed, List<String> errors, double seconds,
+                long[] latenciesMillis) {
             this.attempted = attempted;
             this.processed = processed;
             this.errors = errors;
+            this.seconds = seconds;
+            this.imagesPerSecond = seconds > 0 ? processed / seconds : 0.0;
+            Arrays.sort(latenciesMillis);
+            this.p50Millis = percentile(latenciesMillis, 50);
+            this.p95Millis = percentile(latenciesMillis, 95);
+            this.p99Millis = percentile(latenciesMillis, 99);
+        }
+
+        static long percentile(long[] sorted, int p) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
         }
     }
 
@@ -120,19 +176,20 @@ public class FileProcessor {
         private final RestClient restClient;
 
         /**
-         * Inputs: imageBytes (byte[]) — raw JPEG image bytes
+         * Inputs: imageBytes (byte[]) — raw JPEG image bytes; threshold (double) —
+         * minimum score from the stored elk rule
          * Outputs: Integer — elk count returned by the inference server, or null on
          * failure
          * Functionality: POSTs image bytes to the local Python inference server at
-         * /infer and
+         * /infer?threshold=... and
          * parses the integer count from the plain-text response.
          * Dependencies: org.springframework.web.client.RestClient
          * Called by: inferCounts
          */
-        Integer inferCount(byte[] imageBytes) {
+        Integer inferCount(byte[] imageBytes, double threshold) {
             try {
                 String response = restClient.post()
-                        .uri("/infer")
+                        .uri(uri -> uri.path("/infer").queryParam("threshold", threshold).build())
                         .contentType(MediaType.IMAGE_JPEG)
                         .body(imageBytes)
                         .retrieve()
@@ -149,7 +206,8 @@ public class FileProcessor {
         }
 
         /**
-         * Inputs: images (List<ImagePayload>) — list of filename + bytes pairs
+         * Inputs: images (List<ImagePayload>) — list of filename + bytes pairs;
+         * threshold (double) — passed to inferCount
          * Outputs: List<Integer> — elk counts in the same order as the input list (null
          * for failures)
          * Functionality: Sequentially calls inferCount for each image and collects the
@@ -157,10 +215,10 @@ public class FileProcessor {
          * Dependencies: inferCount
          * Called by: processAllUnprocessedWithPythonInference
          */
-        List<Integer> inferCounts(List<ImagePayload> images) {
+        List<Integer> inferCounts(List<ImagePayload> images, double threshold) {
             List<Integer> counts = new ArrayList<>();
             for (ImagePayload img : images) {
-                Integer count = inferCount(img.bytes());
+                Integer count = inferCount(img.bytes(), threshold);
                 counts.add(count);
             }
             return counts;
@@ -174,14 +232,21 @@ public class FileProcessor {
      * Outputs: List<Map<String, Object>> — one entry per file with upload status,
      * cloud URI,
      * SHA-256 hash, elk count, and metadata fields
-     * Functionality: Validates files, parses optional metadata, uploads each image
-     * to GCS, inserts
-     * a DB record, runs AnimalDetect, and updates the elk count — all in one
-     * synchronous pass.
+     * Functionality: Validates files, parses optional metadata, and claims each
+     * image's row (db.claimNewImage) before anything is paid for: a hash that is
+     * already stored is reported as a duplicate without a GCS upload or an
+     * AnimalDetect call, and one whose earlier upload is still in flight as
+     * pending (it may yet fail and be released). Claimed images are uploaded and their AnimalDetect calls
+     * started on the shared client, then the detections are collected in order
+     * and written under the claim's lease. A failed upload deletes the claim; a
+     * failed detection leaves the row queued for the batch workers. Any other
+     * failure is isolated to its file, which gets an {originalName, error} entry
+     * while the rest of the upload carries on. A pooled connection is only held
+     * for one statement at a time.
      * Dependencies: validateUploadedFiles, parseUploadMetadata,
-     * buildMetadataForUpload,
-     * db.connect, db.getImageByHash, db.insertMeta, db.updateMetaWithDetection,
-     * GoogleCloudStorageAPI.uploadFile, AnimalDetectAPI, ImageUtils
+     * buildMetadataForUpload, workerId, leaseSeconds, uploadClaimed,
+     * storeClaimed, abandonClaim, fileError, db.connect, db.getElkRule, db.claimNewImage,
+     * AnimalDetectAPI, ImageUtils
      * Called by: FileUploadController.uploadFileInstantProcessed,
      * MessagingController.sendImageTest
      */
@@ -191,108 +256,256 @@ public class FileProcessor {
         validateUploadedFiles(files);
 
         List<UploadMetadataData> metadataList = parseUploadMetadata(files, metadataJson);
+        String owner = workerId();
 
         AnimalDetectAPI animalDetectAPI = null;
         try {
-            String apiKey = AnimalDetectAPI.resolveApiKey(null);
-            animalDetectAPI = new AnimalDetectAPI(apiKey, 60);
+            animalDetectAPI = AnimalDetectAPI.shared();
         } catch (Exception e) {
             logger.log(Level.WARNING, "AnimalDetect API not available", e);
         }
+        // Read on the first claim's connection and used for the whole upload.
+        AnimalDetectAPI.ElkRule rule = null;
+
+        // Pass 1: hash and claim every file, then store the new ones in GCS and
+        // start their detections, so a multi-file upload overlaps its detections.
+        // A file that fails here gets an error entry; the others carry on.
+        Metadata[] metas = new Metadata[files.length];
+        db.UpsertResult[] claims = new db.UpsertResult[files.length];
+        String[] objectNames = new String[files.length];
+        Exception[] errors = new Exception[files.length];
+        List<CompletableFuture<Map<String, Object>>> detections =
+                new ArrayList<>(Collections.nCopies(files.length, null));
+        for (int i = 0; i < files.length; i++) {
+            MultipartFile file = files[i];
+            String originalName = file.getOriginalFilename();
+            boolean uploaded = false;
+
+            try {
+                byte[] imageBytes = file.getBytes();
+                String ext = ImageUtils.getExtension(originalName == null ? "" : originalName).toLowerCase();
+                String dotExt = normalizedStorageExtension(ext);
+                UploadMetadataData uploadData = metadataList.isEmpty() ? null : metadataList.get(i);
+
+                Metadata meta = buildMetadataForUpload(imageBytes, originalName, uploadData, i);
+                String objectName = meta.sha256 + dotExt;
+                meta.cloud_uri = "gs://" + BUCKET_NAME + "/" + objectName;
+                meta.elk_count = null;
+                meta.processed_status = false;
+                metas[i] = meta;
+                objectNames[i] = objectName;
+
+                try (Connection conn = db.connect()) {
+                    if (rule == null) {
+                        rule = db.getElkRule(conn);
+                    }
+                    claims[i] = db.claimNewImage(conn, meta, owner, leaseSeconds());
+                }
+                if (claims[i].isDuplicate()) {
+                    continue;
+                }
 
-        List<Map<String, Object>> uploadedFiles = new ArrayList<>();
-        try (Connection conn = db.connect()) {
-            for (int i = 0; i < files.length; i++) {
-                MultipartFile file = files[i];
-                String originalName = file.getOriginalFilename();
                 String suffix = (originalName == null || originalName.isBlank()) ? ".bin" : "-" + originalName;
                 Path tempFile = Files.createTempFile("upload-", suffix);
-
                 try {
-                    Files.write(tempFile, file.getBytes());
-
-                    String ext = ImageUtils.getExtension(originalName == null ? "" : originalName).toLowerCase();
-                    String dotExt = normalizedStorageExtension(ext);
-                    UploadMetadataData uploadData = metadataList.isEmpty() ? null : metadataList.get(i);
-
-                    Metadata meta = buildMetadataForUpload(tempFile, originalName, uploadData, i);
-                    String objectName = meta.sha256 + dotExt;
-
-                    Metadata existing = db.getImageByHash(conn, meta.sha256);
-                    if (existing != null) {
-                        Map<String, Object> fileInfo = new HashMap<>();
-                        fileInfo.put("originalName", originalName);
-                        fileInfo.put("status", "duplicate hash; skipped upload");
-                        fileInfo.put("objectName", objectName);
-                        fileInfo.put("sha256", existing.sha256);
-                        fileInfo.put("cloudUri", existing.cloud_uri);
-                        addMetadataToFileInfo(fileInfo, existing);
-                        uploadedFiles.add(fileInfo);
-                        continue;
-                    }
-
-                    GoogleCloudStorageAPI.uploadFile(tempFile.toString(), objectName);
-                    meta.cloud_uri = "gs://" + BUCKET_NAME + "/" + objectName;
-                    db.insertMeta(conn, meta);
-
-                    if (animalDetectAPI != null) {
-                        try {
-                            byte[] imageBytes = Files.readAllBytes(tempFile);
-                            Map<String, Object> response = animalDetectAPI.callAnimalDetectAPIWithFallback(
-                                    imageBytes,
-                                    originalName,
-                                    "USA",
-                                    0.2);
-                            List<String> predictionLines = animalDetectAPI.formatDetectionsForConsole(response);
-                            if (predictionLines.isEmpty()) {
-                                logger.info("Model predictions for " + originalName + ": none");
-                            } else {
-                                for (String predictionLine : predictionLines) {
-                                    logger.info("Model predictions for " + originalName + " -> " + predictionLine);
-                                }
-                            }
+                    Files.write(tempFile, imageBytes);
+                    uploadClaimed(tempFile, objectName, meta.sha256, owner);
+                    uploaded = true;
+                } finally {
+                    Files.deleteIfExists(tempFile);
+                }
 
-                            int elkCount = animalDetectAPI.countElkFromResponse(response, 0.2);
-                            meta.elk_count = elkCount;
-                            meta.processed_status = true;
-                        } catch (Exception detectionError) {
-                            logger.log(Level.WARNING,
-                                    "Animal detection failed for " + originalName, detectionError);
-                            meta.elk_count = null;
-                            meta.processed_status = false;
-                        }
-                    }
+                if (animalDetectAPI != null) {
+                    detections.set(i, animalDetectAPI.callAnimalDetectAPIWithFallbackAsync(
+                            imageBytes, originalName, "USA", rule.threshold()));
+                }
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Upload failed for " + originalName, e);
+                errors[i] = e;
+                if (claims[i] != null && !claims[i].isDuplicate()) {
+                    abandonClaim(metas[i], owner, uploaded);
+                }
+            }
+        }
 
-                    db.updateMetaWithDetection(conn, meta.sha256, meta.elk_count, meta.processed_status);
+        // Pass 2: collect detections in upload order and store each claimed row.
+        List<Map<String, Object>> uploadedFiles = new ArrayList<>();
+        for (int i = 0; i < files.length; i++) {
+            String originalName = files[i].getOriginalFilename();
+            if (errors[i] != null) {
+                uploadedFiles.add(fileError(originalName, errors[i]));
+                continue;
+            }
 
-                    Map<String, Object> fileInfo = new HashMap<>();
-                    fileInfo.put("originalName", originalName);
-                    fileInfo.put("objectName", objectName);
-                    fileInfo.put("cloudUri", meta.cloud_uri);
-                    fileInfo.put("sha256", meta.sha256);
-                    fileInfo.put("processedStatus", meta.processed_status);
-                    fileInfo.put("elkCount", meta.elk_count);
+            try {
+                db.UpsertResult claim = claims[i];
+                Metadata meta = claim.isDuplicate() ? claim.row() : metas[i];
+
+                Map<String, Object> fileInfo = new HashMap<>();
+                fileInfo.put("originalName", originalName);
+                fileInfo.put("objectName", objectNames[i]);
+                fileInfo.put("sha256", meta.sha256);
+                fileInfo.put("cloudUri", meta.cloud_uri);
+                if (claim.isPending()) {
+                    fileInfo.put("status", "duplicate hash; an earlier upload is still in progress");
+                    uploadedFiles.add(fileInfo);
+                    continue;
+                }
+                if (claim.isDuplicate()) {
+                    fileInfo.put("status", "duplicate hash; already stored");
                     addMetadataToFileInfo(fileInfo, meta);
                     uploadedFiles.add(fileInfo);
+                    continue;
+                }
 
-                } catch (SQLException e) {
-                    if ("23505".equals(e.getSQLState())) {
-                        Map<String, Object> fileInfo = new HashMap<>();
-                        fileInfo.put("originalName", originalName);
-                        fileInfo.put("error", "Duplicate image hash; skipping DB insert");
-                        uploadedFiles.add(fileInfo);
-                    } else {
-                        throw e;
+                CompletableFuture<Map<String, Object>> detection = detections.get(i);
+                Map<String, Object> response = null;
+                if (detection != null) {
+                    try {
+                        response = detection.join();
+                        List<String> predictionLines = animalDetectAPI.formatDetectionsForConsole(response);
+                        if (predictionLines.isEmpty()) {
+                            logger.info("Model predictions for " + originalName + ": none");
+                        } else {
+                            for (String predictionLine : predictionLines) {
+                                logger.info("Model predictions for " + originalName + " -> " + predictionLine);
+                            }
+                        }
+                    } catch (Exception detectionError) {
+                        // The row stays queued for the batch workers; not an error for this file.
+                        logger.log(Level.WARNING, "Animal detection failed for " + originalName,
+                                detectionError instanceof CompletionException ? detectionError.getCause()
+                                        : detectionError);
+                        response = null;
+                        meta.elk_count = null;
+                        meta.processed_status = false;
                     }
-                } finally {
-                    Files.deleteIfExists(tempFile);
                 }
+
+                storeClaimed(meta, owner, response);
+
+                fileInfo.put("processedStatus", meta.processed_status);
+                fileInfo.put("elkCount", meta.elk_count);
+                addMetadataToFileInfo(fileInfo, meta);
+                uploadedFiles.add(fileInfo);
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Storing the result failed for " + originalName, e);
+                uploadedFiles.add(fileError(originalName, e));
             }
         }
 
         return uploadedFiles;
     }
 
+    /**
+     * Inputs: meta (Metadata) — row claimed in pass 1 of uploadAndProcessFiles;
+     * owner (String) — lease owner; uploaded (boolean) — whether the GCS upload
+     * already succeeded
+     * Outputs: void
+     * Functionality: Cleans up after a file failed in pass 1. Before the upload
+     * the claim is deleted so the file can be resent; after it the lease is
+     * cleared so the batch workers pick the row up. Failures are only logged.
+     * Dependencies: db.connect, db.releaseNewImage, storeClaimed
+     * Called by: uploadAndProcessFiles
+     */
+    private static void abandonClaim(Metadata meta, String owner, boolean uploaded) {
+        try {
+            if (uploaded) {
+                storeClaimed(meta, owner, null);
+            } else {
+                try (Connection conn = db.connect()) {
+                    db.releaseNewImage(conn, meta.sha256, owner);
+                }
+            }
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Could not clean up the claim for " + meta.sha256, e);
+        }
+    }
+
+    private static Map<String, Object> fileError(String originalName, Exception e) {
+        Map<String, Object> fileInfo = new HashMap<>();
+        fileInfo.put("originalName", originalName);
+        fileInfo.put("error", e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+        return fileInfo;
+    }
+
+    /**
+     * Inputs: file (Path) — image on local disk; objectName (String) — GCS object
+     * name; sha256 (String) — hash of a row taken with db.claimNewImage;
+     * owner (String) — lease owner passed to the claim
+     * Outputs: void
+     * Functionality: Uploads a freshly claimed image. If the upload fails the
+     * claim is deleted before the error is rethrown, so the same image can be
+     * sent again instead of being reported as a duplicate of a missing object.
+     * Dependencies: GoogleCloudStorageAPI.uploadFile, db.connect,
+     * db.releaseNewImage
+     * Called by: uploadAndProcessFiles, EmailProcessor.pollAndProcess,
+     * MessagingController.smsWebhook, MessagingController.sendGridEmailWebhook
+     */
+    static void uploadClaimed(Path file, String objectName, String sha256, String owner) throws Exception {
+        try {
+            GoogleCloudStorageAPI.uploadFile(file.toString(), objectName);
+        } catch (Exception uploadError) {
+            try (Connection conn = db.connect()) {
+                db.releaseNewImage(conn, sha256, owner);
+            } catch (SQLException releaseError) {
+                uploadError.addSuppressed(releaseError);
+            }
+            throw uploadError;
+        }
+    }
+
+    /**
+     * Inputs: meta (Metadata) — claimed row; owner (String) — lease owner passed
+     * to db.claimNewImage; response (Map<String, Object>) — AnimalDetect
+     * response, or null if detection did not run or failed
+     * Outputs: void — sets meta.elk_count and meta.processed_status to what was
+     * stored
+     * Functionality: Writes the ingest result under the claim's lease. With a
+     * response, the elk count (under the stored elk rule) and the raw detections
+     * are written in one transaction. Without one the lease is simply cleared,
+     * leaving the row queued for the batch workers. Throws IllegalStateException
+     * if the lease was taken over in the meantime.
+     * Dependencies: db.connect, db.updateMetaWithDetection, db.storeDetections
+     * Called by: uploadAndProcessFiles, EmailProcessor.pollAndProcess,
+     * MessagingController.smsWebhook, MessagingController.sendGridEmailWebhook
+     */
+    static void storeClaimed(Metadata meta, String owner, Map<String, Object> response) throws SQLException {
+        try (Connection conn = db.connect()) {
+            if (response == null) {
+                meta.elk_count = null;
+                meta.processed_status = false;
+                if (!db.updateMetaWithDetection(conn, meta.sha256, null, false, owner)) {
+                    throw new IllegalStateException("lease lost to another worker; result discarded");
+                }
+                return;
+            }
+            Integer elkCount = db.storeDetections(conn, meta.sha256, AnimalDetectAPI.modelVersion(response),
+                    AnimalDetectAPI.parseDetections(response), owner);
+            if (elkCount == null) {
+                throw new IllegalStateException("lease lost to another worker; result discarded");
+            }
+            meta.elk_count = elkCount;
+            meta.processed_status = true;
+        }
+    }
+
+    /**
+     * Inputs: None
+     * Outputs: AnimalDetectAPI.ElkRule — the stored elk rule
+     * Functionality: Reads the rule on a short-lived pooled connection, for the
+     * threshold sent with AnimalDetect requests. Stored counts are not computed
+     * from this copy; db.storeDetections re-reads the rule in its transaction.
+     * Dependencies: db.connect, db.getElkRule
+     * Called by: processAllUnprocessedWithAnimalDetect,
+     * processAllUnprocessedWithPythonInference
+     */
+    static AnimalDetectAPI.ElkRule activeElkRule() throws SQLException {
+        try (Connection conn = db.connect()) {
+            return db.getElkRule(conn);
+        }
+    }
+
     /**
      * Inputs: None
      * Outputs: BatchResult — counts of attempted, processed, and error messages
@@ -310,11 +523,13 @@ public class FileProcessor {
      * Inputs: None
      * Outputs: BatchResult — counts of attempted, processed, and per-image error
      * messages
-     * Functionality: Fetches all unprocessed images from GCS, sends them to the
-     * local Python
-     * inference server in batch, and writes elk counts back to the database.
-     * Dependencies: db.connect, db.getUnprocessedImages,
-     * db.updateMetaWithDetection,
+     * Functionality: Repeatedly leases a batch of unprocessed images, downloads them
+     * from GCS, sends each batch to the local Python inference server, and writes
+     * elk counts back to the database until the queue is drained. Rows that fail
+     * keep their lease and return to the queue once it expires; a result whose
+     * lease was re-claimed meanwhile is discarded and reported as an error.
+     * Dependencies: db.connect, db.claimUnprocessedImages,
+     * db.updateMetaWithDetection, activeElkRule,
      * PythonInferenceClient, downloadFromCloudUri, ImageUtils, SecretConfig
      * Called by: Not currently wired to a scheduled trigger; available for manual
      * invocation
@@ -325,65 +540,84 @@ public class FileProcessor {
         int processedCount = 0;
         int attemptedCount = 0;
         List<String> errors = new ArrayList<>();
+        String owner = workerId();
+        Set<String> failedThisRun = new HashSet<>();
 
-        try (Connection conn = db.connect()) {
-            List<Metadata> pending = db.getUnprocessedImages(conn, Integer.MAX_VALUE);
-            attemptedCount = pending.size();
+        try {
+            while (true) {
+                List<Metadata> pending = claimNextBatch(owner, failedThisRun);
+                if (pending.isEmpty()) {
+                    break;
+                }
+                attemptedCount += pending.size();
 
-            List<ImagePayload> payloads = new ArrayList<>();
-            List<Metadata> rows = new ArrayList<>();
-            List<Path> tempFiles = new ArrayList<>();
+                List<ImagePayload> payloads = new ArrayList<>();
+                List<Metadata> rows = new ArrayList<>();
+                List<Path> tempFiles = new ArrayList<>();
 
-            for (Metadata row : pending) {
                 try {
-                    if (row.cloud_uri == null || row.cloud_uri.isBlank()) {
-                        throw new IllegalArgumentException("Missing cloud_uri");
-                    }
-
-                    String ext = ImageUtils.getExtension(row.cloud_uri).toLowerCase();
-                    Path tempFile = Files.createTempFile("processor-py-", "." + ext);
-                    downloadFromCloudUri(row.cloud_uri, tempFile);
+                    for (Metadata row : pending) {
+                        try {
+                            if (row.cloud_uri == null || row.cloud_uri.isBlank()) {
+                                throw new IllegalArgumentException("Missing cloud_uri");
+                            }
 
-                    String computedHash = ImageUtils.sha256(tempFile.toFile());
-                    if (computedHash != null && row.sha256 != null && !row.sha256.equals(computedHash)) {
-                        throw new IllegalStateException("Downloaded file hash does not match DB hash");
-                    }
+                            String ext = ImageUtils.getExtension(row.cloud_uri).toLowerCase();
+                            Path tempFile = Files.createTempFile("processor-py-", "." + ext);
+                            tempFiles.add(tempFile);
+                            downloadFromCloudUri(row.cloud_uri, tempFile);
 
-                    String filename = (row.filename == null || row.filename.isBlank())
-                            ? row.sha256 + ".jpeg"
-                            : row.filename;
+                            // One read: the same bytes are hashed and sent for inference.
+                            byte[] imageBytes = Files.readAllBytes(tempFile);
+                            String computedHash = ImageUtils.sha256(imageBytes);
+                            if (computedHash != null && row.sha256 != null && !row.sha256.equals(computedHash)) {
+                                throw new IllegalStateException("Downloaded file hash does not match DB hash");
+                            }
 
-                    payloads.add(new ImagePayload(filename, Files.readAllBytes(tempFile)));
-                    rows.add(row);
-                    tempFiles.add(tempFile);
-                } catch (Exception e) {
-                    errors.add("hash=" + row.sha256 + " failed to prepare: " + e.getMessage());
-                }
-            }
+                            String filename = (row.filename == null || row.filename.isBlank())
+                                    ? row.sha256 + ".jpeg"
+                                    : row.filename;
 
-            List<Integer> counts = inferenceClient.inferCounts(payloads);
-            for (int i = 0; i < rows.size(); i++) {
-                Metadata row = rows.get(i);
-                Integer elkCount = (i < counts.size()) ? counts.get(i) : null;
-                try {
-                    db.updateMetaWithDetection(conn, row.sha256, elkCount, true);
-                    processedCount++;
-                } catch (Exception e) {
-                    errors.add("hash=" + row.sha256 + " failed to persist: " + e.getMessage());
-                }
-            }
+                            payloads.add(new ImagePayload(filename, imageBytes));
+                            rows.add(row);
+                        } catch (Exception e) {
+                            failedThisRun.add(row.sha256);
+                            errors.add("hash=" + row.sha256 + " failed to prepare: " + e.getMessage());
+                        }
+                    }
 
-            for (Path tempFile : tempFiles) {
-                try {
-                    Files.deleteIfExists(tempFile);
-                } catch (Exception ignored) {
+                    List<Integer> counts = inferenceClient.inferCounts(payloads, activeElkRule().threshold());
+                    try (Connection conn = db.connect()) {
+                        for (int i = 0; i < rows.size(); i++) {
+                            Metadata row = rows.get(i);
+                            Integer elkCount = (i < counts.size()) ? counts.get(i) : null;
+                            try {
+                                if (!db.updateMetaWithDetection(conn, row.sha256, elkCount, true, owner)) {
+                                    failedThisRun.add(row.sha256);
+                                    errors.add("hash=" + row.sha256 + " lease lost to another worker; result discarded");
+                                    continue;
+                                }
+                                processedCount++;
+                            } catch (Exception e) {
+                                failedThisRun.add(row.sha256);
+                                errors.add("hash=" + row.sha256 + " failed to persist: " + e.getMessage());
+                            }
+                        }
+                    }
+                } finally {
+                    for (Path tempFile : tempFiles) {
+                        try {
+                            Files.deleteIfExists(tempFile);
+                        } catch (Exception ignored) {
+                        }
+                    }
                 }
             }
 
             return new BatchResult(attemptedCount, processedCount, errors);
         } catch (Exception e) {
             errors.add("Batch failed: " + e.getMessage());
-            return new BatchResult(0, 0, errors);
+            return new BatchResult(attemptedCount, processedCount, errors);
         }
     }
 
@@ -453,7 +687,7 @@ public class FileProcessor {
     }
 
     /**
-     * Inputs: tempFile (Path) — path to the temporary file on disk;
+     * Inputs: imageBytes (byte[]) — uploaded file contents, already in memory;
      * originalName (String) — original client-provided filename;
      * uploadData (UploadMetadataData) — optional parsed metadata (may be null);
      * fileIndex (int) — zero-based index used in error messages for mismatched
@@ -463,18 +697,18 @@ public class FileProcessor {
      * Functionality: Combines file-derived values (size, SHA-256) with
      * caller-supplied metadata (GPS,
      * dimensions, datetime, weather) into a Metadata object ready for DB insertion.
-     * Dependencies: ImageUtils.sha256, ImageUtils.getExtension, java.nio.file.Files
+     * Dependencies: ImageUtils.sha256
      * Called by: uploadAndProcessFiles
      */
     private static Metadata buildMetadataForUpload(
-            Path tempFile,
+            byte[] imageBytes,
             String originalName,
             UploadMetadataData uploadData,
             int fileIndex) throws Exception {
         Metadata meta = new Metadata();
         meta.filename = originalName;
-        meta.filesize = Files.size(tempFile);
-        meta.sha256 = ImageUtils.sha256(tempFile.toFile());
+        meta.filesize = imageBytes.length;
+        meta.sha256 = ImageUtils.sha256(imageBytes);
         meta.cloud_uri = "";
         meta.processed_status = false;
         meta.elk_count = null;
@@ -513,9 +747,9 @@ public class FileProcessor {
      * Functionality: Case-insensitive suffix check against the ALLOWED_EXTENSIONS
      * list.
      * Dependencies: None
-     * Called by: validateUploadedFiles
+     * Called by: validateUploadedFiles, BulkImageWriter.main
      */
-    private static boolean isAllowedImageName(String filename) {
+    static boolean isAllowedImageName(String filename) {
         if (filename == null || filename.isBlank()) {
             return false;
         }
@@ -537,9 +771,9 @@ public class FileProcessor {
      * other extensions;
      * returns ".bin" for null or blank input.
      * Dependencies: None
-     * Called by: uploadAndProcessFiles
+     * Called by: uploadAndProcessFiles, BulkImageWriter.main
      */
-    private static String normalizedStorageExtension(String ext) {
+    static String normalizedStorageExtension(String ext) {
         if (ext == null || ext.isBlank()) {
             return ".bin";
         }
@@ -582,92 +816,285 @@ public class FileProcessor {
 
     /**
      * Inputs: None
-     * Outputs: BatchResult — counts of attempted, processed, and per-image error
-     * messages
-     * Functionality: Fetches all unprocessed images from GCS, runs each through
-     * AnimalDetect, and
-     * writes elk counts back to the database; used by the weekly batch job and
-     * manual runs.
-     * Dependencies: db.connect, db.getUnprocessedImages,
-     * db.updateMetaWithDetection,
-     * AnimalDetectAPI, downloadFromCloudUri, ImageUtils
+     * Outputs: BatchResult — counts of attempted, processed, per-image error
+     * messages, images/s and p50/p95/p99 per-image latency
+     * Functionality: Repeatedly leases a batch of unprocessed images and pipelines
+     * each batch through three stages: GCS download and hash check on BATCH_WORKERS
+     * threads (default 4), AnimalDetect calls on the shared client (bounded by its
+     * in-flight limit and a token-bucket limiter at
+     * ANIMALDETECT_REQUESTS_PER_MINUTE, default 300), and elk-count updates on
+     * BATCH_DB_WRITERS threads (default 2). Continues until the queue is drained;
+     * used by the weekly batch job and manual runs. Leasing makes it safe to run
+     * several instances concurrently. Rows that fail keep their lease and return
+     * to the queue once it expires.
+     * Dependencies: db.intSetting, activeElkRule, claimNextBatch, downloadVerified,
+     * storeDetection, runDetectionPipeline, AnimalDetectAPI.shared,
+     * com.google.common.util.concurrent.RateLimiter
      * Called by: processUnprocessedBatch, EventScheduler.runWeeklyInferenceBatch
      * (commented out),
      * FileProcessor.main
      */
     public static BatchResult processAllUnprocessedWithAnimalDetect() {
-        int processedCount = 0;
-        int attemptedCount = 0;
-        List<String> errors = new ArrayList<>();
-
         AnimalDetectAPI animalDetectAPI;
         try {
-            String apiKey = AnimalDetectAPI.resolveApiKey(null);
-            animalDetectAPI = new AnimalDetectAPI(apiKey, 60);
+            animalDetectAPI = AnimalDetectAPI.shared();
         } catch (Exception e) {
-            errors.add("AnimalDetect API not available: " + e.getMessage());
-            return new BatchResult(0, 0, errors);
+            return new BatchResult(0, 0, List.of("AnimalDetect API not available: " + e.getMessage()));
         }
 
-        try (Connection conn = db.connect()) {
-            List<Metadata> pending = db.getUnprocessedImages(conn, Integer.MAX_VALUE);
-            attemptedCount = pending.size();
+        int workers = Math.max(1, db.intSetting("BATCH_WORKERS", DEFAULT_BATCH_WORKERS));
+        int dbWriters = Math.max(1, db.intSetting("BATCH_DB_WRITERS", DEFAULT_BATCH_DB_WRITERS));
+        int perMinute = db.intSetting("ANIMALDETECT_REQUESTS_PER_MINUTE", DEFAULT_DETECT_REQUESTS_PER_MINUTE);
+        RateLimiter rateLimiter = perMinute > 0 ? RateLimiter.create(perMinute / 60.0) : null;
+        double detectThreshold;
+        try {
+            detectThreshold = activeElkRule().threshold();
+        } catch (SQLException e) {
+            return new BatchResult(0, 0, List.of("Batch failed: " + e.getMessage()));
+        }
 
-            for (Metadata row : pending) {
-                Path tempFile = null;
-                try {
-                    if (row.cloud_uri == null || row.cloud_uri.isBlank()) {
-                        throw new IllegalArgumentException("Missing cloud_uri");
-                    }
+        String owner = workerId();
+        DetectionSteps steps = new DetectionSteps() {
+            @Override
+            public List<Metadata> claim(Set<String> failedThisRun) throws SQLException {
+                return claimNextBatch(owner, failedThisRun);
+            }
+
+            @Override
+            public byte[] download(Metadata row) {
+                return downloadVerified(row);
+            }
 
-                    String ext = ImageUtils.getExtension(row.cloud_uri).toLowerCase();
-                    tempFile = Files.createTempFile("processor-", "." + ext);
-                    downloadFromCloudUri(row.cloud_uri, tempFile);
+            @Override
+            public void store(Metadata row, String filename, Map<String, Object> response) {
+                storeDetection(animalDetectAPI, row, owner, filename, response);
+            }
+        };
+        return runDetectionPipeline(animalDetectAPI, steps, detectThreshold, workers, dbWriters, rateLimiter);
+    }
 
-                    String computedHash = ImageUtils.sha256(tempFile.toFile());
-                    if (computedHash != null && row.sha256 != null && !row.sha256.equals(computedHash)) {
-                        throw new IllegalStateException("Downloaded file hash does not match DB hash");
-                    }
+    /**
+     * The I/O around the AnimalDetect call in processAllUnprocessedWithAnimalDetect:
+     * leasing rows, fetching their bytes and writing the result. Split out so the
+     * pipeline itself can be exercised against stubs.
+     */
+    interface DetectionSteps {
+        /** Next leased batch, or an empty list when the queue is drained. */
+        List<Metadata> claim(Set<String> failedThisRun) throws SQLException;
+
+        /** Image bytes for a leased row; runs on a download worker. */
+        byte[] download(Metadata row);
+
+        /** Persists a detection result; runs on a DB writer. */
+        void store(Metadata row, String filename, Map<String, Object> response);
+    }
+
+    /**
+     * Inputs: animalDetectAPI (AnimalDetectAPI) — client for the detect stage;
+     * steps (DetectionSteps) — claim, download and store;
+     * detectThreshold (double) — threshold sent with each request;
+     * workers (int) — download threads; dbWriters (int) — store threads;
+     * rateLimiter (RateLimiter) — AnimalDetect request quota, or null for none
+     * Outputs: BatchResult — see processAllUnprocessedWithAnimalDetect
+     * Functionality: Claims batches until steps.claim returns none and pipelines
+     * each row through download (workers threads), detect (every request,
+     * including a 413 retry, takes a rateLimiter permit) and store (dbWriters
+     * threads). A failure in any stage is recorded against that row only; the
+     * rest of the batch carries on.
+     * Dependencies: AnimalDetectAPI.callAnimalDetectAPIWithFallbackAsync
+     * Called by: processAllUnprocessedWithAnimalDetect, FileProcessorTest
+     */
+    static BatchResult runDetectionPipeline(AnimalDetectAPI animalDetectAPI, DetectionSteps steps,
+            double detectThreshold, int workers, int dbWriters, RateLimiter rateLimiter) {
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService downloads = Executors.newFixedThreadPool(workers);
+        ExecutorService writers = Executors.newFixedThreadPool(dbWriters);
+        AtomicInteger processedCount = new AtomicInteger();
+        int attemptedCount = 0;
+        Queue<Long> latencies = new ConcurrentLinkedQueue<>();
+        Set<String> failedThisRun = ConcurrentHashMap.newKeySet();
+        long runStarted = System.nanoTime();
 
-                    byte[] imageBytes = Files.readAllBytes(tempFile);
+        try {
+            while (true) {
+                List<Metadata> pending = steps.claim(failedThisRun);
+                if (pending.isEmpty()) {
+                    break;
+                }
+                attemptedCount += pending.size();
+
+                List<CompletableFuture<Void>> inFlight = new ArrayList<>();
+                for (Metadata row : pending) {
+                    long started = System.nanoTime();
                     String filename = (row.filename == null || row.filename.isBlank())
                             ? row.sha256 + ".jpeg"
                             : row.filename;
+                    CompletableFuture<Void> done = CompletableFuture
+                            .supplyAsync(() -> steps.download(row), downloads)
+                            // Composed on the download worker, so a full quota holds back
+                            // further downloads; the in-flight limit queues without a thread.
+                            .thenCompose(imageBytes -> animalDetectAPI.callAnimalDetectAPIWithFallbackAsync(
+                                    imageBytes, filename, "USA", detectThreshold, rateLimiter))
+                            .thenAcceptAsync(response -> steps.store(row, filename, response), writers)
+                            .handle((ignored, error) -> {
+                                if (error == null) {
+                                    processedCount.incrementAndGet();
+                                    latencies.add((System.nanoTime() - started) / 1_000_000);
+                                } else {
+                                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                            ? error.getCause()
+                                            : error;
+                                    failedThisRun.add(row.sha256);
+                                    errors.add("hash=" + row.sha256 + " failed: " + cause.getMessage());
+                                }
+                                return null;
+                            });
+                    inFlight.add(done);
+                }
+                // Finish the batch before claiming more, so failedThisRun is complete.
+                CompletableFuture.allOf(inFlight.toArray(new CompletableFuture[0])).join();
+            }
+        } catch (Exception e) {
+            errors.add("Batch failed: " + e.getMessage());
+        } finally {
+            downloads.shutdown();
+            writers.shutdown();
+        }
 
-                    Map<String, Object> response = animalDetectAPI.callAnimalDetectAPIWithFallback(
-                            imageBytes,
-                            filename,
-                            "USA",
-                            0.2);
-                    List<String> predictionLines = animalDetectAPI.formatDetectionsForConsole(response);
-                    if (predictionLines.isEmpty()) {
-                        logger.info("Model predictions for " + filename + ": none");
-                    } else {
-                        for (String predictionLine : predictionLines) {
-                            logger.info("Model predictions for " + filename + " -> " + predictionLine);
-                        }
-                    }
+        long[] latencyMillis = latencies.stream().mapToLong(Long::longValue).toArray();
+        double seconds = (System.nanoTime() - runStarted) / 1e9;
+        return new BatchResult(attemptedCount, processedCount.get(), new ArrayList<>(errors), seconds, latencyMillis);
+    }
 
-                    int elkCount = animalDetectAPI.countElkFromResponse(response, 0.2);
-                    db.updateMetaWithDetection(conn, row.sha256, elkCount, true);
-                    processedCount++;
-                } catch (Exception e) {
-                    errors.add("hash=" + row.sha256 + " failed: " + e.getMessage());
-                } finally {
-                    if (tempFile != null) {
-                        try {
-                            Files.deleteIfExists(tempFile);
-                        } catch (Exception ignored) {
-                        }
-                    }
-                }
+    /**
+     * Inputs: row (Metadata) — leased row with cloud_uri and sha256
+     * Outputs: byte[] — the image, read once after download
+     * Functionality: Downloads the object to a temp file, checks its SHA-256
+     * against the row, and deletes the temp file before returning, so only the
+     * bytes stay in memory while detection is pending. Failures are raised as
+     * CompletionException for the calling stage.
+     * Dependencies: downloadFromCloudUri, ImageUtils.sha256
+     * Called by: processAllUnprocessedWithAnimalDetect
+     */
+    private static byte[] downloadVerified(Metadata row) {
+        Path tempFile = null;
+        try {
+            if (row.cloud_uri == null || row.cloud_uri.isBlank()) {
+                throw new IllegalArgumentException("Missing cloud_uri");
             }
 
-            return new BatchResult(attemptedCount, processedCount, errors);
+            String ext = ImageUtils.getExtension(row.cloud_uri).toLowerCase();
+            tempFile = Files.createTempFile("processor-", "." + ext);
+            downloadFromCloudUri(row.cloud_uri, tempFile);
+
+            // One read: the same bytes are hashed and sent for detection.
+            byte[] imageBytes = Files.readAllBytes(tempFile);
+            String computedHash = ImageUtils.sha256(imageBytes);
+            if (computedHash != null && row.sha256 != null && !row.sha256.equals(computedHash)) {
+                throw new IllegalStateException("Downloaded file hash does not match DB hash");
+            }
+            return imageBytes;
         } catch (Exception e) {
-            errors.add("Batch failed: " + e.getMessage());
-            return new BatchResult(0, 0, errors);
+            throw new CompletionException(e);
+        } finally {
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (Exception ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Inputs: animalDetectAPI (AnimalDetectAPI) — client used for parsing helpers;
+     * row (Metadata) — leased row; owner (String) — lease owner of this run;
+     * filename (String) — name used in logs;
+     * response (Map<String, Object>) — AnimalDetect response
+     * Outputs: void — writes elk_count and processed_status for the row, and its
+     * raw detections
+     * Functionality: Logs the predictions and stores the elk count (under the
+     * stored elk rule) and the detections in one transaction. If the lease was
+     * re-claimed by another worker the result is discarded and the stage fails
+     * with IllegalStateException.
+     * Dependencies: db.connect, db.storeDetections
+     * Called by: processAllUnprocessedWithAnimalDetect
+     */
+    private static void storeDetection(AnimalDetectAPI animalDetectAPI, Metadata row, String owner,
+            String filename, Map<String, Object> response) {
+        List<String> predictionLines = animalDetectAPI.formatDetectionsForConsole(response);
+        if (predictionLines.isEmpty()) {
+            logger.info("Model predictions for " + filename + ": none");
+        } else {
+            for (String predictionLine : predictionLines) {
+                logger.info("Model predictions for " + filename + " -> " + predictionLine);
+            }
+        }
+
+        try (Connection conn = db.connect()) {
+            if (db.storeDetections(conn, row.sha256, AnimalDetectAPI.modelVersion(response),
+                    AnimalDetectAPI.parseDetections(response), owner) == null) {
+                throw new IllegalStateException("lease lost to another worker; result discarded");
+            }
+        } catch (SQLException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Inputs: owner (String) — lease owner for this run;
+     * failedThisRun (Set<String>) — hashes that already failed during this run
+     * Outputs: List<Metadata> — newly leased rows, or an empty list when the queue
+     * is drained
+     * Functionality: Claims the next batch of work (BATCH_CLAIM_SIZE rows, leased
+     * for BATCH_LEASE_SECONDS) on a short-lived pooled connection. If a lease
+     * expires mid-run and every row handed back already failed in this run, the
+     * run stops rather than retrying them in a loop.
+     * Dependencies: db.connect, db.claimUnprocessedImages, db.intSetting,
+     * leaseSeconds
+     * Called by: processAllUnprocessedWithAnimalDetect,
+     * processAllUnprocessedWithPythonInference
+     */
+    private static List<Metadata> claimNextBatch(String owner, Set<String> failedThisRun) throws SQLException {
+        int batchSize = Math.max(1, db.intSetting("BATCH_CLAIM_SIZE", DEFAULT_CLAIM_BATCH_SIZE));
+
+        List<Metadata> claimed;
+        try (Connection conn = db.connect()) {
+            claimed = db.claimUnprocessedImages(conn, owner, batchSize, leaseSeconds());
+        }
+        for (Metadata row : claimed) {
+            if (!failedThisRun.contains(row.sha256)) {
+                return claimed;
+            }
         }
+        return List.of();
+    }
+
+    /**
+     * Inputs: None
+     * Outputs: int — lease length in seconds (setting BATCH_LEASE_SECONDS)
+     * Functionality: One lease length for batch claims and for rows claimed at
+     * ingest, so an ingest worker that dies mid-detection hands its row to the
+     * batch workers on the same schedule.
+     * Dependencies: db.intSetting
+     * Called by: claimNextBatch, uploadAndProcessFiles,
+     * EmailProcessor.pollAndProcess, MessagingController
+     */
+    static int leaseSeconds() {
+        return Math.max(1, db.intSetting("BATCH_LEASE_SECONDS", DEFAULT_LEASE_SECONDS));
+    }
+
+    /**
+     * Inputs: None
+     * Outputs: String — lease owner identifier, e.g. "12345@host/pool-1-thread-2"
+     * Functionality: Identifies this process and thread in lease_owner so a stuck
+     * claim can be traced back to the instance that took it.
+     * Dependencies: java.lang.management.ManagementFactory
+     * Called by: processAllUnprocessedWithAnimalDetect,
+     * processAllUnprocessedWithPythonInference
+     */
+    static String workerId() {
+        return ManagementFactory.getRuntimeMXBean().getName() + "/" + Thread.currentThread().getName();
     }
 
     /**
@@ -729,7 +1156,9 @@ public class FileProcessor {
      */
     public static void main(String[] args) {
         BatchResult result = processAllUnprocessedWithAnimalDetect();
-        System.out.println("attempted=" + result.attempted + ", processed=" + result.processed);
+        System.out.printf(Locale.ROOT, "attempted=%d, processed=%d, %.1f images/s, p50=%dms, p95=%dms, p99=%dms%n",
+                result.attempted, result.processed, result.imagesPerSecond,
+                result.p50Millis, result.p95Millis, result.p99Millis);
         if (!result.errors.isEmpty()) {
             for (String error : result.errors) {
                 System.err.println(error);
@@ -0,0 +1,426 @@
+package com.example;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ISO-BMFF (HEIC/HEIF/AVIF) metadata reader: primary item, its ispe dimensions and the Exif
+ * item, without decoding pixels or starting a subprocess.
+ *
+ * Top-level boxes are hopped by their sizes (mdat is never read); only the meta box is loaded.
+ * Within it, pitm names the primary item, iinf lists item types, iloc says where each item's
+ * bytes live (in the file or in meta/idat), and iprp/ipco/ipma tie properties to items. The
+ * Exif item is then read with one positional read of its extents.
+ * Usage:
+ * HeifBoxParser.Headers h = HeifBoxParser.scan(path);
+ * ImageUtils.ExifData d = h.exif() == null ? new ImageUtils.ExifData() : ExifParser.parse(h.exif());
+ */
+final class HeifBoxParser {
+    private static final int BOX_FTYP = 0x66747970; // "ftyp"
+    private static final int BOX_META = 0x6D657461; // "meta"
+    private static final int BOX_PITM = 0x7069746D; // "pitm"
+    private static final int BOX_IINF = 0x69696E66; // "iinf"
+    private static final int BOX_INFE = 0x696E6665; // "infe"
+    private static final int BOX_ILOC = 0x696C6F63; // "iloc"
+    private static final int BOX_IDAT = 0x69646174; // "idat"
+    private static final int BOX_IPRP = 0x69707270; // "iprp"
+    private static final int BOX_IPCO = 0x6970636F; // "ipco"
+    private static final int BOX_IPMA = 0x69706D61; // "ipma"
+    private static final int BOX_ISPE = 0x69737065; // "ispe"
+    private static final int ITEM_EXIF = 0x45786966; // "Exif"
+
+    private static final int MAX_META_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_EXIF_BYTES = 1024 * 1024;
+
+    /**
+     * What the parse found. heif is false if the input does not start with ftyp. primaryItem is
+     * -1 without pitm. exif starts at the TIFF header (or an "Exif\0\0" prefix) and is null if the
+     * file has no usable Exif item; dimensions is null if no ispe could be found.
+     */
+    record Headers(boolean heif, long primaryItem, ByteBuffer exif, ImageUtils.Dimensions dimensions) {
+    }
+
+    /** Positional read of exactly n bytes at pos; the result is owned by the caller. */
+    private interface Reader {
+        ByteBuffer read(long pos, int n) throws IOException;
+    }
+
+    /** Where one item's bytes live: construction method 0 = file offsets, 1 = inside idat. */
+    private record ItemLocation(int constructionMethod, long[] offsets, long[] lengths) {
+    }
+
+    /** Everything collected from one pass over the meta box's children. */
+    private static final class Meta {
+        long primaryItem = -1;
+        long exifItem = -1;
+        final Map<Long, ItemLocation> locations = new HashMap<>();
+        final List<ImageUtils.Dimensions> properties = new ArrayList<>();
+        ByteBuffer ipma;
+        ByteBuffer idat;
+    }
+
+    private HeifBoxParser() {
+    }
+
+    /**
+     * Inputs:      file (Path) — candidate HEIF on disk
+     * Outputs:     Headers — primary item, dimensions and Exif payload (copied)
+     * Functionality: Opens a read-only FileChannel and parses it.
+     * Dependencies: scan(FileChannel)
+     * Called by:   ImageUtils.parseExifFromHeif, HeifBoxParserTest
+     */
+    static Headers scan(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return scan(channel);
+        }
+    }
+
+    /**
+     * Inputs:      channel (FileChannel) — open channel; its position is not used or changed
+     * Outputs:     Headers — primary item, dimensions and Exif payload (copied)
+     * Functionality: One positional read per top-level box header, one for meta and one per Exif
+     *               extent.
+     * Dependencies: parse
+     * Called by:   scan(Path), ImageUtils.probeDimensions
+     */
+    static Headers scan(FileChannel channel) throws IOException {
+        long size = channel.size();
+        return parse(size, (pos, n) -> {
+            if (pos < 0 || n < 0 || pos + n > size) {
+                throw new EOFException("HEIF box runs past end of file");
+            }
+            ByteBuffer out = ByteBuffer.allocate(n);
+            while (out.hasRemaining() && channel.read(out, pos + out.position()) > 0) {
+                // read exactly n bytes
+            }
+            if (out.hasRemaining()) {
+                throw new EOFException("HEIF box runs past end of file");
+            }
+            return out.flip();
+        });
+    }
+
+    /**
+     * Inputs:      heif (ByteBuffer) — whole file in memory (position..limit)
+     * Outputs:     Headers — exif is a view into heif when the item is a single extent
+     * Functionality: Same parse over buffer views.
+     * Dependencies: parse
+     * Called by:   ImageAnalyzer.analyze
+     */
+    static Headers scan(ByteBuffer heif) throws IOException {
+        ByteBuffer data = heif.slice();
+        return parse(data.limit(), (pos, n) -> {
+            if (pos < 0 || n < 0 || pos + n > data.limit()) {
+                throw new EOFException("HEIF box runs past end of buffer");
+            }
+            return data.slice((int) pos, n);
+        });
+    }
+
+    /**
+     * Inputs:      size (long) — input length; reader (Reader) — positional reads
+     * Outputs:     Headers — see record
+     * Functionality: Checks for a leading ftyp, hops top-level boxes to meta, parses meta, then
+     *               resolves the primary item's ispe and reads the Exif item. Truncated or malformed
+     *               structures yield whatever was resolved before the problem.
+     * Dependencies: readMeta, primaryExtent, readExif
+     * Called by:   scan(FileChannel), scan(ByteBuffer)
+     */
+    private static Headers parse(long size, Reader reader) throws IOException {
+        if (size < 12 || reader.read(4, 4).getInt(0) != BOX_FTYP) {
+            return new Headers(false, -1, null, null);
+        }
+
+        Meta meta = null;
+        long pos = 0;
+        try {
+            while (meta == null && pos + 8 <= size) {
+                ByteBuffer header = reader.read(pos, 8);
+                long boxSize = header.getInt(0) & 0xFFFFFFFFL;
+                int type = header.getInt(4);
+                int headerSize = 8;
+                if (boxSize == 1) {
+                    boxSize = reader.read(pos + 8, 8).getLong(0);
+                    headerSize = 16;
+                } else if (boxSize == 0) {
+                    boxSize = size - pos;
+                }
+                if (boxSize < headerSize) {
+                    break;
+                }
+                if (type == BOX_META && boxSize - headerSize <= MAX_META_BYTES) {
+                    meta = readMeta(reader.read(pos + headerSize, (int) (boxSize - headerSize)));
+                }
+                pos += boxSize;
+            }
+        } catch (EOFException | BufferUnderflowException | IndexOutOfBoundsException
+                | IllegalArgumentException e) {
+            // Truncated or malformed box tree; fall through with what was read.
+        }
+        if (meta == null) {
+            return new Headers(true, -1, null, null);
+        }
+
+        ByteBuffer exif = null;
+        try {
+            exif = readExif(meta, reader);
+        } catch (EOFException | BufferUnderflowException | IndexOutOfBoundsException e) {
+            // Exif item points outside the file; dimensions are still useful.
+        }
+        return new Headers(true, meta.primaryItem, exif, primaryExtent(meta));
+    }
+
+    /**
+     * Inputs:      meta (ByteBuffer) — payload of the meta full box (version/flags first)
+     * Outputs:     Meta — pitm, first Exif item, item locations, ipco properties, ipma and idat
+     * Functionality: One pass over the children of meta (and of iprp); unknown boxes are skipped.
+     * Dependencies: readInfe, readIloc, readIpco
+     * Called by:   parse
+     */
+    private static Meta readMeta(ByteBuffer meta) {
+        Meta m = new Meta();
+        meta.position(4);
+        while (meta.remaining() >= 8) {
+            int start = meta.position();
+            long size = meta.getInt() & 0xFFFFFFFFL;
+            int type = meta.getInt();
+            if (size < 8 || size > meta.limit() - start) {
+                break;
+            }
+            int end = (int) (start + size);
+            ByteBuffer body = meta.slice(meta.position(), end - meta.position());
+            switch (type) {
+                case BOX_PITM -> {
+                    int version = body.get(0) & 0xFF;
+                    m.primaryItem = version == 0 ? body.getShort(4) & 0xFFFF : body.getInt(4) & 0xFFFFFFFFL;
+                }
+                case BOX_IINF -> readIinf(body, m);
+                case BOX_ILOC -> readIloc(body, m);
+                case BOX_IDAT -> m.idat = body;
+                case BOX_IPRP -> readIprp(body, m);
+                default -> {
+                }
+            }
+            meta.position(end);
+        }
+        return m;
+    }
+
+    /** iinf: entry count, then infe boxes; records the first item of type Exif. */
+    private static void readIinf(ByteBuffer iinf, Meta m) {
+        int version = iinf.get() & 0xFF;
+        iinf.position(4);
+        iinf.position(iinf.position() + (version == 0 ? 2 : 4));
+        while (iinf.remaining() >= 8 && m.exifItem < 0) {
+            int start = iinf.position();
+            long size = iinf.getInt() & 0xFFFFFFFFL;
+            int type = iinf.getInt();
+            if (size < 8 || size > iinf.limit() - start) {
+                break;
+            }
+            if (type == BOX_INFE) {
+                readInfe(iinf.slice(iinf.position(), (int) (start + size - iinf.position())), m);
+            }
+            iinf.position((int) (start + size));
+        }
+    }
+
+    /** infe version 2/3: item_ID, protection index, item_type. Older versions carry no type. */
+    private static void readInfe(ByteBuffer infe, Meta m) {
+        int version = infe.get() & 0xFF;
+        infe.position(4);
+        if (version < 2) {
+            return;
+        }
+        long itemId = version == 2 ? infe.getShort() & 0xFFFF : infe.getInt() & 0xFFFFFFFFL;
+        infe.getShort();
+        if (infe.getInt() == ITEM_EXIF) {
+            m.exifItem = itemId;
+        }
+    }
+
+    /**
+     * iloc: per item, construction method, base offset and extents, with field widths taken
+     * from the box header (ISO/IEC 14496-12 8.11.3).
+     */
+    private static void readIloc(ByteBuffer iloc, Meta m) {
+        int version = iloc.get() & 0xFF;
+        iloc.position(4);
+        int sizes = iloc.getShort() & 0xFFFF;
+        int offsetSize = sizes >> 12;
+        int lengthSize = (sizes >> 8) & 0xF;
+        int baseOffsetSize = (sizes >> 4) & 0xF;
+        int indexSize = (version == 1 || version == 2) ? sizes & 0xF : 0;
+        long itemCount = version < 2 ? iloc.getShort() & 0xFFFF : iloc.getInt() & 0xFFFFFFFFL;
+
+        for (long i = 0; i < itemCount; i++) {
+            long itemId = version < 2 ? iloc.getShort() & 0xFFFF : iloc.getInt() & 0xFFFFFFFFL;
+            int constructionMethod = (version == 1 || version == 2) ? iloc.getShort() & 0xF : 0;
+            iloc.getShort(); // data_reference_index
+            long baseOffset = readSized(iloc, baseOffsetSize);
+            int extentCount = iloc.getShort() & 0xFFFF;
+            long[] offsets = new long[extentCount];
+            long[] lengths = new long[extentCount];
+            for (int e = 0; e < extentCount; e++) {
+                readSized(iloc, indexSize);
+                offsets[e] = baseOffset + readSized(iloc, offsetSize);
+                lengths[e] = readSized(iloc, lengthSize);
+            }
+            m.locations.put(itemId, new ItemLocation(constructionMethod, offsets, lengths));
+        }
+    }
+
+    /** iprp: the ipco property list (1-based in ipma) and the first ipma. */
+    private static void readIprp(ByteBuffer iprp, Meta m) {
+        while (iprp.remaining() >= 8) {
+            int start = iprp.position();
+            long size = iprp.getInt() & 0xFFFFFFFFL;
+            int type = iprp.getInt();
+            if (size < 8 || size > iprp.limit() - start) {
+                break;
+            }
+            int end = (int) (start + size);
+            if (type == BOX_IPCO) {
+                readIpco(iprp.slice(iprp.position(), end - iprp.position()), m);
+            } else if (type == BOX_IPMA && m.ipma == null) {
+                m.ipma = iprp.slice(iprp.position(), end - iprp.position());
+            }
+            iprp.position(end);
+        }
+    }
+
+    /** ipco: every property occupies a slot; only ispe slots carry a value. */
+    private static void readIpco(ByteBuffer ipco, Meta m) {
+        while (ipco.remaining() >= 8) {
+            int start = ipco.position();
+            long size = ipco.getInt() & 0xFFFFFFFFL;
+            int type = ipco.getInt();
+            if (size < 8 || size > ipco.limit() - start) {
+                break;
+            }
+            ImageUtils.Dimensions extent = null;
+            if (type == BOX_ISPE && size >= 20) {
+                int width = ipco.getInt(start + 12);
+                int height = ipco.getInt(start + 16);
+                if (width > 0 && height > 0) {
+                    extent = new ImageUtils.Dimensions(width, height);
+                }
+            }
+            m.properties.add(extent);
+            ipco.position((int) (start + size));
+        }
+    }
+
+    /**
+     * Inputs:      m (Meta) — parsed meta box
+     * Outputs:     ImageUtils.Dimensions — ispe associated with the pitm item; the largest ispe if
+     *              there is no pitm/ipma; null if there is no ispe at all
+     * Functionality: ipma lists, per item, the 1-based ipco indices (7- or 15-bit, depending on
+     *               flags bit 0) that apply to it. For tiled (grid) photos the primary item's ispe is
+     *               the full canvas, not a tile.
+     * Dependencies: None
+     * Called by:   parse
+     */
+    private static ImageUtils.Dimensions primaryExtent(Meta m) {
+        if (m.ipma != null && m.primaryItem >= 0) {
+            try {
+                ByteBuffer ipma = m.ipma.duplicate();
+                int version = ipma.get() & 0xFF;
+                int flags = ((ipma.get() & 0xFF) << 16) | ((ipma.get() & 0xFF) << 8) | (ipma.get() & 0xFF);
+                long entries = ipma.getInt() & 0xFFFFFFFFL;
+                for (long i = 0; i < entries; i++) {
+                    long item = version < 1 ? ipma.getShort() & 0xFFFF : ipma.getInt() & 0xFFFFFFFFL;
+                    int count = ipma.get() & 0xFF;
+                    for (int j = 0; j < count; j++) {
+                        int index = (flags & 1) != 0 ? ipma.getShort() & 0x7FFF : ipma.get() & 0x7F;
+                        if (item == m.primaryItem && index >= 1 && index <= m.properties.size()
+                                && m.properties.get(index - 1) != null) {
+                            return m.properties.get(index - 1);
+                        }
+                    }
+                }
+            } catch (BufferUnderflowException e) {
+                // Truncated ipma; fall back to the largest ispe below.
+            }
+        }
+
+        ImageUtils.Dimensions largest = null;
+        for (ImageUtils.Dimensions d : m.properties) {
+            if (d != null && (largest == null
+                    || (long) d.width() * d.height() > (long) largest.width() * largest.height())) {
+                largest = d;
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * Inputs:      m (Meta) — parsed meta box; reader (Reader) — positional reads of the file
+     * Outputs:     ByteBuffer — Exif payload from its TIFF header on, or null if there is no Exif
+     *              item, it has no location, or it is larger than MAX_EXIF_BYTES
+     * Functionality: Gathers the item's extents (from the file or from idat), then skips the
+     *               leading 4-byte exif_tiff_header_offset and that many bytes.
+     * Dependencies: None
+     * Called by:   parse
+     */
+    private static ByteBuffer readExif(Meta m, Reader reader) throws IOException {
+        ItemLocation loc = m.exifItem < 0 ? null : m.locations.get(m.exifItem);
+        if (loc == null || loc.offsets().length == 0 || (loc.constructionMethod() == 1 && m.idat == null)) {
+            return null;
+        }
+        long total = 0;
+        for (long length : loc.lengths()) {
+            total += length;
+        }
+        if (total < 4 || total > MAX_EXIF_BYTES) {
+            return null;
+        }
+
+        ByteBuffer item;
+        if (loc.offsets().length == 1) {
+            item = extent(m, reader, loc.constructionMethod(), loc.offsets()[0], (int) total);
+        } else {
+            item = ByteBuffer.allocate((int) total);
+            for (int e = 0; e < loc.offsets().length; e++) {
+                item.put(extent(m, reader, loc.constructionMethod(), loc.offsets()[e], (int) loc.lengths()[e]));
+            }
+            item.flip();
+        }
+
+        long tiffOffset = item.getInt(0) & 0xFFFFFFFFL;
+        if (4 + tiffOffset >= item.limit()) {
+            return null;
+        }
+        return item.slice((int) (4 + tiffOffset), (int) (item.limit() - 4 - tiffOffset));
+    }
+
+    private static ByteBuffer extent(Meta m, Reader reader, int constructionMethod, long offset, int length)
+            throws IOException {
+        if (constructionMethod == 1) {
+            if (offset < 0 || offset + length > m.idat.limit()) {
+                throw new EOFException("Exif extent runs past idat");
+            }
+            return m.idat.slice((int) offset, length);
+        }
+        return reader.read(offset, length);
+    }
+
+    /** Unsigned big-endian field of 0, 4 or 8 bytes, as used by iloc. */
+    private static long readSized(ByteBuffer buf, int size) {
+        return switch (size) {
+            case 0 -> 0;
+            case 4 -> buf.getInt() & 0xFFFFFFFFL;
+            case 8 -> buf.getLong();
+            default -> throw new IllegalArgumentException("Unsupported iloc field size " + size);
+        };
+    }
+}
@@ -0,0 +1,120 @@
+package com.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Single-read ingest analysis: SHA-256, EXIF (date/GPS) and pixel dimensions from one copy of
+ * the file in memory.
+ *
+ * The file is read once (uploads and email attachments are already in memory and skip even
+ * that); the digest runs over the array while the container headers are parsed in place from
+ * the same array. Nothing is decoded, and the bytes travel on in the Analysis so the
+ * detection stage does not read the file again.
+ * Usage:
+ * ImageAnalyzer.Analysis a = ImageAnalyzer.analyze(imageBytes, false);
+ * Metadata meta = db.loadMetadata(a, filename);
+ * animalDetectAPI.callAnimalDetectAPIWithFallback(a.bytes(), meta.filename, "USA", rule.threshold());
+ */
+final class ImageAnalyzer {
+    private static final Logger logger = Logger.getLogger(ImageAnalyzer.class.getName());
+
+    /**
+     * Result of one analysis. bytes is the caller's array, not a copy; treat it as read-only.
+     * exif is never null (empty when the file has none).
+     */
+    record Analysis(byte[] bytes, String sha256, ImageUtils.ExifData exif, ImageUtils.Dimensions dimensions) {
+    }
+
+    private ImageAnalyzer() {
+    }
+
+    /**
+     * Inputs:      file (Path) — image on disk;
+     *              assumeExifParsable (boolean) — if true, malformed EXIF yields empty ExifData
+     *              instead of an exception
+     * Outputs:     Analysis — bytes, hash, EXIF and dimensions
+     * Functionality: Reads the file once and hands the array to analyze(byte[], boolean).
+     * Dependencies: java.nio.file.Files, analyze(byte[], boolean)
+     * Called by:   db.loadMetadata(File, boolean)
+     */
+    static Analysis analyze(Path file, boolean assumeExifParsable) throws IOException {
+        return analyze(Files.readAllBytes(file), assumeExifParsable);
+    }
+
+    /**
+     * Inputs:      bytes (byte[]) — complete image file contents;
+     *              assumeExifParsable (boolean) — if true, malformed EXIF yields empty ExifData
+     * Outputs:     Analysis — bytes (same array), hash, EXIF and dimensions
+     * Functionality: Hashes the array and sniffs the container: JPEG marker segments are walked
+     *               once (JpegSegmentScanner) for both the Exif APP1 and SOFn; PNG chunk headers
+     *               (PngChunkReader) give IHDR and eXIf; HEIF boxes (HeifBoxParser) give the primary
+     *               item's ispe and the Exif item. Formats without a header probe fall back to an
+     *               ImageIO reader over the array; a file no reader recognises raises
+     *               IOException("Not an image").
+     * Dependencies: JpegSegmentScanner.scan, PngChunkReader.scan, HeifBoxParser.scan, ImageUtils.sha256,
+     *               ExifParser.parse, ImageUtils.probeWithImageReader
+     * Called by:   analyze(Path, boolean), EmailProcessor.pollAndProcess,
+     *              MessagingController.sendGridEmailWebhook
+     */
+    static Analysis analyze(byte[] bytes, boolean assumeExifParsable) throws IOException {
+        String sha256;
+        try {
+            sha256 = ImageUtils.sha256(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+
+        Scan scan = new Scan();
+        try {
+            if (bytes.length >= 2 && (bytes[0] & 0xFF) == 0xFF && (bytes[1] & 0xFF) == 0xD8) {
+                JpegSegmentScanner.Headers headers = JpegSegmentScanner.scan(ByteBuffer.wrap(bytes));
+                scan.exif = headers.exif();
+                scan.dimensions = headers.dimensions();
+            } else if (bytes.length >= 8 && ByteBuffer.wrap(bytes).getLong() == 0x89504E470D0A1A0AL) {
+                PngChunkReader.Headers headers = PngChunkReader.scan(ByteBuffer.wrap(bytes));
+                scan.exif = headers.exif();
+                scan.dimensions = headers.dimensions();
+            } else if (bytes.length >= 12
+                    && new String(bytes, 4, 4, StandardCharsets.ISO_8859_1).equals("ftyp")) {
+                HeifBoxParser.Headers headers = HeifBoxParser.scan(ByteBuffer.wrap(bytes));
+                scan.exif = headers.exif();
+                scan.dimensions = headers.dimensions();
+            }
+        } catch (RuntimeException e) {
+            // Truncated or malformed container; whatever was found so far is kept.
+            logger.log(Level.FINE, "Header scan stopped early: " + e.getMessage());
+        }
+
+        ImageUtils.ExifData exif = new ImageUtils.ExifData();
+        if (scan.exif != null) {
+            try {
+                exif = ExifParser.parse(scan.exif);
+            } catch (RuntimeException e) {
+                if (!assumeExifParsable) {
+                    throw new IOException("Malformed EXIF: " + e.getMessage(), e);
+                }
+                logger.log(Level.FINE, "Ignoring EXIF parse failure: " + e.getMessage());
+            }
+        }
+
+        ImageUtils.Dimensions dims = scan.dimensions;
+        if (dims == null) {
+            dims = ImageUtils.probeWithImageReader(new ByteArrayInputStream(bytes));
+        }
+        return new Analysis(bytes, sha256, exif, dims);
+    }
+
+    /** What the header walk found; either field may stay null. */
+    private static final class Scan {
+        ByteBuffer exif;
+        ImageUtils.Dimensions dimensions;
+    }
+}
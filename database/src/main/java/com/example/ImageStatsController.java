@@ -1,119 +1,110 @@
 package com.example;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/api")
 public class ImageStatsController {
 
+    private static final Logger logger = Logger.getLogger(ImageStatsController.class.getName());
+    // Spring owns the servlet stream; generators only flush it.
+    private static final JsonFactory JSON = new ObjectMapper().getFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private static final int MAX_SPATIAL_RESULTS = 5000;
+    private static final int MAX_LOCATION_PAGE = 10000;
+    private static final int MAX_CLUSTER_ZOOM = 22;
+    private static final int CLUSTER_CELLS_PER_TILE = 4;
+    private static final int MAX_CLUSTER_CELLS = 64;
+
     /**
-     * Inputs: None (HTTP GET /api/images/summary)
+     * Inputs: ifNoneMatch (String, optional If-None-Match header)
+     * (HTTP GET /api/images/summary)
      * Outputs: ResponseEntity<?> — 200 OK with a JSON object containing:
-     * "uploadsByDate" (list of {date, count, elkTotal}),
+     * "uploadsByDate" and "takenByDate" (lists of {date, count, elkTotal}),
      * "total" (int), "withGps" (int), "withoutGps" (int),
-     * "totalElk" (int), "processedCount" (int);
+     * "totalElk" (int), "processedCount" (int),
+     * "imagesWithoutDate" (int), "elkWithoutDate" (int);
      * 500 Internal Server Error on DB failure
-     * Functionality: Aggregates three DB queries — daily upload counts with elk
-     * totals, GPS coverage
-     * counts, and processed image count — into a single summary response for the
-     * frontend dashboard.
-     * Dependencies: db.connect, java.sql.PreparedStatement, java.sql.ResultSet,
+     * Functionality: Builds the dashboard summary from the per-day rollups that
+     * triggers on postgres.images keep current, so the cost scales with the number
+     * of days rather than the number of images. Totals come from the upload-date
+     * rollup, which counts every image exactly once. The serialized response is
+     * held in ResponseCache until the next image write or TTL expiry; 304 Not
+     * Modified is returned when the client's ETag still matches.
+     * Dependencies: db.connect, db.getDailyRollups, cachedJson,
      * org.springframework.http.ResponseEntity
      * Called by: HTTP clients (frontend dashboard) via GET /api/images/summary
      */
     @GetMapping("/images/summary")
-    public ResponseEntity<?> getImagesSummary() {
-        try (Connection conn = db.connect()) {
-
-            try (var s = conn.createStatement()) {
-                s.execute("set search_path to postgres");
-            }
+    public ResponseEntity<?> getImagesSummary(
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        try {
+            return cachedJson("summary", ifNoneMatch, ImageStatsController::buildSummary);
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
 
-            // Uploads by date — also include elk count per day
-            String dateSql = "SELECT datetime_uploaded::date AS upload_date, " +
-                    "COUNT(*) AS count, " +
-                    "SUM(CASE WHEN elk_count IS NOT NULL THEN elk_count ELSE 0 END) AS elk_total " +
-                    "FROM postgres.images " +
-                    "GROUP BY datetime_uploaded::date " +
-                    "ORDER BY datetime_uploaded::date ASC";
+    private static Map<String, Object> buildSummary() throws Exception {
+        try (Connection conn = db.connect()) {
 
             List<Map<String, Object>> uploadsByDate = new ArrayList<>();
-            int total = 0;
-            int totalElk = 0;
-
-            try (PreparedStatement ps = conn.prepareStatement(dateSql);
-                    ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    Map<String, Object> row = new HashMap<>();
-                    row.put("date", rs.getDate("upload_date").toString());
-                    row.put("count", rs.getInt("count"));
-                    row.put("elkTotal", rs.getInt("elk_total"));
-                    uploadsByDate.add(row);
-                    total += rs.getInt("count");
-                    totalElk += rs.getInt("elk_total");
-                }
-            }
+            long total = 0;
+            long totalElk = 0;
+            long withGps = 0, withoutGps = 0;
+            long processedCount = 0;
 
-            // GPS coverage counts
-            String gpsSql = "SELECT " +
-                    "COUNT(*) FILTER (WHERE gps_flag = true) AS with_gps, " +
-                    "COUNT(*) FILTER (WHERE gps_flag = false OR gps_flag IS NULL) AS without_gps " +
-                    "FROM postgres.images";
-
-            int withGps = 0, withoutGps = 0;
-            try (PreparedStatement ps = conn.prepareStatement(gpsSql);
-                    ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    withGps = rs.getInt("with_gps");
-                    withoutGps = rs.getInt("without_gps");
+            for (db.DailyRollup day : db.getDailyRollups(conn, db.RollupDimension.UPLOADED)) {
+                if (day.day() != null) {
+                    uploadsByDate.add(rollupToJson(day));
                 }
+                total += day.imageCount();
+                totalElk += day.elkTotal();
+                withGps += day.gpsCount();
+                withoutGps += day.noGpsCount();
+                processedCount += day.processedCount();
             }
 
-            // Processed count
-            String processedSql = "SELECT COUNT(*) AS processed_count FROM postgres.images WHERE processed_status = true";
-            int processedCount = 0;
-            try (PreparedStatement ps = conn.prepareStatement(processedSql);
-                    ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    processedCount = rs.getInt("processed_count");
-                }
-            }
-
-            // Taken by date
-            String takenSql = "SELECT datetime_taken::date AS taken_date, " +
-                    "COUNT(*) AS count, " +
-                    "SUM(CASE WHEN elk_count IS NOT NULL THEN elk_count ELSE 0 END) AS elk_total " +
-                    "FROM postgres.images " +
-                    "WHERE datetime_taken IS NOT NULL " +
-                    "GROUP BY datetime_taken::date " +
-                    "ORDER BY datetime_taken::date ASC";
-
             List<Map<String, Object>> takenByDate = new ArrayList<>();
-            int imagesWithoutDate = 0;
-            int elkWithoutDate = 0;
-
-            try (PreparedStatement ps = conn.prepareStatement(takenSql);
-                    ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    Map<String, Object> row = new HashMap<>();
-                    row.put("date", rs.getDate("taken_date").toString());
-                    row.put("count", rs.getInt("count"));
-                    row.put("elkTotal", rs.getInt("elk_total"));
-                    takenByDate.add(row);
+            long imagesWithoutDate = 0;
+            long elkWithoutDate = 0;
+
+            for (db.DailyRollup day : db.getDailyRollups(conn, db.RollupDimension.TAKEN)) {
+                if (day.day() == null) {
+                    imagesWithoutDate = day.imageCount();
+                    elkWithoutDate = day.elkTotal();
+                } else {
+                    takenByDate.add(rollupToJson(day));
                 }
             }
 
@@ -127,60 +118,457 @@ public class ImageStatsController {
             response.put("processedCount", processedCount);
             response.put("imagesWithoutDate", imagesWithoutDate);
             response.put("elkWithoutDate", elkWithoutDate);
-
-            return ResponseEntity.ok(response);
-
-        } catch (Exception e) {
-            return ResponseEntity.internalServerError()
-                    .body(Map.of("error", e.getMessage()));
+            return response;
         }
     }
 
+    private static Map<String, Object> rollupToJson(db.DailyRollup day) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("date", day.day().toString());
+        row.put("count", day.imageCount());
+        row.put("elkTotal", day.elkTotal());
+        return row;
+    }
+
     /**
-     * Inputs: None (HTTP GET /api/images/locations)
-     * Outputs: ResponseEntity<?> — 200 OK with JSON {"locations": [{filename,
-     * latitude, longitude,
-     * altitude, datetimeTaken, elkCount}, ...]}, ordered by datetime_taken DESC;
-     * 500 Internal Server Error on DB failure
-     * Functionality: Returns all images that have GPS coordinates so the frontend
-     * map can plot
-     * observation locations with elk count markers.
+     * Inputs: minLat, minLon, maxLat, maxLon (Double, optional, all four or none) —
+     * bounding box; start, end (String yyyy-MM-dd, optional, inclusive) — taken
+     * date range; minElk (int, default 1; 0 also returns images without a count);
+     * limit (Integer, optional, default and max 10000) — page size; cursor (String, optional) —
+     * nextCursor from the previous page; ifNoneMatch (If-None-Match header)
+     * (HTTP GET /api/images/locations)
+     * Outputs: ResponseEntity<StreamingResponseBody> — 200 OK with JSON
+     * {"locations": [{filename, latitude, longitude, altitude, datetimeTaken,
+     * elkCount}, ...], "nextCursor"} newest first (undated images last);
+     * nextCursor is null on the last page; 304 Not Modified if the ETag matches;
+     * 400 Bad Request on invalid parameters
+     * Functionality: Streams matching GPS images straight from a server-side cursor
+     * into a Jackson generator, so memory stays constant however many rows match.
+     * Without limit or cursor the whole keyset scan is streamed and nextCursor is
+     * null. Given either, the feed is keyset-paginated on (datetime_taken, id) and a
+     * page never exceeds MAX_LOCATION_PAGE rows, so a slow client holds a pooled
+     * connection for one bounded page; it follows nextCursor for more.
+     * The ETag is a weak ResponseCache version tag, so unchanged data is answered
+     * with 304 before any query runs.
+     * Dependencies: db.streamLocations, ResponseCache.versionTag,
+     * com.fasterxml.jackson.core.JsonGenerator
+     * Called by: Frontend map via GET /api/images/locations
      */
     @GetMapping("/images/locations")
-    public ResponseEntity<?> getImageLocations() {
-        try (Connection conn = db.connect()) {
+    public ResponseEntity<StreamingResponseBody> getImageLocations(
+            @RequestParam(required = false) Double minLat,
+            @RequestParam(required = false) Double minLon,
+            @RequestParam(required = false) Double maxLat,
+            @RequestParam(required = false) Double maxLon,
+            @RequestParam(required = false) String start,
+            @RequestParam(required = false) String end,
+            @RequestParam(defaultValue = "1") int minElk,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
 
-            try (var s = conn.createStatement()) {
-                s.execute("set search_path to postgres");
+        int boxParams = (minLat != null ? 1 : 0) + (minLon != null ? 1 : 0)
+                + (maxLat != null ? 1 : 0) + (maxLon != null ? 1 : 0);
+        if (boxParams != 0 && boxParams != 4) {
+            return jsonError(HttpStatus.BAD_REQUEST, "minLat, minLon, maxLat and maxLon must be given together");
+        }
+        if (limit != null && (limit < 1 || limit > MAX_LOCATION_PAGE)) {
+            return jsonError(HttpStatus.BAD_REQUEST, "limit must be between 1 and " + MAX_LOCATION_PAGE);
+        }
+
+        db.LocationFilter filter;
+        try {
+            filter = new db.LocationFilter(minLat, minLon, maxLat, maxLon,
+                    start != null ? LocalDate.parse(start) : null,
+                    end != null ? LocalDate.parse(end) : null,
+                    minElk);
+        } catch (DateTimeParseException e) {
+            return jsonError(HttpStatus.BAD_REQUEST, "start and end must be dates in yyyy-MM-dd format");
+        }
+
+        String afterSortKey = null;
+        long afterId = 0;
+        if (cursor != null) {
+            try {
+                String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int sep = decoded.lastIndexOf('|');
+                afterSortKey = decoded.substring(0, sep);
+                afterId = Long.parseLong(decoded.substring(sep + 1));
+            } catch (RuntimeException e) {
+                return jsonError(HttpStatus.BAD_REQUEST, "Invalid cursor");
             }
+        }
 
-            String sql = "SELECT filename, latitude, longitude, altitude, datetime_taken, elk_count " +
-                    "FROM postgres.images " +
-                    "WHERE gps_flag = true AND latitude IS NOT NULL AND longitude IS NOT NULL AND elk_count > 0 " +
-                    "ORDER BY datetime_taken DESC";
-
-            List<Map<String, Object>> locations = new ArrayList<>();
-            try (PreparedStatement ps = conn.prepareStatement(sql);
-                    ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    Map<String, Object> loc = new HashMap<>();
-                    loc.put("filename", rs.getString("filename"));
-                    loc.put("latitude", rs.getDouble("latitude"));
-                    loc.put("longitude", rs.getDouble("longitude"));
-                    loc.put("altitude", rs.getObject("altitude"));
+        // Paging is opt-in: a bare request streams the whole keyset scan as before.
+        boolean paged = limit != null || cursor != null;
+        int pageSize = !paged ? 0 : limit != null ? limit : MAX_LOCATION_PAGE;
+        ResponseCache cache = ResponseCache.shared();
+        String etag = cache.versionTag("locations?" + filter + "&limit=" + pageSize + "&cursor=" + cursor);
+        if (cache.notModified(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .cacheControl(CacheControl.noCache())
+                    .build();
+        }
+
+        String fromSortKey = afterSortKey;
+        long fromId = afterId;
+        StreamingResponseBody body = out -> {
+            try (Connection conn = db.connect();
+                    JsonGenerator json = JSON.createGenerator(out)) {
+                json.writeStartObject();
+                json.writeArrayFieldStart("locations");
+
+                // Fetch one extra row to learn whether another page exists.
+                String[] last = new String[2];
+                int[] written = { 0 };
+                boolean[] more = { false };
+                db.streamLocations(conn, filter, fromSortKey, fromId, paged ? pageSize + 1 : 0, rs -> {
+                    if (paged && written[0] == pageSize) {
+                        more[0] = true;
+                        return;
+                    }
+                    json.writeStartObject();
+                    json.writeStringField("filename", rs.getString("filename"));
+                    json.writeNumberField("latitude", rs.getDouble("latitude"));
+                    json.writeNumberField("longitude", rs.getDouble("longitude"));
+                    writeNullableNumber(json, "altitude", rs.getObject("altitude", Double.class));
                     Timestamp ts = rs.getTimestamp("datetime_taken");
-                    loc.put("datetimeTaken", ts != null ? ts.toString() : null);
-                    loc.put("elkCount", rs.getObject("elk_count"));
-                    locations.add(loc);
-                }
+                    json.writeStringField("datetimeTaken", ts != null ? ts.toString() : null);
+                    writeNullableNumber(json, "elkCount", rs.getObject("elk_count", Integer.class));
+                    json.writeEndObject();
+                    last[0] = rs.getString("sort_key");
+                    last[1] = rs.getString("id");
+                    written[0]++;
+                });
+
+                json.writeEndArray();
+                json.writeStringField("nextCursor", more[0]
+                        ? Base64.getUrlEncoder().withoutPadding()
+                                .encodeToString((last[0] + "|" + last[1]).getBytes(StandardCharsets.UTF_8))
+                        : null);
+                json.writeEndObject();
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                // Headers are already sent; the client sees a truncated document.
+                logger.log(Level.WARNING, "Streaming /images/locations failed", e);
+                throw new IOException(e);
             }
+        };
+
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
 
-            return ResponseEntity.ok(Map.of("locations", locations));
+    private static void writeNullableNumber(JsonGenerator json, String field, Number value) throws IOException {
+        if (value == null) {
+            json.writeNullField(field);
+        } else if (value instanceof Integer i) {
+            json.writeNumberField(field, i);
+        } else {
+            json.writeNumberField(field, value.doubleValue());
+        }
+    }
+
+    private static ResponseEntity<StreamingResponseBody> jsonError(HttpStatus status, String message) {
+        return ResponseEntity.status(status)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(out -> {
+                    try (JsonGenerator json = JSON.createGenerator(out)) {
+                        json.writeObject(Map.of("error", message));
+                    }
+                });
+    }
+
+    /**
+     * Inputs: key (String) — ResponseCache key; ifNoneMatch (String) — request
+     * If-None-Match header, may be null; loader (ResponseCache.Loader) — builds the
+     * payload on a cache miss
+     * Outputs: ResponseEntity<?> — 304 Not Modified when the client's ETag matches,
+     * otherwise 200 OK with the cached JSON body; both carry the strong ETag and
+     * Cache-Control: no-cache so browsers revalidate on every use
+     * Functionality: Shared conditional-GET plumbing for cached dashboard endpoints.
+     * Dependencies: ResponseCache
+     * Called by: getImagesSummary
+     */
+    private static ResponseEntity<?> cachedJson(String key, String ifNoneMatch, ResponseCache.Loader loader)
+            throws Exception {
+        ResponseCache cache = ResponseCache.shared();
+        ResponseCache.Entry entry = cache.get(key, loader);
+        if (cache.notModified(ifNoneMatch, entry.etag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(entry.etag())
+                    .cacheControl(CacheControl.noCache())
+                    .build();
+        }
+        return ResponseEntity.ok()
+                .eTag(entry.etag())
+                .cacheControl(CacheControl.noCache())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(entry.body());
+    }
+
+    /**
+     * Inputs: None (HTTP GET /api/images/cache-stats)
+     * Outputs: ResponseEntity<?> — 200 OK with {hits, misses, notModified,
+     * invalidations, hitRatio, entries, ttlSeconds}
+     * Functionality: Exposes the response cache counters for monitoring.
+     * Dependencies: ResponseCache.stats
+     * Called by: Operators / monitoring via GET /api/images/cache-stats
+     */
+    @GetMapping("/images/cache-stats")
+    public ResponseEntity<?> getCacheStats() {
+        return ResponseEntity.ok(ResponseCache.shared().stats());
+    }
 
+    /**
+     * Inputs: lat, lon (double) — search center; radiusKm (double, default 5);
+     * minElk (int, default 0); limit (int, default 500, max 5000)
+     * (HTTP GET /api/images/nearby)
+     * Outputs: ResponseEntity<?> — 200 OK with {"images": [{sha256, latitude,
+     * longitude, datetimeTaken, elkCount, distanceKm}, ...], "source":
+     * "index"|"database"}, nearest first; 500 on DB failure
+     * Functionality: Radius search over processed images. Served from the
+     * in-memory LocationIndex when it is loaded, otherwise from
+     * db.getImagesByLocation.
+     * Dependencies: LocationIndex, db.connect, db.getImagesByLocation
+     * Called by: Frontend map radius search via GET /api/images/nearby
+     */
+    @GetMapping("/images/nearby")
+    public ResponseEntity<?> getNearbyImages(
+            @RequestParam("lat") double lat,
+            @RequestParam("lon") double lon,
+            @RequestParam(value = "radiusKm", defaultValue = "5") double radiusKm,
+            @RequestParam(value = "minElk", defaultValue = "0") int minElk,
+            @RequestParam(value = "limit", defaultValue = "500") int limit) {
+        int cappedLimit = Math.max(1, Math.min(limit, MAX_SPATIAL_RESULTS));
+        LocationIndex index = LocationIndex.shared();
+        if (index.isLoaded()) {
+            return ResponseEntity.ok(Map.of(
+                    "images", hitsToJson(index.radius(lat, lon, radiusKm, minElk, cappedLimit)),
+                    "source", "index"));
+        }
+        try (Connection conn = db.connect()) {
+            List<Metadata> rows = db.getImagesByLocation(conn, lat, lon, radiusKm);
+            return ResponseEntity.ok(Map.of(
+                    "images", metadataToJson(rows, lat, lon, minElk, cappedLimit),
+                    "source", "database"));
         } catch (Exception e) {
-            return ResponseEntity.internalServerError()
-                    .body(Map.of("error", e.getMessage()));
+            return ResponseEntity.internalServerError().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * Inputs: lat, lon (double) — query point; k (int, default 10, max 5000);
+     * minElk (int, default 0) (HTTP GET /api/images/nearest)
+     * Outputs: ResponseEntity<?> — 200 OK with {"images": [...], "source": ...}
+     * in the same shape as /images/nearby, nearest first; 500 on DB failure
+     * Functionality: k-nearest processed images to a point, from the
+     * LocationIndex when loaded, otherwise from db.getNearestImages.
+     * Dependencies: LocationIndex, db.connect, db.getNearestImages
+     * Called by: Frontend map "closest sightings" panel via GET /api/images/nearest
+     */
+    @GetMapping("/images/nearest")
+    public ResponseEntity<?> getNearestImages(
+            @RequestParam("lat") double lat,
+            @RequestParam("lon") double lon,
+            @RequestParam(value = "k", defaultValue = "10") int k,
+            @RequestParam(value = "minElk", defaultValue = "0") int minElk) {
+        int cappedK = Math.max(1, Math.min(k, MAX_SPATIAL_RESULTS));
+        LocationIndex index = LocationIndex.shared();
+        if (index.isLoaded()) {
+            return ResponseEntity.ok(Map.of(
+                    "images", hitsToJson(index.nearest(lat, lon, cappedK, minElk)),
+                    "source", "index"));
+        }
+        try (Connection conn = db.connect()) {
+            // Over-fetch when filtering by elk so the filter does not starve the result.
+            int fetch = minElk > 0 ? Math.min(MAX_SPATIAL_RESULTS, cappedK * 4) : cappedK;
+            List<Metadata> rows = db.getNearestImages(conn, lat, lon, fetch);
+            return ResponseEntity.ok(Map.of(
+                    "images", metadataToJson(rows, lat, lon, minElk, cappedK),
+                    "source", "database"));
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * Inputs: minLat, minLon, maxLat, maxLon (double) — viewport corners;
+     * minElk (int, default 0); limit (int, default 500, max 5000)
+     * (HTTP GET /api/images/within)
+     * Outputs: ResponseEntity<?> — 200 OK with {"images": [...], "source": ...},
+     * newest datetime_taken first; distanceKm is 0; 500 on DB failure
+     * Functionality: Bounding-box query for map viewports, from the LocationIndex
+     * when loaded, otherwise from db.getImagesInBoundingBox.
+     * Dependencies: LocationIndex, db.connect, db.getImagesInBoundingBox
+     * Called by: Frontend map viewport via GET /api/images/within
+     */
+    @GetMapping("/images/within")
+    public ResponseEntity<?> getImagesWithin(
+            @RequestParam("minLat") double minLat,
+            @RequestParam("minLon") double minLon,
+            @RequestParam("maxLat") double maxLat,
+            @RequestParam("maxLon") double maxLon,
+            @RequestParam(value = "minElk", defaultValue = "0") int minElk,
+            @RequestParam(value = "limit", defaultValue = "500") int limit) {
+        int cappedLimit = Math.max(1, Math.min(limit, MAX_SPATIAL_RESULTS));
+        LocationIndex index = LocationIndex.shared();
+        if (index.isLoaded()) {
+            return ResponseEntity.ok(Map.of(
+                    "images", hitsToJson(index.boundingBox(minLat, minLon, maxLat, maxLon, minElk, cappedLimit)),
+                    "source", "index"));
+        }
+        try (Connection conn = db.connect()) {
+            List<Metadata> rows = db.getImagesInBoundingBox(conn, minLat, minLon, maxLat, maxLon);
+            List<Map<String, Object>> images = metadataToJson(rows, Double.NaN, Double.NaN, minElk, cappedLimit);
+            return ResponseEntity.ok(Map.of("images", images, "source", "database"));
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * Inputs: zoom (int, 0-22) — map zoom level; minLat, minLon, maxLat, maxLon
+     * (double) — viewport corners; minElk (int, default 0)
+     * (HTTP GET /api/images/clusters)
+     * Outputs: ResponseEntity<?> — 200 OK with {"zoom", "cellSizeDeg", "clusters":
+     * [{latitude, longitude, count, elkSum, firstTaken, lastTaken}, ...],
+     * "source": "index"|"database"}; 400 on an invalid zoom; 500 on DB failure
+     * Functionality: Server-side clustering for the map. Points are bucketed into a
+     * grid aligned to (0, 0) whose cell size follows the zoom level, so clusters
+     * stay put while panning. The cell size is also widened until the viewport
+     * spans at most MAX_CLUSTER_CELLS cells per axis, which bounds the payload
+     * regardless of archive size. Served from the LocationIndex when loaded,
+     * otherwise aggregated in SQL.
+     * Dependencies: LocationIndex.grid, db.getImageClusters, clusterCellDegrees
+     * Called by: Frontend map via GET /api/images/clusters
+     */
+    @GetMapping("/images/clusters")
+    public ResponseEntity<?> getImageClusters(
+            @RequestParam("zoom") int zoom,
+            @RequestParam("minLat") double minLat,
+            @RequestParam("minLon") double minLon,
+            @RequestParam("maxLat") double maxLat,
+            @RequestParam("maxLon") double maxLon,
+            @RequestParam(value = "minElk", defaultValue = "0") int minElk) {
+        if (zoom < 0 || zoom > MAX_CLUSTER_ZOOM) {
+            return ResponseEntity.badRequest().body(Map.of("error", "zoom must be between 0 and " + MAX_CLUSTER_ZOOM));
+        }
+        double cellDeg = clusterCellDegrees(zoom, Math.abs(maxLat - minLat), Math.abs(maxLon - minLon));
+
+        List<LocationIndex.Cluster> clusters;
+        String source;
+        LocationIndex index = LocationIndex.shared();
+        if (index.isLoaded()) {
+            clusters = index.grid(minLat, minLon, maxLat, maxLon, cellDeg, minElk);
+            source = "index";
+        } else {
+            try (Connection conn = db.connect()) {
+                clusters = db.getImageClusters(conn, minLat, minLon, maxLat, maxLon, cellDeg, minElk);
+                source = "database";
+            } catch (Exception e) {
+                return ResponseEntity.internalServerError().body(Map.of("error", e.getMessage()));
+            }
+        }
+
+        List<Map<String, Object>> json = new ArrayList<>(clusters.size());
+        for (LocationIndex.Cluster c : clusters) {
+            Map<String, Object> cluster = new HashMap<>();
+            cluster.put("latitude", c.latitude());
+            cluster.put("longitude", c.longitude());
+            cluster.put("count", c.count());
+            cluster.put("elkSum", c.elkSum());
+            cluster.put("firstTaken",
+                    c.firstTakenMillis() != null ? new Timestamp(c.firstTakenMillis()).toString() : null);
+            cluster.put("lastTaken",
+                    c.lastTakenMillis() != null ? new Timestamp(c.lastTakenMillis()).toString() : null);
+            json.add(cluster);
         }
+        return ResponseEntity.ok(Map.of(
+                "zoom", zoom,
+                "cellSizeDeg", cellDeg,
+                "clusters", json,
+                "source", source));
+    }
+
+    /**
+     * Inputs: zoom (int) — map zoom level; spanLat, spanLon (double) — viewport
+     * size in degrees
+     * Outputs: double — grid cell edge in degrees, always 360 / 2^n
+     * Functionality: Starts from CLUSTER_CELLS_PER_TILE cells per web-map tile at
+     * this zoom and doubles the cell until the viewport fits in MAX_CLUSTER_CELLS
+     * cells per axis. Keeping sizes to powers of two means neighbouring viewports
+     * share cell boundaries.
+     * Dependencies: None
+     * Called by: getImageClusters
+     */
+    static double clusterCellDegrees(int zoom, double spanLat, double spanLon) {
+        double cellDeg = 360.0 / ((1L << zoom) * CLUSTER_CELLS_PER_TILE);
+        double span = Math.max(spanLat, spanLon);
+        while (cellDeg < 360.0 && span / cellDeg > MAX_CLUSTER_CELLS) {
+            cellDeg *= 2;
+        }
+        return cellDeg;
+    }
+
+    /**
+     * Inputs: hits (List<LocationIndex.Hit>) — index query results
+     * Outputs: List<Map<String, Object>> — JSON-ready rows
+     * Functionality: Shapes index hits like the database fallback rows.
+     * Dependencies: None
+     * Called by: getNearbyImages, getNearestImages, getImagesWithin
+     */
+    private static List<Map<String, Object>> hitsToJson(List<LocationIndex.Hit> hits) {
+        List<Map<String, Object>> images = new ArrayList<>(hits.size());
+        for (LocationIndex.Hit hit : hits) {
+            Map<String, Object> image = new HashMap<>();
+            image.put("sha256", hit.sha256());
+            image.put("latitude", hit.latitude());
+            image.put("longitude", hit.longitude());
+            image.put("datetimeTaken",
+                    hit.takenMillis() != null ? new Timestamp(hit.takenMillis()).toString() : null);
+            image.put("elkCount", hit.elkCount());
+            image.put("distanceKm", hit.distanceKm());
+            images.add(image);
+        }
+        return images;
+    }
+
+    /**
+     * Inputs: rows (List<Metadata>) — database fallback rows; centerLat/centerLon
+     * (double) — query point, or NaN when there is none; minElk (int); limit (int)
+     * Outputs: List<Map<String, Object>> — JSON-ready rows in the same shape as
+     * hitsToJson
+     * Functionality: Applies the elk filter and limit the SQL fallbacks do not.
+     * Dependencies: LocationIndex.haversineKm
+     * Called by: getNearbyImages, getNearestImages, getImagesWithin
+     */
+    private static List<Map<String, Object>> metadataToJson(List<Metadata> rows, double centerLat,
+            double centerLon, int minElk, int limit) {
+        List<Map<String, Object>> images = new ArrayList<>();
+        for (Metadata m : rows) {
+            if (images.size() >= limit) {
+                break;
+            }
+            if (minElk > 0 && (m.elk_count == null || m.elk_count < minElk)) {
+                continue;
+            }
+            Map<String, Object> image = new HashMap<>();
+            image.put("sha256", m.sha256);
+            image.put("latitude", m.latitude);
+            image.put("longitude", m.longitude);
+            image.put("datetimeTaken", m.datetime);
+            image.put("elkCount", m.elk_count);
+            image.put("distanceKm", Double.isNaN(centerLat) ? 0.0
+                    : LocationIndex.haversineKm(centerLat, centerLon, m.latitude, m.longitude));
+            images.add(image);
+        }
+        return images;
     }
 
     /**
@@ -226,6 +614,7 @@ public class ImageStatsController {
      * Outputs: ResponseEntity<?> — 200 OK on success; 400/500 on error
      * Functionality: Saves a manually pinned GPS location for an image that had no
      * EXIF GPS data.
+     * Dependencies: db.connect, db.updateLocation
      * Called by: Frontend LocationPicker via POST /api/images/update-location
      */
     @PostMapping("/images/update-location")
@@ -245,15 +634,7 @@ public class ImageStatsController {
             return ResponseEntity.badRequest().body(Map.of("error", "latitude and longitude must be numbers"));
         }
         try (Connection conn = db.connect()) {
-            String sql = "UPDATE postgres.images SET latitude = ?, longitude = ?, gps_flag = true WHERE img_hash = ?";
-            try (java.sql.PreparedStatement ps = conn.prepareStatement(sql)) {
-                ps.setDouble(1, latitude);
-                ps.setDouble(2, longitude);
-                ps.setString(3, sha256);
-                ps.executeUpdate();
-                if (!conn.getAutoCommit())
-                    conn.commit();
-            }
+            db.updateLocation(conn, sha256, latitude, longitude);
             return ResponseEntity.ok(Map.of("status", "updated", "latitude", latitude, "longitude", longitude));
         } catch (Exception e) {
             return ResponseEntity.internalServerError().body(Map.of("error", e.getMessage()));
@@ -266,6 +647,7 @@ public class ImageStatsController {
      * Outputs: ResponseEntity<?> — 200 OK on success; 400/500 on error
      * Functionality: Updates the datetime_taken field for an image that had no EXIF
      * date, or corrects it.
+     * Dependencies: db.connect, db.updateDatetime
      * Called by: Frontend DateTakenEditor via POST /api/images/update-datetime
      */
     @PostMapping("/images/update-datetime")
@@ -278,14 +660,7 @@ public class ImageStatsController {
         String sha256 = rawSha256.toString();
         String datetimeStr = rawDatetime.toString();
         try (Connection conn = db.connect()) {
-            String sql = "UPDATE postgres.images SET datetime_taken = to_timestamp(?, 'YYYY-MM-DD HH24:MI:SS') WHERE img_hash = ?";
-            try (java.sql.PreparedStatement ps = conn.prepareStatement(sql)) {
-                ps.setString(1, datetimeStr);
-                ps.setString(2, sha256);
-                ps.executeUpdate();
-                if (!conn.getAutoCommit())
-                    conn.commit();
-            }
+            db.updateDatetime(conn, sha256, datetimeStr);
             return ResponseEntity.ok(Map.of("status", "updated", "datetimeTaken", datetimeStr));
         } catch (Exception e) {
             return ResponseEntity.internalServerError().body(Map.of("error", e.getMessage()));
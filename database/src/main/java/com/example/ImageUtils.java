@@ -5,6 +5,7 @@ import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -12,15 +13,19 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.DigestInputStream;
+import java.util.Iterator;
 import java.util.Objects;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 public class ImageUtils {
 
@@ -29,8 +34,6 @@ public class ImageUtils {
         Double lat, lon, alt;
     }
 
-    private static int tiffBase;
-
     /**
      * Inputs:      f (File) — source image file (any supported format)
      * Outputs:     File — the original file if already JPEG; otherwise a new .jpeg file in the same directory
@@ -71,34 +74,87 @@ public class ImageUtils {
         return jpgFile;
     }
 
+    /** Pixel dimensions of an image as stored (EXIF orientation / HEIF rotation not applied). */
+    record Dimensions(int width, int height) {
+    }
+
     /**
      * Inputs:      f (File) — image file on disk
      * Outputs:     int — pixel width of the image
-     * Functionality: Reads the image fully into memory via ImageIO and returns its width.
-     * Dependencies: javax.imageio.ImageIO
-     * Called by:   db.loadMetadata
+     * Functionality: Returns the width from probeDimensions.
+     * Dependencies: probeDimensions
+     * Called by:   Legacy/manual tooling
      */
     public static int getWidth(File f) throws IOException {
-        BufferedImage img = ImageIO.read(f);
-        if (img == null) {
-            throw new IOException("Not an image: " + f);
-        }
-        return img.getWidth();
+        return probeDimensions(f).width();
     }
 
     /**
      * Inputs:      f (File) — image file on disk
      * Outputs:     int — pixel height of the image
-     * Functionality: Reads the image fully into memory via ImageIO and returns its height.
-     * Dependencies: javax.imageio.ImageIO
-     * Called by:   db.loadMetadata
+     * Functionality: Returns the height from probeDimensions.
+     * Dependencies: probeDimensions
+     * Called by:   Legacy/manual tooling
      */
     public static int getHeight(File f) throws IOException {
-        BufferedImage img = ImageIO.read(f);
-        if (img == null) {
-            throw new IOException("Not an image: " + f);
+        return probeDimensions(f).height();
+    }
+
+    /**
+     * Inputs:      f (File) — image file on disk
+     * Outputs:     Dimensions — pixel width and height
+     * Functionality: Reads only the container headers: the SOFn segment for JPEG, IHDR for PNG and
+     *               the primary item's ispe property for HEIC/HEIF/AVIF. Anything else (or a header
+     *               that cannot be found) falls back to an ImageIO reader's getWidth(0)/getHeight(0),
+     *               which also reads headers only and never decodes pixels.
+     * Dependencies: JpegSegmentScanner.scan, PngChunkReader.scan, HeifBoxParser.scan, probeWithImageReader,
+     *               java.io.RandomAccessFile
+     * Called by:   db.loadMetadata, getWidth, getHeight
+     */
+    public static Dimensions probeDimensions(File f) throws IOException {
+        Dimensions dims = null;
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            byte[] head = new byte[12];
+            int n = raf.read(head);
+            raf.seek(0);
+            if (n >= 2 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xD8) {
+                dims = JpegSegmentScanner.scan(raf.getChannel()).dimensions();
+            } else if (n >= 8 && readIntBE(head, 0) == 0x89504E47 && readIntBE(head, 4) == 0x0D0A1A0A) {
+                dims = PngChunkReader.scan(raf.getChannel()).dimensions();
+            } else if (n >= 12 && new String(head, 4, 4, StandardCharsets.ISO_8859_1).equals("ftyp")) {
+                dims = HeifBoxParser.scan(raf.getChannel()).dimensions();
+            }
+        } catch (EOFException | BufferUnderflowException | IllegalArgumentException e) {
+            // Truncated or malformed header; let ImageIO decide.
         }
-        return img.getHeight();
+        return dims != null ? dims : probeWithImageReader(f);
+    }
+
+    /**
+     * Inputs:      source (Object) — File or InputStream in any format an installed ImageIO plugin
+     *              understands
+     * Outputs:     Dimensions — from ImageReader.getWidth(0)/getHeight(0)
+     * Functionality: Opens a reader on an ImageInputStream and asks for the first image's size,
+     *               which only parses headers; pixels are never decoded.
+     * Dependencies: javax.imageio.ImageIO, javax.imageio.ImageReader
+     * Called by:   probeDimensions, ImageAnalyzer.analyze
+     */
+    static Dimensions probeWithImageReader(Object source) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source)) {
+            if (in != null) {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+                if (readers.hasNext()) {
+                    ImageReader reader = readers.next();
+                    try {
+                        reader.setInput(in, true, true);
+                        return new Dimensions(reader.getWidth(0), reader.getHeight(0));
+                    } finally {
+                        reader.dispose();
+                    }
+                }
+            }
+        }
+        throw new IOException("Not an image: " + source);
     }
 
     /**
@@ -134,7 +190,7 @@ public class ImageUtils {
      * Outputs:     File — JPEG file in the same directory with EXIF data preserved
      * Functionality: Converts a PNG to JPEG, extracts any embedded EXIF chunk from the PNG,
      *               composites alpha onto white, and re-injects the EXIF data into the JPEG.
-     * Dependencies: javax.imageio.ImageIO, java.awt.Graphics2D, extractExifFromPng,
+     * Dependencies: javax.imageio.ImageIO, java.awt.Graphics2D, readPngExif,
      *               insertExifIntoJpeg, java.io.BufferedOutputStream
      * Called by:   ImageUtils.main (test/manual conversion)
      */
@@ -149,8 +205,7 @@ public class ImageUtils {
 
         File jpgFile = new File(f.getParent(), removeExtension(f.getName()) + ".jpeg");
 
-        byte[] pngBytes = Files.readAllBytes(f.toPath());
-        byte[] exif = extractExifFromPng(pngBytes);
+        byte[] exif = readPngExif(f);
 
         BufferedImage img = ImageIO.read(f);
         if (img == null) {
@@ -181,337 +236,78 @@ public class ImageUtils {
     }
 
     /**
-     * Inputs:      pngBytes (byte[]) — raw PNG file bytes
+     * Inputs:      f (File) — PNG file
      * Outputs:     byte[] — raw EXIF bytes from the PNG eXIf chunk, or null if no such chunk exists
-     * Functionality: Walks the PNG chunk list to find and extract the eXIf chunk payload.
-     * Dependencies: None (manual byte parsing)
-     * Called by:   convertPngToJpg, parseExifFromPng
+     * Functionality: Walks the chunk headers with PngChunkReader, reading only IHDR and eXIf.
+     * Dependencies: PngChunkReader.scan
+     * Called by:   convertPngToJpg, parseExifFromPng, parsePngMetadata
      */
-    private static byte[] extractExifFromPng(byte[] pngBytes) throws IOException {
-        if (pngBytes.length < 8) {
-            throw new IOException("Invalid PNG: too short");
-        }
-
-        byte[] sig = new byte[] { (byte) 0x89, 0x50, 0x4E, 0x47, 0x0D, 0x0A, 0x1A, 0x0A };
-        for (int i = 0; i < sig.length; i++) {
-            if (pngBytes[i] != sig[i]) {
-                throw new IOException("Invalid PNG signature");
-            }
+    private static byte[] readPngExif(File f) throws IOException {
+        PngChunkReader.Headers headers = PngChunkReader.scan(f.toPath());
+        if (!headers.png()) {
+            throw new IOException("Invalid PNG signature");
         }
-
-        int offset = 8;
-        while (offset + 12 <= pngBytes.length) {
-            int length = readIntBE(pngBytes, offset);
-            offset += 4;
-            if (offset + 4 > pngBytes.length) {
-                break;
-            }
-
-            String type = new String(pngBytes, offset, 4, StandardCharsets.ISO_8859_1);
-            offset += 4;
-
-            if (length < 0 || offset + length + 4 > pngBytes.length) {
-                break;
-            }
-
-            if (type.equals("eXIf")) {
-                byte[] exif = new byte[length];
-                System.arraycopy(pngBytes, offset, exif, 0, length);
-                return exif;
-            }
-
-            offset += length + 4;
+        if (headers.exif() == null) {
+            return null;
         }
-
-        return null;
+        byte[] exif = new byte[headers.exif().remaining()];
+        headers.exif().duplicate().get(exif);
+        return exif;
     }
 
     /**
      * Inputs:      f (File) — PNG image file
      * Outputs:     ExifData — parsed EXIF fields (date, lat, lon, alt), or null if no EXIF chunk found
-     * Functionality: Reads the PNG file, extracts the eXIf chunk, normalizes the EXIF header,
-     *               and delegates to parseExif for field extraction.
-     * Dependencies: extractExifFromPng, ensureExifHeader, parseExif, java.nio.file.Files
-     * Called by:   db.loadMetadata
+     * Functionality: Reads only the PNG chunk headers up to IDAT and parses the eXIf payload, which
+     *               ExifParser accepts with or without the "Exif\0\0" prefix.
+     * Dependencies: readPngExif, parseExif
+     * Called by:   ImageAnalyzerTest, Legacy/manual tooling
      */
     public static ExifData parseExifFromPng(File f) throws IOException {
-        byte[] pngBytes = Files.readAllBytes(f.toPath());
-        byte[] exifBytes = extractExifFromPng(pngBytes);
+        byte[] exifBytes = readPngExif(f);
         if (exifBytes == null || exifBytes.length == 0) {
             return null;
         }
+        return parseExif(exifBytes);
+    }
 
-        byte[] normalizedExif = ensureExifHeader(exifBytes);
-        return parseExif(normalizedExif);
+    /**
+     * Inputs:      f (File) — HEIC/HEIF image file
+     * Outputs:     ExifData — parsed EXIF fields (date, lat, lon, alt), or null if there is no Exif item
+     * Functionality: Reads the ISO-BMFF meta box and the Exif item it locates; pixels are never
+     *               decoded and no external tool is run.
+     * Dependencies: HeifBoxParser.scan, ExifParser.parse
+     * Called by:   ImageAnalyzerTest, Legacy/manual tooling
+     */
+    public static ExifData parseExifFromHeif(File f) throws IOException {
+        HeifBoxParser.Headers headers = HeifBoxParser.scan(f.toPath());
+        return headers.exif() == null ? null : ExifParser.parse(headers.exif());
     }
 
     /**
      * Inputs:      file (String) — absolute path to a JPEG image file
-     * Outputs:     ExifData — parsed EXIF fields (date, lat, lon, alt); empty ExifData if no APP1 segment found
-     * Functionality: Reads the JPEG binary, locates the APP1 (0xFFE1) marker, extracts the EXIF segment,
-     *               and delegates to parseExif.
-     * Dependencies: java.io.RandomAccessFile, parseExif
-     * Called by:   db.loadMetadata
+     * Outputs:     ExifData — parsed EXIF fields (date, lat, lon, alt); empty ExifData if the file is
+     *              not a JPEG or has no Exif APP1 segment before SOS
+     * Functionality: Hops the header segments with JpegSegmentScanner (XMP APP1 segments are skipped)
+     *               and hands the Exif payload to ExifParser.
+     * Dependencies: JpegSegmentScanner.scan, ExifParser.parse
+     * Called by:   Legacy/manual tooling, ImageAnalyzerTest
      */
     public static ExifData parse(String file) throws Exception {
-        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
-            if (raf.readUnsignedShort() != 0xFFD8) {
-                return new ExifData();
-            }
-
-            int b;
-            while ((b = raf.read()) != -1) {
-                if (b == 0xFF) {
-                    int marker = raf.read();
-                    if (marker == 0xE1) {
-                        int len = raf.readUnsignedShort();
-                        byte[] exif = new byte[len - 2];
-                        raf.readFully(exif);
-                        return parseExif(exif);
-                    }
-                }
-            }
-            return new ExifData();
-        }
+        JpegSegmentScanner.Headers headers = JpegSegmentScanner.scan(Path.of(file));
+        return headers.exif() == null ? new ExifData() : ExifParser.parse(headers.exif());
     }
 
     /**
      * Inputs:      buf (byte[]) — raw EXIF APP1 segment bytes (starting with "Exif\0\0")
      * Outputs:     ExifData — parsed EXIF fields including date, GPS coordinates, and altitude
-     * Functionality: Parses the TIFF header to determine byte order, then delegates to parseIFD
-     *               to extract date and GPS data from the IFD chain.
-     * Dependencies: parseIFD, java.nio.ByteBuffer, java.nio.ByteOrder
+     * Functionality: Wraps the array and delegates to the stateless ExifParser; safe to call from
+     *               concurrent threads.
+     * Dependencies: ExifParser.parse
      * Called by:   parse, parseExifFromPng
      */
     public static ExifData parseExif(byte[] buf) {
-        ByteBuffer bb = ByteBuffer.wrap(buf);
-
-        byte[] hdr = new byte[6];
-        bb.get(hdr);
-        if (!new String(hdr, StandardCharsets.ISO_8859_1).startsWith("Exif")) {
-            throw new RuntimeException("Not EXIF APP1");
-        }
-
-        tiffBase = bb.position();
-
-        short endian = bb.getShort();
-        boolean little = (endian == 0x4949);
-        bb.order(little ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
-
-        bb.getShort();
-        int ifd0Offset = bb.getInt();
-
-        ExifData d = new ExifData();
-        parseIFD(bb, tiffBase + ifd0Offset, d);
-        return d;
-    }
-
-    /**
-     * Inputs:      bb (ByteBuffer) — buffer positioned at the TIFF data;
-     *              offset (int) — absolute byte offset of IFD0;
-     *              d (ExifData) — accumulator for parsed fields
-     * Outputs:     void — populates d in place via parseExifIFD and parseGPSIFD
-     * Functionality: Reads IFD0 entries to find the Exif sub-IFD (tag 0x8769) and GPS IFD (tag 0x8825)
-     *               offsets, then dispatches to the appropriate sub-parsers.
-     * Dependencies: parseExifIFD, parseGPSIFD, java.nio.ByteBuffer
-     * Called by:   parseExif
-     */
-    private static void parseIFD(ByteBuffer bb, int offset, ExifData d) {
-        bb.position(offset);
-        int entries = bb.getShort() & 0xFFFF;
-
-        int exifOffset = -1;
-        int gpsOffset = -1;
-
-        for (int i = 0; i < entries; i++) {
-            int tag = bb.getShort() & 0xFFFF;
-            bb.getShort();
-            bb.getInt();
-            int value = bb.getInt();
-
-            if (tag == 0x8769) {
-                exifOffset = value;
-            }
-            if (tag == 0x8825) {
-                gpsOffset = value;
-            }
-        }
-        if (exifOffset > 0) {
-            parseExifIFD(bb, tiffBase + exifOffset, d);
-        }
-        if (gpsOffset > 0) {
-            parseGPSIFD(bb, tiffBase + gpsOffset, d);
-        }
-    }
-
-    /**
-     * Inputs:      bb (ByteBuffer) — buffer positioned at the TIFF data;
-     *              offset (int) — absolute byte offset of the Exif sub-IFD;
-     *              d (ExifData) — accumulator for parsed fields
-     * Outputs:     void — sets d.date from DateTimeOriginal tag (0x9003) if present
-     * Functionality: Scans the Exif sub-IFD for the DateTimeOriginal tag and reads the ASCII date string.
-     * Dependencies: java.nio.ByteBuffer
-     * Called by:   parseIFD
-     */
-    private static void parseExifIFD(ByteBuffer bb, int offset, ExifData d) {
-        bb.position(offset);
-        int entries = bb.getShort() & 0xFFFF;
-
-        for (int i = 0; i < entries; i++) {
-            int tag = bb.getShort() & 0xFFFF;
-            bb.getShort();
-            int count = bb.getInt();
-            int value = bb.getInt();
-
-            if (tag == 0x9003) {
-                int pos = bb.position();
-                bb.position(tiffBase + value);
-                byte[] s = new byte[count];
-                bb.get(s);
-                d.date = new String(s, StandardCharsets.ISO_8859_1).trim();
-                bb.position(pos);
-            }
-        }
-    }
-
-    /**
-     * Inputs:      bb (ByteBuffer) — buffer positioned at the TIFF data;
-     *              type (int) — TIFF field type (2 = ASCII);
-     *              count (int) — number of values;
-     *              value (int) — inline value or offset to the data
-     * Outputs:     char — first character of the ASCII string, or 0 if not applicable
-     * Functionality: Reads a single ASCII character from an inline TIFF value or from an offset,
-     *               used to decode GPS reference direction tags (N/S/E/W).
-     * Dependencies: java.nio.ByteBuffer
-     * Called by:   parseGPSIFD
-     */
-    private static char charRef(ByteBuffer bb, int type, int count, int value) {
-        if (type != 2 || count < 1) {
-            return 0;
-        }
-
-        int size = count;
-        int pos = bb.position();
-        byte b;
-
-        if (size <= 4) {
-            if (bb.order() == ByteOrder.LITTLE_ENDIAN) {
-                b = (byte) (value & 0xFF);
-            } else {
-                b = (byte) ((value >> 24) & 0xFF);
-            }
-        } else {
-            int target = tiffBase + value;
-            if (target < 0 || target >= bb.limit()) {
-                return 0;
-            }
-
-            bb.position(target);
-            b = bb.get();
-            bb.position(pos);
-        }
-        return (char) b;
-    }
-
-    /**
-     * Inputs:      bb (ByteBuffer) — buffer positioned at the TIFF data;
-     *              offset (int) — absolute byte offset of the GPS IFD;
-     *              d (ExifData) — accumulator for parsed fields
-     * Outputs:     void — sets d.lat, d.lon, d.alt with sign applied from reference direction tags
-     * Functionality: Reads the GPS IFD to extract latitude, longitude, and altitude as rational triplets,
-     *               then applies N/S and E/W reference directions as sign flips.
-     * Dependencies: charRef, readRationalTriplet, readRational, java.nio.ByteBuffer
-     * Called by:   parseIFD
-     */
-    private static void parseGPSIFD(ByteBuffer bb, int offset, ExifData d) {
-        bb.position(offset);
-        int entries = bb.getShort() & 0xFFFF;
-
-        char latRef = 0;
-        char lonRef = 0;
-        int latOffset = 0;
-        int lonOffset = 0;
-        int altRef = 0;
-        int altOffset = 0;
-
-        for (int i = 0; i < entries; i++) {
-            int tag = bb.getShort() & 0xFFFF;
-            int type = bb.getShort() & 0xFFFF;
-            int count = bb.getInt();
-            int value = bb.getInt();
-
-            if (tag == 1) {
-                latRef = charRef(bb, type, count, value);
-            }
-            if (tag == 2) {
-                latOffset = value;
-            }
-            if (tag == 3) {
-                lonRef = charRef(bb, type, count, value);
-            }
-            if (tag == 4) {
-                lonOffset = value;
-            }
-            if (tag == 5) {
-                altRef = value;
-            }
-            if (tag == 6) {
-                altOffset = value;
-            }
-        }
-        if (latOffset > 0 && lonOffset > 0) {
-            d.lat = readRationalTriplet(bb, tiffBase + latOffset);
-            d.lon = readRationalTriplet(bb, tiffBase + lonOffset);
-            if (latRef == 'S') {
-                d.lat = -d.lat;
-            }
-            if (lonRef == 'W') {
-                d.lon = -d.lon;
-            }
-        }
-        if (altOffset > 0) {
-            double alt = readRational(bb, tiffBase + altOffset);
-            if (altRef == 1) {
-                alt = -alt;
-            }
-            d.alt = alt;
-        }
-    }
-
-    /**
-     * Inputs:      bb (ByteBuffer) — buffer with correct byte order set;
-     *              offset (int) — absolute byte offset of three consecutive TIFF RATIONAL values
-     * Outputs:     double — decimal degrees computed as degrees + minutes/60 + seconds/3600
-     * Functionality: Reads three numerator/denominator pairs (degrees, minutes, seconds) and converts
-     *               them to a single decimal-degree value.
-     * Dependencies: java.nio.ByteBuffer
-     * Called by:   parseGPSIFD
-     */
-    private static double readRationalTriplet(ByteBuffer bb, int offset) {
-        bb.position(offset);
-        double[] v = new double[3];
-
-        for (int i = 0; i < 3; i++) {
-            long num = bb.getInt() & 0xFFFFFFFFL;
-            long den = bb.getInt() & 0xFFFFFFFFL;
-            v[i] = (double) num / den;
-        }
-        return v[0] + v[1] / 60.0 + v[2] / 3600.0;
-    }
-
-    /**
-     * Inputs:      bb (ByteBuffer) — buffer with correct byte order set;
-     *              offset (int) — absolute byte offset of a single TIFF RATIONAL value
-     * Outputs:     double — numerator / denominator
-     * Functionality: Reads one TIFF RATIONAL (two 4-byte unsigned integers) and returns the quotient.
-     * Dependencies: java.nio.ByteBuffer
-     * Called by:   parseGPSIFD
-     */
-    private static double readRational(ByteBuffer bb, int offset) {
-        bb.position(offset);
-        long num = bb.getInt() & 0xFFFFFFFFL;
-        long den = bb.getInt() & 0xFFFFFFFFL;
-        return (double) num / den;
+        return ExifParser.parse(ByteBuffer.wrap(buf));
     }
 
     /**
@@ -639,7 +435,7 @@ public class ImageUtils {
      * Outputs:     int — big-endian 32-bit integer at the given offset
      * Functionality: Reads four bytes from buf at offset and assembles them as a big-endian int.
      * Dependencies: None
-     * Called by:   extractExifFromPng
+     * Called by:   probeDimensions
      */
     private static int readIntBE(byte[] buf, int offset) {
         return ((buf[offset] & 0xFF) << 24) | ((buf[offset + 1] & 0xFF) << 16)
@@ -704,7 +500,7 @@ public class ImageUtils {
      *              found or parsed
      * Functionality: Resolves the file by name across several known directories, extracts the EXIF
      *               chunk, and returns a Metadata object; used as a fallback when in-memory metadata is empty.
-     * Dependencies: resolveFileByName, extractExifFromPng, ensureExifHeader, parseExif,
+     * Dependencies: resolveFileByName, readPngExif, parseExif,
      *               java.nio.file.Files
      * Called by:   printMetadataComparison
      */
@@ -719,14 +515,12 @@ public class ImageUtils {
         }
 
         try {
-            byte[] pngBytes = Files.readAllBytes(f.toPath());
-            byte[] exifBytes = extractExifFromPng(pngBytes);
+            byte[] exifBytes = readPngExif(f);
             if (exifBytes == null || exifBytes.length == 0) {
                 return null;
             }
 
-            byte[] normalizedExif = ensureExifHeader(exifBytes);
-            ExifData d = parseExif(normalizedExif);
+            ExifData d = parseExif(exifBytes);
             Metadata meta = new Metadata();
             meta.filename = f.getName();
             meta.filesize = f.length();
@@ -0,0 +1,204 @@
+package com.example;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Marker-to-marker walk over the header segments of a JPEG, stopping at SOS.
+ *
+ * Each segment's length field is used to jump to the next marker, so entropy-coded data is
+ * never read and the cost is a few KB of I/O however large the file is. Files are read through
+ * a small positional window on a FileChannel; in-memory images are walked as a buffer view.
+ * The first APP1 that carries "Exif\0\0" is returned (XMP and other APP1 payloads are skipped),
+ * together with the frame size from the first SOFn.
+ * Usage:
+ * JpegSegmentScanner.Headers h = JpegSegmentScanner.scan(path);
+ * ImageUtils.ExifData d = h.exif() == null ? new ImageUtils.ExifData() : ExifParser.parse(h.exif());
+ */
+final class JpegSegmentScanner {
+    private static final int WINDOW_BYTES = 8192;
+    private static final byte[] EXIF_ID = {'E', 'x', 'i', 'f', 0, 0};
+
+    /**
+     * What the walk found. exif is the APP1 payload starting at "Exif\0\0" (null if none);
+     * dimensions is null if no SOFn precedes SOS. jpeg is false if the input has no SOI marker.
+     */
+    record Headers(boolean jpeg, ByteBuffer exif, ImageUtils.Dimensions dimensions) {
+    }
+
+    /** Random access to the input; window(pos, n) returns a view of at least n bytes at pos. */
+    private interface Source {
+        ByteBuffer window(long pos, int n) throws IOException;
+
+        ByteBuffer copy(long pos, int n) throws IOException;
+    }
+
+    private JpegSegmentScanner() {
+    }
+
+    /**
+     * Inputs:      file (Path) — candidate JPEG on disk
+     * Outputs:     Headers — Exif payload (copied, at most 64 KiB) and frame size
+     * Functionality: Opens a read-only FileChannel and walks the segments through an 8 KiB window.
+     * Dependencies: scan(FileChannel)
+     * Called by:   ImageUtils.parse
+     */
+    static Headers scan(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return scan(channel);
+        }
+    }
+
+    /**
+     * Inputs:      channel (FileChannel) — open channel; its position is not used or changed
+     * Outputs:     Headers — Exif payload (copied) and frame size
+     * Functionality: Positional reads into a reusable window; a segment header that falls outside
+     *               the window triggers one refill starting at that header.
+     * Dependencies: walk
+     * Called by:   scan(Path), ImageUtils.probeDimensions
+     */
+    static Headers scan(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(WINDOW_BYTES);
+        long[] start = {-1};
+        Source source = new Source() {
+            @Override
+            public ByteBuffer window(long pos, int n) throws IOException {
+                if (pos < 0 || pos + n > size) {
+                    throw new EOFException("JPEG segment runs past end of file");
+                }
+                if (start[0] < 0 || pos < start[0] || pos + n > start[0] + buffer.limit()) {
+                    buffer.clear();
+                    while (buffer.hasRemaining() && channel.read(buffer, pos + buffer.position()) > 0) {
+                        // fill the window or hit end of file
+                    }
+                    buffer.flip();
+                    start[0] = pos;
+                }
+                return buffer.slice((int) (pos - start[0]), n);
+            }
+
+            @Override
+            public ByteBuffer copy(long pos, int n) throws IOException {
+                if (pos < 0 || pos + n > size) {
+                    throw new EOFException("JPEG segment runs past end of file");
+                }
+                ByteBuffer out = ByteBuffer.allocate(n);
+                while (out.hasRemaining() && channel.read(out, pos + out.position()) > 0) {
+                    // read the whole payload
+                }
+                return out.flip();
+            }
+        };
+        return walk(source);
+    }
+
+    /**
+     * Inputs:      jpeg (ByteBuffer) — whole file in memory (position..limit)
+     * Outputs:     Headers — exif is a view into jpeg, not a copy
+     * Functionality: Same walk as the channel variant without any copying.
+     * Dependencies: walk
+     * Called by:   ImageAnalyzer.analyze
+     */
+    static Headers scan(ByteBuffer jpeg) throws IOException {
+        ByteBuffer data = jpeg.slice();
+        Source source = new Source() {
+            @Override
+            public ByteBuffer window(long pos, int n) throws IOException {
+                if (pos < 0 || pos + n > data.limit()) {
+                    throw new EOFException("JPEG segment runs past end of buffer");
+                }
+                return data.slice((int) pos, n);
+            }
+
+            @Override
+            public ByteBuffer copy(long pos, int n) throws IOException {
+                return window(pos, n);
+            }
+        };
+        return walk(source);
+    }
+
+    /**
+     * Inputs:      source (Source) — the input
+     * Outputs:     Headers — see record
+     * Functionality: Checks SOI, then repeatedly reads a marker (skipping 0xFF fill bytes) and,
+     *               for segments with a length, either inspects it (APP1, SOFn) or jumps over it.
+     *               Stops at SOS/EOI, once both Exif and SOFn are known, or at a truncated or
+     *               malformed segment, returning what was found so far.
+     * Dependencies: None (manual byte parsing)
+     * Called by:   scan(FileChannel), scan(ByteBuffer)
+     */
+    private static Headers walk(Source source) throws IOException {
+        try {
+            ByteBuffer soi = source.window(0, 2);
+            if ((soi.get(0) & 0xFF) != 0xFF || (soi.get(1) & 0xFF) != 0xD8) {
+                return new Headers(false, null, null);
+            }
+        } catch (EOFException e) {
+            return new Headers(false, null, null);
+        }
+
+        ByteBuffer exif = null;
+        ImageUtils.Dimensions dims = null;
+        long pos = 2;
+        try {
+            while (exif == null || dims == null) {
+                ByteBuffer head = source.window(pos, 2);
+                if ((head.get(0) & 0xFF) != 0xFF) {
+                    break;
+                }
+                int marker = head.get(1) & 0xFF;
+                if (marker == 0xFF) {
+                    pos++;
+                    continue;
+                }
+                if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) {
+                    pos += 2;
+                    continue;
+                }
+                if (marker == 0xD9 || marker == 0xDA) {
+                    break;
+                }
+
+                ByteBuffer lengthField = source.window(pos + 2, 2);
+                int length = ((lengthField.get(0) & 0xFF) << 8) | (lengthField.get(1) & 0xFF);
+                if (length < 2) {
+                    break;
+                }
+                long payload = pos + 4;
+                int payloadLength = length - 2;
+
+                if (marker == 0xE1 && exif == null && payloadLength >= EXIF_ID.length
+                        && startsWith(source.window(payload, EXIF_ID.length), EXIF_ID)) {
+                    exif = source.copy(payload, payloadLength);
+                } else if (dims == null && payloadLength >= 5 && marker >= 0xC0 && marker <= 0xCF
+                        && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                    ByteBuffer frame = source.window(payload, 5);
+                    int height = frame.getShort(1) & 0xFFFF;
+                    int width = frame.getShort(3) & 0xFFFF;
+                    if (width > 0 && height > 0) {
+                        dims = new ImageUtils.Dimensions(width, height);
+                    }
+                }
+                pos = payload + payloadLength;
+            }
+        } catch (EOFException e) {
+            // Truncated file; keep whatever was found before the cut.
+        }
+        return new Headers(true, exif, dims);
+    }
+
+    private static boolean startsWith(ByteBuffer buf, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf.get(i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
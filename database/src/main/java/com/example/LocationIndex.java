@@ -0,0 +1,832 @@
+package com.example;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * In-memory spatial index over processed images with GPS.
+ *
+ * Points live in parallel primitive arrays (lat, lon, datetime_taken millis,
+ * elk_count). The first baseSize slots are laid out as an implicit KD-tree
+ * (median split, alternating latitude/longitude); rows written after the last
+ * rebuild go to a small delta region that is scanned linearly, and superseded
+ * base slots are tombstoned. The tree is rebuilt once the delta or tombstones
+ * grow past a fraction of the base.
+ * Usage:
+ * LocationIndex.shared().load(conn); // startup
+ * List<LocationIndex.Hit> hits = LocationIndex.shared().radius(lat, lon, 5.0, 1, 500);
+ */
+public final class LocationIndex {
+    private static final Logger logger = Logger.getLogger(LocationIndex.class.getName());
+    private static final LocationIndex SHARED = new LocationIndex();
+
+    static final double EARTH_RADIUS_KM = 6371.0;
+    static final long NO_TIME = Long.MIN_VALUE;
+    static final int NO_ELK = -1;
+
+    private static final int MIN_DELTA_BEFORE_REBUILD = 1024;
+
+    /** A point to index. takenMillis/elkCount may be null. */
+    public record Point(String sha256, double latitude, double longitude, Long takenMillis, Integer elkCount) {
+    }
+
+    /** A query result; distanceKm is 0 for bounding-box queries. */
+    public record Hit(String sha256, double latitude, double longitude, Long takenMillis, Integer elkCount,
+            double distanceKm) {
+    }
+
+    /** One grid cell of points: centroid, totals and datetime_taken range (null if none are dated). */
+    public record Cluster(double latitude, double longitude, long count, long elkSum, Long firstTakenMillis,
+            Long lastTakenMillis) {
+    }
+
+    /** Aggregates compared against the database by the consistency check. */
+    public record Stats(long count, long elkSum, long coordSum) {
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private String[] hashes = new String[0];
+    private double[] lats = new double[0];
+    private double[] lons = new double[0];
+    private long[] taken = new long[0];
+    private int[] elk = new int[0];
+    private int size;
+    private int baseSize;
+    private final BitSet dead = new BitSet();
+    private int deadCount;
+    private final Map<String, Integer> slotByHash = new HashMap<>();
+
+    private volatile boolean loaded;
+    private List<Object> pendingDuringLoad;
+
+    /**
+     * Inputs:      None
+     * Outputs:     LocationIndex — the process-wide instance fed by db write hooks
+     * Functionality: Singleton accessor.
+     * Dependencies: None
+     * Called by:   db, App.loadLocationIndexOnStartup, EventScheduler, ImageStatsController
+     */
+    static LocationIndex shared() {
+        return SHARED;
+    }
+
+    /**
+     * Inputs:      None
+     * Outputs:     boolean — true once a full load has completed
+     * Functionality: Callers fall back to SQL while the index is not loaded.
+     * Dependencies: None
+     * Called by:   ImageStatsController, db write hooks
+     */
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Inputs:      conn (Connection) — active database connection
+     * Outputs:     int — number of points loaded
+     * Functionality: Streams every processed GPS row (fetch size 10k, so the driver does not buffer
+     *               the whole table) and swaps in a freshly built tree. Writes that arrive through
+     *               the db hooks while the load runs are replayed on top, so none are lost.
+     * Dependencies: java.sql.PreparedStatement, install
+     * Called by:   App.loadLocationIndexOnStartup, checkConsistency
+     */
+    int load(Connection conn) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            pendingDuringLoad = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        List<Point> points = new ArrayList<>();
+        boolean previousAutoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT img_hash, latitude, longitude, datetime_taken, elk_count FROM postgres.images "
+                        + "WHERE processed_status = true AND latitude IS NOT NULL AND longitude IS NOT NULL")) {
+            ps.setFetchSize(10_000);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    points.add(pointFromRow(rs));
+                }
+            }
+            conn.commit();
+        } catch (SQLException | RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                pendingDuringLoad = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(previousAutoCommit);
+        }
+
+        lock.writeLock().lock();
+        try {
+            install(points);
+            List<Object> pending = pendingDuringLoad;
+            pendingDuringLoad = null;
+            for (Object change : pending) {
+                if (change instanceof Point p) {
+                    upsertLocked(p);
+                } else {
+                    removeLocked((String) change);
+                }
+            }
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        logger.info("Location index loaded with " + points.size() + " point(s)");
+        return points.size();
+    }
+
+    /**
+     * Inputs:      points (Collection<Point>) — complete contents of the index
+     * Outputs:     void
+     * Functionality: Replaces the index without touching the database and marks it loaded.
+     * Dependencies: install
+     * Called by:   LocationIndexTest, tooling
+     */
+    void replaceAll(Collection<Point> points) {
+        lock.writeLock().lock();
+        try {
+            install(points);
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Inputs:      rs (ResultSet) — positioned on a postgres.images row (RETURNING * or a SELECT
+     *              including img_hash, latitude, longitude, datetime_taken, elk_count, processed_status)
+     * Outputs:     Point — the row's index entry if it is processed and has GPS, otherwise null
+     * Functionality: Reads a row without touching the index, so writers can apply it after commit.
+     * Dependencies: pointFromRow
+     * Called by:   applyRow, db.changedRow
+     */
+    static Point indexedPoint(ResultSet rs) throws SQLException {
+        boolean processed = rs.getBoolean("processed_status");
+        Object lat = rs.getObject("latitude");
+        Object lon = rs.getObject("longitude");
+        return processed && lat != null && lon != null ? pointFromRow(rs) : null;
+    }
+
+    /**
+     * Inputs:      rs (ResultSet) — positioned on a postgres.images row, as for indexedPoint
+     * Outputs:     void
+     * Functionality: Applies one row read inside refresh.
+     * Dependencies: indexedPoint, apply
+     * Called by:   refresh
+     */
+    void applyRow(ResultSet rs) throws SQLException {
+        apply(rs.getString("img_hash"), indexedPoint(rs));
+    }
+
+    /**
+     * Inputs:      hash (String) — image hash; point (Point) — its entry, or null to drop it
+     * Outputs:     void
+     * Functionality: Indexes one committed row, or removes any stale entry when it no longer
+     *               qualifies. No-op before the first load unless a load is running.
+     * Dependencies: upsert, remove
+     * Called by:   applyRow, db.notifyRowChanged
+     */
+    void apply(String hash, Point point) {
+        if (point != null) {
+            upsert(point);
+        } else {
+            remove(hash);
+        }
+    }
+
+    /**
+     * Inputs:      conn (Connection) — active database connection; hashes (Collection<String>)
+     * Outputs:     void
+     * Functionality: Re-reads the given rows in one query and applies them; used after bulk writes
+     *               where RETURNING is not available per row.
+     * Dependencies: applyRow, remove
+     * Called by:   db.notifyRowsChanged
+     */
+    void refresh(Connection conn, Collection<String> hashesToRefresh) throws SQLException {
+        if (hashesToRefresh.isEmpty() || (!loaded && !isLoading())) {
+            return;
+        }
+        Map<String, Boolean> seen = new HashMap<>();
+        for (String hash : hashesToRefresh) {
+            seen.put(hash, false);
+        }
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT img_hash, latitude, longitude, datetime_taken, elk_count, processed_status "
+                        + "FROM postgres.images WHERE img_hash = ANY (?)")) {
+            ps.setArray(1, conn.createArrayOf("varchar", hashesToRefresh.toArray()));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    seen.put(rs.getString("img_hash"), true);
+                    applyRow(rs);
+                }
+            }
+        }
+        for (Map.Entry<String, Boolean> e : seen.entrySet()) {
+            if (!e.getValue()) {
+                remove(e.getKey());
+            }
+        }
+    }
+
+    /**
+     * Inputs:      point (Point) — processed image with GPS
+     * Outputs:     void
+     * Functionality: Inserts or replaces the point for its hash.
+     * Dependencies: upsertLocked
+     * Called by:   applyRow, LocationIndexTest
+     */
+    void upsert(Point point) {
+        lock.writeLock().lock();
+        try {
+            if (pendingDuringLoad != null) {
+                pendingDuringLoad.add(point);
+            }
+            if (loaded) {
+                upsertLocked(point);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Inputs:      sha256 (String) — image hash
+     * Outputs:     void
+     * Functionality: Drops the point for this hash if present.
+     * Dependencies: removeLocked
+     * Called by:   applyRow, refresh, LocationIndexTest
+     */
+    void remove(String sha256) {
+        lock.writeLock().lock();
+        try {
+            if (pendingDuringLoad != null) {
+                pendingDuringLoad.add(sha256);
+            }
+            if (loaded) {
+                removeLocked(sha256);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Inputs:      None
+     * Outputs:     int — live points in the index
+     * Functionality: Size accessor.
+     * Dependencies: None
+     * Called by:   ImageStatsController, LocationIndexTest
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return slotByHash.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Inputs:      centerLat, centerLon (double) — decimal degrees; radiusKm (double);
+     *              minElk (int) — minimum elk_count (rows with a null count only match when minElk <= 0);
+     *              limit (int) — maximum hits returned
+     * Outputs:     List<Hit> — points within radiusKm, nearest first
+     * Functionality: Walks the KD-tree inside the radius' lat/lon bounding box, then applies the exact
+     *               haversine distance; the delta region is scanned linearly.
+     * Dependencies: db.boundingBox, haversineKm
+     * Called by:   ImageStatsController.getNearbyImages
+     */
+    List<Hit> radius(double centerLat, double centerLon, double radiusKm, int minElk, int limit) {
+        double[] box = db.boundingBox(centerLat, centerLon, radiusKm);
+        List<Hit> hits = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            RangeVisitor visitor = slot -> {
+                if (minElk <= 0 || elk[slot] >= minElk) {
+                    double d = haversineKm(centerLat, centerLon, lats[slot], lons[slot]);
+                    if (d <= radiusKm) {
+                        hits.add(hit(slot, d));
+                    }
+                }
+            };
+            rangeTree(0, baseSize, 0, box[0], box[2], box[1], box[3], visitor);
+            rangeDelta(box[0], box[2], box[1], box[3], visitor);
+        } finally {
+            lock.readLock().unlock();
+        }
+        hits.sort((a, b) -> Double.compare(a.distanceKm(), b.distanceKm()));
+        return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+    }
+
+    /**
+     * Inputs:      minLat, minLon, maxLat, maxLon (double) — box corners in decimal degrees;
+     *              minElk (int) — minimum elk_count; limit (int) — maximum hits returned
+     * Outputs:     List<Hit> — points inside the box, newest datetime_taken first
+     * Functionality: KD-tree range search plus a linear delta scan.
+     * Dependencies: rangeTree, rangeDelta
+     * Called by:   ImageStatsController.getImagesWithin
+     */
+    List<Hit> boundingBox(double minLat, double minLon, double maxLat, double maxLon, int minElk, int limit) {
+        double loLat = Math.min(minLat, maxLat);
+        double hiLat = Math.max(minLat, maxLat);
+        double loLon = Math.min(minLon, maxLon);
+        double hiLon = Math.max(minLon, maxLon);
+        List<Hit> hits = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            RangeVisitor visitor = slot -> {
+                if (minElk <= 0 || elk[slot] >= minElk) {
+                    hits.add(hit(slot, 0.0));
+                }
+            };
+            rangeTree(0, baseSize, 0, loLat, hiLat, loLon, hiLon, visitor);
+            rangeDelta(loLat, hiLat, loLon, hiLon, visitor);
+        } finally {
+            lock.readLock().unlock();
+        }
+        hits.sort((a, b) -> Long.compare(
+                b.takenMillis() == null ? NO_TIME : b.takenMillis(),
+                a.takenMillis() == null ? NO_TIME : a.takenMillis()));
+        return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+    }
+
+    /**
+     * Inputs:      minLat, minLon, maxLat, maxLon (double) — viewport corners in decimal degrees;
+     *              cellDeg (double) — grid cell edge in degrees; minElk (int) — minimum elk_count
+     * Outputs:     List<Cluster> — one entry per non-empty cell, in no particular order
+     * Functionality: Range search over the viewport that folds points straight into grid cells
+     *               aligned to (0, 0), so no per-point objects are built and the result size is
+     *               bounded by the number of cells rather than the number of points.
+     * Dependencies: rangeTree, rangeDelta
+     * Called by:   ImageStatsController.getImageClusters
+     */
+    List<Cluster> grid(double minLat, double minLon, double maxLat, double maxLon, double cellDeg, int minElk) {
+        double loLat = Math.min(minLat, maxLat);
+        double hiLat = Math.max(minLat, maxLat);
+        double loLon = Math.min(minLon, maxLon);
+        double hiLon = Math.max(minLon, maxLon);
+        Map<Long, double[]> cells = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            RangeVisitor visitor = slot -> {
+                if (minElk > 0 && elk[slot] < minElk) {
+                    return;
+                }
+                long row = (long) Math.floor(lats[slot] / cellDeg);
+                long col = (long) Math.floor(lons[slot] / cellDeg);
+                // count, sumLat, sumLon, elkSum, minTaken, maxTaken
+                double[] c = cells.computeIfAbsent((row << 32) ^ (col & 0xffffffffL),
+                        k -> new double[] { 0, 0, 0, 0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY });
+                c[0]++;
+                c[1] += lats[slot];
+                c[2] += lons[slot];
+                if (elk[slot] != NO_ELK) {
+                    c[3] += elk[slot];
+                }
+                if (taken[slot] != NO_TIME) {
+                    c[4] = Math.min(c[4], taken[slot]);
+                    c[5] = Math.max(c[5], taken[slot]);
+                }
+            };
+            rangeTree(0, baseSize, 0, loLat, hiLat, loLon, hiLon, visitor);
+            rangeDelta(loLat, hiLat, loLon, hiLon, visitor);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<Cluster> clusters = new ArrayList<>(cells.size());
+        for (double[] c : cells.values()) {
+            boolean dated = c[4] != Double.POSITIVE_INFINITY;
+            clusters.add(new Cluster(c[1] / c[0], c[2] / c[0], (long) c[0], (long) c[3],
+                    dated ? (long) c[4] : null, dated ? (long) c[5] : null));
+        }
+        return clusters;
+    }
+
+    /**
+     * Inputs:      centerLat, centerLon (double) — decimal degrees; k (int) — number of neighbours;
+     *              minElk (int) — minimum elk_count
+     * Outputs:     List<Hit> — up to k nearest points, nearest first
+     * Functionality: Depth-first KD-tree search keeping a bounded max-heap; a subtree is skipped when
+     *               the great-circle distance to its splitting meridian/parallel already exceeds the
+     *               current k-th distance. The bound accounts for wrap-around at the antimeridian.
+     * Dependencies: nearestTree, haversineKm
+     * Called by:   ImageStatsController.getNearestImages
+     */
+    List<Hit> nearest(double centerLat, double centerLon, int k, int minElk) {
+        if (k <= 0) {
+            return List.of();
+        }
+        PriorityQueue<double[]> heap = new PriorityQueue<>(k + 1, (a, b) -> Double.compare(b[0], a[0]));
+        List<Hit> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            nearestTree(0, baseSize, 0, centerLat, centerLon, k, minElk, heap);
+            for (int slot = baseSize; slot < size; slot++) {
+                if (!dead.get(slot) && (minElk <= 0 || elk[slot] >= minElk)) {
+                    offer(heap, k, haversineKm(centerLat, centerLon, lats[slot], lons[slot]), slot);
+                }
+            }
+            for (double[] entry : heap) {
+                result.add(hit((int) entry[1], entry[0]));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        result.sort((a, b) -> Double.compare(a.distanceKm(), b.distanceKm()));
+        return result;
+    }
+
+    /**
+     * Inputs:      None
+     * Outputs:     Stats — count, elk_count sum and sum(floor(lat*1e6) + floor(lon*1e6))
+     * Functionality: Order-independent fingerprint of the index contents; the same expression is
+     *               evaluated in SQL by checkConsistency.
+     * Dependencies: None
+     * Called by:   checkConsistency, LocationIndexTest
+     */
+    Stats stats() {
+        lock.readLock().lock();
+        try {
+            long count = 0;
+            long elkSum = 0;
+            long coordSum = 0;
+            for (int slot = 0; slot < size; slot++) {
+                if (dead.get(slot)) {
+                    continue;
+                }
+                count++;
+                if (elk[slot] != NO_ELK) {
+                    elkSum += elk[slot];
+                }
+                coordSum += (long) Math.floor(lats[slot] * 1e6) + (long) Math.floor(lons[slot] * 1e6);
+            }
+            return new Stats(count, elkSum, coordSum);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Inputs:      None
+     * Outputs:     boolean — true if the index matched the database (or is not loaded)
+     * Functionality: Compares stats() with the same aggregates computed in Postgres. A mismatch is
+     *               re-checked once (a write may have landed between the two reads) and then
+     *               repaired with a full reload.
+     * Dependencies: db.connect, stats, load
+     * Called by:   EventScheduler.checkLocationIndex
+     */
+    boolean checkConsistency() throws SQLException {
+        if (!loaded) {
+            return true;
+        }
+        try (Connection conn = db.connect()) {
+            for (int attempt = 0; attempt < 2; attempt++) {
+                Stats expected = databaseStats(conn);
+                Stats actual = stats();
+                if (expected.equals(actual)) {
+                    return true;
+                }
+                logger.warning("Location index drift (attempt " + (attempt + 1) + "): db=" + expected
+                        + " index=" + actual);
+            }
+            load(conn);
+            return false;
+        }
+    }
+
+    private static Stats databaseStats(Connection conn) throws SQLException {
+        String sql = "SELECT count(*), coalesce(sum(elk_count), 0), "
+                + "coalesce(sum(floor(latitude * 1e6)::bigint + floor(longitude * 1e6)::bigint), 0) "
+                + "FROM postgres.images "
+                + "WHERE processed_status = true AND latitude IS NOT NULL AND longitude IS NOT NULL";
+        try (PreparedStatement ps = conn.prepareStatement(sql); ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return new Stats(rs.getLong(1), rs.getLong(2), rs.getLong(3));
+        }
+    }
+
+    /**
+     * Inputs:      lat1, lon1, lat2, lon2 (double) — decimal degrees
+     * Outputs:     double — great-circle distance in kilometres on a 6371 km sphere
+     * Functionality: Haversine formula, matching the plain-Postgres SQL in db.getImagesByLocation.
+     * Dependencies: None
+     * Called by:   radius, nearest, ImageStatsController
+     */
+    static double haversineKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                        * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    // ---- internals (callers hold the lock) ----
+
+    private interface RangeVisitor {
+        void visit(int slot);
+    }
+
+    private void rangeTree(int lo, int hi, int axis, double minLat, double maxLat, double minLon, double maxLon,
+            RangeVisitor visitor) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            double lat = lats[mid];
+            double lon = lons[mid];
+            if (!dead.get(mid) && lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon) {
+                visitor.visit(mid);
+            }
+            double v = axis == 0 ? lat : lon;
+            double min = axis == 0 ? minLat : minLon;
+            double max = axis == 0 ? maxLat : maxLon;
+            boolean goLeft = min <= v;
+            boolean goRight = max >= v;
+            if (goLeft && goRight) {
+                rangeTree(lo, mid, 1 - axis, minLat, maxLat, minLon, maxLon, visitor);
+                lo = mid + 1;
+            } else if (goLeft) {
+                hi = mid;
+            } else if (goRight) {
+                lo = mid + 1;
+            } else {
+                return;
+            }
+            axis = 1 - axis;
+        }
+    }
+
+    private void rangeDelta(double minLat, double maxLat, double minLon, double maxLon, RangeVisitor visitor) {
+        for (int slot = baseSize; slot < size; slot++) {
+            double lat = lats[slot];
+            double lon = lons[slot];
+            if (!dead.get(slot) && lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon) {
+                visitor.visit(slot);
+            }
+        }
+    }
+
+    private void nearestTree(int lo, int hi, int axis, double qLat, double qLon, int k, int minElk,
+            PriorityQueue<double[]> heap) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (!dead.get(mid) && (minElk <= 0 || elk[mid] >= minElk)) {
+            offer(heap, k, haversineKm(qLat, qLon, lats[mid], lons[mid]), mid);
+        }
+
+        double v = axis == 0 ? lats[mid] : lons[mid];
+        double q = axis == 0 ? qLat : qLon;
+        boolean queryLeft = q < v;
+        int nearLo = queryLeft ? lo : mid + 1;
+        int nearHi = queryLeft ? mid : hi;
+        int farLo = queryLeft ? mid + 1 : lo;
+        int farHi = queryLeft ? hi : mid;
+
+        nearestTree(nearLo, nearHi, 1 - axis, qLat, qLon, k, minElk, heap);
+        if (heap.size() < k || splitDistanceKm(axis, qLat, qLon, v, queryLeft) <= heap.peek()[0]) {
+            nearestTree(farLo, farHi, 1 - axis, qLat, qLon, k, minElk, heap);
+        }
+    }
+
+    /**
+     * Lower bound on the distance from the query to any point on the far side of a split.
+     * Latitude splits: the meridian arc |dLat|. Longitude splits: distance to the nearer boundary
+     * meridian of the far lune (the split itself or the antimeridian).
+     */
+    static double splitDistanceKm(int axis, double qLat, double qLon, double split, boolean queryBelowSplit) {
+        if (axis == 0) {
+            return Math.toRadians(Math.abs(qLat - split)) * EARTH_RADIUS_KM;
+        }
+        double deltaDeg = queryBelowSplit
+                ? Math.min(split - qLon, 180.0 + qLon)
+                : Math.min(qLon - split, 180.0 - qLon);
+        double delta = Math.toRadians(Math.max(0.0, deltaDeg));
+        double phi = Math.toRadians(qLat);
+        if (delta >= Math.PI / 2) {
+            return (Math.PI / 2 - Math.abs(phi)) * EARTH_RADIUS_KM;
+        }
+        return Math.asin(Math.min(1.0, Math.cos(phi) * Math.sin(delta))) * EARTH_RADIUS_KM;
+    }
+
+    private static void offer(PriorityQueue<double[]> heap, int k, double distance, int slot) {
+        if (heap.size() < k) {
+            heap.add(new double[] { distance, slot });
+        } else if (distance < heap.peek()[0]) {
+            heap.poll();
+            heap.add(new double[] { distance, slot });
+        }
+    }
+
+    private Hit hit(int slot, double distanceKm) {
+        return new Hit(hashes[slot], lats[slot], lons[slot],
+                taken[slot] == NO_TIME ? null : taken[slot],
+                elk[slot] == NO_ELK ? null : elk[slot],
+                distanceKm);
+    }
+
+    private boolean isLoading() {
+        lock.readLock().lock();
+        try {
+            return pendingDuringLoad != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static Point pointFromRow(ResultSet rs) throws SQLException {
+        Timestamp ts = rs.getTimestamp("datetime_taken");
+        int elkCount = rs.getInt("elk_count");
+        Integer elk = rs.wasNull() ? null : elkCount;
+        return new Point(rs.getString("img_hash"), rs.getDouble("latitude"), rs.getDouble("longitude"),
+                ts == null ? null : ts.getTime(), elk);
+    }
+
+    private void upsertLocked(Point p) {
+        Integer existing = slotByHash.get(p.sha256());
+        if (existing != null && existing >= baseSize) {
+            writeSlot(existing, p);
+            return;
+        }
+        if (existing != null) {
+            dead.set(existing);
+            deadCount++;
+        }
+        ensureCapacity(size + 1);
+        writeSlot(size, p);
+        slotByHash.put(p.sha256(), size);
+        size++;
+        maybeRebuild();
+    }
+
+    private void removeLocked(String sha256) {
+        Integer slot = slotByHash.remove(sha256);
+        if (slot == null) {
+            return;
+        }
+        if (slot < baseSize) {
+            dead.set(slot);
+            deadCount++;
+        } else {
+            // Keep the delta region dense: move the last delta slot into the hole.
+            int last = size - 1;
+            if (slot != last) {
+                hashes[slot] = hashes[last];
+                lats[slot] = lats[last];
+                lons[slot] = lons[last];
+                taken[slot] = taken[last];
+                elk[slot] = elk[last];
+                slotByHash.put(hashes[slot], slot);
+            }
+            hashes[last] = null;
+            size--;
+        }
+        maybeRebuild();
+    }
+
+    private void writeSlot(int slot, Point p) {
+        hashes[slot] = p.sha256();
+        lats[slot] = p.latitude();
+        lons[slot] = p.longitude();
+        taken[slot] = p.takenMillis() == null ? NO_TIME : p.takenMillis();
+        elk[slot] = p.elkCount() == null ? NO_ELK : p.elkCount();
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= hashes.length) {
+            return;
+        }
+        int capacity = Math.max(needed, Math.max(16, hashes.length + (hashes.length >> 1)));
+        hashes = Arrays.copyOf(hashes, capacity);
+        lats = Arrays.copyOf(lats, capacity);
+        lons = Arrays.copyOf(lons, capacity);
+        taken = Arrays.copyOf(taken, capacity);
+        elk = Arrays.copyOf(elk, capacity);
+    }
+
+    private void maybeRebuild() {
+        int delta = size - baseSize;
+        int threshold = Math.max(MIN_DELTA_BEFORE_REBUILD, baseSize / 8);
+        if (delta > threshold || deadCount > Math.max(MIN_DELTA_BEFORE_REBUILD, baseSize / 4)) {
+            List<Point> live = new ArrayList<>(slotByHash.size());
+            for (int slot = 0; slot < size; slot++) {
+                if (!dead.get(slot)) {
+                    live.add(new Point(hashes[slot], lats[slot], lons[slot],
+                            taken[slot] == NO_TIME ? null : taken[slot],
+                            elk[slot] == NO_ELK ? null : elk[slot]));
+                }
+            }
+            install(live);
+        }
+    }
+
+    private void install(Collection<Point> points) {
+        Map<String, Point> unique = new HashMap<>(points.size() * 2);
+        for (Point p : points) {
+            unique.put(p.sha256(), p);
+        }
+
+        int n = unique.size();
+        hashes = new String[n];
+        lats = new double[n];
+        lons = new double[n];
+        taken = new long[n];
+        elk = new int[n];
+        int slot = 0;
+        for (Point p : unique.values()) {
+            writeSlot(slot++, p);
+        }
+        buildTree(0, n, 0);
+
+        size = n;
+        baseSize = n;
+        dead.clear();
+        deadCount = 0;
+        slotByHash.clear();
+        for (int i = 0; i < n; i++) {
+            slotByHash.put(hashes[i], i);
+        }
+    }
+
+    private void buildTree(int lo, int hi, int axis) {
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            select(lo, hi - 1, mid, axis);
+            buildTree(lo, mid, 1 - axis);
+            lo = mid + 1;
+            axis = 1 - axis;
+        }
+    }
+
+    /** Quickselect: afterwards slot k holds the median on axis, smaller-or-equal keys to its left. */
+    private void select(int left, int right, int k, int axis) {
+        while (right > left) {
+            int pivotIndex = left + ((right - left) >>> 1);
+            double pivot = key(pivotIndex, axis);
+            swap(pivotIndex, right);
+            int store = left;
+            for (int i = left; i < right; i++) {
+                if (key(i, axis) < pivot) {
+                    swap(store++, i);
+                }
+            }
+            swap(store, right);
+            if (store == k) {
+                return;
+            } else if (store < k) {
+                left = store + 1;
+            } else {
+                right = store - 1;
+            }
+        }
+    }
+
+    private double key(int slot, int axis) {
+        return axis == 0 ? lats[slot] : lons[slot];
+    }
+
+    private void swap(int a, int b) {
+        if (a == b) {
+            return;
+        }
+        String h = hashes[a];
+        hashes[a] = hashes[b];
+        hashes[b] = h;
+        double d = lats[a];
+        lats[a] = lats[b];
+        lats[b] = d;
+        d = lons[a];
+        lons[a] = lons[b];
+        lons[b] = d;
+        long t = taken[a];
+        taken[a] = taken[b];
+        taken[b] = t;
+        int e = elk[a];
+        elk[a] = elk[b];
+        elk[b] = e;
+    }
+}
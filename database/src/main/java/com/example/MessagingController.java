@@ -104,11 +104,11 @@ public class MessagingController {
      * (Twilio requires a 200 even on errors)
      * Functionality: Twilio webhook handler (POST /sms) that downloads an MMS image
      * from Twilio,
-     * runs it through the pipeline (EXIF, GCS upload, DB insert), and replies to
+     * runs it through the pipeline (EXIF, DB claim, GCS upload), and replies to
      * the
      * landowner with GPS/weather info or a duplicate notice.
-     * Dependencies: db.loadMetadata, db.connect, db.getImageByHash, db.insertMeta,
-     * GoogleCloudStorageAPI.uploadFile, Messenger.sendReply, java.net.URI,
+     * Dependencies: db.loadMetadata, db.connect, db.claimNewImage,
+     * FileProcessor.uploadClaimed, FileProcessor.storeClaimed, Messenger.sendReply, java.net.URI,
      * java.nio.file.Files
      * Called by: Twilio platform via POST /sms when a landowner texts a photo to
      * the PERC number
@@ -136,23 +136,32 @@ public class MessagingController {
                 Files.copy(in, tempFile, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
             }
 
-            // Run through instant pipeline: EXIF, GCS upload, DB insert
+            // Run through instant pipeline: EXIF, GCS upload, DB upsert
             Metadata meta = db.loadMetadata(tempFile.toFile());
+            // No detection on this path; leave the row queued for the detection batch.
+            meta.processed_status = false;
             String objectName = meta.sha256 + ".jpg";
+            meta.cloud_uri = "gs://" + "postgresperc-bucket" + "/" + objectName;
 
-            // Check for duplicate
+            // Claim the hash before uploading so a resent photo is not stored twice
+            String owner = FileProcessor.workerId();
+            db.UpsertResult claim;
             try (java.sql.Connection conn = db.connect()) {
-                Metadata existing = db.getImageByHash(conn, meta.sha256);
-                if (existing != null) {
-                    Messenger.sendReply(fromPhone,
-                            "It looks like we've already received this photo! No worries, it's already in the database.");
-                    return ResponseEntity.ok("<Response></Response>");
-                }
-
-                GoogleCloudStorageAPI.uploadFile(tempFile.toString(), objectName);
-                meta.cloud_uri = "gs://" + "postgresperc-bucket" + "/" + objectName;
-                db.insertMeta(conn, meta);
+                claim = db.claimNewImage(conn, meta, owner, FileProcessor.leaseSeconds());
+            }
+            if (claim.isPending()) {
+                Messenger.sendReply(fromPhone,
+                        "We're still processing an earlier copy of this photo. If it doesn't show up soon, please send it again.");
+                return ResponseEntity.ok("<Response></Response>");
             }
+            if (claim.isDuplicate()) {
+                Messenger.sendReply(fromPhone,
+                        "It looks like we've already received this photo! No worries, it's already in the database.");
+                return ResponseEntity.ok("<Response></Response>");
+            }
+
+            FileProcessor.uploadClaimed(tempFile, objectName, meta.sha256, owner);
+            FileProcessor.storeClaimed(meta, owner, null);
 
             // Build reply based on whether GPS was extracted
             String reply;
@@ -196,10 +205,10 @@ public class MessagingController {
      * Functionality: SendGrid Inbound Parse webhook handler (POST
      * /webhook/inbound-email) that
      * processes up to 10 image attachments, runs each valid image through the
-     * full pipeline (EXIF, GCS, DB, AnimalDetect), and sends a reply email with
-     * processing summary; skips duplicates.
-     * Dependencies: db.loadMetadata, db.connect, db.getImageByHash, db.insertMeta,
-     * db.updateMetaWithDetection, GoogleCloudStorageAPI.uploadFile,
+     * full pipeline (EXIF, DB claim, GCS, AnimalDetect), and sends a reply email with
+     * processing summary; duplicates stop at the claim.
+     * Dependencies: ImageAnalyzer.analyze, db.loadMetadata, db.connect, db.claimNewImage,
+     * FileProcessor.uploadClaimed, FileProcessor.storeClaimed, db.getElkRule,
      * AnimalDetectAPI, isAllowedImageType, sendReplyEmail, SecretConfig,
      * org.springframework.web.multipart.MultipartFile, com.sendgrid
      * Called by: SendGrid platform via POST /webhook/inbound-email when an email is
@@ -237,10 +246,12 @@ public class MessagingController {
         int modelFailures = 0;
         List<String> allImageStatusLines = new ArrayList<>();
 
+        String owner = FileProcessor.workerId();
+        // Read on the first claim's connection and used for every attachment.
+        AnimalDetectAPI.ElkRule rule = null;
         AnimalDetectAPI animalDetectAPI = null;
         try {
-            String apiKey = AnimalDetectAPI.resolveApiKey(null);
-            animalDetectAPI = new AnimalDetectAPI(apiKey, 60);
+            animalDetectAPI = AnimalDetectAPI.shared();
         } catch (Exception e) {
             System.err.println("[SendGrid] AnimalDetect API unavailable for this request: " + e.getMessage());
         }
@@ -271,70 +282,80 @@ public class MessagingController {
                 Path tempFile = Files.createTempFile("sendgrid-", ext);
 
                 try {
-                    Files.write(tempFile, attachment.getBytes());
+                    byte[] imageBytes = attachment.getBytes();
+                    Files.write(tempFile, imageBytes);
 
-                    Metadata meta = db.loadMetadata(tempFile.toFile());
+                    ImageAnalyzer.Analysis analysis = ImageAnalyzer.analyze(imageBytes, false);
+                    Metadata meta = db.loadMetadata(analysis, attachmentDisplayName);
                     meta.processed_status = false;
                     String objectName = meta.sha256 + ext;
+                    meta.cloud_uri = "gs://" + SecretConfig.getRequired("GCS_BUCKET_NAME") + "/" + objectName;
+                    meta.filename = attachmentDisplayName;
 
+                    // Claim the hash first; a duplicate costs no upload and no AnimalDetect call
+                    db.UpsertResult claim;
                     try (java.sql.Connection conn = db.connect()) {
-                        // Duplicate check
-                        Metadata existing = db.getImageByHash(conn, meta.sha256);
-                        if (existing != null) {
-                            System.out.println("[SendGrid] Duplicate image, skipping: " + meta.sha256);
-                            duplicateImages++;
-                            allImageStatusLines.add(attachmentDisplayName + ": already in database!");
-                            continue;
+                        if (rule == null) {
+                            rule = db.getElkRule(conn);
                         }
+                        claim = db.claimNewImage(conn, meta, owner, FileProcessor.leaseSeconds());
+                    }
+                    if (claim.isPending()) {
+                        System.out.println("[SendGrid] Image still being processed, skipping: " + meta.sha256);
+                        duplicateImages++;
+                        allImageStatusLines.add(attachmentDisplayName
+                                + ": already received and still processing; resend if it does not show up");
+                        continue;
+                    }
+                    if (claim.isDuplicate()) {
+                        System.out.println("[SendGrid] Duplicate image, skipping: " + meta.sha256);
+                        duplicateImages++;
+                        allImageStatusLines.add(attachmentDisplayName + ": already in database!");
+                        continue;
+                    }
 
-                        // Upload to GCS
-                        GoogleCloudStorageAPI.uploadFile(tempFile.toString(), objectName);
-                        meta.cloud_uri = "gs://" + SecretConfig.getRequired("GCS_BUCKET_NAME") + "/" + objectName;
-                        meta.filename = attachmentDisplayName;
-
-                        db.insertMeta(conn, meta);
-
-                        // Run AnimalDetect immediately (same as EmailProcessor)
-                        try {
-                            if (animalDetectAPI != null) {
-                                modelInvocations++;
-                                System.out.println("[SendGrid] Running AnimalDetect for attachment" + (i + 1)
-                                        + " hash=" + meta.sha256);
-                                java.util.Map<String, Object> response = animalDetectAPI
-                                        .callAnimalDetectAPIWithFallback(
-                                                attachment.getBytes(), meta.filename, "USA", 0.2);
-                                meta.elk_count = animalDetectAPI.countElkFromResponse(response, 0.2);
-                                meta.processed_status = true;
-                                modelSuccesses++;
-                                System.out.println("[SendGrid] AnimalDetect complete for attachment" + (i + 1)
-                                        + " elk_count=" + meta.elk_count);
-                            } else {
-                                meta.elk_count = null;
-                                meta.processed_status = false;
-                                modelFailures++;
-                                System.err.println("[SendGrid] AnimalDetect skipped for attachment" + (i + 1)
-                                        + " because API client is unavailable");
-                            }
-
-                            processedImages++;
-                            String elkStatus = formatElkCount(meta.elk_count) + " elk";
-                            allImageStatusLines.add(meta.filename + ": " + elkStatus);
-                        } catch (Exception detectionError) {
-                            System.err.println("[SendGrid] Animal detection failed for attachment" + (i + 1)
-                                    + ": " + detectionError.getMessage());
+                    FileProcessor.uploadClaimed(tempFile, objectName, meta.sha256, owner);
+
+                    // Run AnimalDetect immediately (same as EmailProcessor)
+                    boolean detectionFailed = false;
+                    java.util.Map<String, Object> response = null;
+                    try {
+                        if (animalDetectAPI != null) {
+                            modelInvocations++;
+                            System.out.println("[SendGrid] Running AnimalDetect for attachment" + (i + 1)
+                                    + " hash=" + meta.sha256);
+                            response = animalDetectAPI
+                                    .callAnimalDetectAPIWithFallback(
+                                            analysis.bytes(), meta.filename, "USA", rule.threshold());
+                            modelSuccesses++;
+                            System.out.println("[SendGrid] AnimalDetect complete for attachment" + (i + 1));
+                        } else {
                             meta.elk_count = null;
                             meta.processed_status = false;
                             modelFailures++;
-                            failedImages++;
-                            processedImages++;
-                            String elkStatus = formatElkCount(meta.elk_count) + " elk";
-                            allImageStatusLines.add(meta.filename + ": " + elkStatus);
+                            System.err.println("[SendGrid] AnimalDetect skipped for attachment" + (i + 1)
+                                    + " because API client is unavailable");
                         }
+                    } catch (Exception detectionError) {
+                        System.err.println("[SendGrid] Animal detection failed for attachment" + (i + 1)
+                                + ": " + detectionError.getMessage());
+                        response = null;
+                        meta.elk_count = null;
+                        meta.processed_status = false;
+                        modelFailures++;
+                        detectionFailed = true;
+                    }
+
+                    FileProcessor.storeClaimed(meta, owner, response);
 
-                        db.updateMetaWithDetection(conn, meta.sha256, meta.elk_count, meta.processed_status);
-                        System.out.println("[SendGrid] Stored: " + meta.filename
-                                + " | elk_count=" + meta.elk_count);
+                    if (detectionFailed) {
+                        failedImages++;
                     }
+                    processedImages++;
+                    String elkStatus = formatElkCount(meta.elk_count) + " elk";
+                    allImageStatusLines.add(meta.filename + ": " + elkStatus);
+                    System.out.println("[SendGrid] Stored: " + meta.filename
+                            + " | elk_count=" + meta.elk_count);
 
                 } finally {
                     Files.deleteIfExists(tempFile);
@@ -0,0 +1,440 @@
+package com.example;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Parallel metadata extraction for a directory tree (e.g. a ranch's whole archive) ahead of import.
+ *
+ * Files are split over a work-stealing ForkJoinPool sized to the cores; each worker reads an image
+ * once through ImageAnalyzer (hash, EXIF, GPS, dimensions) and hands the row to a Sink, which
+ * writes NDJSON and/or feeds a BulkImageWriter. Every commitEvery rows the sink is flushed and
+ * the relative paths of those rows are appended to a checkpoint file, so a restarted run skips
+ * everything already committed. Rows written after the last checkpoint may be emitted again on
+ * resume; the import side ignores them (img_hash conflict), NDJSON consumers should key on sha256.
+ * Usage:
+ * MetadataExtractor.Summary s = MetadataExtractor.run(root, 8, checkpoint, new NdjsonSink(out, true), 500);
+ */
+final class MetadataExtractor {
+    private static final Logger logger = Logger.getLogger(MetadataExtractor.class.getName());
+
+    static final int DEFAULT_COMMIT_EVERY = 500;
+    // Files per leaf task; small enough that idle workers find something to steal near the end.
+    private static final int LEAF_FILES = 16;
+    private static final long PROGRESS_INTERVAL_NANOS = 10_000_000_000L;
+
+    /** Receives extracted rows one at a time (never concurrently); commit() makes them durable. */
+    interface Sink extends AutoCloseable {
+        void accept(String relativePath, Metadata meta) throws IOException, SQLException;
+
+        void commit() throws IOException, SQLException;
+
+        @Override
+        void close() throws IOException, SQLException;
+    }
+
+    /** Counts for one run; skipped = already in the checkpoint, bytes = sizes of extracted files. */
+    record Summary(int found, int skipped, int extracted, int failed, long bytes, double seconds) {
+        double imagesPerSecond() {
+            return seconds > 0 ? extracted / seconds : 0.0;
+        }
+
+        double megabytesPerSecond() {
+            return seconds > 0 ? bytes / (1024.0 * 1024.0) / seconds : 0.0;
+        }
+    }
+
+    private MetadataExtractor() {
+    }
+
+    /**
+     * Inputs:      root (Path) — directory to walk; threads (int) — pool parallelism;
+     *              checkpoint (Path, nullable) — file of committed relative paths, created if absent;
+     *              sink (Sink) — row destination (not closed here); commitEvery (int) — rows per commit
+     * Outputs:     Summary — counts, bytes and elapsed seconds
+     * Functionality: Lists allowed image names under root (sorted), drops those in the checkpoint,
+     *               and extracts the rest on a ForkJoinPool. Unreadable files are logged, counted and
+     *               left out of the checkpoint so the next run retries them. A sink failure stops
+     *               the run and is rethrown.
+     * Dependencies: ImageAnalyzer.analyze, db.loadMetadata, FileProcessor.isAllowedImageName,
+     *               java.util.concurrent.ForkJoinPool
+     * Called by:   main, MetadataExtractorTest
+     */
+    static Summary run(Path root, int threads, Path checkpoint, Sink sink, int commitEvery) throws Exception {
+        Set<String> done = new HashSet<>();
+        if (checkpoint != null && Files.exists(checkpoint)) {
+            done.addAll(Files.readAllLines(checkpoint, StandardCharsets.UTF_8));
+        }
+
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile)
+                    .filter(p -> FileProcessor.isAllowedImageName(p.getFileName().toString()))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        List<Path> pending = new ArrayList<>(files.size());
+        for (Path file : files) {
+            if (!done.contains(relativeName(root, file))) {
+                pending.add(file);
+            }
+        }
+
+        Run run = new Run(root, checkpoint, sink, Math.max(1, commitEvery), pending.size());
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            pool.invoke(new Extract(run, pending, 0, pending.size()));
+        } catch (SinkFailure e) {
+            throw (Exception) e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+        run.commit();
+
+        double seconds = (System.nanoTime() - run.started) / 1e9;
+        return new Summary(files.size(), files.size() - pending.size(), run.extracted, run.failed,
+                run.bytes, seconds);
+    }
+
+    /** Path of file under root with '/' separators, as stored in the checkpoint and NDJSON. */
+    static String relativeName(Path root, Path file) {
+        return root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+    }
+
+    /** Shared state of one run; every field below the constructor is guarded by the Run itself. */
+    private static final class Run {
+        final Path root;
+        final Path checkpoint;
+        final Sink sink;
+        final int commitEvery;
+        final int total;
+        final long started = System.nanoTime();
+        volatile boolean aborted;
+
+        final List<String> uncommitted = new ArrayList<>();
+        long lastProgress = started;
+        int extracted;
+        int failed;
+        long bytes;
+
+        Run(Path root, Path checkpoint, Sink sink, int commitEvery, int total) {
+            this.root = root;
+            this.checkpoint = checkpoint;
+            this.sink = sink;
+            this.commitEvery = commitEvery;
+            this.total = total;
+        }
+
+        synchronized void accepted(String name, Metadata meta) throws IOException, SQLException {
+            sink.accept(name, meta);
+            uncommitted.add(name);
+            extracted++;
+            bytes += meta.filesize;
+            if (uncommitted.size() >= commitEvery) {
+                commit();
+            }
+            progress();
+        }
+
+        synchronized void rejected() {
+            failed++;
+            progress();
+        }
+
+        /** Sink first, checkpoint second: a path is only recorded once its row is durable. */
+        synchronized void commit() throws IOException, SQLException {
+            sink.commit();
+            if (checkpoint != null && !uncommitted.isEmpty()) {
+                Files.write(checkpoint, uncommitted, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            uncommitted.clear();
+        }
+
+        private void progress() {
+            long now = System.nanoTime();
+            if (now - lastProgress < PROGRESS_INTERVAL_NANOS) {
+                return;
+            }
+            lastProgress = now;
+            double seconds = (now - started) / 1e9;
+            System.out.printf(Locale.ROOT, "%d/%d done, %d failed, %.1f images/s, %.1f MB/s%n",
+                    extracted + failed, total, failed, extracted / seconds, bytes / (1024.0 * 1024.0) / seconds);
+        }
+    }
+
+    /** Carries a sink's checked exception out of the pool. */
+    private static final class SinkFailure extends RuntimeException {
+        SinkFailure(Exception cause) {
+            super(cause);
+        }
+    }
+
+    /** Splits [from, to) in halves down to LEAF_FILES, then extracts sequentially. */
+    private static final class Extract extends RecursiveAction {
+        private final Run run;
+        private final List<Path> files;
+        private final int from;
+        private final int to;
+
+        Extract(Run run, List<Path> files, int from, int to) {
+            this.run = run;
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > LEAF_FILES) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Extract(run, files, from, mid), new Extract(run, files, mid, to));
+                return;
+            }
+            for (int i = from; i < to && !run.aborted; i++) {
+                Path file = files.get(i);
+                String name = relativeName(run.root, file);
+                Metadata meta;
+                try {
+                    meta = db.loadMetadata(ImageAnalyzer.analyze(file, true), file.getFileName().toString());
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "Skipping " + file + ": " + e.getMessage());
+                    run.rejected();
+                    continue;
+                }
+                try {
+                    run.accepted(name, meta);
+                } catch (IOException | SQLException e) {
+                    run.aborted = true;
+                    throw new SinkFailure(e);
+                }
+            }
+        }
+    }
+
+    /** One JSON object per line: path, sha256, filename, filesize, width, height, datetime and GPS. */
+    static final class NdjsonSink implements Sink {
+        // The writer is flushed on commit(), not per row.
+        private static final JsonFactory JSON = new ObjectMapper().getFactory()
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+
+        private final Writer out;
+
+        NdjsonSink(Path file, boolean append) throws IOException {
+            this(Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING));
+        }
+
+        NdjsonSink(Writer out) {
+            this.out = out instanceof BufferedWriter ? out : new BufferedWriter(out);
+        }
+
+        @Override
+        public void accept(String relativePath, Metadata meta) throws IOException {
+            try (JsonGenerator g = JSON.createGenerator(out)) {
+                g.writeStartObject();
+                g.writeStringField("path", relativePath);
+                g.writeStringField("sha256", meta.sha256);
+                g.writeStringField("filename", meta.filename);
+                g.writeNumberField("filesize", meta.filesize);
+                g.writeNumberField("width", meta.width);
+                g.writeNumberField("height", meta.height);
+                g.writeStringField("datetime", meta.datetime);
+                g.writeBooleanField("gps_flag", meta.gps_flag);
+                writeNullable(g, "latitude", meta.latitude);
+                writeNullable(g, "longitude", meta.longitude);
+                writeNullable(g, "altitude", meta.altitude);
+                g.writeEndObject();
+            }
+            out.write('\n');
+        }
+
+        @Override
+        public void commit() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        private static void writeNullable(JsonGenerator g, String field, Double value) throws IOException {
+            if (value == null) {
+                g.writeNullField(field);
+            } else {
+                g.writeNumberField(field, value);
+            }
+        }
+    }
+
+    /** Queues rows as unprocessed images (no upload) through a BulkImageWriter. */
+    static final class ImportSink implements Sink {
+        private final Connection conn;
+        private final BulkImageWriter writer;
+
+        ImportSink(Connection conn, BulkImageWriter.ConflictMode mode) {
+            this.conn = conn;
+            this.writer = new BulkImageWriter(conn,
+                    db.intSetting("BULK_BATCH_SIZE", BulkImageWriter.DEFAULT_BATCH_SIZE),
+                    db.intSetting("BULK_COPY_THRESHOLD", BulkImageWriter.DEFAULT_COPY_THRESHOLD),
+                    mode);
+        }
+
+        @Override
+        public void accept(String relativePath, Metadata meta) throws SQLException {
+            meta.elk_count = null;
+            meta.processed_status = false;
+            writer.add(meta);
+        }
+
+        @Override
+        public void commit() throws SQLException {
+            writer.flush();
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try {
+                writer.close();
+            } finally {
+                conn.close();
+            }
+        }
+    }
+
+    /** Fans each row out to several sinks, e.g. NDJSON and import in the same pass. */
+    private static final class TeeSink implements Sink {
+        private final List<Sink> sinks;
+
+        TeeSink(List<Sink> sinks) {
+            this.sinks = sinks;
+        }
+
+        @Override
+        public void accept(String relativePath, Metadata meta) throws IOException, SQLException {
+            for (Sink sink : sinks) {
+                sink.accept(relativePath, meta);
+            }
+        }
+
+        @Override
+        public void commit() throws IOException, SQLException {
+            for (Sink sink : sinks) {
+                sink.commit();
+            }
+        }
+
+        @Override
+        public void close() throws IOException, SQLException {
+            for (Sink sink : sinks) {
+                sink.close();
+            }
+        }
+    }
+
+    /**
+     * Inputs:      args (String[]) — directory [--out=FILE.ndjson] [--import] [--on-conflict=skip|update]
+     *              [--checkpoint=FILE] [--threads=N] [--commit-every=N]
+     * Outputs:     void — progress lines every 10 s and a throughput summary on stdout
+     * Functionality: Extracts metadata for every image under the directory to NDJSON and/or a bulk
+     *               import. The checkpoint defaults to the output file plus ".checkpoint" (or
+     *               ".metadata-checkpoint" in the directory for import-only runs); rerunning with the
+     *               same arguments resumes, appending to the NDJSON file.
+     * Dependencies: run, NdjsonSink, ImportSink, db.connect
+     * Called by:   JVM when run directly for archive onboarding
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: MetadataExtractor <directory> [--out=FILE.ndjson] [--import] "
+                    + "[--on-conflict=skip|update] [--checkpoint=FILE] [--threads=N] [--commit-every=N]");
+            System.exit(2);
+        }
+
+        Path root = Paths.get(args[0]);
+        Path out = null;
+        Path checkpoint = null;
+        boolean importRows = false;
+        BulkImageWriter.ConflictMode mode = BulkImageWriter.ConflictMode.SKIP;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int commitEvery = DEFAULT_COMMIT_EVERY;
+
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--out=")) {
+                out = Paths.get(arg.substring("--out=".length()));
+            } else if ("--import".equals(arg)) {
+                importRows = true;
+            } else if (arg.startsWith("--on-conflict=")) {
+                mode = BulkImageWriter.ConflictMode.valueOf(
+                        arg.substring("--on-conflict=".length()).toUpperCase(Locale.ROOT));
+            } else if (arg.startsWith("--checkpoint=")) {
+                checkpoint = Paths.get(arg.substring("--checkpoint=".length()));
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.startsWith("--commit-every=")) {
+                commitEvery = Integer.parseInt(arg.substring("--commit-every=".length()));
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        if (out == null && !importRows) {
+            throw new IllegalArgumentException("Nothing to do: pass --out=FILE.ndjson and/or --import");
+        }
+        if (checkpoint == null) {
+            checkpoint = out != null
+                    ? Paths.get(out + ".checkpoint")
+                    : root.resolve(".metadata-checkpoint");
+        }
+
+        List<Sink> sinks = new ArrayList<>();
+        try {
+            if (out != null) {
+                sinks.add(new NdjsonSink(out, Files.exists(checkpoint)));
+            }
+            if (importRows) {
+                sinks.add(new ImportSink(db.connect(), mode));
+            }
+        } catch (IOException | SQLException | RuntimeException e) {
+            for (Sink sink : sinks) {
+                sink.close();
+            }
+            throw e;
+        }
+
+        System.out.println("Extracting " + root + " with " + threads + " thread(s); checkpoint " + checkpoint);
+        Summary s;
+        try (Sink sink = sinks.size() == 1 ? sinks.get(0) : new TeeSink(sinks)) {
+            s = run(root, threads, checkpoint, sink, commitEvery);
+        }
+        System.out.printf(Locale.ROOT,
+                "found=%d, skipped=%d, extracted=%d, failed=%d, %.1f MB in %.1f s, %.1f images/s, %.1f MB/s%n",
+                s.found(), s.skipped(), s.extracted(), s.failed(), s.bytes() / (1024.0 * 1024.0), s.seconds(),
+                s.imagesPerSecond(), s.megabytesPerSecond());
+    }
+}
@@ -0,0 +1,220 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Locale;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Client for the Open-Meteo historical archive API.
+ *
+ * One HttpClient (HTTP/2 preferred, pooled keep-alive connections) is shared by every
+ * request. Responses are read with a Jackson streaming parser straight from the socket into
+ * primitive arrays, without materializing the body as a String or caring about field order.
+ * The base URL comes from OPEN_METEO_BASE_URL so a local stub can stand in for tests and
+ * benchmarks.
+ * Usage:
+ * OpenMeteoClient.Hourly h = OpenMeteoClient.shared().archiveHourly(45.5, -110.6, from, to);
+ */
+final class OpenMeteoClient {
+    static final String DEFAULT_BASE_URL = "https://archive-api.open-meteo.com";
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final OpenMeteoClient SHARED = new OpenMeteoClient(
+            SecretConfig.getOrDefault("OPEN_METEO_BASE_URL", DEFAULT_BASE_URL));
+
+    private static final HttpClient HTTP = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    /**
+     * Hourly series in response order. date/hour are the local wall-clock time of each entry
+     * (timezone=auto); missing values are NaN (temperature, humidity) or -1 (weather code).
+     */
+    record Hourly(LocalDate[] date, int[] hour, double[] temperatureC, double[] humidity, int[] weatherCode) {
+        int size() {
+            return hour.length;
+        }
+    }
+
+    private final String baseUrl;
+
+    OpenMeteoClient(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
+
+    /**
+     * Inputs:      None
+     * Outputs:     OpenMeteoClient — the process-wide client for OPEN_METEO_BASE_URL
+     * Functionality: Singleton accessor.
+     * Dependencies: None
+     * Called by:   WeatherCache
+     */
+    static OpenMeteoClient shared() {
+        return SHARED;
+    }
+
+    /**
+     * Inputs:      latitude, longitude (double) — query point in decimal degrees;
+     *              from, to (LocalDate) — inclusive local date range
+     * Outputs:     Hourly — temperature_2m, relative_humidity_2m and weathercode for every hour
+     * Functionality: Calls /v1/archive with timezone=auto and stream-parses the response. Non-200
+     *               responses raise IOException carrying the API's "reason" when it sends one.
+     * Dependencies: java.net.http.HttpClient, parseHourly
+     * Called by:   WeatherCache.fetchRange
+     */
+    Hourly archiveHourly(double latitude, double longitude, LocalDate from, LocalDate to)
+            throws IOException, InterruptedException {
+        String url = baseUrl + "/v1/archive"
+                + "?latitude=" + String.format(Locale.ROOT, "%.4f", latitude)
+                + "&longitude=" + String.format(Locale.ROOT, "%.4f", longitude)
+                + "&start_date=" + from
+                + "&end_date=" + to
+                + "&hourly=temperature_2m,relative_humidity_2m,weathercode"
+                + "&timezone=auto";
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(Duration.ofSeconds(20))
+                .header("Accept", "application/json")
+                .GET()
+                .build();
+
+        HttpResponse<InputStream> response = HTTP.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream body = response.body()) {
+            if (response.statusCode() != 200) {
+                throw new IOException("Open-Meteo returned HTTP " + response.statusCode() + ": "
+                        + errorReason(body.readNBytes(4096)));
+            }
+            return parseHourly(body);
+        }
+    }
+
+    /**
+     * Inputs:      in (InputStream) — Open-Meteo JSON response body
+     * Outputs:     Hourly — the hourly arrays; empty if the response has no "hourly" object
+     * Functionality: Single pass with a JsonParser: descends into "hourly", reads the four arrays
+     *               it knows (in any order, accepting both weathercode and weather_code) into
+     *               growable primitive buffers, and skips everything else without building nodes.
+     * Dependencies: com.fasterxml.jackson.core.JsonParser
+     * Called by:   archiveHourly, OpenMeteoClientTest
+     */
+    static Hourly parseHourly(InputStream in) throws IOException {
+        String[] time = new String[0];
+        double[] temps = new double[0];
+        double[] hums = new double[0];
+        int[] codes = new int[0];
+        int nTime = 0, nTemp = 0, nHum = 0, nCode = 0;
+
+        try (JsonParser p = JSON.createParser(in)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Open-Meteo response is not a JSON object");
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                p.nextToken();
+                if (!"hourly".equals(field) || p.currentToken() != JsonToken.START_OBJECT) {
+                    p.skipChildren();
+                    continue;
+                }
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String series = p.currentName();
+                    p.nextToken();
+                    if (p.currentToken() != JsonToken.START_ARRAY) {
+                        p.skipChildren();
+                        continue;
+                    }
+                    switch (series) {
+                        case "time" -> {
+                            while (p.nextToken() != JsonToken.END_ARRAY) {
+                                if (nTime == time.length) {
+                                    time = Arrays.copyOf(time, Math.max(32, nTime * 2));
+                                }
+                                time[nTime++] = p.currentToken() == JsonToken.VALUE_NULL ? null : p.getText();
+                            }
+                        }
+                        case "temperature_2m" -> {
+                            while (p.nextToken() != JsonToken.END_ARRAY) {
+                                if (nTemp == temps.length) {
+                                    temps = Arrays.copyOf(temps, Math.max(32, nTemp * 2));
+                                }
+                                temps[nTemp++] = numberOrNaN(p);
+                            }
+                        }
+                        case "relative_humidity_2m" -> {
+                            while (p.nextToken() != JsonToken.END_ARRAY) {
+                                if (nHum == hums.length) {
+                                    hums = Arrays.copyOf(hums, Math.max(32, nHum * 2));
+                                }
+                                hums[nHum++] = numberOrNaN(p);
+                            }
+                        }
+                        case "weathercode", "weather_code" -> {
+                            while (p.nextToken() != JsonToken.END_ARRAY) {
+                                if (nCode == codes.length) {
+                                    codes = Arrays.copyOf(codes, Math.max(32, nCode * 2));
+                                }
+                                codes[nCode++] = p.currentToken().isNumeric() ? p.getIntValue() : -1;
+                            }
+                        }
+                        default -> p.skipChildren();
+                    }
+                }
+            }
+        }
+
+        LocalDate[] dates = new LocalDate[nTime];
+        int[] hours = new int[nTime];
+        double[] t = new double[nTime];
+        double[] h = new double[nTime];
+        int[] c = new int[nTime];
+        for (int i = 0; i < nTime; i++) {
+            // "2026-02-07T13:00"
+            String stamp = time[i];
+            if (stamp == null || stamp.length() < 13) {
+                hours[i] = -1;
+            } else {
+                dates[i] = LocalDate.parse(stamp.substring(0, 10));
+                hours[i] = Integer.parseInt(stamp.substring(11, 13));
+            }
+            t[i] = i < nTemp ? temps[i] : Double.NaN;
+            h[i] = i < nHum ? hums[i] : Double.NaN;
+            c[i] = i < nCode ? codes[i] : -1;
+        }
+        return new Hourly(dates, hours, t, h, c);
+    }
+
+    // Error bodies look like {"error":true,"reason":"..."}; fall back to the raw text otherwise.
+    private static String errorReason(byte[] body) {
+        try (JsonParser p = JSON.createParser(body)) {
+            if (p.nextToken() == JsonToken.START_OBJECT) {
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = p.currentName();
+                    p.nextToken();
+                    if ("reason".equals(field) && p.currentToken() == JsonToken.VALUE_STRING) {
+                        return p.getText();
+                    }
+                    p.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            // not JSON
+        }
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    private static double numberOrNaN(JsonParser p) throws IOException {
+        return p.currentToken().isNumeric() ? p.getDoubleValue() : Double.NaN;
+    }
+}
@@ -0,0 +1,272 @@
+package com.example;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Shrinks an image to a JPEG that fits a byte budget, entirely in memory, before any upload.
+ *
+ * The source is decoded once, subsampled by the reader towards the target side, and
+ * converted to RGB once per scale. JPEG quality is then binary-searched against the
+ * budget (3-4 encodes into one reused buffer); only if the lowest quality still overshoots
+ * is the side reduced and the search repeated from the already-decoded pixels. The
+ * (side, quality) that fit is remembered per source resolution and budget, so the next
+ * photo from the same camera normally needs a single encode.
+ * Usage:
+ * PayloadBudgetCompressor.Result r = compressor.fit(imageBytes, 1_100_000);
+ */
+final class PayloadBudgetCompressor {
+    static final int MIN_SIDE = 256;
+    static final int MIN_QUALITY = 50;
+    static final int MAX_QUALITY = 90;
+    private static final int QUALITY_STEP = 5;
+    // Side reductions after the quality search fails at MIN_QUALITY; each one re-aims using
+    // the overshoot, so more than a couple means the budget is unreachable.
+    private static final int MAX_SCALE_ROUNDS = 4;
+    // JPEG size is not quite proportional to pixel count; aim a little under the budget.
+    private static final double SIDE_MARGIN = 0.85;
+
+    /** Encoded JPEG and the settings that produced it; encodes counts every JPEG write. */
+    record Result(byte[] bytes, int maxSide, int quality, int encodes) {
+    }
+
+    private record Key(int width, int height, int budget) {
+    }
+
+    private record Settings(int maxSide, int quality) {
+    }
+
+    private final Cache<Key, Settings> remembered;
+
+    PayloadBudgetCompressor(int maxEntries) {
+        this.remembered = CacheBuilder.newBuilder().maximumSize(maxEntries).build();
+    }
+
+    /**
+     * Inputs:      source (byte[]) — encoded image in any ImageIO-readable format;
+     *              budgetBytes (int) — largest acceptable JPEG size
+     * Outputs:     Result — JPEG bytes no larger than budgetBytes, with the side and quality used
+     * Functionality: Reads the source size from the header, starts from the remembered settings
+     *               for that resolution (or a size-ratio estimate), decodes once with subsampling,
+     *               then searches quality and, if needed, side. Throws IllegalArgumentException
+     *               if the payload is unreadable or cannot fit at MIN_SIDE and MIN_QUALITY.
+     * Dependencies: javax.imageio.ImageReader, search, Guava Cache
+     * Called by:   AnimalDetectAPI.prepareImageForPayloadLimit
+     */
+    Result fit(byte[] source, int budgetBytes) throws IOException {
+        try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(source))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IllegalArgumentException("Unsupported or corrupt image payload");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int longest = Math.max(width, height);
+                Key key = new Key(width, height, budgetBytes);
+                Settings hint = remembered.getIfPresent(key);
+
+                int side;
+                if (hint != null) {
+                    side = hint.maxSide();
+                } else {
+                    // Pixel count scales with the square of the side, hence sqrt of the byte ratio.
+                    double ratio = (double) budgetBytes / source.length;
+                    side = (int) (longest * Math.min(1.0, Math.sqrt(ratio) * SIDE_MARGIN));
+                }
+                side = Math.max(Math.min(MIN_SIDE, longest), Math.min(side, longest));
+
+                BufferedImage decoded = reader.read(0, subsampling(reader, longest, side));
+                Result result = search(decoded, side, hint != null ? hint.quality() : -1, budgetBytes);
+                remembered.put(key, new Settings(result.maxSide(), result.quality()));
+                return result;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Inputs:      source (byte[]) — encoded image; maxSide (int) — longest side after resizing;
+     *              quality (int) — JPEG quality (1–100)
+     * Outputs:     byte[] — JPEG at exactly these settings, without any budget search
+     * Functionality: Subsampled decode, one resize/RGB conversion, one encode.
+     * Dependencies: scaledRGB, encode
+     * Called by:   AnimalDetectAPI.compressImageForUpload
+     */
+    static byte[] compress(byte[] source, int maxSide, int quality) throws IOException {
+        try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(source))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IllegalArgumentException("Unsupported or corrupt image payload");
+            }
+            ImageReader reader = readers.next();
+            BufferedImage decoded;
+            try {
+                reader.setInput(input, true, true);
+                int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+                decoded = reader.read(0, subsampling(reader, longest, maxSide));
+            } finally {
+                reader.dispose();
+            }
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+            try {
+                encode(writer, scaledRGB(decoded, maxSide), quality, buffer);
+                return buffer.toByteArray();
+            } finally {
+                writer.dispose();
+            }
+        }
+    }
+
+    /**
+     * Inputs:      decoded (BufferedImage) — subsampled source pixels; side (int) — starting
+     *              longest side; hintQuality (int) — remembered quality or -1; budget (int)
+     * Outputs:     Result — the highest quality on the QUALITY_STEP grid that fits at the largest
+     *              side tried
+     * Functionality: Tries the remembered quality first (one encode when it still fits), then
+     *               binary-searches quality. If MIN_QUALITY overshoots, the side is reduced by the
+     *               square root of budget/size and the search repeats, up to MAX_SCALE_ROUNDS.
+     *               Encodes reuse one writer and one buffer; only a fitting encode is copied out.
+     * Dependencies: scaledRGB, encode
+     * Called by:   fit
+     */
+    private static Result search(BufferedImage decoded, int side, int hintQuality, int budget) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(budget);
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        int encodes = 0;
+        try {
+            for (int round = 0; ; round++) {
+                BufferedImage img = scaledRGB(decoded, side);
+                if (hintQuality > 0) {
+                    encodes++;
+                    if (encode(writer, img, hintQuality, buffer) <= budget) {
+                        return new Result(buffer.toByteArray(), side, hintQuality, encodes);
+                    }
+                    hintQuality = -1;
+                }
+
+                byte[] best = null;
+                int bestQuality = 0;
+                int lastSize = 0;
+                int lo = 0;
+                int hi = (MAX_QUALITY - MIN_QUALITY) / QUALITY_STEP;
+                while (lo <= hi) {
+                    int mid = (lo + hi) >>> 1;
+                    int quality = MIN_QUALITY + mid * QUALITY_STEP;
+                    encodes++;
+                    lastSize = encode(writer, img, quality, buffer);
+                    if (lastSize <= budget) {
+                        best = buffer.toByteArray();
+                        bestQuality = quality;
+                        lo = mid + 1;
+                    } else {
+                        hi = mid - 1;
+                    }
+                }
+                if (best != null) {
+                    return new Result(best, side, bestQuality, encodes);
+                }
+
+                // Every quality overshot, so the last encode was at MIN_QUALITY.
+                if (side <= MIN_SIDE || round + 1 >= MAX_SCALE_ROUNDS) {
+                    throw new IllegalArgumentException("Image is too large: unable to shrink under "
+                            + (budget / 1024) + " KB (" + (lastSize / 1024) + " KB at " + side + "px, quality "
+                            + MIN_QUALITY + ")");
+                }
+                side = Math.max(MIN_SIDE, (int) (side * Math.sqrt((double) budget / lastSize) * 0.95));
+            }
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Inputs:      reader (ImageReader) — positioned on the source; longest (int) — source longest
+     *              side; side (int) — target longest side
+     * Outputs:     ImageReadParam — integer subsampling that keeps the decode at or above side
+     * Functionality: Floors the ratio so the final resize only ever scales down.
+     * Dependencies: javax.imageio.ImageReadParam
+     * Called by:   fit, compress
+     */
+    private static ImageReadParam subsampling(ImageReader reader, int longest, int side) {
+        ImageReadParam param = reader.getDefaultReadParam();
+        int step = Math.max(1, longest / Math.max(1, side));
+        if (step > 1) {
+            param.setSourceSubsampling(step, step, 0, 0);
+        }
+        return param;
+    }
+
+    /**
+     * Inputs:      img (BufferedImage) — decoded pixels, any color model; side (int) — longest side
+     * Outputs:     BufferedImage — TYPE_INT_RGB, longest side at most side
+     * Functionality: Resizes (bilinear) and drops alpha in a single draw; returns img unchanged when
+     *               it is already RGB and small enough.
+     * Dependencies: java.awt.Graphics2D
+     * Called by:   search, compress
+     */
+    private static BufferedImage scaledRGB(BufferedImage img, int side) {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        int longest = Math.max(width, height);
+        if (longest <= side && img.getType() == BufferedImage.TYPE_INT_RGB) {
+            return img;
+        }
+        double scale = Math.min(1.0, side / (double) longest);
+        int newWidth = Math.max(1, (int) (width * scale));
+        int newHeight = Math.max(1, (int) (height * scale));
+        BufferedImage out = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = out.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(img, 0, 0, newWidth, newHeight, null);
+        } finally {
+            g.dispose();
+        }
+        return out;
+    }
+
+    /**
+     * Inputs:      writer (ImageWriter) — reused JPEG writer; img (BufferedImage) — RGB pixels;
+     *              quality (int) — 1–100; buffer (ByteArrayOutputStream) — reset and refilled
+     * Outputs:     int — encoded size in bytes (the JPEG is left in buffer)
+     * Functionality: One explicit-quality JPEG write into memory.
+     * Dependencies: javax.imageio.ImageWriter, javax.imageio.stream.MemoryCacheImageOutputStream
+     * Called by:   search, compress
+     */
+    private static int encode(ImageWriter writer, BufferedImage img, int quality, ByteArrayOutputStream buffer)
+            throws IOException {
+        buffer.reset();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality / 100f);
+        try (ImageOutputStream out = new MemoryCacheImageOutputStream(buffer)) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(img, null, null), param);
+        }
+        return buffer.size();
+    }
+}
@@ -0,0 +1,142 @@
+package com.example;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Chunk-header walk over a PNG that reads IHDR and the eXIf payload and nothing else.
+ *
+ * Only the 8-byte length/type header of each chunk is read; bodies are skipped by position.
+ * The walk stops at the first IDAT, since eXIf must precede the image data, so memory and I/O
+ * stay proportional to the metadata, not the image.
+ * Usage:
+ * PngChunkReader.Headers h = PngChunkReader.scan(path);
+ * ImageUtils.ExifData d = h.exif() == null ? null : ExifParser.parse(h.exif());
+ */
+final class PngChunkReader {
+    private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+    private static final int CHUNK_IHDR = 0x49484452; // "IHDR"
+    private static final int CHUNK_EXIF = 0x65584966; // "eXIf"
+    private static final int CHUNK_IDAT = 0x49444154; // "IDAT"
+    private static final int CHUNK_IEND = 0x49454E44; // "IEND"
+    // Chunk length + type + CRC.
+    private static final int CHUNK_OVERHEAD = 12;
+
+    /**
+     * What the walk found. exif is the raw eXIf payload (a TIFF header, sometimes with an
+     * "Exif\0\0" prefix), or null; dimensions is null if IHDR is missing. png is false if the
+     * signature does not match.
+     */
+    record Headers(boolean png, ByteBuffer exif, ImageUtils.Dimensions dimensions) {
+    }
+
+    /** Positional read of exactly n bytes at pos; the result is owned by the caller. */
+    private interface Reader {
+        ByteBuffer read(long pos, int n) throws IOException;
+    }
+
+    private PngChunkReader() {
+    }
+
+    /**
+     * Inputs:      file (Path) — candidate PNG on disk
+     * Outputs:     Headers — eXIf payload (copied) and IHDR size
+     * Functionality: Opens a read-only FileChannel and walks the chunk headers.
+     * Dependencies: scan(FileChannel)
+     * Called by:   ImageUtils.parseExifFromPng, ImageUtils.convertPngToJpg, ImageUtils.main
+     */
+    static Headers scan(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return scan(channel);
+        }
+    }
+
+    /**
+     * Inputs:      channel (FileChannel) — open channel; its position is not used or changed
+     * Outputs:     Headers — eXIf payload (copied) and IHDR size
+     * Functionality: One positional read per chunk header plus one for the eXIf body.
+     * Dependencies: walk
+     * Called by:   scan(Path), ImageUtils.probeDimensions
+     */
+    static Headers scan(FileChannel channel) throws IOException {
+        long size = channel.size();
+        return walk(size, (pos, n) -> {
+            if (pos < 0 || pos + n > size) {
+                throw new EOFException("PNG chunk runs past end of file");
+            }
+            ByteBuffer out = ByteBuffer.allocate(n);
+            while (out.hasRemaining() && channel.read(out, pos + out.position()) > 0) {
+                // read exactly n bytes
+            }
+            if (out.hasRemaining()) {
+                throw new EOFException("PNG chunk runs past end of file");
+            }
+            return out.flip();
+        });
+    }
+
+    /**
+     * Inputs:      png (ByteBuffer) — whole file in memory (position..limit)
+     * Outputs:     Headers — exif is a view into png, not a copy
+     * Functionality: Same walk without copying.
+     * Dependencies: walk
+     * Called by:   ImageAnalyzer.analyze
+     */
+    static Headers scan(ByteBuffer png) throws IOException {
+        ByteBuffer data = png.slice();
+        return walk(data.limit(), (pos, n) -> {
+            if (pos < 0 || pos + n > data.limit()) {
+                throw new EOFException("PNG chunk runs past end of buffer");
+            }
+            return data.slice((int) pos, n);
+        });
+    }
+
+    /**
+     * Inputs:      size (long) — input length; reader (Reader) — positional reads
+     * Outputs:     Headers — see record
+     * Functionality: Checks the signature, then for each chunk reads length and type, captures
+     *               IHDR width/height and the first eXIf body, and jumps to the next header.
+     *               Stops at IDAT, IEND, a negative length or the end of the input.
+     * Dependencies: None (manual byte parsing)
+     * Called by:   scan(FileChannel), scan(ByteBuffer)
+     */
+    private static Headers walk(long size, Reader reader) throws IOException {
+        if (size < 8 || reader.read(0, 8).getLong(0) != SIGNATURE) {
+            return new Headers(false, null, null);
+        }
+
+        ByteBuffer exif = null;
+        ImageUtils.Dimensions dims = null;
+        long pos = 8;
+        try {
+            while (pos + CHUNK_OVERHEAD <= size) {
+                ByteBuffer header = reader.read(pos, 8);
+                int length = header.getInt(0);
+                int type = header.getInt(4);
+                if (length < 0 || type == CHUNK_IDAT || type == CHUNK_IEND) {
+                    break;
+                }
+                long body = pos + 8;
+                if (type == CHUNK_IHDR && length >= 8) {
+                    ByteBuffer ihdr = reader.read(body, 8);
+                    int width = ihdr.getInt(0);
+                    int height = ihdr.getInt(4);
+                    if (width > 0 && height > 0) {
+                        dims = new ImageUtils.Dimensions(width, height);
+                    }
+                } else if (type == CHUNK_EXIF && exif == null && length > 0) {
+                    exif = reader.read(body, length);
+                }
+                pos = body + length + 4;
+            }
+        } catch (EOFException e) {
+            // Truncated file; keep whatever was found before the cut.
+        }
+        return new Headers(true, exif, dims);
+    }
+}
@@ -0,0 +1,203 @@
+package com.example;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * In-process cache of serialized JSON responses for read-heavy dashboard endpoints.
+ *
+ * Entries expire after RESPONSE_CACHE_TTL_SECONDS (default 60; 0 disables caching) and
+ * are dropped as a whole whenever db reports an image write. Each entry records the
+ * write generation it was computed under, so a load that races with a write is never
+ * served after that write. Writes made by other instances are only picked up at TTL
+ * expiry. Every entry carries a strong ETag (SHA-256 of the body) for If-None-Match;
+ * streamed responses that are never held in memory use versionTag instead.
+ * Usage:
+ * ResponseCache.Entry e = ResponseCache.shared().get("summary", () -> buildSummary(conn));
+ */
+final class ResponseCache {
+    private static final ResponseCache SHARED = new ResponseCache(
+            TimeUnit.SECONDS.toNanos(db.intSetting("RESPONSE_CACHE_TTL_SECONDS", 60)));
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    // Generations restart at 0 in every process, so version tags also carry a per-process id.
+    private static final String PROCESS_ID = UUID.randomUUID().toString();
+
+    /** A cached response body with its quoted ETag. */
+    record Entry(byte[] body, String etag, long generation, long expiresAtNanos) {
+    }
+
+    /** Produces the response payload on a miss; serialized with Jackson. */
+    interface Loader {
+        Object load() throws Exception;
+    }
+
+    private final long ttlNanos;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Object> loadLocks = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    ResponseCache(long ttlNanos) {
+        this.ttlNanos = ttlNanos;
+    }
+
+    /**
+     * Inputs:      None
+     * Outputs:     ResponseCache — the process-wide instance invalidated by db write hooks
+     * Functionality: Singleton accessor.
+     * Dependencies: None
+     * Called by:   db.notifyRowChanged, db.notifyRowsChanged, ImageStatsController
+     */
+    static ResponseCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Inputs:      key (String) — cache key, one per endpoint/parameter combination;
+     *              loader (Loader) — builds the payload on a miss
+     * Outputs:     Entry — the cached or freshly built response
+     * Functionality: Returns a live entry if one exists; otherwise loads it while holding a
+     *               per-key lock so concurrent misses for the same key run the query once.
+     *               The write generation is captured before loading, so an invalidation that
+     *               lands mid-load makes the new entry stale immediately.
+     * Dependencies: com.fasterxml.jackson.databind.ObjectMapper, etagFor
+     * Called by:   ImageStatsController.cachedJson
+     */
+    Entry get(String key, Loader loader) throws Exception {
+        Entry entry = entries.get(key);
+        if (isLive(entry)) {
+            hits.incrementAndGet();
+            return entry;
+        }
+
+        synchronized (loadLocks.computeIfAbsent(key, k -> new Object())) {
+            entry = entries.get(key);
+            if (isLive(entry)) {
+                hits.incrementAndGet();
+                return entry;
+            }
+            misses.incrementAndGet();
+
+            long loadGeneration = generation.get();
+            byte[] body = MAPPER.writeValueAsBytes(loader.load());
+            entry = new Entry(body, etagFor(body), loadGeneration, System.nanoTime() + ttlNanos);
+            if (ttlNanos > 0) {
+                entries.put(key, entry);
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Inputs:      key (String) — identifies the endpoint and its canonical query parameters
+     * Outputs:     String — weak ETag (W/"...") that stays the same while no image is written
+     *              through this process and the current TTL window has not rolled over
+     * Functionality: Validator for streamed responses that are too large to hold in the cache.
+     *               The tag is derived from the process id, write generation, TTL window and key
+     *               instead of the body, so it is known before the query runs; a match can be
+     *               answered with 304 without touching the database. It is weak because it
+     *               vouches for the data version, not the exact bytes (which can differ, e.g. in
+     *               float formatting or a different node's tag). With caching disabled every call
+     *               returns a fresh tag.
+     * Dependencies: etagFor
+     * Called by:   ImageStatsController.getImageLocations
+     */
+    String versionTag(String key) {
+        long ttlMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(ttlNanos));
+        long window = ttlNanos > 0 ? System.currentTimeMillis() / ttlMillis : System.nanoTime();
+        String version = PROCESS_ID + ":" + generation.get() + ":" + window + ":" + key;
+        return "W/" + etagFor(version.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Inputs:      None
+     * Outputs:     void
+     * Functionality: Bumps the write generation, which retires every entry (including ones
+     *               being loaded right now), and drops the stored bodies.
+     * Dependencies: None
+     * Called by:   db.notifyRowChanged, db.notifyRowsChanged
+     */
+    void invalidateAll() {
+        generation.incrementAndGet();
+        invalidations.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * Inputs:      ifNoneMatch (String) — raw If-None-Match request header, may be null;
+     *              etag (String) — ETag of the current representation, strong or weak
+     * Outputs:     boolean — true if the client already holds this representation
+     * Functionality: Implements the If-None-Match check (RFC 9110 weak comparison over a
+     *               comma-separated list, or "*") and counts matches as 304s.
+     * Dependencies: None
+     * Called by:   ImageStatsController.cachedJson, ImageStatsController.getImageLocations
+     */
+    boolean notModified(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || ifNoneMatch.isBlank()) {
+            return false;
+        }
+        String current = opaqueTag(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = opaqueTag(candidate.trim());
+            if (tag.equals("*") || tag.equals(current)) {
+                notModified.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Inputs:      None
+     * Outputs:     Map<String, Object> — hits, misses, notModified, invalidations, hitRatio,
+     *              entries and ttlSeconds
+     * Functionality: Snapshot of the counters for the cache-stats endpoint.
+     * Dependencies: None
+     * Called by:   ImageStatsController.getCacheStats
+     */
+    Map<String, Object> stats() {
+        long h = hits.get();
+        long m = misses.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("notModified", notModified.get());
+        stats.put("invalidations", invalidations.get());
+        stats.put("hitRatio", h + m == 0 ? 0.0 : (double) h / (h + m));
+        stats.put("entries", entries.size());
+        stats.put("ttlSeconds", TimeUnit.NANOSECONDS.toSeconds(ttlNanos));
+        return stats;
+    }
+
+    private boolean isLive(Entry entry) {
+        return entry != null
+                && entry.generation() == generation.get()
+                && System.nanoTime() - entry.expiresAtNanos() < 0;
+    }
+
+    private static String opaqueTag(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    private static String etagFor(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -1,12 +1,18 @@
 package com.example;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Locale;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 @RestController
@@ -31,7 +37,7 @@ public class TaskController {
      * (e.g. Google Cloud Scheduler) to trigger the Gmail polling job; protected by
      * a
      * shared-secret token check.
-     * Dependencies: SecretConfig, EventScheduler.runEmailPollingJob,
+     * Dependencies: checkTaskToken, EventScheduler.runEmailPollingJob,
      * org.springframework.http.ResponseEntity
      * Called by: External HTTP scheduler (e.g. Cloud Scheduler cron job) via POST
      * /internal/tasks/poll-email
@@ -40,6 +46,83 @@ public class TaskController {
     public ResponseEntity<?> runEmailPollingTask(
             @RequestHeader(value = "X-Task-Token", required = false) String taskTokenHeader) {
 
+        ResponseEntity<?> rejected = checkTaskToken(taskTokenHeader);
+        if (rejected != null) {
+            return rejected;
+        }
+
+        eventScheduler.runEmailPollingJob();
+        return ResponseEntity.ok(Map.of("status", "ok", "job", "poll-email"));
+    }
+
+    /**
+     * Inputs: taskTokenHeader (String, optional header X-Task-Token) — shared
+     * secret; threshold (double, optional) — minimum detection score in [0, 1];
+     * markers (String, optional) — comma-separated label substrings. Either one
+     * left out keeps its value from the stored elk rule.
+     * Outputs: ResponseEntity<?> — 200 OK with the rule applied, the number of
+     * images whose elk_count changed and the elapsed seconds; 400 for a threshold
+     * that is NaN or outside [0, 1], or an empty marker list; 503/401 as for
+     * poll-email; 500 if the database update fails
+     * Functionality: HTTP POST /internal/tasks/recount-elk handler that makes the
+     * given rule the stored elk rule (used by every ingest path from then on) and
+     * re-scores every image with stored detections under it. Runs synchronously
+     * in SQL; no AnimalDetect calls are made.
+     * Dependencies: checkTaskToken, db.connect, db.getElkRule, db.recountElk,
+     * AnimalDetectAPI.ElkRule
+     * Called by: Operators or an external scheduler via POST
+     * /internal/tasks/recount-elk
+     */
+    @PostMapping("/internal/tasks/recount-elk")
+    public ResponseEntity<?> recountElk(
+            @RequestHeader(value = "X-Task-Token", required = false) String taskTokenHeader,
+            @RequestParam(value = "threshold", required = false) Double threshold,
+            @RequestParam(value = "markers", required = false) String markers) {
+
+        ResponseEntity<?> rejected = checkTaskToken(taskTokenHeader);
+        if (rejected != null) {
+            return rejected;
+        }
+        if (threshold != null && !AnimalDetectAPI.ElkRule.validThreshold(threshold)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "threshold must be between 0 and 1"));
+        }
+
+        long start = System.nanoTime();
+        AnimalDetectAPI.ElkRule rule;
+        int changed;
+        try (Connection conn = db.connect()) {
+            AnimalDetectAPI.ElkRule stored = db.getElkRule(conn);
+            try {
+                rule = new AnimalDetectAPI.ElkRule(
+                        threshold != null ? threshold : stored.threshold(),
+                        markers != null ? Arrays.asList(markers.split(",")) : stored.markers());
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+            }
+            changed = db.recountElk(conn, rule);
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Elk recount failed", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Elk recount failed: " + e.getMessage()));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        logger.info("Elk recount (threshold=" + rule.threshold() + ", markers=" + rule.markers() + "): " + changed
+                + " images changed in " + String.format(Locale.ROOT, "%.2f", seconds) + " s");
+
+        return ResponseEntity.ok(Map.of("status", "ok", "job", "recount-elk", "threshold", rule.threshold(),
+                "markers", rule.markers(), "changed", changed, "seconds", seconds));
+    }
+
+    /**
+     * Inputs: taskTokenHeader (String) — value of the X-Task-Token header, may be
+     * null
+     * Outputs: ResponseEntity<?> — 503 if TASK_TOKEN is not configured, 401 if the
+     * token does not match, null if the caller is authorized
+     * Functionality: Shared-secret check for the internal task endpoints.
+     * Dependencies: SecretConfig
+     * Called by: runEmailPollingTask, recountElk
+     */
+    private ResponseEntity<?> checkTaskToken(String taskTokenHeader) {
         String expectedToken = SecretConfig.get("TASK_TOKEN");
         if (expectedToken == null || expectedToken.isBlank()) {
             expectedToken = System.getenv("TASK_TOKEN");
@@ -54,8 +137,6 @@ public class TaskController {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                     .body(Map.of("error", "Unauthorized task trigger"));
         }
-
-        eventScheduler.runEmailPollingJob();
-        return ResponseEntity.ok(Map.of("status", "ok", "job", "poll-email"));
+        return null;
     }
 }
@@ -0,0 +1,331 @@
+package com.example;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Two-tier cache of Open-Meteo archive data, keyed by 0.1-degree cell and calendar day.
+ *
+ * Tier 1 is a bounded in-memory LRU; tier 2 is the postgres.weather_hourly table, which
+ * keeps all 24 hourly values of every complete day fetched so far. A miss in both tiers
+ * makes one archive request for the cell centre, so every photo from the same cell and
+ * day shares one remote call. Concurrent misses for the same key wait on a single load.
+ * The background WeatherEnricher uses days() to resolve a multi-day range per request.
+ * Usage:
+ * WeatherCache.Day day = WeatherCache.shared().day(45.51, -110.62, LocalDate.parse("2026-02-07"));
+ */
+final class WeatherCache {
+    private static final Logger logger = Logger.getLogger(WeatherCache.class.getName());
+    private static final WeatherCache SHARED = new WeatherCache(
+            db.intSetting("WEATHER_CACHE_MAX_ENTRIES", 10_000),
+            db.intSetting("WEATHER_CACHE_TTL_MINUTES", 60));
+
+    // 0.1 degree ~ 11 km, close to the ERA5-Land grid the archive API interpolates from.
+    static final int CELLS_PER_DEGREE = 10;
+    static final int HOURS = 24;
+    // Keeps one archive request (and its response) to about a season of hourly values.
+    static final int MAX_RANGE_DAYS = 92;
+
+    /** A (cell, day) cache key; cells are round(degrees * CELLS_PER_DEGREE). */
+    record Key(int latCell, int lonCell, LocalDate date) {
+        static Key of(double latitude, double longitude, LocalDate date) {
+            return new Key((int) Math.round(latitude * CELLS_PER_DEGREE),
+                    (int) Math.round(longitude * CELLS_PER_DEGREE), date);
+        }
+
+        double latitude() {
+            return (double) latCell / CELLS_PER_DEGREE;
+        }
+
+        double longitude() {
+            return (double) lonCell / CELLS_PER_DEGREE;
+        }
+    }
+
+    /**
+     * Hourly values for one cell-day, indexed by local hour (0-23). Missing values are NaN
+     * (temperature, humidity) or -1 (weather code).
+     */
+    record Day(double[] temperatureC, double[] humidity, int[] weatherCode) {
+        boolean hasHour(int hour) {
+            return hour >= 0 && hour < HOURS && !Double.isNaN(temperatureC[hour]) && !Double.isNaN(humidity[hour])
+                    && weatherCode[hour] >= 0;
+        }
+
+        boolean complete() {
+            for (int h = 0; h < HOURS; h++) {
+                if (!hasHour(h)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final LoadingCache<Key, Day> memory;
+    private final OpenMeteoClient client;
+    // False keeps the cache in memory only, without weather_hourly (tests and benchmarks).
+    private final boolean persistent;
+
+    WeatherCache(int maxEntries, int ttlMinutes) {
+        this(maxEntries, ttlMinutes, OpenMeteoClient.shared(), true, Ticker.systemTicker());
+    }
+
+    WeatherCache(int maxEntries, int ttlMinutes, OpenMeteoClient client, boolean persistent, Ticker ticker) {
+        this.client = client;
+        this.persistent = persistent;
+        // Complete days never change; the TTL only bounds how long a partial (recent) day is reused.
+        this.memory = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+                .ticker(ticker)
+                .recordStats()
+                .build(new CacheLoader<Key, Day>() {
+                    @Override
+                    public Day load(Key key) throws Exception {
+                        return loadDay(key);
+                    }
+                });
+    }
+
+    /**
+     * Inputs:      None
+     * Outputs:     WeatherCache — the process-wide instance
+     * Functionality: Singleton accessor.
+     * Dependencies: None
+     * Called by:   db.populateWeather, db.populateWeatherFromCache, WeatherEnricher
+     */
+    static WeatherCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Inputs:      latitude, longitude (double) — photo position in decimal degrees;
+     *              date (LocalDate) — local calendar day the photo was taken
+     * Outputs:     Day — hourly values for the surrounding cell, or null if the archive request
+     *              failed (failures are not cached, so the next photo retries)
+     * Functionality: Looks up memory, then weather_hourly, then Open-Meteo. Guava's LoadingCache
+     *               runs one load per key; concurrent callers for the same key block on it.
+     * Dependencies: com.google.common.cache.LoadingCache, loadDay
+     * Called by:   db.populateWeather
+     */
+    Day day(double latitude, double longitude, LocalDate date) {
+        try {
+            return memory.get(Key.of(latitude, longitude, date));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            logger.log(Level.FINE, "Weather lookup failed for " + Key.of(latitude, longitude, date), e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Inputs:      latitude, longitude (double) — photo position; date (LocalDate) — local day
+     * Outputs:     Day — the in-memory entry for the cell-day, or null if it is not loaded
+     * Functionality: Non-blocking lookup for the ingest path: never touches Postgres or the network.
+     * Dependencies: com.google.common.cache.LoadingCache.getIfPresent
+     * Called by:   db.populateWeatherFromCache
+     */
+    Day peek(double latitude, double longitude, LocalDate date) {
+        return memory.getIfPresent(Key.of(latitude, longitude, date));
+    }
+
+    /**
+     * Inputs:      latCell, lonCell (int) — cell indices as in Key; dates (SortedSet<LocalDate>) — the
+     *              days needed
+     * Outputs:     Map<LocalDate, Day> — every requested day that could be resolved; days whose
+     *              archive request failed are absent
+     * Functionality: Multi-day variant of day() for the background enricher. Days already in memory
+     *               are used as is, the rest are read from weather_hourly in one query, and whatever
+     *               is still missing is fetched with one archive request per window of at most
+     *               MAX_RANGE_DAYS days (days between the requested ones ride along and are cached).
+     *               Results are added to both tiers. Not single-flight across callers; the enricher
+     *               groups its work by cell so two workers rarely ask for the same cell at once.
+     * Dependencies: readStoredRange, fetchRange, store
+     * Called by:   WeatherEnricher.enrichCell
+     */
+    Map<LocalDate, Day> days(int latCell, int lonCell, SortedSet<LocalDate> dates) {
+        Map<LocalDate, Day> result = new TreeMap<>();
+        List<LocalDate> missing = new ArrayList<>();
+        for (LocalDate d : dates) {
+            Day cached = memory.getIfPresent(new Key(latCell, lonCell, d));
+            if (cached != null) {
+                result.put(d, cached);
+            } else {
+                missing.add(d);
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+
+        Map<LocalDate, Day> stored = readStoredRange(latCell, lonCell, missing.get(0), missing.get(missing.size() - 1));
+        for (LocalDate d : missing) {
+            Day day = stored.get(d);
+            if (day != null) {
+                result.put(d, day);
+                memory.put(new Key(latCell, lonCell, d), day);
+            }
+        }
+        missing.removeIf(result::containsKey);
+
+        int i = 0;
+        while (i < missing.size()) {
+            LocalDate start = missing.get(i);
+            LocalDate end = start;
+            int j = i;
+            while (j + 1 < missing.size() && !missing.get(j + 1).isAfter(start.plusDays(MAX_RANGE_DAYS - 1))) {
+                end = missing.get(++j);
+            }
+            try {
+                for (Map.Entry<LocalDate, Day> e : fetchRange(latCell, lonCell, start, end).entrySet()) {
+                    Key key = new Key(latCell, lonCell, e.getKey());
+                    memory.put(key, e.getValue());
+                    if (e.getValue().complete()) {
+                        store(key, e.getValue());
+                    }
+                    if (dates.contains(e.getKey())) {
+                        result.put(e.getKey(), e.getValue());
+                    }
+                }
+            } catch (Exception e) {
+                logger.log(Level.FINE, "Weather range fetch failed for cell " + latCell + "," + lonCell
+                        + " " + start + ".." + end, e);
+            }
+            i = j + 1;
+        }
+        return result;
+    }
+
+    /**
+     * Inputs:      None
+     * Outputs:     CacheStats — hit/miss/load counters of the in-memory tier
+     * Functionality: Exposes Guava's counters for logging and diagnostics.
+     * Dependencies: com.google.common.cache.CacheStats
+     * Called by:   Diagnostics
+     */
+    CacheStats stats() {
+        return memory.stats();
+    }
+
+    private Day loadDay(Key key) throws Exception {
+        Day stored = readStoredRange(key.latCell(), key.lonCell(), key.date(), key.date()).get(key.date());
+        if (stored != null) {
+            return stored;
+        }
+        Day fetched = fetchRange(key.latCell(), key.lonCell(), key.date(), key.date()).get(key.date());
+        if (fetched == null) {
+            throw new IllegalStateException("Open-Meteo archive returned no hours for " + key);
+        }
+        // Recent days come back partly null until the archive catches up; only persist complete ones.
+        if (fetched.complete()) {
+            store(key, fetched);
+        }
+        return fetched;
+    }
+
+    private Map<LocalDate, Day> readStoredRange(int latCell, int lonCell, LocalDate from, LocalDate to) {
+        if (!persistent) {
+            return Map.of();
+        }
+        String sql = "SELECT day, hour, temperature_c, humidity, weather_code FROM postgres.weather_hourly "
+                + "WHERE lat_cell = ? AND lon_cell = ? AND day BETWEEN ? AND ?";
+        Map<LocalDate, Day> days = new HashMap<>();
+        Map<LocalDate, Integer> rowsPerDay = new HashMap<>();
+        try (Connection conn = db.connect(); PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, latCell);
+            ps.setInt(2, lonCell);
+            ps.setObject(3, from);
+            ps.setObject(4, to);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    LocalDate date = rs.getObject("day", LocalDate.class);
+                    int hour = rs.getInt("hour");
+                    Day day = days.computeIfAbsent(date, d -> emptyDay());
+                    day.temperatureC()[hour] = rs.getDouble("temperature_c");
+                    day.humidity()[hour] = rs.getDouble("humidity");
+                    day.weatherCode()[hour] = rs.getInt("weather_code");
+                    rowsPerDay.merge(date, 1, Integer::sum);
+                }
+            }
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "weather_hourly read failed; falling back to Open-Meteo", e);
+            return Map.of();
+        }
+        days.keySet().removeIf(d -> rowsPerDay.get(d) != HOURS);
+        return days;
+    }
+
+    private void store(Key key, Day day) {
+        if (!persistent) {
+            return;
+        }
+        String sql = "INSERT INTO postgres.weather_hourly "
+                + "(lat_cell, lon_cell, day, hour, temperature_c, humidity, weather_code) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?) ON CONFLICT DO NOTHING";
+        try (Connection conn = db.connect(); PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (int hour = 0; hour < HOURS; hour++) {
+                ps.setInt(1, key.latCell());
+                ps.setInt(2, key.lonCell());
+                ps.setObject(3, key.date());
+                ps.setInt(4, hour);
+                ps.setObject(5, day.temperatureC()[hour], Types.DOUBLE);
+                ps.setObject(6, day.humidity()[hour], Types.DOUBLE);
+                ps.setInt(7, day.weatherCode()[hour]);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "weather_hourly write failed; day stays in memory only", e);
+        }
+    }
+
+    private Map<LocalDate, Day> fetchRange(int latCell, int lonCell, LocalDate from, LocalDate to) throws Exception {
+        OpenMeteoClient.Hourly hourly = client.archiveHourly(
+                (double) latCell / CELLS_PER_DEGREE, (double) lonCell / CELLS_PER_DEGREE, from, to);
+        Map<LocalDate, Day> days = new HashMap<>();
+        for (int i = 0; i < hourly.size(); i++) {
+            // Local wall-clock hours, so DST days map hour-for-hour.
+            int hour = hourly.hour()[i];
+            if (hour < 0 || hour >= HOURS) {
+                continue;
+            }
+            Day day = days.computeIfAbsent(hourly.date()[i], d -> emptyDay());
+            day.temperatureC()[hour] = hourly.temperatureC()[i];
+            day.humidity()[hour] = hourly.humidity()[i];
+            day.weatherCode()[hour] = hourly.weatherCode()[i];
+        }
+        return days;
+    }
+
+    private static Day emptyDay() {
+        double[] temps = new double[HOURS];
+        double[] hums = new double[HOURS];
+        int[] codes = new int[HOURS];
+        Arrays.fill(temps, Double.NaN);
+        Arrays.fill(hums, Double.NaN);
+        Arrays.fill(codes, -1);
+        return new Day(temps, hums, codes);
+    }
+}
@@ -0,0 +1,158 @@
+package com.example;
+
+import java.sql.Connection;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Background stage that fills temperature_c, humidity and weather_desc for rows inserted
+ * with weather_status = 'pending', so the upload path never waits on Open-Meteo.
+ *
+ * Each round claims a batch of pending rows, groups them by WeatherCache cell, and hands
+ * every cell to a worker thread that resolves all of that cell's dates with one
+ * WeatherCache.days call (one archive request per window of dates, not per photo). The
+ * results are written back in a single JDBC batch.
+ * Usage:
+ * int enriched = WeatherEnricher.drain();  // EventScheduler.enrichWeather
+ */
+final class WeatherEnricher {
+    private static final Logger logger = Logger.getLogger(WeatherEnricher.class.getName());
+
+    static final String DONE = "done";
+    static final String SKIPPED = "skipped";
+    static final String UNAVAILABLE = "unavailable";
+
+    // The archive API lags real time by a few days; until then a missing hour is retried, not final.
+    private static final int ARCHIVE_LAG_DAYS = 7;
+    // First day the Open-Meteo archive covers; camera clocks outside the archive are not retried.
+    private static final LocalDate ARCHIVE_START = LocalDate.of(1940, 1, 1);
+    // Bounds one scheduler tick; the rest waits for the next one.
+    private static final int MAX_ROUNDS_PER_DRAIN = 20;
+
+    private static final ExecutorService WORKERS = Executors.newFixedThreadPool(
+            Math.max(1, db.intSetting("WEATHER_WORKERS", 4)), r -> {
+                Thread t = new Thread(r, "weather-enricher");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private WeatherEnricher() {
+    }
+
+    /**
+     * Inputs:      None
+     * Outputs:     int — number of rows that reached a final weather_status
+     * Functionality: Claims pending rows in batches of WEATHER_BATCH_SIZE (default 200) until the
+     *               queue is empty or MAX_ROUNDS_PER_DRAIN rounds have run. Rows whose weather could
+     *               not be resolved yet keep their claim, which doubles as a retry delay of
+     *               WEATHER_LEASE_SECONDS (default 300).
+     * Dependencies: db.claimWeatherTasks, db.completeWeatherTasks, enrichCell
+     * Called by:   EventScheduler.enrichWeather
+     */
+    static int drain() throws Exception {
+        int batchSize = db.intSetting("WEATHER_BATCH_SIZE", 200);
+        int leaseSeconds = db.intSetting("WEATHER_LEASE_SECONDS", 300);
+        int finished = 0;
+
+        for (int round = 0; round < MAX_ROUNDS_PER_DRAIN; round++) {
+            List<db.WeatherTask> tasks;
+            try (Connection conn = db.connect()) {
+                tasks = db.claimWeatherTasks(conn, batchSize, leaseSeconds);
+            }
+            if (tasks.isEmpty()) {
+                break;
+            }
+
+            List<db.WeatherUpdate> updates = new ArrayList<>();
+            Map<WeatherCache.Key, List<db.WeatherTask>> byCell = new LinkedHashMap<>();
+            for (db.WeatherTask task : tasks) {
+                if (task.hasWeather()) {
+                    updates.add(new db.WeatherUpdate(task.id(), null, null, null, DONE));
+                } else if (task.latitude() == null || task.longitude() == null || task.takenDate() == null
+                        || task.takenHour() == null || Math.abs(task.latitude()) > 90
+                        || Math.abs(task.longitude()) > 180
+                        || task.takenDate().isBefore(ARCHIVE_START) || task.takenDate().isAfter(LocalDate.now())) {
+                    updates.add(new db.WeatherUpdate(task.id(), null, null, null, SKIPPED));
+                } else {
+                    // Key the group by cell only; dates are resolved together inside enrichCell.
+                    WeatherCache.Key cell = WeatherCache.Key.of(task.latitude(), task.longitude(), null);
+                    byCell.computeIfAbsent(cell, k -> new ArrayList<>()).add(task);
+                }
+            }
+
+            List<Future<List<db.WeatherUpdate>>> futures = new ArrayList<>();
+            for (Map.Entry<WeatherCache.Key, List<db.WeatherTask>> cell : byCell.entrySet()) {
+                futures.add(WORKERS.submit(() -> enrichCell(cell.getKey(), cell.getValue())));
+            }
+            for (Future<List<db.WeatherUpdate>> future : futures) {
+                try {
+                    updates.addAll(future.get());
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "Weather enrichment failed for one cell; it will be retried", e);
+                }
+            }
+
+            try (Connection conn = db.connect()) {
+                db.completeWeatherTasks(conn, updates);
+            }
+            finished += updates.size();
+            if (tasks.size() < batchSize) {
+                break;
+            }
+        }
+        return finished;
+    }
+
+    /**
+     * Inputs:      cell (WeatherCache.Key) — cell shared by every task (date unset);
+     *              tasks (List<db.WeatherTask>) — claimed rows in that cell
+     * Outputs:     List<db.WeatherUpdate> — outcomes for rows that are finished; rows to retry are
+     *              left out so their claim runs out and they are picked up again
+     * Functionality: Resolves every distinct taken date of the cell in one WeatherCache.days call
+     *               on the shared cache and picks each row's hour out of the day.
+     * Dependencies: enrichCell(WeatherCache, WeatherCache.Key, List)
+     * Called by:   drain (on the worker pool)
+     */
+    static List<db.WeatherUpdate> enrichCell(WeatherCache.Key cell, List<db.WeatherTask> tasks) {
+        return enrichCell(WeatherCache.shared(), cell, tasks);
+    }
+
+    /**
+     * Inputs:      cache (WeatherCache) — cache to resolve the days from; cell, tasks — as above
+     * Outputs:     List<db.WeatherUpdate> — as above
+     * Functionality: Body of enrichCell with the cache passed in.
+     * Dependencies: WeatherCache.days, db.weatherCodeToString
+     * Called by:   enrichCell(WeatherCache.Key, List), WeatherEnricherTest
+     */
+    static List<db.WeatherUpdate> enrichCell(WeatherCache cache, WeatherCache.Key cell, List<db.WeatherTask> tasks) {
+        SortedSet<LocalDate> dates = new TreeSet<>();
+        for (db.WeatherTask task : tasks) {
+            dates.add(task.takenDate());
+        }
+        Map<LocalDate, WeatherCache.Day> days = cache.days(cell.latCell(), cell.lonCell(), dates);
+
+        LocalDate settled = LocalDate.now().minusDays(ARCHIVE_LAG_DAYS);
+        List<db.WeatherUpdate> updates = new ArrayList<>();
+        for (db.WeatherTask task : tasks) {
+            WeatherCache.Day day = days.get(task.takenDate());
+            int hour = task.takenHour();
+            if (day != null && day.hasHour(hour)) {
+                updates.add(new db.WeatherUpdate(task.id(), day.temperatureC()[hour], day.humidity()[hour],
+                        db.weatherCodeToString(day.weatherCode()[hour]), DONE));
+            } else if (day != null && task.takenDate().isBefore(settled)) {
+                updates.add(new db.WeatherUpdate(task.id(), null, null, null, UNAVAILABLE));
+            }
+        }
+        return updates;
+    }
+}
@@ -27,6 +27,7 @@ class WebConfig implements WebMvcConfigurer {
                         "https://perc-elk-detection-48336.web.app",
                         "https://perc-elk-detection-48336.firebaseapp.com")
                 .allowedMethods("GET", "POST", "PUT", "PATCH", "DELETE", "OPTIONS")
-                .allowedHeaders("*");
+                .allowedHeaders("*")
+                .exposedHeaders("ETag");
     }
 }
\ No newline at end of file
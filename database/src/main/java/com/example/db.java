@@ -1,28 +1,93 @@
 package com.example;
 
 import java.io.File;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
-import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.sql.DataSource;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
 class db {
     private static final Logger logger = Logger.getLogger(db.class.getName());
+    private static final Object POOL_LOCK = new Object();
+    private static volatile HikariDataSource dataSource;
+    private static volatile SpatialBackend spatialBackend;
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    /** Which spatial index the images table carries; picked by setupSchema, detected lazily by queries. */
+    enum SpatialBackend {
+        /** geography(Point) generated column with a GiST index. */
+        POSTGIS,
+        /** GiST expression index on ll_to_earth(latitude, longitude) from cube + earthdistance. */
+        EARTHDISTANCE,
+        /** Plain btree on (latitude, longitude); bounding-box prefilter plus exact haversine. */
+        PLAIN
+    }
+
+    /** Which date images_daily_rollup rows are keyed by. */
+    enum RollupDimension {
+        /** datetime_uploaded::date */
+        UPLOADED("uploaded"),
+        /** datetime_taken::date */
+        TAKEN("taken");
+
+        final String sqlName;
+
+        RollupDimension(String sqlName) {
+            this.sqlName = sqlName;
+        }
+    }
+
+    /** One images_daily_rollup row; day is null for images without that date. */
+    record DailyRollup(LocalDate day, long imageCount, long elkTotal, long gpsCount, long noGpsCount,
+            long processedCount) {
+    }
+
+    /** A row claimed for weather enrichment; any of the location/time fields may be null. */
+    record WeatherTask(long id, Double latitude, Double longitude, LocalDate takenDate, Integer takenHour,
+            boolean hasWeather) {
+    }
+
+    /** Final weather outcome for a claimed row; null values keep what the row already has. */
+    record WeatherUpdate(long id, Double temperatureC, Double humidity, String weatherDesc, String status) {
+    }
+
+    /** Filters for streamLocations; box corners are all null or all set, dates are inclusive. */
+    record LocationFilter(Double minLat, Double minLon, Double maxLat, Double maxLon, LocalDate startDate,
+            LocalDate endDate, int minElk) {
+        boolean hasBox() {
+            return minLat != null;
+        }
+    }
+
+    /** Per-row callback for forward-only scans; the ResultSet is only valid during the call. */
+    interface RowHandler {
+        void accept(ResultSet rs) throws Exception;
+    }
+
+    // Keyset order for the locations feed; matches images_locations_keyset_idx.
+    private static final String LOCATION_SORT_KEY = "coalesce(datetime_taken, '-infinity'::timestamptz)";
+    private static final int LOCATION_FETCH_SIZE = 1000;
 
     /**
      * Inputs:      None
@@ -55,6 +120,7 @@ class db {
      * Outputs:     void
      * Functionality: Creates the postgres schema and images table if they do not exist, then
      *               runs ALTER TABLE ADD COLUMN IF NOT EXISTS statements to apply any new columns.
+     *               Seeds elk_rule with ElkRule.DEFAULT if it has no row yet.
      * Dependencies: java.sql.Statement, java.sql.Connection
      * Called by:   initializeSchemaAtStartup, setupSchema(Connection)
      */
@@ -64,6 +130,7 @@ class db {
             s.execute("set search_path to postgres");
 
             if (resetTable) {
+                s.execute("drop table if exists detections");
                 s.execute("drop table if exists images");
             }
 
@@ -101,51 +168,469 @@ class db {
             s.execute("alter table images add column if not exists weather_desc text");
             s.execute("alter table images add column if not exists elk_count integer");
             s.execute("alter table images add column if not exists processed_status boolean default false");
+            s.execute("alter table images add column if not exists lease_owner text");
+            s.execute("alter table images add column if not exists claimed_at timestamptz");
+            s.execute("alter table images add column if not exists lease_expires_at timestamptz");
+            // Added without a default so existing rows stay NULL (not queued); new rows start pending.
+            s.execute("alter table images add column if not exists weather_status text");
+            s.execute("alter table images alter column weather_status set default 'pending'");
+            s.execute("alter table images add column if not exists weather_claimed_at timestamptz");
+            // Set when the image's detections rows were written; NULL rows predate the detections table.
+            s.execute("alter table images add column if not exists detected_at timestamptz");
+            // A hand-corrected elk_count; recountElk leaves it alone until the image is detected again.
+            s.execute("alter table images add column if not exists elk_count_manual boolean not null default false");
+            s.execute("create index if not exists images_weather_pending_idx "
+                    + "on images (datetime_uploaded) where weather_status = 'pending'");
+            // Partial index keeps the work-queue scan proportional to the backlog, not the table.
+            s.execute("create index if not exists images_unprocessed_queue_idx "
+                    + "on images (datetime_uploaded) where processed_status = false");
+            s.execute("create index if not exists images_lat_lon_idx on images (latitude, longitude) "
+                    + "where latitude is not null and longitude is not null");
+            // Shared by every image; deliberately not dropped with the images table.
+            s.execute("create table if not exists weather_hourly ("
+                    + "lat_cell integer not null, "
+                    + "lon_cell integer not null, "
+                    + "day date not null, "
+                    + "hour smallint not null check (hour between 0 and 23), "
+                    + "temperature_c double precision, "
+                    + "humidity double precision, "
+                    + "weather_code integer, "
+                    + "fetched_at timestamptz not null default now(), "
+                    + "primary key (lat_cell, lon_cell, day, hour)"
+                    + ")");
+            s.execute("create index if not exists images_locations_keyset_idx on images "
+                    + "((" + LOCATION_SORT_KEY + ") desc, id desc) "
+                    + "where gps_flag = true and latitude is not null and longitude is not null");
+            // Raw AnimalDetect output, one row per detection, so elk_count can be recomputed for any
+            // threshold or marker set without calling the API again (see recountElk).
+            s.execute("create table if not exists detections ("
+                    + "image_id integer not null references images (id) on delete cascade, "
+                    + "ordinal smallint not null, "
+                    + "label text not null, "
+                    + "match_text text not null, "
+                    + "score double precision, "
+                    + "taxonomy jsonb, "
+                    + "bbox jsonb, "
+                    + "provider text not null, "
+                    + "model text, "
+                    + "detected_at timestamptz not null default now(), "
+                    + "primary key (image_id, ordinal)"
+                    + ")");
+            // Recounts filter on match_text with LIKE, which a btree on label never served.
+            s.execute("drop index if exists detections_label_idx");
+            // Serves recountElk's join and storeDetections' delete, which both go by image.
+            s.execute("create index if not exists detections_image_id_idx on detections (image_id)");
+            // The elk rule in force, as a single row: every ingest path counts new detections with it
+            // and recountElk replaces it, so stored counts and new counts always agree.
+            s.execute("create table if not exists elk_rule ("
+                    + "id boolean primary key default true check (id), "
+                    + "threshold double precision not null check (threshold between 0 and 1), "
+                    + "markers text[] not null check (cardinality(markers) > 0), "
+                    + "updated_at timestamptz not null default now()"
+                    + ")");
+        }
+        try (PreparedStatement ps = conn.prepareStatement(
+                "insert into postgres.elk_rule (threshold, markers) values (?, ?) on conflict do nothing")) {
+            ps.setDouble(1, AnimalDetectAPI.ElkRule.DEFAULT.threshold());
+            ps.setArray(2, conn.createArrayOf("text", AnimalDetectAPI.ElkRule.DEFAULT.markers().toArray()));
+            ps.executeUpdate();
+        }
+        setupSpatialIndex(conn);
+        setupDailyRollups(conn, resetTable);
+    }
+
+    /**
+     * Inputs:      conn (Connection) — active database connection with search_path set to postgres;
+     *              resetTable (boolean) — true if setupSchema just dropped the images table
+     * Outputs:     void
+     * Functionality: Creates images_daily_rollup (per-day counts keyed by upload date and by taken
+     *               date) and the statement-level triggers that keep it in step with every write to
+     *               images. Each statement folds its transition tables into one delta per day, so a
+     *               bulk insert touches a handful of rollup rows rather than one per image. The table
+     *               is rebuilt from images when it is first created or the images table was reset.
+     * Dependencies: rollupTriggerBranch, rebuildDailyRollups
+     * Called by:   setupSchema(Connection, boolean)
+     */
+    private static void setupDailyRollups(Connection conn, boolean resetTable) throws SQLException {
+        boolean created;
+        try (Statement s = conn.createStatement()) {
+            try (ResultSet rs = s.executeQuery("select to_regclass('postgres.images_daily_rollup') is null")) {
+                rs.next();
+                created = rs.getBoolean(1);
+            }
+
+            // Unknown dates are bucketed under '-infinity' so the (dimension, day) key stays non-null.
+            s.execute("create table if not exists images_daily_rollup ("
+                    + "dimension text not null check (dimension in ('uploaded', 'taken')), "
+                    + "day date not null, "
+                    + "image_count bigint not null default 0, "
+                    + "elk_total bigint not null default 0, "
+                    + "gps_count bigint not null default 0, "
+                    + "no_gps_count bigint not null default 0, "
+                    + "processed_count bigint not null default 0, "
+                    + "primary key (dimension, day)"
+                    + ")");
+
+            s.execute("create or replace function images_daily_rollup_apply() returns trigger "
+                    + "language plpgsql as $$ begin "
+                    + "if tg_op = 'INSERT' then "
+                    + rollupTriggerBranch("select 1 as sign, n.* from new_rows n")
+                    + "elsif tg_op = 'UPDATE' then "
+                    + rollupTriggerBranch("select -1 as sign, o.* from old_rows o "
+                            + "union all select 1 as sign, n.* from new_rows n")
+                    + "else "
+                    + rollupTriggerBranch("select -1 as sign, o.* from old_rows o")
+                    + "end if; return null; end $$");
+
+            s.execute("drop trigger if exists images_daily_rollup_ins on images");
+            s.execute("drop trigger if exists images_daily_rollup_upd on images");
+            s.execute("drop trigger if exists images_daily_rollup_del on images");
+            s.execute("create trigger images_daily_rollup_ins after insert on images "
+                    + "referencing new table as new_rows for each statement "
+                    + "execute function images_daily_rollup_apply()");
+            s.execute("create trigger images_daily_rollup_upd after update on images "
+                    + "referencing old table as old_rows new table as new_rows for each statement "
+                    + "execute function images_daily_rollup_apply()");
+            s.execute("create trigger images_daily_rollup_del after delete on images "
+                    + "referencing old table as old_rows for each statement "
+                    + "execute function images_daily_rollup_apply()");
+        }
+
+        if (created || resetTable) {
+            rebuildDailyRollups(conn);
+        }
+    }
+
+    /**
+     * Inputs:      deltaSql (String) — select over the trigger's transition tables yielding a signed
+     *              (+1 / -1) copy of each affected images row
+     * Outputs:     String — one PL/pgSQL statement that adds the aggregated deltas to images_daily_rollup
+     * Functionality: Groups the deltas by (dimension, day), drops groups that net to zero (e.g. lease
+     *               updates that touch no rolled-up column) and upserts the rest in key order so
+     *               concurrent writers lock rollup rows in the same sequence.
+     * Dependencies: None
+     * Called by:   setupDailyRollups
+     */
+    private static String rollupTriggerBranch(String deltaSql) {
+        return "with d as (" + deltaSql + "), "
+                + "x as (select 'uploaded'::text as dimension, "
+                + "coalesce(d.datetime_uploaded::date, '-infinity'::date) as day, d.* from d "
+                + "union all select 'taken'::text, "
+                + "coalesce(d.datetime_taken::date, '-infinity'::date), d.* from d) "
+                + "insert into postgres.images_daily_rollup as r "
+                + "(dimension, day, image_count, elk_total, gps_count, no_gps_count, processed_count) "
+                + "select dimension, day, sum(sign), sum(sign * coalesce(elk_count, 0)), "
+                + "sum(case when gps_flag then sign else 0 end), "
+                + "sum(case when gps_flag then 0 else sign end), "
+                + "sum(case when processed_status then sign else 0 end) "
+                + "from x group by dimension, day "
+                + "having (sum(sign), sum(sign * coalesce(elk_count, 0)), "
+                + "sum(case when gps_flag then sign else 0 end), "
+                + "sum(case when processed_status then sign else 0 end)) <> (0, 0, 0, 0) "
+                + "order by dimension, day "
+                + "on conflict (dimension, day) do update set "
+                + "image_count = r.image_count + excluded.image_count, "
+                + "elk_total = r.elk_total + excluded.elk_total, "
+                + "gps_count = r.gps_count + excluded.gps_count, "
+                + "no_gps_count = r.no_gps_count + excluded.no_gps_count, "
+                + "processed_count = r.processed_count + excluded.processed_count; ";
+    }
+
+    /**
+     * Inputs:      conn (Connection) — active database connection
+     * Outputs:     void
+     * Functionality: Recomputes images_daily_rollup from a full scan of images. Holds a SHARE lock on
+     *               images for the duration so no write can slip between the scan and the triggers;
+     *               readers are not blocked. Runs in its own transaction and restores auto-commit.
+     * Dependencies: java.sql.Statement
+     * Called by:   setupDailyRollups; manual repair if the rollup is ever suspected of drift
+     */
+    static void rebuildDailyRollups(Connection conn) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (Statement s = conn.createStatement()) {
+            s.execute("lock table postgres.images in share mode");
+            s.execute("delete from postgres.images_daily_rollup");
+            s.execute("insert into postgres.images_daily_rollup "
+                    + "(dimension, day, image_count, elk_total, gps_count, no_gps_count, processed_count) "
+                    + "select dimension, day, count(*), sum(coalesce(elk_count, 0)), "
+                    + "count(*) filter (where gps_flag), "
+                    + "count(*) filter (where gps_flag is not true), "
+                    + "count(*) filter (where processed_status) "
+                    + "from (select 'uploaded'::text as dimension, "
+                    + "coalesce(datetime_uploaded::date, '-infinity'::date) as day, * from postgres.images "
+                    + "union all select 'taken'::text, "
+                    + "coalesce(datetime_taken::date, '-infinity'::date), * from postgres.images) x "
+                    + "group by dimension, day");
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Inputs:      conn (Connection) — active database connection with search_path set to postgres
+     * Outputs:     void
+     * Functionality: Gives the images table an indexed spatial representation, preferring PostGIS
+     *               (generated geography column + GiST) and falling back to an earthdistance GiST
+     *               expression index. Extensions that cannot be created (missing package or
+     *               privileges) are skipped; the (latitude, longitude) btree created by setupSchema
+     *               remains as the plain-Postgres fallback. Resets the cached backend.
+     * Dependencies: tryExecute, detectSpatialBackend
+     * Called by:   setupSchema(Connection, boolean)
+     */
+    private static void setupSpatialIndex(Connection conn) throws SQLException {
+        spatialBackend = null;
+
+        tryExecute(conn, "create extension if not exists postgis");
+        if (hasExtension(conn, "postgis")) {
+            tryExecute(conn, "alter table images add column if not exists geog geography(Point, 4326) "
+                    + "generated always as (case when latitude is not null and longitude is not null "
+                    + "then ST_SetSRID(ST_MakePoint(longitude, latitude), 4326)::geography end) stored");
+            tryExecute(conn, "create index if not exists images_geog_gist on images using gist (geog)");
+        } else if (tryExecute(conn, "create extension if not exists cube")
+                && tryExecute(conn, "create extension if not exists earthdistance")) {
+            tryExecute(conn, "create index if not exists images_earth_gist on images "
+                    + "using gist (ll_to_earth(latitude, longitude)) "
+                    + "where latitude is not null and longitude is not null");
+        }
+
+        logger.info("Spatial index backend: " + spatialBackend(conn));
+    }
+
+    /**
+     * Inputs:      conn (Connection) — active database connection
+     * Outputs:     SpatialBackend — the best spatial index currently present on postgres.images
+     * Functionality: Detects the backend once from the catalog (geog column, then earthdistance index)
+     *               and caches it; setupSchema clears the cache after changing the schema.
+     * Dependencies: detectSpatialBackend
+     * Called by:   getImagesByLocation, setupSpatialIndex
+     */
+    static SpatialBackend spatialBackend(Connection conn) throws SQLException {
+        SpatialBackend backend = spatialBackend;
+        if (backend == null) {
+            backend = detectSpatialBackend(conn);
+            spatialBackend = backend;
+        }
+        return backend;
+    }
+
+    private static SpatialBackend detectSpatialBackend(Connection conn) throws SQLException {
+        String sql = "select "
+                + "exists (select 1 from information_schema.columns "
+                + "        where table_schema = 'postgres' and table_name = 'images' and column_name = 'geog') "
+                + "    and exists (select 1 from pg_indexes "
+                + "        where schemaname = 'postgres' and indexname = 'images_geog_gist') as has_geog, "
+                + "exists (select 1 from pg_indexes "
+                + "        where schemaname = 'postgres' and indexname = 'images_earth_gist') as has_earth";
+        try (Statement s = conn.createStatement(); ResultSet rs = s.executeQuery(sql)) {
+            rs.next();
+            if (rs.getBoolean("has_geog")) {
+                return SpatialBackend.POSTGIS;
+            }
+            if (rs.getBoolean("has_earth")) {
+                return SpatialBackend.EARTHDISTANCE;
+            }
+            return SpatialBackend.PLAIN;
+        }
+    }
+
+    private static boolean hasExtension(Connection conn, String name) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("select 1 from pg_extension where extname = ?")) {
+            ps.setString(1, name);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /**
+     * Inputs:      conn (Connection) — active database connection; sql (String) — optional DDL
+     * Outputs:     boolean — true if the statement succeeded
+     * Functionality: Runs a schema step that is allowed to fail (e.g. CREATE EXTENSION without
+     *               privileges). Inside a transaction the step is wrapped in a savepoint so a failure
+     *               does not abort the caller's transaction.
+     * Dependencies: java.sql.Savepoint
+     * Called by:   setupSpatialIndex
+     */
+    private static boolean tryExecute(Connection conn, String sql) throws SQLException {
+        Savepoint savepoint = conn.getAutoCommit() ? null : conn.setSavepoint();
+        try (Statement s = conn.createStatement()) {
+            s.execute(sql);
+            if (savepoint != null) {
+                conn.releaseSavepoint(savepoint);
+            }
+            return true;
+        } catch (SQLException e) {
+            if (savepoint != null) {
+                conn.rollback(savepoint);
+            }
+            logger.info("Optional schema step skipped (" + sql + "): " + e.getMessage());
+            return false;
         }
     }
 
     /**
      * Inputs:      None
-     * Outputs:     Connection — an open JDBC connection to the Cloud SQL PostgreSQL instance
-     * Functionality: Reads all connection parameters from SecretConfig and establishes a connection
-     *               via the Cloud SQL socket factory.
-     * Dependencies: SecretConfig, java.sql.DriverManager, com.google.cloud.sql.postgres.SocketFactory
+     * Outputs:     Connection — a pooled JDBC connection to the Cloud SQL PostgreSQL instance; closing it
+     *              returns it to the pool rather than tearing down the socket
+     * Functionality: Borrows a connection from the shared HikariCP pool (created on first use). Every
+     *               connection already has search_path set to postgres by the pool's init SQL.
+     * Dependencies: dataSource, com.zaxxer.hikari.HikariDataSource
      * Called by:   initializeSchemaAtStartup, FileProcessor.uploadAndProcessFiles,
      *              FileProcessor.processAllUnprocessedWithAnimalDetect,
      *              FileProcessor.processAllUnprocessedWithPythonInference,
      *              EmailProcessor.pollAndProcess, MessagingController.smsWebhook,
      *              MessagingController.sendGridEmailWebhook,
-     *              ImageStatsController.getImagesSummary, ImageStatsController.getImageLocations
+     *              ImageStatsController (all endpoints)
      */
     static Connection connect() throws SQLException {
+        try {
+            return dataSource().getConnection();
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to connect to Cloud SQL: " + e.getMessage(), e);
+            throw e; // re-throw so the calling endpoint can return a proper error response
+        }
+    }
+
+    /**
+     * Inputs:      None
+     * Outputs:     DataSource — the process-wide HikariCP pool for Cloud SQL
+     * Functionality: Lazily builds the connection pool on first call. If the pool cannot be created
+     *               (missing secrets, instance unreachable) nothing is cached, so the next call retries.
+     * Dependencies: buildPoolConfig, com.zaxxer.hikari.HikariDataSource
+     * Called by:   connect, warmUpPool
+     */
+    static DataSource dataSource() throws SQLException {
+        HikariDataSource ds = dataSource;
+        if (ds != null) {
+            return ds;
+        }
+        synchronized (POOL_LOCK) {
+            if (dataSource == null) {
+                try {
+                    dataSource = new HikariDataSource(buildPoolConfig());
+                } catch (RuntimeException e) {
+                    // HikariCP reports startup failures as unchecked PoolInitializationException.
+                    throw new SQLException("Failed to initialize Cloud SQL connection pool: " + e.getMessage(), e);
+                }
+            }
+            return dataSource;
+        }
+    }
+
+    /**
+     * Inputs:      None (reads connection and pool settings from SecretConfig)
+     * Outputs:     HikariConfig — pool configuration for the Cloud SQL socket factory
+     * Functionality: Carries the Cloud SQL connector properties over as data source properties and
+     *               applies pool sizing (DB_POOL_MIN_IDLE, DB_POOL_MAX_SIZE), timeouts, keepalive
+     *               validation, and an init SQL that sets search_path once per physical connection.
+     * Dependencies: SecretConfig, intSetting, com.zaxxer.hikari.HikariConfig
+     * Called by:   dataSource
+     */
+    private static HikariConfig buildPoolConfig() throws SQLException {
         String instanceConnectionName = SecretConfig.getRequired("CLOUD_SQL_INSTANCE");
         String dbName = SecretConfig.getRequired("CLOUD_SQL_DB_NAME");
-        String url = "jdbc:postgresql:///" + dbName;
-
-        Properties props = new Properties();
-        props.setProperty("user", SecretConfig.getRequired("DB_USER"));
 
         String dbPassword = SecretConfig.get("DB_PASSWORD");
         if (dbPassword == null) {
             throw new SQLException(
                     "Missing DB_PASSWORD secret. Provide it via environment variables or APP_SECRETS_PATH JSON.");
         }
-        props.setProperty("password", dbPassword);
 
-        props.setProperty("socketFactory", "com.google.cloud.sql.postgres.SocketFactory");
-        props.setProperty("cloudSqlInstance", instanceConnectionName);
-        props.setProperty("cloudSqlAdminQuotaProject", SecretConfig.getRequired("CLOUD_SQL_QUOTA_PROJECT"));
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("perc-cloudsql");
+        config.setJdbcUrl("jdbc:postgresql:///" + dbName);
+        config.setUsername(SecretConfig.getRequired("DB_USER"));
+        config.setPassword(dbPassword);
+
+        config.addDataSourceProperty("socketFactory", "com.google.cloud.sql.postgres.SocketFactory");
+        config.addDataSourceProperty("cloudSqlInstance", instanceConnectionName);
+        config.addDataSourceProperty("cloudSqlAdminQuotaProject", SecretConfig.getRequired("CLOUD_SQL_QUOTA_PROJECT"));
 
         String credentialsPath = SecretConfig.getRequired("CLOUD_SQL_CREDENTIALS_PATH");
         if (credentialsPath != null && !credentialsPath.isEmpty()) {
-            props.setProperty("cloudSqlGoogleCredentialsPath", credentialsPath);
+            config.addDataSourceProperty("cloudSqlGoogleCredentialsPath", credentialsPath);
         }
 
+        int maxSize = Math.max(1, intSetting("DB_POOL_MAX_SIZE", 10));
+        config.setMaximumPoolSize(maxSize);
+        config.setMinimumIdle(Math.min(maxSize, Math.max(0, intSetting("DB_POOL_MIN_IDLE", 2))));
+        config.setConnectionTimeout(intSetting("DB_POOL_CONNECTION_TIMEOUT_MS", 10_000));
+        config.setValidationTimeout(3_000);
+        // Cloud SQL drops idle sockets; keepalive pings validate idle connections before that happens.
+        config.setKeepaliveTime(TimeUnit.MINUTES.toMillis(4));
+        config.setIdleTimeout(TimeUnit.MINUTES.toMillis(10));
+        config.setMaxLifetime(TimeUnit.MINUTES.toMillis(30));
+        config.setConnectionInitSql("set search_path to postgres");
+        return config;
+    }
+
+    /**
+     * Inputs:      None
+     * Outputs:     void
+     * Functionality: Creates the pool and opens minimumIdle connections up front so the first
+     *               dashboard hits and uploads after a cold start do not pay the connector/TLS handshake.
+     * Dependencies: dataSource
+     * Called by:   App.warmDatabasePoolOnStartup (via CommandLineRunner bean)
+     */
+    static void warmUpPool() throws SQLException {
+        HikariDataSource ds = (HikariDataSource) dataSource();
+        List<Connection> borrowed = new ArrayList<>();
         try {
-            return DriverManager.getConnection(url, props);
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Failed to connect to Cloud SQL: " + e.getMessage(), e);
-            throw e; // re-throw so the calling endpoint can return a proper error response
+            int target = Math.max(1, ds.getMinimumIdle());
+            for (int i = 0; i < target; i++) {
+                Connection conn = ds.getConnection();
+                borrowed.add(conn);
+                if (!conn.isValid(3)) {
+                    throw new SQLException("Pooled connection failed validation during warm-up");
+                }
+            }
+        } finally {
+            for (Connection conn : borrowed) {
+                conn.close();
+            }
+        }
+        logger.info("Database pool warmed with " + borrowed.size() + " connection(s)");
+    }
+
+    /**
+     * Inputs:      None
+     * Outputs:     void
+     * Functionality: Closes the shared pool (if it was ever created) so physical connections are
+     *               released cleanly on shutdown.
+     * Dependencies: com.zaxxer.hikari.HikariDataSource
+     * Called by:   App.closeDatabasePool (Spring shutdown)
+     */
+    static void closePool() {
+        synchronized (POOL_LOCK) {
+            if (dataSource != null) {
+                dataSource.close();
+                dataSource = null;
+            }
+        }
+    }
+
+    /**
+     * Inputs:      key (String) — SecretConfig key; defaultValue (int) — value when unset or invalid
+     * Outputs:     int — parsed setting
+     * Functionality: Reads an optional integer setting, logging and falling back on malformed values.
+     * Dependencies: SecretConfig
+     * Called by:   buildPoolConfig
+     */
+    static int intSetting(String key, int defaultValue) {
+        String raw = SecretConfig.get(key);
+        if (raw == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(raw);
+        } catch (NumberFormatException e) {
+            logger.warning("Ignoring non-integer " + key + "=" + raw + "; using " + defaultValue);
+            return defaultValue;
         }
     }
 
@@ -165,35 +650,30 @@ class db {
      * Inputs:      f (File) — image file on disk;
      *              assumeExifParsable (boolean) — if true, silently ignores EXIF parse failures
      * Outputs:     Metadata — fully populated Metadata object including hash, dimensions, GPS, and weather
-     * Functionality: Parses EXIF/GPS data from the file, computes the SHA-256 hash, reads image dimensions,
-     *               and fetches historical weather data for the GPS location and photo timestamp.
-     * Dependencies: ImageUtils.parse, ImageUtils.parseExifFromPng, ImageUtils.sha256,
-     *               ImageUtils.getWidth, ImageUtils.getHeight, populateWeather
+     * Functionality: Reads the file once through ImageAnalyzer and builds the Metadata from the result.
+     * Dependencies: ImageAnalyzer.analyze, loadMetadata(ImageAnalyzer.Analysis, String)
      * Called by:   loadMetadata(File), EmailProcessor.pollAndProcess, MessagingController.smsWebhook,
      *              MessagingController.sendGridEmailWebhook, ImageUtils.main
      */
     static Metadata loadMetadata(File f, boolean assumeExifParsable) throws Exception {
+        return loadMetadata(ImageAnalyzer.analyze(f.toPath(), assumeExifParsable), f.getName());
+    }
+
+    /**
+     * Inputs:      analysis (ImageAnalyzer.Analysis) — hash, EXIF and dimensions of one image;
+     *              filename (String) — name to store with the row
+     * Outputs:     Metadata — populated Metadata object (cloud_uri empty, weather only if cached)
+     * Functionality: Copies EXIF date/GPS, hash, size and dimensions from the analysis; no file I/O.
+     * Dependencies: populateWeatherFromCache
+     * Called by:   loadMetadata(File, boolean), EmailProcessor.pollAndProcess,
+     *              MessagingController.sendGridEmailWebhook
+     */
+    static Metadata loadMetadata(ImageAnalyzer.Analysis analysis, String filename) {
         Metadata meta = new Metadata();
-        ImageUtils.ExifData d;
-        String ext = ImageUtils.getExtension(f.getName()).toLowerCase();
-        if (ext.equals("png")) {
-            d = ImageUtils.parseExifFromPng(f);
-            if (d == null)
-                d = new ImageUtils.ExifData();
-        } else {
-            try {
-                d = ImageUtils.parse(f.getAbsolutePath());
-            } catch (Exception e) {
-                if (!assumeExifParsable) {
-                    throw e;
-                }
-                logger.log(Level.FINE, "Ignoring EXIF parse failure for " + f.getName() + ": " + e.getMessage());
-                d = new ImageUtils.ExifData();
-            }
-        }
+        ImageUtils.ExifData d = analysis.exif();
 
-        meta.filename = f.getName();
-        meta.filesize = f.length();
+        meta.filename = filename;
+        meta.filesize = analysis.bytes().length;
         meta.datetime = d.date;
 
         if (d.lat != null && d.lon != null) {
@@ -208,11 +688,12 @@ class db {
             meta.gps_flag = false;
         }
 
-        meta.sha256 = ImageUtils.sha256(f);
-        meta.width = ImageUtils.getWidth(f);
-        meta.height = ImageUtils.getHeight(f);
+        meta.sha256 = analysis.sha256();
+        meta.width = analysis.dimensions().width();
+        meta.height = analysis.dimensions().height();
         meta.cloud_uri = "";
-        populateWeather(meta);
+        // Weather is filled in by WeatherEnricher after insert; only take it here if it is already cached.
+        populateWeatherFromCache(meta);
         meta.processed_status = true;
 
         return meta;
@@ -223,9 +704,9 @@ class db {
      * Outputs:     String — human-readable weather description (e.g. "Clear sky", "Rain")
      * Functionality: Maps Open-Meteo WMO weather codes to descriptive strings; returns "Unknown" for unrecognized codes.
      * Dependencies: None
-     * Called by:   populateWeather
+     * Called by:   applyWeather, WeatherEnricher
      */
-    private static String weatherCodeToString(int code) {
+    static String weatherCodeToString(int code) {
         switch (code) {
             case 0:
                 return "Clear sky";
@@ -272,13 +753,29 @@ class db {
     /**
      * Inputs:      meta (Metadata) — partially populated metadata with latitude, longitude, and datetime fields
      * Outputs:     void — sets meta.temperature_c, meta.humidity, and meta.weather_desc in place
-     * Functionality: Calls the Open-Meteo archive API to fetch hourly temperature, humidity, and weather
-     *               code for the photo's GPS location and timestamp; silently ignores any errors.
-     * Dependencies: java.net.http.HttpClient, java.net.http.HttpRequest/HttpResponse,
-     *               java.time.LocalDateTime, weatherCodeToString
-     * Called by:   loadMetadata(File, boolean)
+     * Functionality: Looks up the hourly temperature, humidity, and weather code for the photo's
+     *               0.1-degree cell and day through WeatherCache (memory, then weather_hourly, then
+     *               the Open-Meteo archive API), blocking until it resolves; silently ignores any errors.
+     * Dependencies: WeatherCache.day, applyWeather
+     * Called by:   Tools that need weather inline; ingest uses populateWeatherFromCache
      */
     public static void populateWeather(Metadata meta) {
+        applyWeather(meta, true);
+    }
+
+    /**
+     * Inputs:      meta (Metadata) — partially populated metadata with latitude, longitude, and datetime fields
+     * Outputs:     void — sets the weather fields only if the cell-day is already in memory
+     * Functionality: Non-blocking variant of populateWeather for the ingest path, so uploads never wait
+     *               on Open-Meteo. Rows left without weather are enriched later by WeatherEnricher.
+     * Dependencies: WeatherCache.peek, applyWeather
+     * Called by:   loadMetadata(File, boolean)
+     */
+    static void populateWeatherFromCache(Metadata meta) {
+        applyWeather(meta, false);
+    }
+
+    private static void applyWeather(Metadata meta, boolean blocking) {
         try {
             if (meta == null || meta.latitude == null || meta.longitude == null || meta.datetime == null)
                 return;
@@ -286,69 +783,191 @@ class db {
             DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
 
             LocalDateTime photoTime = LocalDateTime.parse(meta.datetime, fmt);
-
-            String date = photoTime.toLocalDate().toString();
             int hour = photoTime.getHour();
 
-            String url = "https://archive-api.open-meteo.com/v1/archive"
-                    + "?latitude=" + meta.latitude
-                    + "&longitude=" + meta.longitude
-                    + "&start_date=" + date
-                    + "&end_date=" + date
-                    + "&hourly=temperature_2m,relative_humidity_2m,weathercode"
-                    + "&timezone=auto";
+            WeatherCache cache = WeatherCache.shared();
+            WeatherCache.Day day = blocking
+                    ? cache.day(meta.latitude, meta.longitude, photoTime.toLocalDate())
+                    : cache.peek(meta.latitude, meta.longitude, photoTime.toLocalDate());
+            if (day == null || !day.hasHour(hour))
+                return;
 
-            HttpClient client = HttpClient.newHttpClient();
+            meta.temperature_c = day.temperatureC()[hour];
+            meta.humidity = day.humidity()[hour];
+            meta.weather_desc = weatherCodeToString(day.weatherCode()[hour]);
 
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .GET()
-                    .build();
+        } catch (Exception ignored) {
+            // Never crash metadata loading
+        }
+    }
 
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+    /**
+     * Inputs:      conn (Connection) — active database connection; meta (Metadata) — fully populated metadata object
+     * Outputs:     void — inserts one row into postgres.images
+     * Functionality: Inserts all metadata fields for a newly uploaded image, including GPS, weather, and elk count.
+     *               Fails with SQLState 23505 if the hash already exists; ingest paths use claimNewImage instead.
+     *               Commits if auto-commit is disabled, then notifies the index and cache.
+     * Dependencies: java.sql.PreparedStatement, bindMetaParams, changedRow, notifyRowChanged
+     * Called by:   ImageQueryMethodsTest, PipelineIntegrationTest
+     */
+    static void insertMeta(Connection conn, Metadata meta) throws SQLException {
+        String sql = "insert into postgres.images (" + META_COLUMNS + ") values (" + META_VALUES + ")";
 
-            if (response.statusCode() != 200)
-                return;
+        ChangedRow changed = null;
+        try (PreparedStatement ps = conn.prepareStatement(sql + " returning *")) {
+            bindMetaParams(ps, meta);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    changed = changedRow(rs);
+                }
+            }
+        }
+        if (!conn.getAutoCommit()) {
+            conn.commit();
+        }
+        if (changed != null) {
+            notifyRowChanged(changed);
+        }
+    }
 
-            String body = response.body();
+    /** How claimNewImage resolved a row. */
+    enum UpsertOutcome {
+        /** No row with this hash existed; the new row was inserted. */
+        INSERTED,
+        /** A row already existed and was left as it was. */
+        DUPLICATE,
+        /**
+         * A row exists but is still unprocessed and leased: another worker holds the claim, and
+         * its upload may yet fail and release the hash. Not stored yet, so not reported as such.
+         */
+        PENDING
+    }
 
-            // VERY simple parsing (safe for this API format)
+    /**
+     * Outputs of claimNewImage: the row as stored after the statement, and how it got there.
+     */
+    record UpsertResult(Metadata row, UpsertOutcome outcome) {
+        /** True for any row this caller must not upload or detect: DUPLICATE or PENDING. */
+        boolean isDuplicate() {
+            return outcome != UpsertOutcome.INSERTED;
+        }
 
-            String temps = body.split("\"temperature_2m\":\\[")[1].split("\\]")[0];
-            String hums = body.split("\"relative_humidity_2m\":\\[")[1].split("\\]")[0];
-            String wcodes = body.split("\"weathercode\":\\[")[1].split("\\]")[0];
-            String codeStr = wcodes.split(",")[hour].trim();
-            int weathercode = Integer.parseInt(codeStr);
+        boolean isPending() {
+            return outcome == UpsertOutcome.PENDING;
+        }
+    }
 
-            String tempStr = temps.split(",")[hour].trim();
-            String humStr = hums.split(",")[hour].trim();
+    /**
+     * Inputs:      conn (Connection) — active database connection;
+     *              meta (Metadata) — metadata of a freshly received image, cloud_uri already set to
+     *              where it is about to be uploaded;
+     *              leaseOwner (String) — identifier of the ingest worker taking the row;
+     *              leaseSeconds (int) — how long the batch workers leave the new row alone
+     * Outputs:     UpsertResult — INSERTED with the claimed row; PENDING with the existing row while
+     *              another worker's claim on it is live; otherwise DUPLICATE with the existing row
+     * Functionality: Ingest step that runs before any GCS upload or AnimalDetect call, in one round
+     *               trip either way. The no-op ON CONFLICT DO UPDATE makes RETURNING yield the existing
+     *               row too, and xmax = 0 tells a fresh insert (created unprocessed and leased to
+     *               leaseOwner) from a conflict. Only a caller that gets INSERTED goes on to upload and
+     *               detect. The lease keeps the batch workers off the row until the caller writes its
+     *               result with storeDetections / updateMetaWithDetection or gives it up with
+     *               releaseNewImage. Commits if auto-commit is disabled so the claim is visible to
+     *               other workers.
+     * Dependencies: java.sql.PreparedStatement, bindMetaParams, buildMetadataFromResultSet,
+     *               changedRow, notifyRowChanged
+     * Called by:   FileProcessor.uploadAndProcessFiles, EmailProcessor.pollAndProcess,
+     *              MessagingController.smsWebhook, MessagingController.sendGridEmailWebhook
+     */
+    static UpsertResult claimNewImage(Connection conn, Metadata meta, String leaseOwner, int leaseSeconds)
+            throws SQLException {
+        String sql = "insert into postgres.images (" + META_COLUMNS + ", lease_owner, claimed_at, lease_expires_at) "
+                + "values (" + META_VALUES + ", ?, now(), now() + make_interval(secs => ?)) "
+                + "on conflict (img_hash) do update set img_hash = excluded.img_hash "
+                + "returning *, (xmax = 0) as inserted, "
+                + "(processed_status is not true and lease_expires_at > now()) as leased";
 
-            meta.temperature_c = Double.parseDouble(tempStr);
-            meta.humidity = Double.parseDouble(humStr);
-            meta.weather_desc = weatherCodeToString(weathercode);
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            bindMetaParams(ps, meta);
+            ps.setString(META_PARAM_COUNT + 1, leaseOwner);
+            ps.setInt(META_PARAM_COUNT + 2, leaseSeconds);
 
-        } catch (Exception ignored) {
-            // Never crash metadata loading
+            Metadata row;
+            ChangedRow changed = null;
+            UpsertOutcome outcome;
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("Claim for " + meta.sha256 + " returned no row");
+                }
+                row = buildMetadataFromResultSet(rs);
+                if (rs.getBoolean("inserted")) {
+                    outcome = UpsertOutcome.INSERTED;
+                    changed = changedRow(rs, false);
+                } else {
+                    outcome = rs.getBoolean("leased") ? UpsertOutcome.PENDING : UpsertOutcome.DUPLICATE;
+                }
+            }
+            if (!conn.getAutoCommit()) {
+                conn.commit();
+            }
+            if (changed != null) {
+                notifyRowChanged(changed);
+            }
+            return new UpsertResult(row, outcome);
         }
     }
 
     /**
-     * Inputs:      conn (Connection) — active database connection; meta (Metadata) — fully populated metadata object
-     * Outputs:     void — inserts one row into postgres.images
-     * Functionality: Inserts all metadata fields for a newly uploaded image, including GPS, weather, and elk count.
-     * Dependencies: java.sql.PreparedStatement, java.sql.Types
+     * Inputs:      conn (Connection) — active database connection;
+     *              sha256Hash (String) — hash of a row taken with claimNewImage;
+     *              leaseOwner (String) — owner passed to claimNewImage
+     * Outputs:     boolean — true if the row was deleted
+     * Functionality: Undoes claimNewImage when the upload fails, so the hash is not left pointing at a
+     *               missing GCS object and the sender can simply retry. Only deletes a row that is still
+     *               unprocessed and leased to leaseOwner.
+     * Dependencies: java.sql.PreparedStatement, changedRow, notifyRowChanged
      * Called by:   FileProcessor.uploadAndProcessFiles, EmailProcessor.pollAndProcess,
      *              MessagingController.smsWebhook, MessagingController.sendGridEmailWebhook
      */
-    static void insertMeta(Connection conn, Metadata meta) throws SQLException {
-        String sql = "insert into postgres.images (" +
-                "img_hash, filename, gps_flag, latitude, longitude, altitude, datetime_taken, " +
-                "cloud_uri, width, height, filesize_bytes, temperature_c, humidity, weather_desc, elk_count, processed_status) "
-                +
-                "values (?, ?, ?, ?, ?, ?, to_timestamp(?, 'YYYY-MM-DD HH24:MI:SS'), " +
-                "?, ?, ?, ?, ?, ?, ?, ?, ?)";
-
-        PreparedStatement ps = conn.prepareStatement(sql);
+    static boolean releaseNewImage(Connection conn, String sha256Hash, String leaseOwner) throws SQLException {
+        String sql = "delete from postgres.images "
+                + "where img_hash = ? and lease_owner = ? and processed_status is not true returning *";
+
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, sha256Hash);
+            ps.setString(2, leaseOwner);
+            ChangedRow changed = null;
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    changed = changedRow(rs, false);
+                }
+            }
+            if (!conn.getAutoCommit()) {
+                conn.commit();
+            }
+            if (changed == null) {
+                return false;
+            }
+            notifyRowChanged(changed);
+            return true;
+        }
+    }
+
+    private static final String META_COLUMNS = "img_hash, filename, gps_flag, latitude, longitude, altitude, "
+            + "datetime_taken, cloud_uri, width, height, filesize_bytes, temperature_c, humidity, weather_desc, "
+            + "elk_count, processed_status";
+    private static final String META_VALUES = "?, ?, ?, ?, ?, ?, to_timestamp(?, 'YYYY-MM-DD HH24:MI:SS'), "
+            + "?, ?, ?, ?, ?, ?, ?, ?, ?";
+    private static final int META_PARAM_COUNT = 16;
+
+    /**
+     * Inputs:      ps (PreparedStatement) — statement whose first 16 parameters follow META_COLUMNS;
+     *              meta (Metadata) — values to bind
+     * Outputs:     void
+     * Functionality: Binds metadata in META_COLUMNS order; GPS columns are NULL when gps_flag is false.
+     * Dependencies: java.sql.Types
+     * Called by:   insertMeta, claimNewImage
+     */
+    private static void bindMetaParams(PreparedStatement ps, Metadata meta) throws SQLException {
         ps.setString(1, meta.sha256);
         ps.setString(2, meta.filename);
         ps.setBoolean(3, meta.gps_flag);
@@ -377,7 +996,6 @@ class db {
         ps.setString(14, meta.weather_desc);
         ps.setObject(15, meta.elk_count, Types.INTEGER);
         ps.setBoolean(16, meta.processed_status);
-        ps.executeUpdate();
     }
 
     /**
@@ -385,9 +1003,9 @@ class db {
      *              batchSize (int) — maximum number of rows to return
      * Outputs:     List<Metadata> — unprocessed image records ordered by upload time (oldest first)
      * Functionality: Queries postgres.images for rows where processed_status = false, up to batchSize rows.
+     *               Read-only: does not lease rows, so batch workers should use claimUnprocessedImages.
      * Dependencies: java.sql.PreparedStatement, java.sql.ResultSet, buildMetadataFromResultSet
-     * Called by:   FileProcessor.processAllUnprocessedWithAnimalDetect,
-     *              FileProcessor.processAllUnprocessedWithPythonInference
+     * Called by:   Not currently called; kept for read-only inspection of the backlog
      */
     static List<Metadata> getUnprocessedImages(Connection conn, int batchSize) throws SQLException {
         List<Metadata> results = new ArrayList<>();
@@ -410,13 +1028,150 @@ class db {
         return results;
     }
 
+    /**
+     * Inputs:      conn (Connection) — active database connection;
+     *              owner (String) — identifier of the worker taking the lease (host/pid/thread);
+     *              batchSize (int) — maximum number of rows to claim;
+     *              leaseSeconds (int) — how long the claim is held before the rows return to the queue
+     * Outputs:     List<Metadata> — the rows now leased to owner, oldest upload first
+     * Functionality: Atomically leases up to batchSize unprocessed rows whose lease is unset or expired.
+     *               FOR UPDATE SKIP LOCKED lets concurrent workers claim disjoint rows without blocking
+     *               each other; a worker that dies simply lets its lease run out and the rows are
+     *               claimable again. Commits immediately when auto-commit is disabled so the lease is
+     *               visible to other workers.
+     * Dependencies: java.sql.PreparedStatement, java.sql.ResultSet, buildMetadataFromResultSet
+     * Called by:   FileProcessor.processAllUnprocessedWithAnimalDetect,
+     *              FileProcessor.processAllUnprocessedWithPythonInference
+     */
+    static List<Metadata> claimUnprocessedImages(Connection conn, String owner, int batchSize, int leaseSeconds)
+            throws SQLException {
+        List<Metadata> results = new ArrayList<>();
+
+        String sql = "UPDATE postgres.images i " +
+                "SET lease_owner = ?, claimed_at = now(), lease_expires_at = now() + make_interval(secs => ?) " +
+                "FROM (" +
+                "    SELECT id FROM postgres.images " +
+                "    WHERE processed_status = false " +
+                "      AND (lease_expires_at IS NULL OR lease_expires_at < now()) " +
+                "    ORDER BY datetime_uploaded ASC " +
+                "    LIMIT ? " +
+                "    FOR UPDATE SKIP LOCKED" +
+                ") claimed " +
+                "WHERE i.id = claimed.id " +
+                "RETURNING i.*";
+
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, owner);
+            ps.setInt(2, leaseSeconds);
+            ps.setInt(3, batchSize);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    results.add(buildMetadataFromResultSet(rs));
+                }
+            }
+            if (!conn.getAutoCommit()) {
+                conn.commit();
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Inputs:      conn (Connection) — active database connection;
+     *              batchSize (int) — maximum number of rows to claim;
+     *              leaseSeconds (int) — how long a claim blocks other enrichers, and how long a row
+     *              whose weather could not be resolved waits before it is retried
+     * Outputs:     List<WeatherTask> — claimed rows awaiting weather, oldest upload first
+     * Functionality: Leases rows with weather_status = 'pending' using FOR UPDATE SKIP LOCKED so
+     *               concurrent enrichers take disjoint rows. The taken date and hour are read back in
+     *               the session time zone, i.e. as the camera's local wall-clock time written by
+     *               insertMeta. Commits immediately when auto-commit is disabled.
+     * Dependencies: java.sql.PreparedStatement, java.sql.ResultSet
+     * Called by:   WeatherEnricher.drain
+     */
+    static List<WeatherTask> claimWeatherTasks(Connection conn, int batchSize, int leaseSeconds)
+            throws SQLException {
+        String sql = "UPDATE postgres.images i SET weather_claimed_at = now() " +
+                "FROM (" +
+                "    SELECT id FROM postgres.images " +
+                "    WHERE weather_status = 'pending' " +
+                "      AND (weather_claimed_at IS NULL OR weather_claimed_at < now() - make_interval(secs => ?)) " +
+                "    ORDER BY datetime_uploaded ASC " +
+                "    LIMIT ? " +
+                "    FOR UPDATE SKIP LOCKED" +
+                ") claimed " +
+                "WHERE i.id = claimed.id " +
+                "RETURNING i.id, i.latitude, i.longitude, i.datetime_taken::date AS taken_date, " +
+                "    extract(hour from i.datetime_taken)::int AS taken_hour, i.weather_desc";
+
+        List<WeatherTask> tasks = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, leaseSeconds);
+            ps.setInt(2, batchSize);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int hour = rs.getInt("taken_hour");
+                    Integer takenHour = rs.wasNull() ? null : hour;
+                    tasks.add(new WeatherTask(
+                            rs.getLong("id"),
+                            rs.getObject("latitude", Double.class),
+                            rs.getObject("longitude", Double.class),
+                            rs.getObject("taken_date", LocalDate.class),
+                            takenHour,
+                            rs.getString("weather_desc") != null));
+                }
+            }
+        }
+        if (!conn.getAutoCommit()) {
+            conn.commit();
+        }
+        return tasks;
+    }
+
+    /**
+     * Inputs:      conn (Connection) — active database connection;
+     *              updates (List<WeatherUpdate>) — outcome per claimed row
+     * Outputs:     void
+     * Functionality: Writes weather values and the final weather_status in one JDBC batch and releases
+     *               the claims. Null values leave the existing column untouched. Commits if auto-commit
+     *               is disabled.
+     * Dependencies: java.sql.PreparedStatement, java.sql.Types
+     * Called by:   WeatherEnricher.drain
+     */
+    static void completeWeatherTasks(Connection conn, List<WeatherUpdate> updates) throws SQLException {
+        if (updates.isEmpty()) {
+            return;
+        }
+        String sql = "UPDATE postgres.images SET temperature_c = coalesce(?, temperature_c), " +
+                "humidity = coalesce(?, humidity), weather_desc = coalesce(?, weather_desc), " +
+                "weather_status = ?, weather_claimed_at = NULL " +
+                "WHERE id = ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (WeatherUpdate u : updates) {
+                ps.setObject(1, u.temperatureC(), Types.DOUBLE);
+                ps.setObject(2, u.humidity(), Types.DOUBLE);
+                ps.setString(3, u.weatherDesc());
+                ps.setString(4, u.status());
+                ps.setLong(5, u.id());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        if (!conn.getAutoCommit()) {
+            conn.commit();
+        }
+    }
+
     /**
      * Inputs:      rs (ResultSet) — positioned on a row from postgres.images
      * Outputs:     Metadata — object populated from the current ResultSet row
      * Functionality: Maps all columns of the images table to their corresponding Metadata fields,
      *               handling nullable numeric columns correctly.
      * Dependencies: java.sql.ResultSet, java.sql.Timestamp
-     * Called by:   getUnprocessedImages, getImageByHash, getImagesByDateRange, getImagesByLocation
+     * Called by:   getUnprocessedImages, claimUnprocessedImages, claimNewImage, getImageByHash,
+     *              getImagesByDateRange, getImagesByLocation
      */
     private static Metadata buildMetadataFromResultSet(ResultSet rs) throws SQLException {
         Metadata meta = new Metadata();
@@ -457,8 +1212,7 @@ class db {
      * Outputs:     Metadata — matching row if found and processed_status = true, otherwise null
      * Functionality: Looks up a single processed image record by its content hash for duplicate detection.
      * Dependencies: java.sql.PreparedStatement, java.sql.ResultSet, buildMetadataFromResultSet
-     * Called by:   FileProcessor.uploadAndProcessFiles, EmailProcessor.pollAndProcess,
-     *              MessagingController.smsWebhook, MessagingController.sendGridEmailWebhook
+     * Called by:   Not called by the ingest paths (superseded by claimNewImage); kept for lookups by hash
      */
     static Metadata getImageByHash(Connection conn, String hash) throws SQLException {
         String sql = "SELECT * FROM postgres.images WHERE img_hash = ? AND processed_status = true";
@@ -513,38 +1267,285 @@ class db {
      *              centerLon (double) — center longitude in decimal degrees;
      *              radiusKm (double) — search radius in kilometers
      * Outputs:     List<Metadata> — processed images with GPS within the radius, ordered by distance ASC
-     * Functionality: Uses the Haversine formula in SQL to find all processed images within a given
-     *               radius of a GPS coordinate.
-     * Dependencies: java.sql.PreparedStatement, java.sql.ResultSet, buildMetadataFromResultSet
+     * Functionality: Finds all processed images within a given radius of a GPS coordinate using the
+     *               spatial index chosen by setupSchema: ST_DWithin on the geography column (PostGIS),
+     *               earth_box containment plus earth_distance (earthdistance), or a latitude/longitude
+     *               bounding-box range scan followed by the exact haversine check (plain Postgres).
+     * Dependencies: java.sql.PreparedStatement, java.sql.ResultSet, buildMetadataFromResultSet,
+     *               spatialBackend, boundingBox
      * Called by:   Available for use by location-based query endpoints; not currently wired to a controller
      */
     static List<Metadata> getImagesByLocation(Connection conn, double centerLat, double centerLon,
             double radiusKm) throws SQLException {
         List<Metadata> results = new ArrayList<>();
+        SpatialBackend backend = spatialBackend(conn);
+
+        String sql;
+        if (backend == SpatialBackend.POSTGIS) {
+            sql = "SELECT *, ST_Distance(geog, center.g) / 1000.0 AS distance_km " +
+                    "FROM postgres.images, " +
+                    "  (SELECT ST_SetSRID(ST_MakePoint(?, ?), 4326)::geography AS g) center " +
+                    "WHERE processed_status = true " +
+                    "  AND ST_DWithin(geog, center.g, ? * 1000.0) " +
+                    "ORDER BY distance_km";
+        } else if (backend == SpatialBackend.EARTHDISTANCE) {
+            sql = "SELECT *, earth_distance(ll_to_earth(latitude, longitude), center.e) / 1000.0 AS distance_km " +
+                    "FROM postgres.images, (SELECT ll_to_earth(?, ?) AS e, ? * 1000.0 AS r) center " +
+                    "WHERE processed_status = true " +
+                    "  AND latitude IS NOT NULL AND longitude IS NOT NULL " +
+                    "  AND earth_box(center.e, center.r) @> ll_to_earth(latitude, longitude) " +
+                    "  AND earth_distance(ll_to_earth(latitude, longitude), center.e) <= center.r " +
+                    "ORDER BY distance_km";
+        } else {
+            // Bounding box uses images_lat_lon_idx; haversine then trims the box corners.
+            sql = "SELECT * FROM ( " +
+                    "  SELECT *, " +
+                    "    (6371 * acos(least(1.0, " +
+                    "      cos(radians(?)) * cos(radians(latitude)) * " +
+                    "      cos(radians(longitude) - radians(?)) + " +
+                    "      sin(radians(?)) * sin(radians(latitude)) " +
+                    "    ))) AS distance_km " +
+                    "  FROM postgres.images " +
+                    "  WHERE latitude IS NOT NULL AND longitude IS NOT NULL " +
+                    "    AND latitude BETWEEN ? AND ? " +
+                    "    AND longitude BETWEEN ? AND ? " +
+                    "    AND processed_status = true " +
+                    ") AS subquery " +
+                    "WHERE distance_km <= ? " +
+                    "ORDER BY distance_km";
+        }
 
-        // Haversine formula in SQL to calculate distance
-        String sql = "SELECT * FROM ( " +
-                "  SELECT *, " +
-                "    (6371 * acos( " +
-                "      cos(radians(?)) * cos(radians(latitude)) * " +
-                "      cos(radians(longitude) - radians(?)) + " +
-                "      sin(radians(?)) * sin(radians(latitude)) " +
-                "    )) AS distance_km " +
-                "  FROM postgres.images " +
-                "  WHERE gps_flag = true " +
-                "    AND latitude IS NOT NULL " +
-                "    AND longitude IS NOT NULL " +
-                "    AND processed_status = true " +
-                ") AS subquery " +
-                "WHERE distance_km <= ? " +
-                "ORDER BY distance_km";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            if (backend == SpatialBackend.POSTGIS) {
+                ps.setDouble(1, centerLon);
+                ps.setDouble(2, centerLat);
+                ps.setDouble(3, radiusKm);
+            } else if (backend == SpatialBackend.EARTHDISTANCE) {
+                ps.setDouble(1, centerLat);
+                ps.setDouble(2, centerLon);
+                ps.setDouble(3, radiusKm);
+            } else {
+                double[] box = boundingBox(centerLat, centerLon, radiusKm);
+                ps.setDouble(1, centerLat);
+                ps.setDouble(2, centerLon);
+                ps.setDouble(3, centerLat);
+                ps.setDouble(4, box[0]);
+                ps.setDouble(5, box[2]);
+                ps.setDouble(6, box[1]);
+                ps.setDouble(7, box[3]);
+                ps.setDouble(8, radiusKm);
+            }
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    results.add(buildMetadataFromResultSet(rs));
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Inputs:      conn (Connection) — active database connection;
+     *              minLat, minLon, maxLat, maxLon (double) — box corners in decimal degrees
+     * Outputs:     List<Metadata> — processed images with GPS inside the box, newest first
+     * Functionality: Range scan over images_lat_lon_idx, which exists on every spatial backend.
+     * Dependencies: java.sql.PreparedStatement, java.sql.ResultSet, buildMetadataFromResultSet
+     * Called by:   Map viewport queries; not currently wired to a controller
+     */
+    static List<Metadata> getImagesInBoundingBox(Connection conn, double minLat, double minLon,
+            double maxLat, double maxLon) throws SQLException {
+        List<Metadata> results = new ArrayList<>();
+
+        String sql = "SELECT * FROM postgres.images " +
+                "WHERE latitude IS NOT NULL AND longitude IS NOT NULL " +
+                "  AND latitude BETWEEN ? AND ? " +
+                "  AND longitude BETWEEN ? AND ? " +
+                "  AND processed_status = true " +
+                "ORDER BY datetime_taken DESC NULLS LAST";
+
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setDouble(1, Math.min(minLat, maxLat));
+            ps.setDouble(2, Math.max(minLat, maxLat));
+            ps.setDouble(3, Math.min(minLon, maxLon));
+            ps.setDouble(4, Math.max(minLon, maxLon));
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    results.add(buildMetadataFromResultSet(rs));
+                }
+            }
+        }
+        return results;
+    }
 
+    /**
+     * Inputs:      conn (Connection) — active database connection;
+     *              minLat, minLon, maxLat, maxLon (double) — viewport corners in decimal degrees;
+     *              cellDeg (double) — grid cell edge in degrees; minElk (int) — minimum elk_count
+     * Outputs:     List<LocationIndex.Cluster> — one entry per non-empty cell
+     * Functionality: SQL fallback for LocationIndex.grid with the same cell alignment and row set
+     *               (processed images with GPS): range scan over images_lat_lon_idx, grouped by cell.
+     * Dependencies: java.sql.PreparedStatement, java.sql.ResultSet
+     * Called by:   ImageStatsController.getImageClusters
+     */
+    static List<LocationIndex.Cluster> getImageClusters(Connection conn, double minLat, double minLon,
+            double maxLat, double maxLon, double cellDeg, int minElk) throws SQLException {
+        String sql = "SELECT avg(latitude) AS lat, avg(longitude) AS lon, count(*) AS n, "
+                + "coalesce(sum(elk_count), 0) AS elk, min(datetime_taken) AS first_taken, "
+                + "max(datetime_taken) AS last_taken "
+                + "FROM postgres.images "
+                + "WHERE latitude IS NOT NULL AND longitude IS NOT NULL "
+                + "  AND latitude BETWEEN ? AND ? "
+                + "  AND longitude BETWEEN ? AND ? "
+                + "  AND processed_status = true "
+                + (minElk > 0 ? "  AND elk_count >= ? " : "")
+                + "GROUP BY floor(latitude / ?), floor(longitude / ?)";
+
+        List<LocationIndex.Cluster> clusters = new ArrayList<>();
         try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setDouble(1, centerLat);
-            ps.setDouble(2, centerLon);
-            ps.setDouble(3, centerLat);
-            ps.setDouble(4, radiusKm);
+            int i = 1;
+            ps.setDouble(i++, Math.min(minLat, maxLat));
+            ps.setDouble(i++, Math.max(minLat, maxLat));
+            ps.setDouble(i++, Math.min(minLon, maxLon));
+            ps.setDouble(i++, Math.max(minLon, maxLon));
+            if (minElk > 0) {
+                ps.setInt(i++, minElk);
+            }
+            ps.setDouble(i++, cellDeg);
+            ps.setDouble(i, cellDeg);
 
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Timestamp first = rs.getTimestamp("first_taken");
+                    Timestamp last = rs.getTimestamp("last_taken");
+                    clusters.add(new LocationIndex.Cluster(rs.getDouble("lat"), rs.getDouble("lon"),
+                            rs.getLong("n"), rs.getLong("elk"),
+                            first != null ? first.getTime() : null,
+                            last != null ? last.getTime() : null));
+                }
+            }
+        }
+        return clusters;
+    }
+
+    /**
+     * Inputs:      conn (Connection) — active database connection;
+     *              filter (LocationFilter) — optional box, taken-date range and minimum elk count;
+     *              afterSortKey (String), afterId (long) — keyset cursor from the previous page's last
+     *              row (sort_key column and id), or afterSortKey null for the first page;
+     *              limit (int) — maximum rows, or 0 for no limit;
+     *              handler (RowHandler) — called once per row, in order
+     * Outputs:     int — number of rows passed to the handler
+     * Functionality: Forward-only scan of GPS images newest first, keyed on (datetime_taken, id)
+     *               with undated images last. Runs inside a transaction with a fetch size so pgjdbc
+     *               uses a server-side cursor and only LOCATION_FETCH_SIZE rows are in memory at a
+     *               time. Each row exposes id, filename, latitude, longitude, altitude,
+     *               datetime_taken, elk_count and sort_key (the cursor value as text).
+     * Dependencies: java.sql.PreparedStatement, images_locations_keyset_idx
+     * Called by:   ImageStatsController.getImageLocations
+     */
+    static int streamLocations(Connection conn, LocationFilter filter, String afterSortKey, long afterId, int limit,
+            RowHandler handler) throws Exception {
+        StringBuilder sql = new StringBuilder(
+                "SELECT id, filename, latitude, longitude, altitude, datetime_taken, elk_count, "
+                        + LOCATION_SORT_KEY + "::text AS sort_key "
+                        + "FROM postgres.images "
+                        + "WHERE gps_flag = true AND latitude IS NOT NULL AND longitude IS NOT NULL ");
+        List<Object> params = new ArrayList<>();
+        if (filter.minElk() > 0) {
+            sql.append("AND elk_count >= ? ");
+            params.add(filter.minElk());
+        }
+        if (filter.hasBox()) {
+            sql.append("AND latitude BETWEEN ? AND ? AND longitude BETWEEN ? AND ? ");
+            params.add(Math.min(filter.minLat(), filter.maxLat()));
+            params.add(Math.max(filter.minLat(), filter.maxLat()));
+            params.add(Math.min(filter.minLon(), filter.maxLon()));
+            params.add(Math.max(filter.minLon(), filter.maxLon()));
+        }
+        if (filter.startDate() != null) {
+            sql.append("AND datetime_taken >= ? ");
+            params.add(filter.startDate());
+        }
+        if (filter.endDate() != null) {
+            sql.append("AND datetime_taken < ? ");
+            params.add(filter.endDate().plusDays(1));
+        }
+        if (afterSortKey != null) {
+            sql.append("AND (" + LOCATION_SORT_KEY + ", id) < (?::timestamptz, ?) ");
+            params.add(afterSortKey);
+            params.add(afterId);
+        }
+        sql.append("ORDER BY " + LOCATION_SORT_KEY + " DESC, id DESC");
+        if (limit > 0) {
+            sql.append(" LIMIT ?");
+            params.add(limit);
+        }
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        int rows = 0;
+        try (PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+            ps.setFetchSize(LOCATION_FETCH_SIZE);
+            for (int i = 0; i < params.size(); i++) {
+                ps.setObject(i + 1, params.get(i));
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    handler.accept(rs);
+                    rows++;
+                }
+            }
+            conn.commit();
+        } catch (Exception e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        return rows;
+    }
+
+    /**
+     * Inputs:      conn (Connection) — active database connection;
+     *              centerLat, centerLon (double) — decimal degrees; k (int) — number of neighbours
+     * Outputs:     List<Metadata> — up to k processed images with GPS, nearest first
+     * Functionality: SQL fallback for k-nearest queries when the in-memory LocationIndex is not loaded.
+     *               PostGIS uses the GiST index's <-> ordering; other backends sort by haversine.
+     * Dependencies: spatialBackend, buildMetadataFromResultSet
+     * Called by:   ImageStatsController.getNearestImages
+     */
+    static List<Metadata> getNearestImages(Connection conn, double centerLat, double centerLon, int k)
+            throws SQLException {
+        List<Metadata> results = new ArrayList<>();
+
+        String sql;
+        if (spatialBackend(conn) == SpatialBackend.POSTGIS) {
+            sql = "SELECT * FROM postgres.images " +
+                    "WHERE processed_status = true AND geog IS NOT NULL " +
+                    "ORDER BY geog <-> ST_SetSRID(ST_MakePoint(?, ?), 4326)::geography " +
+                    "LIMIT ?";
+        } else {
+            sql = "SELECT * FROM postgres.images " +
+                    "WHERE processed_status = true AND latitude IS NOT NULL AND longitude IS NOT NULL " +
+                    "ORDER BY 6371 * acos(least(1.0, " +
+                    "  cos(radians(?)) * cos(radians(latitude)) * cos(radians(longitude) - radians(?)) + " +
+                    "  sin(radians(?)) * sin(radians(latitude)))) " +
+                    "LIMIT ?";
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            if (spatialBackend(conn) == SpatialBackend.POSTGIS) {
+                ps.setDouble(1, centerLon);
+                ps.setDouble(2, centerLat);
+                ps.setInt(3, k);
+            } else {
+                ps.setDouble(1, centerLat);
+                ps.setDouble(2, centerLon);
+                ps.setDouble(3, centerLat);
+                ps.setInt(4, k);
+            }
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
                     results.add(buildMetadataFromResultSet(rs));
@@ -554,31 +1555,454 @@ class db {
         return results;
     }
 
+    /**
+     * Inputs:      centerLat, centerLon (double) — circle center in decimal degrees; radiusKm (double)
+     * Outputs:     double[] — {minLat, minLon, maxLat, maxLon} enclosing the circle
+     * Functionality: Conservative lat/lon box for a radius search. Near the poles, or when the box
+     *               would cross the antimeridian, longitude is left unbounded so no match is lost.
+     * Dependencies: None
+     * Called by:   getImagesByLocation
+     */
+    static double[] boundingBox(double centerLat, double centerLon, double radiusKm) {
+        double dLat = Math.toDegrees(radiusKm / 6371.0);
+        double minLat = Math.max(-90.0, centerLat - dLat);
+        double maxLat = Math.min(90.0, centerLat + dLat);
+
+        double minLon = -180.0;
+        double maxLon = 180.0;
+        double cosLat = Math.cos(Math.toRadians(Math.max(Math.abs(minLat), Math.abs(maxLat))));
+        if (maxLat < 90.0 && minLat > -90.0 && cosLat > 1e-9) {
+            double dLon = Math.toDegrees(Math.asin(Math.min(1.0, Math.sin(radiusKm / 6371.0) / cosLat)));
+            if (centerLon - dLon >= -180.0 && centerLon + dLon <= 180.0) {
+                minLon = centerLon - dLon;
+                maxLon = centerLon + dLon;
+            }
+        }
+        return new double[] { minLat, minLon, maxLat, maxLon };
+    }
+
+    /**
+     * Inputs:      conn (Connection) — active database connection;
+     *              dimension (RollupDimension) — which date the rows are keyed by
+     * Outputs:     List<DailyRollup> — one entry per day in ascending order; the bucket for rows with
+     *              no date (if any) comes first with a null day
+     * Functionality: Reads the trigger-maintained images_daily_rollup table, skipping days whose
+     *               images have all since been deleted or moved to another day.
+     * Dependencies: java.sql.PreparedStatement
+     * Called by:   ImageStatsController.getImagesSummary
+     */
+    static List<DailyRollup> getDailyRollups(Connection conn, RollupDimension dimension) throws SQLException {
+        String sql = "SELECT case when day = '-infinity'::date then null else day end AS day, "
+                + "image_count, elk_total, gps_count, no_gps_count, processed_count "
+                + "FROM postgres.images_daily_rollup "
+                + "WHERE dimension = ? AND image_count <> 0 "
+                + "ORDER BY images_daily_rollup.day";
+
+        List<DailyRollup> rollups = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, dimension.sqlName);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    rollups.add(new DailyRollup(
+                            rs.getObject("day", LocalDate.class),
+                            rs.getLong("image_count"),
+                            rs.getLong("elk_total"),
+                            rs.getLong("gps_count"),
+                            rs.getLong("no_gps_count"),
+                            rs.getLong("processed_count")));
+                }
+            }
+        }
+        return rollups;
+    }
+
     /**
      * Inputs:      conn (Connection) — active database connection;
      *              sha256Hash (String) — SHA-256 hash identifying the image row;
      *              elkCount (Integer) — detected elk count (may be null if detection failed);
      *              processedStatus (boolean) — true if detection completed successfully
      * Outputs:     void — updates elk_count and processed_status for the matching row
-     * Functionality: Writes animal detection results back to the database after the AnimalDetect API
-     *               call completes; commits the transaction if auto-commit is disabled.
-     * Dependencies: java.sql.PreparedStatement, java.sql.Types
-     * Called by:   FileProcessor.uploadAndProcessFiles, FileProcessor.processAllUnprocessedWithAnimalDetect,
-     *              FileProcessor.processAllUnprocessedWithPythonInference,
-     *              EmailProcessor.pollAndProcess, MessagingController.sendGridEmailWebhook
+     * Functionality: Writes a detection result regardless of who holds the lease (a manual
+     *               correction wins over any batch worker) and marks elk_count as manual, so
+     *               recountElk keeps it; see the leaseOwner overload for workers.
+     * Dependencies: updateMetaWithDetection(Connection, String, Integer, boolean, String)
+     * Called by:   ImageStatsController.updateElkCount
      */
     static void updateMetaWithDetection(Connection conn, String sha256Hash, Integer elkCount, boolean processedStatus)
             throws SQLException {
-        String sql = "UPDATE postgres.images SET elk_count = ?, processed_status = ? WHERE img_hash = ?";
+        updateMetaWithDetection(conn, sha256Hash, elkCount, processedStatus, null);
+    }
+
+    /**
+     * Inputs:      conn (Connection) — active database connection;
+     *              sha256Hash (String) — SHA-256 hash identifying the image row;
+     *              elkCount (Integer) — detected elk count (may be null if detection failed);
+     *              processedStatus (boolean) — true if detection completed successfully;
+     *              leaseOwner (String) — owner passed to claimUnprocessedImages, or null to write
+     *              unconditionally as a manual correction (sets elk_count_manual)
+     * Outputs:     boolean — true if the row was written; false if no row has this hash or, with a
+     *              leaseOwner, the lease has since been reclaimed by another worker
+     * Functionality: Writes animal detection results back to the database after the AnimalDetect API
+     *               call completes and clears the work-queue lease. With a leaseOwner the UPDATE only
+     *               matches while that owner still holds the row, so a worker whose lease expired and
+     *               was re-claimed cannot overwrite the new owner's result. Commits the transaction if
+     *               auto-commit is disabled, and only then notifies the index, and the cache only if
+     *               elk_count or processed_status actually changed (not for a bare lease release).
+     * Dependencies: java.sql.PreparedStatement, java.sql.Types, changedRow, notifyRowChanged
+     * Called by:   updateMetaWithDetection(Connection, String, Integer, boolean), FileProcessor.storeClaimed,
+     *              FileProcessor.processAllUnprocessedWithPythonInference
+     */
+    static boolean updateMetaWithDetection(Connection conn, String sha256Hash, Integer elkCount,
+            boolean processedStatus, String leaseOwner) throws SQLException {
+        // The old values come from a locked self-join, so RETURNING can say whether anything a
+        // reader sees changed, or only the lease was cleared.
+        String sql = "UPDATE postgres.images i SET elk_count = ?, processed_status = ?, elk_count_manual = ?, "
+                + "lease_owner = NULL, claimed_at = NULL, lease_expires_at = NULL "
+                + "FROM (SELECT id, elk_count, processed_status FROM postgres.images "
+                + "      WHERE img_hash = ? FOR UPDATE) o "
+                + "WHERE i.id = o.id " + (leaseOwner != null ? "AND i.lease_owner = ? " : "")
+                + "RETURNING i.*, (o.elk_count IS DISTINCT FROM i.elk_count "
+                + "OR o.processed_status IS DISTINCT FROM i.processed_status) AS visible_change";
 
         try (PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setObject(1, elkCount, Types.INTEGER);
             ps.setBoolean(2, processedStatus);
+            ps.setBoolean(3, leaseOwner == null);
+            ps.setString(4, sha256Hash);
+            if (leaseOwner != null) {
+                ps.setString(5, leaseOwner);
+            }
+            ChangedRow changed = null;
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    changed = changedRow(rs, rs.getBoolean("visible_change"));
+                }
+            }
+            if (!conn.getAutoCommit()) {
+                conn.commit();
+            }
+            if (changed == null) {
+                return false;
+            }
+            notifyRowChanged(changed);
+            return true;
+        }
+    }
+
+    /**
+     * Inputs:      conn (Connection) — active database connection;
+     *              sha256Hash (String) — SHA-256 hash identifying the image row;
+     *              model (String) — model/version reported by the API, may be null;
+     *              detections (List<AnimalDetectAPI.Detection>) — every detection in the response;
+     *              leaseOwner (String) — owner of the row's lease, or null to write unconditionally
+     * Outputs:     Integer — the elk_count written, or null if no row has this hash or, with a
+     *              leaseOwner, the lease has since been reclaimed by another worker
+     * Functionality: Writes a detection result in one transaction: counts elk with the stored rule,
+     *               sets elk_count, processed_status and detected_at, clears the lease and any manual
+     *               override, and replaces the image's detections. The rule row is read FOR SHARE, so a concurrent recountElk
+     *               waits for this write (and then recounts it) or this write waits for the recount
+     *               and counts with the new rule. An empty list still records "nothing detected".
+     *               The index and cache are notified after the commit.
+     * Dependencies: readElkRule, changedRow, notifyRowChanged, java.sql.PreparedStatement,
+     *               com.fasterxml.jackson.databind.ObjectMapper
+     * Called by:   FileProcessor.storeClaimed, FileProcessor.storeDetection
+     */
+    static Integer storeDetections(Connection conn, String sha256Hash, String model,
+            List<AnimalDetectAPI.Detection> detections, String leaseOwner) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            int elkCount = readElkRule(conn, true).count(detections);
+            int imageId;
+            ChangedRow changed;
+            try (PreparedStatement ps = conn.prepareStatement("UPDATE postgres.images SET elk_count = ?, "
+                    + "processed_status = true, detected_at = now(), elk_count_manual = false, "
+                    + "lease_owner = NULL, claimed_at = NULL, lease_expires_at = NULL "
+                    + "WHERE img_hash = ? " + (leaseOwner != null ? "AND lease_owner = ? " : "") + "RETURNING *")) {
+                ps.setInt(1, elkCount);
+                ps.setString(2, sha256Hash);
+                if (leaseOwner != null) {
+                    ps.setString(3, leaseOwner);
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) {
+                        conn.rollback();
+                        return null;
+                    }
+                    imageId = rs.getInt("id");
+                    changed = changedRow(rs);
+                }
+            }
+            try (PreparedStatement ps = conn.prepareStatement("DELETE FROM postgres.detections WHERE image_id = ?")) {
+                ps.setInt(1, imageId);
+                ps.executeUpdate();
+            }
+            try (PreparedStatement ps = conn.prepareStatement("INSERT INTO postgres.detections "
+                    + "(image_id, ordinal, label, match_text, score, taxonomy, bbox, provider, model) "
+                    + "VALUES (?, ?, ?, ?, ?, ?::jsonb, ?::jsonb, ?, ?)")) {
+                for (AnimalDetectAPI.Detection d : detections) {
+                    ps.setInt(1, imageId);
+                    ps.setInt(2, d.ordinal());
+                    ps.setString(3, d.label());
+                    ps.setString(4, d.matchText());
+                    ps.setObject(5, d.score(), Types.DOUBLE);
+                    ps.setString(6, toJson(d.taxonomy()));
+                    ps.setString(7, toJson(d.bbox()));
+                    ps.setString(8, AnimalDetectAPI.PROVIDER);
+                    ps.setString(9, model);
+                    ps.addBatch();
+                }
+                if (!detections.isEmpty()) {
+                    ps.executeBatch();
+                }
+            }
+            conn.commit();
+            notifyRowChanged(changed);
+            return elkCount;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Inputs:      conn (Connection) — active database connection
+     * Outputs:     AnimalDetectAPI.ElkRule — the stored rule, or ElkRule.DEFAULT before setupSchema
+     *              has seeded it
+     * Functionality: Reads the elk rule every ingest path counts with.
+     * Dependencies: readElkRule
+     * Called by:   FileProcessor.activeElkRule, TaskController.recountElk
+     */
+    static AnimalDetectAPI.ElkRule getElkRule(Connection conn) throws SQLException {
+        return readElkRule(conn, false);
+    }
+
+    private static AnimalDetectAPI.ElkRule readElkRule(Connection conn, boolean forShare) throws SQLException {
+        try (Statement s = conn.createStatement();
+                ResultSet rs = s.executeQuery("SELECT threshold, markers FROM postgres.elk_rule"
+                        + (forShare ? " FOR SHARE" : ""))) {
+            if (!rs.next()) {
+                return AnimalDetectAPI.ElkRule.DEFAULT;
+            }
+            String[] markers = (String[]) rs.getArray("markers").getArray();
+            return new AnimalDetectAPI.ElkRule(rs.getDouble("threshold"), Arrays.asList(markers));
+        }
+    }
+
+    private static String toJson(Object value) throws SQLException {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return JSON.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new SQLException("Detection field is not serializable as JSON", e);
+        }
+    }
+
+    /**
+     * Inputs:      conn (Connection) — active database connection;
+     *              rule (AnimalDetectAPI.ElkRule) — minimum score (detections without a score always
+     *              pass) and label substrings counted as elk, matched against match_text
+     * Outputs:     int — number of images whose elk_count changed
+     * Functionality: Makes rule the active elk rule and recomputes elk_count from stored detections,
+     *               in one transaction, with the same rule as AnimalDetectAPI.countElk and no API calls.
+     *               Only images with detected_at set are touched (older rows have nothing to recount
+     *               from), never a hand-corrected elk_count_manual row, and only rows whose count actually changes are written, so the rollup
+     *               triggers and caches see just those. Writing the rule row first makes concurrent
+     *               storeDetections calls finish before the recount or wait for the new rule.
+     * Dependencies: java.sql.PreparedStatement, notifyRowsChanged
+     * Called by:   TaskController.recountElk
+     */
+    static int recountElk(Connection conn, AnimalDetectAPI.ElkRule rule) throws SQLException {
+        List<String> patterns = new ArrayList<>();
+        for (String marker : rule.markers()) {
+            patterns.add("%" + marker.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%");
+        }
+
+        String sql = "UPDATE postgres.images i SET elk_count = c.n "
+                + "FROM (SELECT im.id, count(d.image_id) FILTER ("
+                + "          WHERE d.match_text LIKE ANY (?) AND (d.score IS NULL OR d.score >= ?)) AS n "
+                + "      FROM postgres.images im "
+                + "      LEFT JOIN postgres.detections d ON d.image_id = im.id "
+                + "      WHERE im.detected_at IS NOT NULL AND NOT im.elk_count_manual "
+                + "      GROUP BY im.id) c "
+                + "WHERE i.id = c.id AND i.elk_count IS DISTINCT FROM c.n "
+                + "RETURNING i.img_hash";
+
+        List<String> changed = new ArrayList<>();
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            try (PreparedStatement ps = conn.prepareStatement("INSERT INTO postgres.elk_rule "
+                    + "(id, threshold, markers) VALUES (true, ?, ?) ON CONFLICT (id) DO UPDATE "
+                    + "SET threshold = excluded.threshold, markers = excluded.markers, updated_at = now()")) {
+                ps.setDouble(1, rule.threshold());
+                ps.setArray(2, conn.createArrayOf("text", rule.markers().toArray()));
+                ps.executeUpdate();
+            }
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setArray(1, conn.createArrayOf("text", patterns.toArray()));
+                ps.setDouble(2, rule.threshold());
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        changed.add(rs.getString(1));
+                    }
+                }
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        if (!changed.isEmpty()) {
+            notifyRowsChanged(conn, changed);
+        }
+        return changed.size();
+    }
+
+    // Weather belongs to the old place and time; clear it so WeatherEnricher fetches it again.
+    private static final String WEATHER_RESET = ", weather_status = 'pending', weather_claimed_at = NULL, "
+            + "temperature_c = NULL, humidity = NULL, weather_desc = NULL ";
+
+    /**
+     * Inputs:      conn (Connection) — active database connection;
+     *              sha256Hash (String) — SHA-256 hash identifying the image row;
+     *              latitude, longitude (double) — manually pinned position in decimal degrees
+     * Outputs:     boolean — true if a row was updated
+     * Functionality: Stores a user-supplied GPS location and sets gps_flag, clearing the weather and
+     *               setting weather_status back to 'pending' so it is fetched for the new position;
+     *               commits if auto-commit is disabled.
+     * Dependencies: java.sql.PreparedStatement, changedRow, notifyRowChanged
+     * Called by:   ImageStatsController.updateLocation
+     */
+    static boolean updateLocation(Connection conn, String sha256Hash, double latitude, double longitude)
+            throws SQLException {
+        String sql = "UPDATE postgres.images SET latitude = ?, longitude = ?, gps_flag = true"
+                + WEATHER_RESET + "WHERE img_hash = ? RETURNING *";
+
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setDouble(1, latitude);
+            ps.setDouble(2, longitude);
             ps.setString(3, sha256Hash);
-            ps.executeUpdate();
+            ChangedRow changed = null;
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    changed = changedRow(rs);
+                }
+            }
             if (!conn.getAutoCommit()) {
                 conn.commit();
             }
+            if (changed == null) {
+                return false;
+            }
+            notifyRowChanged(changed);
+            return true;
+        }
+    }
+
+    /**
+     * Inputs:      conn (Connection) — active database connection;
+     *              sha256Hash (String) — SHA-256 hash identifying the image row;
+     *              datetime (String) — capture time as "YYYY-MM-DD HH:MM:SS"
+     * Outputs:     boolean — true if a row was updated
+     * Functionality: Sets or corrects datetime_taken, clearing the weather and setting weather_status
+     *               back to 'pending' so it is fetched for the new hour; commits if auto-commit is
+     *               disabled.
+     * Dependencies: java.sql.PreparedStatement, changedRow, notifyRowChanged
+     * Called by:   ImageStatsController.updateDatetime
+     */
+    static boolean updateDatetime(Connection conn, String sha256Hash, String datetime) throws SQLException {
+        String sql = "UPDATE postgres.images SET datetime_taken = to_timestamp(?, 'YYYY-MM-DD HH24:MI:SS')"
+                + WEATHER_RESET + "WHERE img_hash = ? RETURNING *";
+
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, datetime);
+            ps.setString(2, sha256Hash);
+            ChangedRow changed = null;
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    changed = changedRow(rs);
+                }
+            }
+            if (!conn.getAutoCommit()) {
+                conn.commit();
+            }
+            if (changed == null) {
+                return false;
+            }
+            notifyRowChanged(changed);
+            return true;
+        }
+    }
+
+    /**
+     * A written images row, read from RETURNING so it can be published once the write commits.
+     * visible is false for lease bookkeeping (claims, releases, clearing a lease without a result),
+     * which cached responses do not need to hear about.
+     */
+    record ChangedRow(String sha256, LocationIndex.Point point, boolean visible) {
+    }
+
+    /**
+     * Inputs:      rs (ResultSet) — positioned on a postgres.images row that was just written
+     * Outputs:     ChangedRow — the row's hash and its location-index entry (null when not indexed)
+     * Functionality: Captures what notifyRowChanged needs while the ResultSet is open, so the
+     *               notification itself can wait for the commit.
+     * Dependencies: LocationIndex.indexedPoint
+     * Called by:   insertMeta, claimNewImage, releaseNewImage, updateMetaWithDetection, updateLocation,
+     *              updateDatetime
+     */
+    private static ChangedRow changedRow(ResultSet rs) throws SQLException {
+        return changedRow(rs, true);
+    }
+
+    private static ChangedRow changedRow(ResultSet rs, boolean visible) throws SQLException {
+        return new ChangedRow(rs.getString("img_hash"), LocationIndex.indexedPoint(rs), visible);
+    }
+
+    /**
+     * Inputs:      row (ChangedRow) — a committed write captured with changedRow
+     * Outputs:     void
+     * Functionality: Single hook for in-process consumers of image writes: the LocationIndex
+     *               and the ResponseCache. Writers call it only after their commit succeeds, so a
+     *               rolled-back write never reaches either. The cache is only dropped for visible
+     *               changes; a provisional ingest claim reaches cached stats when its result is
+     *               written, or at TTL expiry if none ever is. Failures are logged and never fail
+     *               the write itself.
+     * Dependencies: LocationIndex.apply, ResponseCache.invalidateAll
+     * Called by:   insertMeta, claimNewImage, releaseNewImage, updateMetaWithDetection, updateLocation,
+     *              updateDatetime
+     */
+    static void notifyRowChanged(ChangedRow row) {
+        if (row.visible()) {
+            ResponseCache.shared().invalidateAll();
+        }
+        try {
+            LocationIndex.shared().apply(row.sha256(), row.point());
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to apply image write to location index", e);
+        }
+    }
+
+    /**
+     * Inputs:      conn (Connection) — active database connection; hashes (Collection<String>) — rows written
+     * Outputs:     void
+     * Functionality: Bulk variant of notifyRowChanged for writers that cannot return each row.
+     * Dependencies: LocationIndex.refresh, ResponseCache.invalidateAll
+     * Called by:   BulkImageWriter.flush
+     */
+    static void notifyRowsChanged(Connection conn, Collection<String> hashes) {
+        ResponseCache.shared().invalidateAll();
+        try {
+            LocationIndex.shared().refresh(conn, hashes);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to refresh location index after bulk write", e);
         }
     }
 }
@@ -0,0 +1,248 @@
+package com.example;
+
+import org.junit.jupiter.api.*;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * AnimalDetectAPI request handling and in-flight limit against a local stub server.
+ */
+public class AnimalDetectAPITest {
+
+    private static final String ELK = "{\"annotations\":[{\"label\":\"elk\",\"confidence\":0.9}]}";
+    private static final byte[] IMAGE = "not really a jpeg".getBytes(StandardCharsets.UTF_8);
+
+    private HttpServer server;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private final AtomicReference<byte[]> lastBody = new AtomicReference<>();
+    private final AtomicReference<String> lastLength = new AtomicReference<>();
+    private final List<Integer> tooLargeBodies = Collections.synchronizedList(new ArrayList<>());
+    private final List<Long> arrivals = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.createContext("/detect", exchange -> {
+            int now = active.incrementAndGet();
+            maxActive.accumulateAndGet(now, Math::max);
+            try (InputStream in = exchange.getRequestBody()) {
+                lastBody.set(in.readAllBytes());
+                lastLength.set(exchange.getRequestHeaders().getFirst("Content-Length"));
+                String key = exchange.getRequestHeaders().getFirst("Authorization");
+                boolean unauthorized = !key.startsWith("Bearer key");
+                Thread.sleep(100);
+                byte[] body = (unauthorized ? "{\"error\":\"bad key\"}"
+                        : key.endsWith("html") ? "<html>busy</html>" : ELK).getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(unauthorized ? 401 : 200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                active.decrementAndGet();
+            }
+        });
+        server.createContext("/too-large", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                tooLargeBodies.add(in.readAllBytes().length);
+            }
+            exchange.sendResponseHeaders(413, -1);
+            exchange.close();
+        });
+        server.createContext("/too-large-once", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                in.readAllBytes();
+            }
+            arrivals.add(System.nanoTime());
+            byte[] body = ELK.getBytes(StandardCharsets.UTF_8);
+            boolean first = arrivals.size() == 1;
+            exchange.sendResponseHeaders(first ? 413 : 200, first ? -1 : body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                if (!first) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    private AnimalDetectAPI client(String key, int maxInFlight) {
+        URI endpoint = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/detect");
+        return new AnimalDetectAPI(key, 10, endpoint, maxInFlight);
+    }
+
+    @Test
+    void asyncCallsRespectInFlightLimit() throws Exception {
+        AnimalDetectAPI api = client("key", 2);
+        List<CompletableFuture<Map<String, Object>>> calls = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            calls.add(api.callAnimalDetectAPIWithFallbackAsync(IMAGE, "cam" + i + ".jpg", "USA", 0.2));
+        }
+        for (CompletableFuture<Map<String, Object>> call : calls) {
+            assertEquals(1, api.countElkFromResponse(call.get(), AnimalDetectAPI.ElkRule.DEFAULT));
+        }
+        assertTrue(maxActive.get() <= 2, "max concurrent requests " + maxActive.get());
+    }
+
+    @Test
+    void fullInFlightLimitDoesNotBlockTheCaller() throws Exception {
+        AnimalDetectAPI api = client("key", 1);
+        long started = System.nanoTime();
+        List<CompletableFuture<Map<String, Object>>> calls = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            calls.add(api.callAnimalDetectAPIAsync(IMAGE, "cam" + i + ".jpg", "USA", 0.2));
+        }
+        long queuedMillis = (System.nanoTime() - started) / 1_000_000;
+
+        assertTrue(queuedMillis < 250, "Queuing four calls took " + queuedMillis + " ms");
+        for (CompletableFuture<Map<String, Object>> call : calls) {
+            assertEquals(1, api.countElkFromResponse(call.get(), AnimalDetectAPI.ElkRule.DEFAULT));
+        }
+        assertEquals(1, maxActive.get());
+    }
+
+    @Test
+    void httpErrorsSurfaceWithStatus() {
+        AnimalDetectAPI api = client("wrong", 2);
+        RuntimeException e = assertThrows(RuntimeException.class,
+                () -> api.callAnimalDetectAPIWithFallback(IMAGE, "cam.jpg", "USA", 0.2));
+        assertTrue(e.getMessage().contains("401"), e.getMessage());
+    }
+
+    @Test
+    void multipartBodyStreamsPartsInOrder() throws Exception {
+        byte[] image = new byte[256 * 1024];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) i;
+        }
+        client("key", 2).callAnimalDetectAPI(image, "cam.png", "USA", 0.2);
+
+        byte[] body = lastBody.get();
+        assertEquals(String.valueOf(body.length), lastLength.get());
+        String text = new String(body, StandardCharsets.ISO_8859_1);
+        String boundary = text.substring(2, text.indexOf("\r\n"));
+        String head = "--" + boundary + "\r\nContent-Disposition: form-data; name=\"image\"; filename=\"cam.png\"\r\n"
+                + "Content-Type: image/png\r\n\r\n";
+        assertTrue(text.startsWith(head));
+        assertArrayEquals(image, Arrays.copyOfRange(body, head.length(), head.length() + image.length));
+        assertTrue(text.endsWith("\r\n--" + boundary + "\r\nContent-Disposition: form-data; name=\"country\"\r\n\r\nUSA\r\n"
+                + "--" + boundary + "\r\nContent-Disposition: form-data; name=\"threshold\"\r\n\r\n0.2\r\n"
+                + "--" + boundary + "--\r\n"));
+    }
+
+    @Test
+    void parsedDetectionsRecountForAnyThresholdOrMarkers() {
+        Map<String, Object> response = Map.of("model_version", "v2", "annotations", List.of(
+                Map.of("label", "Elk", "confidence", 0.9, "bbox", List.of(0.1, 0.2, 0.3, 0.4)),
+                Map.of("label", "animal", "confidence", 0.3, "taxonomy", Map.of("species", "Cervus canadensis")),
+                Map.of("label", "mule deer", "confidence", 0.95),
+                Map.of("label", "wapiti")));
+
+        List<AnimalDetectAPI.Detection> found = AnimalDetectAPI.parseDetections(response);
+        assertEquals(4, found.size());
+        assertEquals("cervus canadensis | animal | cervus canadensis", found.get(1).matchText());
+        assertEquals(List.of(0.1, 0.2, 0.3, 0.4), found.get(0).bbox());
+        assertNull(found.get(3).score());
+        assertEquals("v2", AnimalDetectAPI.modelVersion(response));
+
+        assertEquals(3, client("key", 1).countElkFromResponse(response, AnimalDetectAPI.ElkRule.DEFAULT));
+        // Unscored detections pass any threshold, as before.
+        assertEquals(2, AnimalDetectAPI.countElk(found, 0.5, AnimalDetectAPI.ELK_MARKERS));
+        assertEquals(2, AnimalDetectAPI.countElk(found, 0.5, List.of("elk", "deer")));
+    }
+
+    @Test
+    void elkRuleNormalizesMarkersAndRejectsBadValues() {
+        AnimalDetectAPI.ElkRule rule = new AnimalDetectAPI.ElkRule(0, List.of(" Elk ", "", "elk", "DEER"));
+        assertEquals(List.of("elk", "deer"), rule.markers());
+        assertEquals(1.0, new AnimalDetectAPI.ElkRule(1, List.of("elk")).threshold());
+
+        assertThrows(IllegalArgumentException.class, () -> new AnimalDetectAPI.ElkRule(Double.NaN, List.of("elk")));
+        assertThrows(IllegalArgumentException.class, () -> new AnimalDetectAPI.ElkRule(-0.1, List.of("elk")));
+        assertThrows(IllegalArgumentException.class, () -> new AnimalDetectAPI.ElkRule(1.5, List.of("elk")));
+        assertThrows(IllegalArgumentException.class, () -> new AnimalDetectAPI.ElkRule(0.2, List.of(" ", "")));
+    }
+
+    @Test
+    void nonJsonResponseIsReported() {
+        RuntimeException e = assertThrows(RuntimeException.class,
+                () -> client("key-html", 2).callAnimalDetectAPI(IMAGE, "cam.jpg", "USA", 0.2));
+        assertTrue(e.getMessage().startsWith("AnimalDetect API returned non-JSON response"), e.getMessage());
+    }
+
+    @Test
+    void payloadTooLargeRetriesOnceWithFewerBytes() throws Exception {
+        // ~990 KB fits the practical limit, so the first request carries the original bytes.
+        byte[] jpeg = Files.readAllBytes(Path.of("src/test/java/com/example/test_image_1.jpg"));
+        URI endpoint = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/too-large");
+        AnimalDetectAPI api = new AnimalDetectAPI("key", 10, endpoint, 2);
+
+        RuntimeException sync = assertThrows(RuntimeException.class,
+                () -> api.callAnimalDetectAPIWithFallback(jpeg, "cam.jpg", "USA", 0.2));
+        assertTrue(sync.getMessage().contains("413"), sync.getMessage());
+        assertEquals(2, tooLargeBodies.size(), "Exactly one retry");
+        assertTrue(tooLargeBodies.get(1) < tooLargeBodies.get(0), "Retry must shrink: " + tooLargeBodies);
+
+        tooLargeBodies.clear();
+        Exception async = assertThrows(Exception.class,
+                () -> api.callAnimalDetectAPIWithFallbackAsync(jpeg, "cam.jpg", "USA", 0.2).get());
+        assertTrue(async.getCause().getMessage().contains("413"), async.getCause().getMessage());
+        assertEquals(2, tooLargeBodies.size());
+        assertTrue(tooLargeBodies.get(1) < tooLargeBodies.get(0), "Retry must shrink: " + tooLargeBodies);
+    }
+
+    @Test
+    void unshrinkablePayloadFailsWithoutResending() {
+        URI endpoint = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/too-large");
+        AnimalDetectAPI api = new AnimalDetectAPI("key", 10, endpoint, 2);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> api.callAnimalDetectAPIWithFallback(IMAGE, "cam.jpg", "USA", 0.2));
+        assertEquals(1, tooLargeBodies.size(), "The same bytes are never sent twice");
+    }
+
+    @Test
+    void payloadTooLargeRetryWaitsForRatePermit() throws Exception {
+        byte[] jpeg = Files.readAllBytes(Path.of("src/test/java/com/example/test_image_2.jpg"));
+        URI endpoint = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/too-large-once");
+        AnimalDetectAPI api = new AnimalDetectAPI("key", 10, endpoint, 2);
+        RateLimiter oneASecond = RateLimiter.create(1.0);
+
+        Map<String, Object> response = api.callAnimalDetectAPIWithFallbackAsync(jpeg, "cam.jpg", "USA", 0.2,
+                oneASecond).get();
+
+        assertEquals(1, api.countElkFromResponse(response, AnimalDetectAPI.ElkRule.DEFAULT));
+        assertEquals(2, arrivals.size());
+        long gapMillis = (arrivals.get(1) - arrivals.get(0)) / 1_000_000;
+        assertTrue(gapMillis >= 800, "Retry must take its own permit; gap was " + gapMillis + " ms");
+    }
+}
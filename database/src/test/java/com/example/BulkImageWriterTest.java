@@ -0,0 +1,118 @@
+package com.example;
+
+import org.junit.jupiter.api.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+/**
+ * CSV encoding for the COPY path, and when BulkImageWriter flushes.
+ * The flush test needs a database: enable it with RUN_DB_TESTS=true (and the usual CLOUD_SQL_* / DB_* settings).
+ */
+public class BulkImageWriterTest {
+
+    private static Metadata row(String sha256) {
+        Metadata meta = new Metadata();
+        meta.sha256 = sha256;
+        meta.filename = sha256 + ".jpg";
+        meta.cloud_uri = "gs://test/" + sha256 + ".jpg";
+        meta.width = 10;
+        meta.height = 20;
+        meta.filesize = 300;
+        return meta;
+    }
+
+    @Test
+    void csvQuotesTextAndEscapesQuotesCommasAndNewlines() throws Exception {
+        Metadata meta = row("abc");
+        meta.filename = "say \"hi\", ok\nline2";
+        meta.gps_flag = true;
+        meta.latitude = 1.5;
+        meta.longitude = -2.25;
+        meta.weather_desc = "";
+        meta.cloud_uri = null;
+
+        StringBuilder csv = new StringBuilder();
+        BulkImageWriter.toCsv(csv, meta);
+
+        // NULLs are bare empty fields; text (even "") is always quoted, so the two stay distinct.
+        assertEquals("\"abc\",\"say \"\"hi\"\", ok\nline2\",t,1.5,-2.25,,,\"\",10,20,300,,,\"\",,f\n",
+                csv.toString());
+    }
+
+    @Test
+    void csvDropsCoordinatesWithoutGpsAndWritesDetection() throws Exception {
+        Metadata meta = row("def");
+        meta.gps_flag = false;
+        meta.latitude = 45.0;
+        meta.longitude = -110.0;
+        meta.datetime = "2026-02-08 09:45:39";
+        meta.temperature_c = -3.5;
+        meta.humidity = 80.0;
+        meta.elk_count = 4;
+        meta.processed_status = true;
+
+        StringBuilder csv = new StringBuilder();
+        BulkImageWriter.toCsv(csv, meta);
+
+        assertEquals("\"def\",\"def.jpg\",f,,,,\"2026-02-08 09:45:39\",\"gs://test/def.jpg\",10,20,300,-3.5,80.0,,4,t\n",
+                csv.toString());
+    }
+
+    @Test
+    void csvTextLeavesNullEmpty() throws Exception {
+        assertEquals("", BulkImageWriter.csvText(new StringBuilder(), null).toString());
+        assertEquals("\"\"\"\"", BulkImageWriter.csvText(new StringBuilder(), "\"").toString());
+    }
+
+    @Test
+    void flushesAtBatchSizeAndOnClose() throws Exception {
+        assumeTrue("true".equalsIgnoreCase(System.getenv("RUN_DB_TESTS")),
+                "Set RUN_DB_TESTS=true to run BulkImageWriter against the database");
+        try (Connection conn = db.connect()) {
+            db.setupSchema(conn, false);
+            String prefix = "bulktest-" + System.nanoTime() + "-";
+            try {
+                // batchSize 3 with copyThreshold 3: the automatic flush uses COPY, the remainder a JDBC batch.
+                BulkImageWriter writer = new BulkImageWriter(conn, 3, 3, BulkImageWriter.ConflictMode.SKIP);
+                writer.add(row(prefix + 0));
+                writer.add(row(prefix + 1));
+                assertEquals(0, writer.getSubmitted(), "Below batchSize nothing is written");
+                assertEquals(0, countRows(conn, prefix));
+
+                writer.add(row(prefix + 2));
+                assertEquals(3, writer.getSubmitted());
+                assertEquals(3, writer.getWritten());
+                assertEquals(3, countRows(conn, prefix));
+
+                writer.add(row(prefix + 3));
+                writer.add(row(prefix + 0));
+                writer.close();
+                assertEquals(5, writer.getSubmitted());
+                assertEquals(4, writer.getWritten(), "The repeated hash is skipped");
+                assertEquals(4, countRows(conn, prefix));
+            } finally {
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "delete from postgres.images where img_hash like ?")) {
+                    ps.setString(1, prefix + "%");
+                    ps.executeUpdate();
+                }
+            }
+        }
+    }
+
+    private static int countRows(Connection conn, String prefix) throws Exception {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "select count(*) from postgres.images where img_hash like ?")) {
+            ps.setString(1, prefix + "%");
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example;
+
+import org.junit.jupiter.api.*;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+/**
+ * Compares the old dimension path (two full ImageIO.read decodes per photo, as loadMetadata
+ * used to do) against ImageUtils.probeDimensions on the bundled 12 MP JPEG. Reports mean time
+ * and bytes allocated per call on the measuring thread.
+ *
+ * Enable with RUN_BENCHMARKS=true.
+ */
+public class DimensionProbeBenchmarkTest {
+
+    private static final File JPEG = Paths.get("src", "test", "java", "com", "example", "test_image_1.jpg").toFile();
+    private static final int WARMUP = 5;
+    private static final int RUNS = 20;
+
+    interface Probe {
+        long run() throws Exception;
+    }
+
+    @Test
+    void headerProbeVersusFullDecode() throws Exception {
+        assumeTrue("true".equalsIgnoreCase(System.getenv("RUN_BENCHMARKS")),
+                "Set RUN_BENCHMARKS=true to run the dimension probe benchmark");
+
+        double[] legacy = measure(() -> {
+            BufferedImage a = ImageIO.read(JPEG);
+            BufferedImage b = ImageIO.read(JPEG);
+            return (long) a.getWidth() * b.getHeight();
+        });
+        double[] probe = measure(() -> {
+            ImageUtils.Dimensions d = ImageUtils.probeDimensions(JPEG);
+            return (long) d.width() * d.height();
+        });
+
+        System.out.printf("ImageIO.read x2:  %10.3f ms/op %14.0f bytes/op%n", legacy[0], legacy[1]);
+        System.out.printf("probeDimensions:  %10.3f ms/op %14.0f bytes/op%n", probe[0], probe[1]);
+        assertTrue(probe[0] < legacy[0], "Header probe should be faster than decoding");
+    }
+
+    private static double[] measure(Probe probe) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += probe.run();
+        }
+        long allocBefore = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            sink += probe.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocBefore;
+        assertNotEquals(0, sink);
+        return new double[] {elapsed / 1e6 / RUNS, (double) allocated / RUNS};
+    }
+}
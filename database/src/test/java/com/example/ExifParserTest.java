@@ -0,0 +1,179 @@
+package com.example;
+
+import org.junit.jupiter.api.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ExifParser field extraction, bounds checking and behaviour under concurrent use.
+ */
+public class ExifParserTest {
+
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 5_000;
+
+    @Test
+    void readsDateAndGpsInBothByteOrders() {
+        for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            ImageUtils.ExifData d = ExifParser.parse(ByteBuffer.wrap(syntheticExif(order, 45, 30, 36, 'N', 110, 36, 0, 'W', 1)));
+            assertEquals("2026:02:07 13:14:15", d.date, order.toString());
+            assertEquals(45.51, d.lat, 1e-9, order.toString());
+            assertEquals(-110.6, d.lon, 1e-9, order.toString());
+            assertEquals(-1500.0, d.alt, 1e-9, order.toString());
+        }
+    }
+
+    @Test
+    void doesNotMoveCallerBufferPosition() {
+        byte[] exif = syntheticExif(ByteOrder.BIG_ENDIAN, 1, 0, 0, 'N', 2, 0, 0, 'E', 0);
+        byte[] padded = new byte[exif.length + 10];
+        System.arraycopy(exif, 0, padded, 5, exif.length);
+        ByteBuffer view = ByteBuffer.wrap(padded, 5, exif.length);
+        ImageUtils.ExifData d = ExifParser.parse(view);
+        assertEquals(1.0, d.lat);
+        assertEquals(5, view.position());
+        assertEquals(5 + exif.length, view.limit());
+    }
+
+    @Test
+    void truncatedOrCorruptBlocksNeverReadOutOfBounds() {
+        byte[] exif = syntheticExif(ByteOrder.LITTLE_ENDIAN, 45, 30, 36, 'N', 110, 36, 0, 'W', 0);
+        for (int len = 14; len < exif.length; len++) {
+            byte[] cut = Arrays.copyOf(exif, len);
+            assertDoesNotThrow(() -> ExifParser.parse(ByteBuffer.wrap(cut)), "length " + len);
+        }
+        // Past the 8-byte TIFF header every corruption is a bad offset or count, never an exception.
+        for (int i = 14; i < exif.length; i++) {
+            for (byte value : new byte[] {(byte) 0xFF, (byte) 0x7F, 0}) {
+                byte[] corrupt = exif.clone();
+                corrupt[i] = value;
+                assertDoesNotThrow(() -> ExifParser.parse(ByteBuffer.wrap(corrupt)), "byte " + i);
+            }
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> ExifParser.parse(ByteBuffer.wrap("Exif\0\0XX".getBytes(StandardCharsets.ISO_8859_1))));
+    }
+
+    @Test
+    void concurrentParsesMatchSerialResults() throws Exception {
+        List<byte[]> inputs = new ArrayList<>();
+        inputs.add(syntheticExif(ByteOrder.BIG_ENDIAN, 45, 30, 36, 'N', 110, 36, 0, 'W', 0));
+        inputs.add(syntheticExif(ByteOrder.LITTLE_ENDIAN, 12, 0, 0, 'S', 77, 30, 0, 'E', 1));
+        inputs.add(app1Of(Files.readAllBytes(Paths.get("src", "test", "java", "com", "example", "test_image_1.jpg"))));
+
+        List<String> expected = new ArrayList<>();
+        for (byte[] input : inputs) {
+            expected.add(describe(ExifParser.parse(ByteBuffer.wrap(input))));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int offset = t;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    int mismatches = 0;
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        int which = (i + offset) % inputs.size();
+                        String got = describe(ImageUtils.parseExif(inputs.get(which)));
+                        if (!got.equals(expected.get(which))) {
+                            mismatches++;
+                        }
+                    }
+                    return mismatches;
+                }));
+            }
+            start.countDown();
+            for (Future<Integer> f : futures) {
+                assertEquals(0, f.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static String describe(ImageUtils.ExifData d) {
+        return d.date + "|" + d.lat + "|" + d.lon + "|" + d.alt;
+    }
+
+    /** APP1 payload (from "Exif") of a JPEG. */
+    private static byte[] app1Of(byte[] jpeg) {
+        int pos = 2;
+        while (pos + 4 < jpeg.length) {
+            int marker = jpeg[pos + 1] & 0xFF;
+            int len = ((jpeg[pos + 2] & 0xFF) << 8) | (jpeg[pos + 3] & 0xFF);
+            if (marker == 0xE1) {
+                return Arrays.copyOfRange(jpeg, pos + 4, pos + 2 + len);
+            }
+            pos += 2 + len;
+        }
+        throw new IllegalStateException("No APP1");
+    }
+
+    /**
+     * Minimal "Exif\0\0" + TIFF block: IFD0 -> Exif IFD (DateTimeOriginal) and GPS IFD
+     * (lat/lon refs and triplets, altitude 1500 m with the given altitude ref).
+     */
+    private static byte[] syntheticExif(ByteOrder order, int latD, int latM, int latS, char latRef,
+                                        int lonD, int lonM, int lonS, char lonRef, int altRef) {
+        ByteBuffer bb = ByteBuffer.allocate(512).order(order);
+        bb.put("Exif\0\0".getBytes(StandardCharsets.ISO_8859_1));
+        int base = bb.position();
+        bb.putShort(order == ByteOrder.LITTLE_ENDIAN ? (short) 0x4949 : (short) 0x4D4D);
+        bb.putShort((short) 42);
+        bb.putInt(8);
+
+        // IFD0 at 8: two entries, next-IFD 0. Exif IFD at 38, GPS IFD at 80.
+        bb.putShort((short) 2);
+        entry(bb, 0x8769, 4, 1, 38);
+        entry(bb, 0x8825, 4, 1, 80);
+        bb.putInt(0);
+
+        // Exif IFD at 38: DateTimeOriginal (20 ASCII bytes) at 56.
+        bb.position(base + 38);
+        bb.putShort((short) 1);
+        entry(bb, 0x9003, 2, 20, 56);
+        bb.putInt(0);
+        bb.position(base + 56);
+        bb.put("2026:02:07 13:14:15\0".getBytes(StandardCharsets.ISO_8859_1));
+
+        // GPS IFD at 80: six entries -> 2 + 72 + 4 = 78 bytes; data from 160.
+        bb.position(base + 80);
+        bb.putShort((short) 6);
+        inlineAscii(bb, 1, latRef);
+        entry(bb, 2, 5, 3, 160);
+        inlineAscii(bb, 3, lonRef);
+        entry(bb, 4, 5, 3, 184);
+        bb.putShort((short) 5).putShort((short) 1).putInt(1).put((byte) altRef).put(new byte[3]);
+        entry(bb, 6, 5, 1, 208);
+        bb.putInt(0);
+        bb.position(base + 160);
+        bb.putInt(latD).putInt(1).putInt(latM).putInt(1).putInt(latS).putInt(1);
+        bb.putInt(lonD).putInt(1).putInt(lonM).putInt(1).putInt(lonS).putInt(1);
+        bb.putInt(3000).putInt(2);
+        return Arrays.copyOf(bb.array(), bb.position());
+    }
+
+    private static void entry(ByteBuffer bb, int tag, int type, int count, int value) {
+        bb.putShort((short) tag).putShort((short) type).putInt(count).putInt(value);
+    }
+
+    private static void inlineAscii(ByteBuffer bb, int tag, char c) {
+        bb.putShort((short) tag).putShort((short) 2).putInt(2).put((byte) c).put(new byte[3]);
+    }
+}
@@ -0,0 +1,197 @@
+package com.example;
+
+import org.junit.jupiter.api.*;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * BatchResult throughput and latency summary, and the AnimalDetect batch pipeline
+ * against a local stub server with stubbed claim, download and store steps.
+ */
+public class FileProcessorTest {
+
+    private static final String ELK = "{\"annotations\":[{\"label\":\"elk\",\"confidence\":0.9}]}";
+
+    private HttpServer server;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.createContext("/detect", exchange -> {
+            String body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = new String(in.readAllBytes(), StandardCharsets.ISO_8859_1);
+            }
+            boolean fail = body.contains("image-bad-api");
+            byte[] out = (fail ? "{\"error\":\"boom\"}" : ELK).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(fail ? 500 : 200, out.length);
+            try (OutputStream o = exchange.getResponseBody()) {
+                o.write(out);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    private AnimalDetectAPI api() {
+        URI endpoint = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/detect");
+        return new AnimalDetectAPI("key", 10, endpoint, 8);
+    }
+
+    private static List<Metadata> rows(String... hashes) {
+        List<Metadata> rows = new ArrayList<>();
+        for (String hash : hashes) {
+            Metadata row = new Metadata();
+            row.sha256 = hash;
+            row.filename = hash + ".jpg";
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /** Hands out one batch, then reports the queue drained; downloads and stores can be overridden. */
+    private static class StubSteps implements FileProcessor.DetectionSteps {
+        final List<Metadata> batch;
+        final Set<String> stored = ConcurrentHashMap.newKeySet();
+        final List<Set<String>> failedSeen = new ArrayList<>();
+        final AtomicInteger downloading = new AtomicInteger();
+        final AtomicInteger maxDownloading = new AtomicInteger();
+        final AtomicInteger storing = new AtomicInteger();
+        final AtomicInteger maxStoring = new AtomicInteger();
+        long downloadMillis;
+
+        StubSteps(List<Metadata> batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public List<Metadata> claim(Set<String> failedThisRun) {
+            failedSeen.add(new HashSet<>(failedThisRun));
+            return failedSeen.size() == 1 ? batch : List.of();
+        }
+
+        @Override
+        public byte[] download(Metadata row) {
+            maxDownloading.accumulateAndGet(downloading.incrementAndGet(), Math::max);
+            try {
+                pause(downloadMillis);
+                if (row.sha256.equals("bad-download")) {
+                    throw new IllegalStateException("Downloaded file hash does not match DB hash");
+                }
+                return ("image-" + row.sha256).getBytes(StandardCharsets.UTF_8);
+            } finally {
+                downloading.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void store(Metadata row, String filename, Map<String, Object> response) {
+            maxStoring.accumulateAndGet(storing.incrementAndGet(), Math::max);
+            try {
+                pause(20);
+                if (row.sha256.equals("bad-store")) {
+                    throw new IllegalStateException("lease lost to another worker; result discarded");
+                }
+                stored.add(row.sha256);
+            } finally {
+                storing.decrementAndGet();
+            }
+        }
+
+        private static void pause(long millis) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Test
+    void batchResultReportsNearestRankPercentiles() {
+        // 1..100 ms, shuffled order: nearest rank gives the value itself.
+        long[] latencies = LongStream.rangeClosed(1, 100).map(i -> (i * 37) % 100 + 1).toArray();
+        FileProcessor.BatchResult r = new FileProcessor.BatchResult(120, 100, List.of(), 4.0, latencies);
+
+        assertEquals(25.0, r.imagesPerSecond, 1e-9);
+        assertEquals(50, r.p50Millis);
+        assertEquals(95, r.p95Millis);
+        assertEquals(99, r.p99Millis);
+    }
+
+    @Test
+    void batchResultWithoutTimingsIsZero() {
+        FileProcessor.BatchResult r = new FileProcessor.BatchResult(3, 0, List.of("hash=x failed: boom"));
+        assertEquals(0.0, r.imagesPerSecond);
+        assertEquals(0, r.p50Millis);
+        assertEquals(0, r.p99Millis);
+        assertEquals(1, FileProcessor.BatchResult.percentile(new long[] {1}, 99));
+    }
+
+    @Test
+    void pipelineIsolatesFailuresInEachStage() {
+        StubSteps steps = new StubSteps(rows("a", "bad-download", "b", "bad-api", "bad-store", "c"));
+
+        FileProcessor.BatchResult r = FileProcessor.runDetectionPipeline(api(), steps, 0.2, 2, 1, null);
+
+        assertEquals(6, r.attempted);
+        assertEquals(3, r.processed);
+        assertEquals(Set.of("a", "b", "c"), steps.stored);
+        assertEquals(3, r.errors.size(), r.errors.toString());
+        assertTrue(r.errors.stream().anyMatch(e -> e.startsWith("hash=bad-download failed: Downloaded file hash")));
+        assertTrue(r.errors.stream().anyMatch(e -> e.startsWith("hash=bad-api failed: AnimalDetect API 500")));
+        assertTrue(r.errors.stream().anyMatch(e -> e.startsWith("hash=bad-store failed: lease lost")));
+        assertEquals(Set.of("bad-download", "bad-api", "bad-store"), steps.failedSeen.get(1),
+                "The next claim knows which rows already failed");
+    }
+
+    @Test
+    void pipelineStaysWithinWorkerAndWriterPools() {
+        StubSteps steps = new StubSteps(rows("r0", "r1", "r2", "r3", "r4", "r5", "r6", "r7"));
+        steps.downloadMillis = 50;
+
+        FileProcessor.BatchResult r = FileProcessor.runDetectionPipeline(api(), steps, 0.2, 2, 1, null);
+
+        assertEquals(8, r.processed, r.errors.toString());
+        assertEquals(2, steps.maxDownloading.get(), "Downloads use exactly the worker pool");
+        assertEquals(1, steps.maxStoring.get(), "Stores never exceed the writer pool");
+    }
+
+    @Test
+    void pipelinePacesDetectCallsWithRateLimiter() {
+        StubSteps steps = new StubSteps(rows("r0", "r1", "r2", "r3", "r4", "r5"));
+
+        long started = System.nanoTime();
+        FileProcessor.BatchResult r = FileProcessor.runDetectionPipeline(api(), steps, 0.2, 4, 2,
+                RateLimiter.create(10.0));
+        long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+
+        assertEquals(6, r.processed, r.errors.toString());
+        // Six permits at 10/s: the first is free, the other five are 100 ms apart.
+        assertTrue(elapsedMillis >= 450, "Detect calls were not paced: " + elapsedMillis + " ms");
+    }
+}
@@ -0,0 +1,77 @@
+package com.example;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Box-level HEIC reads checked against the EXIF block located by a plain byte search of the file.
+ */
+public class HeifBoxParserTest {
+
+    private static final Path TEST_DIR = Paths.get("src", "test", "java", "com", "example");
+
+    @Test
+    void readsPrimaryItemAndExifItem() throws Exception {
+        for (String name : new String[] {"test_image_1.heic", "test_image_2.heic"}) {
+            Path file = TEST_DIR.resolve(name);
+            byte[] bytes = Files.readAllBytes(file);
+
+            HeifBoxParser.Headers fromFile = HeifBoxParser.scan(file);
+            HeifBoxParser.Headers fromBytes = HeifBoxParser.scan(ByteBuffer.wrap(bytes));
+            assertTrue(fromFile.heif(), name);
+            assertTrue(fromFile.primaryItem() >= 0, name);
+            assertEquals(new ImageUtils.Dimensions(4000, 3000), fromFile.dimensions(), name);
+            assertEquals(fromFile.dimensions(), fromBytes.dimensions(), name);
+            assertEquals(fromFile.exif(), fromBytes.exif(), name);
+
+            ImageUtils.ExifData expected = ExifParser.parse(ByteBuffer.wrap(bytes, indexOf(bytes, "Exif\0\0"),
+                    bytes.length - indexOf(bytes, "Exif\0\0")));
+            ImageUtils.ExifData actual = ExifParser.parse(fromFile.exif());
+            assertNotNull(actual.date, name);
+            assertEquals(expected.date, actual.date, name);
+            assertEquals(expected.lat, actual.lat, name);
+            assertEquals(expected.lon, actual.lon, name);
+            assertEquals(expected.alt, actual.alt, name);
+        }
+    }
+
+    @Test
+    void truncatedFileKeepsWhatWasRead() throws Exception {
+        byte[] bytes = Files.readAllBytes(TEST_DIR.resolve("test_image_1.heic"));
+        // Cut inside mdat, before meta: still recognised as HEIF, nothing resolved.
+        HeifBoxParser.Headers h = HeifBoxParser.scan(ByteBuffer.wrap(Arrays.copyOf(bytes, 4096)));
+        assertTrue(h.heif());
+        assertNull(h.dimensions());
+        assertNull(h.exif());
+    }
+
+    @Test
+    void nonHeifIsReportedAsSuch() throws IOException {
+        byte[] jpeg = Files.readAllBytes(TEST_DIR.resolve("test_image_2.jpg"));
+        assertFalse(HeifBoxParser.scan(ByteBuffer.wrap(jpeg)).heif());
+        assertFalse(HeifBoxParser.scan(ByteBuffer.wrap("tiny".getBytes(StandardCharsets.US_ASCII))).heif());
+    }
+
+    private static int indexOf(byte[] haystack, String needle) {
+        byte[] n = needle.getBytes(StandardCharsets.ISO_8859_1);
+        outer:
+        for (int i = 0; i + n.length <= haystack.length; i++) {
+            for (int j = 0; j < n.length; j++) {
+                if (haystack[i + j] != n[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new AssertionError("no " + needle + " in file");
+    }
+}
@@ -0,0 +1,55 @@
+package com.example;
+
+import org.junit.jupiter.api.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ImageAnalyzer's single-read results checked against the separate per-field readers in ImageUtils.
+ */
+public class ImageAnalyzerTest {
+
+    private static final Path TEST_DIR = Paths.get("src", "test", "java", "com", "example");
+
+    @Test
+    void matchesPerFieldReaders() throws Exception {
+        for (String name : new String[] {"test_image_1.jpg", "test_image_2.jpg", "test_image_2.png", "test_image_1.heic",
+                "test_image_2.heic"}) {
+            File f = TEST_DIR.resolve(name).toFile();
+            ImageAnalyzer.Analysis a = ImageAnalyzer.analyze(f.toPath(), false);
+
+            ImageUtils.ExifData expected = name.endsWith(".png") ? ImageUtils.parseExifFromPng(f)
+                    : name.endsWith(".heic") ? ImageUtils.parseExifFromHeif(f)
+                    : ImageUtils.parse(f.getAbsolutePath());
+            if (expected == null) {
+                expected = new ImageUtils.ExifData();
+            }
+            assertEquals(ImageUtils.sha256(f), a.sha256(), name);
+            assertEquals(ImageUtils.probeDimensions(f), a.dimensions(), name);
+            assertEquals(expected.date, a.exif().date, name);
+            assertEquals(expected.lat, a.exif().lat, name);
+            assertEquals(expected.lon, a.exif().lon, name);
+            assertEquals(expected.alt, a.exif().alt, name);
+            assertEquals(f.length(), a.bytes().length, name);
+        }
+    }
+
+    @Test
+    void bytesArePassedThroughNotCopied() throws Exception {
+        byte[] jpeg = Files.readAllBytes(TEST_DIR.resolve("test_image_2.jpg"));
+        assertSame(jpeg, ImageAnalyzer.analyze(jpeg, false).bytes());
+    }
+
+    @Test
+    void unknownFormatIsRejected() {
+        byte[] text = "not an image".getBytes(StandardCharsets.UTF_8);
+        assertThrows(IOException.class, () -> ImageAnalyzer.analyze(text, true));
+    }
+}
@@ -144,4 +144,153 @@ public class ImageQueryMethodsTest {
                     "Expected nearby image to be one of " + large_names + ", but got " + m.filename);
         }
     }
+
+    @Test
+    void test_dailyRollups_matchTableAfterWrites() throws Exception {
+        System.out.println("=== test_dailyRollups_matchTableAfterWrites ===");
+
+        assertRollupsMatchTable();
+
+        db.updateMetaWithDetection(conn, meta3141FromFile.sha256, 7, true);
+        db.updateDatetime(conn, meta3141FromFile.sha256, "2025-12-31 23:00:00");
+        assertRollupsMatchTable();
+
+        long taken = db.getDailyRollups(conn, db.RollupDimension.TAKEN).stream()
+                .filter(r -> r.day() != null && r.day().toString().equals("2025-12-31"))
+                .mapToLong(db.DailyRollup::elkTotal)
+                .sum();
+        assertEquals(7, taken, "Moved image should carry its elk count to the new taken date");
+    }
+
+    @Test
+    void test_recountElk_fromStoredDetections() throws Exception {
+        System.out.println("=== test_recountElk_fromStoredDetections ===");
+
+        String sha = ImageUtils.sha256(new File(IMG_5585));
+        Map<String, Object> response = Map.of("model_version", "v2", "annotations", List.of(
+                Map.of("label", "elk", "confidence", 0.9, "bbox", List.of(0.1, 0.2, 0.3, 0.4)),
+                Map.of("label", "elk", "confidence", 0.3),
+                Map.of("label", "mule deer", "confidence", 0.95)));
+        List<AnimalDetectAPI.Detection> found = AnimalDetectAPI.parseDetections(response);
+        String model = AnimalDetectAPI.modelVersion(response);
+        try {
+            db.recountElk(conn, AnimalDetectAPI.ElkRule.DEFAULT);
+            assertEquals(2, db.storeDetections(conn, sha, model, found, null));
+            assertEquals(2, db.getImageByHash(conn, sha).elk_count);
+
+            AnimalDetectAPI.ElkRule strict = new AnimalDetectAPI.ElkRule(0.5, AnimalDetectAPI.ELK_MARKERS);
+            assertEquals(1, db.recountElk(conn, strict));
+            assertEquals(1, db.getImageByHash(conn, sha).elk_count);
+            assertEquals(strict, db.getElkRule(conn), "The recount's rule becomes the stored rule");
+            assertEquals(0, db.recountElk(conn, strict), "unchanged rows are not rewritten");
+            assertEquals(1, db.storeDetections(conn, sha, model, found, null),
+                    "New detections are counted with the stored rule");
+
+            assertEquals(1, db.recountElk(conn, new AnimalDetectAPI.ElkRule(0.5, List.of("elk", "deer"))));
+            assertEquals(2, db.getImageByHash(conn, sha).elk_count);
+            assertRollupsMatchTable();
+        } finally {
+            db.recountElk(conn, AnimalDetectAPI.ElkRule.DEFAULT);
+        }
+    }
+
+    @Test
+    void test_recountElk_keepsManualCorrection() throws Exception {
+        System.out.println("=== test_recountElk_keepsManualCorrection ===");
+
+        String sha = ImageUtils.sha256(new File(IMG_5585));
+        Map<String, Object> response = Map.of("annotations", List.of(
+                Map.of("label", "elk", "confidence", 0.9),
+                Map.of("label", "elk", "confidence", 0.3)));
+        List<AnimalDetectAPI.Detection> found = AnimalDetectAPI.parseDetections(response);
+        try {
+            db.recountElk(conn, AnimalDetectAPI.ElkRule.DEFAULT);
+            assertEquals(2, db.storeDetections(conn, sha, null, found, null));
+
+            db.updateMetaWithDetection(conn, sha, 5, true);
+            db.recountElk(conn, new AnimalDetectAPI.ElkRule(0.5, AnimalDetectAPI.ELK_MARKERS));
+            assertEquals(5, db.getImageByHash(conn, sha).elk_count, "A hand-corrected count is not recounted");
+
+            assertEquals(1, db.storeDetections(conn, sha, null, found, null),
+                    "A new detection replaces the correction");
+            db.recountElk(conn, AnimalDetectAPI.ElkRule.DEFAULT);
+            assertEquals(2, db.getImageByHash(conn, sha).elk_count);
+        } finally {
+            db.recountElk(conn, AnimalDetectAPI.ElkRule.DEFAULT);
+        }
+    }
+
+    @Test
+    void test_updateMetaWithDetection_rejectsLostLease() throws Exception {
+        System.out.println("=== test_updateMetaWithDetection_rejectsLostLease ===");
+
+        List<Metadata> claimed = db.claimUnprocessedImages(conn, "worker-a", 1, 60);
+        assertEquals(1, claimed.size(), "Expected an unprocessed row to lease");
+        String sha = claimed.get(0).sha256;
+
+        assertFalse(db.updateMetaWithDetection(conn, sha, 3, true, "worker-b"),
+                "A worker that does not hold the lease must not write");
+        assertNull(db.storeDetections(conn, sha, null, List.of(), "worker-b"));
+        assertNull(db.getImageByHash(conn, sha), "Row should still be unprocessed");
+
+        assertTrue(db.updateMetaWithDetection(conn, sha, 3, true, "worker-a"));
+        assertEquals(3, db.getImageByHash(conn, sha).elk_count);
+    }
+
+    @Test
+    void test_claimNewImage_onlyFirstClaimWins() throws Exception {
+        System.out.println("=== test_claimNewImage_onlyFirstClaimWins ===");
+
+        Metadata meta = new Metadata();
+        meta.sha256 = "claimtest-" + System.nanoTime();
+        meta.filename = "claim.jpg";
+        meta.cloud_uri = "gs://dummy/" + meta.sha256 + ".jpg";
+        try {
+            db.UpsertResult first = db.claimNewImage(conn, meta, "ingest-a", 60);
+            assertFalse(first.isDuplicate());
+            assertFalse(first.row().processed_status);
+
+            db.UpsertResult second = db.claimNewImage(conn, meta, "ingest-b", 60);
+            assertTrue(second.isDuplicate(), "A resent image must not be claimed twice");
+            assertTrue(second.isPending(), "An in-flight claim is not reported as stored");
+            assertEquals(meta.sha256, second.row().sha256);
+
+            assertFalse(db.releaseNewImage(conn, meta.sha256, "ingest-b"), "Only the claim owner may release");
+            assertTrue(db.releaseNewImage(conn, meta.sha256, "ingest-a"));
+            assertFalse(db.claimNewImage(conn, meta, "ingest-b", 60).isDuplicate(), "Released hash is claimable");
+
+            assertTrue(db.updateMetaWithDetection(conn, meta.sha256, 0, true, "ingest-b"));
+            db.UpsertResult stored = db.claimNewImage(conn, meta, "ingest-c", 60);
+            assertEquals(db.UpsertOutcome.DUPLICATE, stored.outcome());
+            assertTrue(stored.row().processed_status);
+        } finally {
+            try (java.sql.PreparedStatement ps = conn.prepareStatement(
+                    "delete from postgres.images where img_hash = ?")) {
+                ps.setString(1, meta.sha256);
+                ps.executeUpdate();
+            }
+        }
+    }
+
+    private void assertRollupsMatchTable() throws Exception {
+        long total = 0, elk = 0, gps = 0, processed = 0;
+        for (db.DailyRollup r : db.getDailyRollups(conn, db.RollupDimension.UPLOADED)) {
+            total += r.imageCount();
+            elk += r.elkTotal();
+            gps += r.gpsCount();
+            processed += r.processedCount();
+        }
+
+        try (java.sql.Statement s = conn.createStatement();
+                java.sql.ResultSet rs = s.executeQuery("select count(*), coalesce(sum(elk_count), 0), "
+                        + "count(*) filter (where gps_flag), count(*) filter (where processed_status) "
+                        + "from postgres.images")) {
+            assertTrue(rs.next());
+            System.out.println("Rollup total=" + total + " elk=" + elk + " gps=" + gps + " processed=" + processed);
+            assertEquals(rs.getLong(1), total, "image count");
+            assertEquals(rs.getLong(2), elk, "elk total");
+            assertEquals(rs.getLong(3), gps, "gps count");
+            assertEquals(rs.getLong(4), processed, "processed count");
+        }
+    }
 }
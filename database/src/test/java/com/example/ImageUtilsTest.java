@@ -0,0 +1,58 @@
+package com.example;
+
+import org.junit.jupiter.api.*;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Header-only dimension probing checked against a full ImageIO decode of the test images.
+ */
+public class ImageUtilsTest {
+
+    private static final Path TEST_DIR = Paths.get("src", "test", "java", "com", "example");
+
+    @Test
+    void jpegAndPngMatchFullDecode() throws Exception {
+        for (String name : new String[] {"test_image_1.jpg", "test_image_2.jpg", "test_image_2.png"}) {
+            File f = TEST_DIR.resolve(name).toFile();
+            BufferedImage img = ImageIO.read(f);
+            ImageUtils.Dimensions dims = ImageUtils.probeDimensions(f);
+            assertEquals(img.getWidth(), dims.width(), name);
+            assertEquals(img.getHeight(), dims.height(), name);
+        }
+    }
+
+    @Test
+    void heicReportsPrimaryItemNotTile() throws Exception {
+        // Both HEIC photos are 4000x3000 grids of 512x512 tiles with a 512x384 thumbnail.
+        for (String name : new String[] {"test_image_1.heic", "test_image_2.heic"}) {
+            ImageUtils.Dimensions dims = ImageUtils.probeDimensions(TEST_DIR.resolve(name).toFile());
+            assertEquals(new ImageUtils.Dimensions(4000, 3000), dims, name);
+        }
+    }
+
+    @Test
+    void truncatedOrUnknownFilesAreRejected() throws Exception {
+        Path tmp = Files.createTempFile("probe", ".jpg");
+        try {
+            byte[] jpeg = Files.readAllBytes(TEST_DIR.resolve("test_image_2.jpg"));
+            Files.write(tmp, Arrays.copyOf(jpeg, 20));
+            assertThrows(IOException.class, () -> ImageUtils.probeDimensions(tmp.toFile()));
+
+            Files.writeString(tmp, "not an image");
+            assertThrows(IOException.class, () -> ImageUtils.probeDimensions(tmp.toFile()));
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example;
+
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JpegSegmentScanner on the bundled photo and on hand-built segment layouts.
+ */
+public class JpegSegmentScannerTest {
+
+    private static final Path TEST_DIR = Paths.get("src", "test", "java", "com", "example");
+
+    @Test
+    void fileAndMemoryScansAgree() throws Exception {
+        Path jpg = TEST_DIR.resolve("test_image_1.jpg");
+        JpegSegmentScanner.Headers fromFile = JpegSegmentScanner.scan(jpg);
+        JpegSegmentScanner.Headers fromMemory = JpegSegmentScanner.scan(ByteBuffer.wrap(Files.readAllBytes(jpg)));
+
+        assertTrue(fromFile.jpeg());
+        assertNotNull(fromFile.exif());
+        assertEquals(fromMemory.exif(), fromFile.exif());
+        assertEquals(fromMemory.dimensions(), fromFile.dimensions());
+        assertEquals(ImageUtils.probeDimensions(jpg.toFile()), fromFile.dimensions());
+    }
+
+    @Test
+    void skipsXmpApp1AndStopsAtScanData() throws Exception {
+        byte[] exifPayload = "Exif\0\0payload".getBytes(StandardCharsets.ISO_8859_1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[] {(byte) 0xFF, (byte) 0xD8});
+        segment(out, 0xE0, "JFIF\0".getBytes(StandardCharsets.ISO_8859_1));
+        segment(out, 0xE1, "http://ns.adobe.com/xap/1.0/\0<x/>".getBytes(StandardCharsets.ISO_8859_1));
+        segment(out, 0xE1, exifPayload);
+        out.write(0xFF); // fill byte before the next marker
+        segment(out, 0xC0, new byte[] {8, 0x0B, (byte) 0xB8, 0x0F, (byte) 0xA0, 3});
+        segment(out, 0xDA, new byte[] {1, 2, 3});
+        // Scan data that contains a stray APP1-looking pair; it must never be reached.
+        byte[] entropy = new byte[1 << 20];
+        entropy[100] = (byte) 0xFF;
+        entropy[101] = (byte) 0xE1;
+        out.write(entropy);
+
+        Path tmp = Files.createTempFile("segments", ".jpg");
+        try {
+            Files.write(tmp, out.toByteArray());
+            JpegSegmentScanner.Headers h = JpegSegmentScanner.scan(tmp);
+            byte[] found = new byte[h.exif().remaining()];
+            h.exif().duplicate().get(found);
+            assertArrayEquals(exifPayload, found);
+            assertEquals(new ImageUtils.Dimensions(4000, 3000), h.dimensions());
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Test
+    void truncatedAndNonJpegInputs() throws Exception {
+        byte[] jpeg = Files.readAllBytes(TEST_DIR.resolve("test_image_2.jpg"));
+        for (int len = 0; len < 64; len++) {
+            byte[] cut = Arrays.copyOf(jpeg, len);
+            assertDoesNotThrow(() -> JpegSegmentScanner.scan(ByteBuffer.wrap(cut)), "length " + len);
+        }
+        assertFalse(JpegSegmentScanner.scan(ByteBuffer.wrap("GIF89a".getBytes(StandardCharsets.ISO_8859_1))).jpeg());
+    }
+
+    private static void segment(ByteArrayOutputStream out, int marker, byte[] payload) {
+        int length = payload.length + 2;
+        out.write(0xFF);
+        out.write(marker);
+        out.write(length >> 8);
+        out.write(length & 0xFF);
+        out.writeBytes(payload);
+    }
+}
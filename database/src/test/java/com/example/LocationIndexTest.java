@@ -0,0 +1,200 @@
+package com.example;
+
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pure in-memory checks of LocationIndex against brute force; no database needed.
+ */
+public class LocationIndexTest {
+
+    private static final int POINTS = 20_000;
+
+    private LocationIndex index;
+    private Map<String, LocationIndex.Point> truth;
+    private Random random;
+
+    @BeforeEach
+    void buildIndex() {
+        random = new Random(42);
+        truth = new HashMap<>();
+        for (int i = 0; i < POINTS; i++) {
+            LocationIndex.Point p = randomPoint("p" + i, 45.5, -110.6, 2.0);
+            truth.put(p.sha256(), p);
+        }
+        index = new LocationIndex();
+        index.replaceAll(truth.values());
+    }
+
+    @Test
+    void radiusMatchesBruteForce() {
+        for (int q = 0; q < 50; q++) {
+            double lat = 45.5 + (random.nextDouble() - 0.5) * 3;
+            double lon = -110.6 + (random.nextDouble() - 0.5) * 3;
+            double radiusKm = 1 + random.nextDouble() * 20;
+            int minElk = random.nextInt(3);
+
+            Set<String> expected = truth.values().stream()
+                    .filter(p -> minElk <= 0 || (p.elkCount() != null && p.elkCount() >= minElk))
+                    .filter(p -> LocationIndex.haversineKm(lat, lon, p.latitude(), p.longitude()) <= radiusKm)
+                    .map(LocationIndex.Point::sha256)
+                    .collect(Collectors.toSet());
+
+            List<LocationIndex.Hit> hits = index.radius(lat, lon, radiusKm, minElk, Integer.MAX_VALUE);
+            assertEquals(expected, hashes(hits), "radius query " + q);
+            for (int i = 1; i < hits.size(); i++) {
+                assertTrue(hits.get(i - 1).distanceKm() <= hits.get(i).distanceKm(), "hits sorted by distance");
+            }
+        }
+    }
+
+    @Test
+    void boundingBoxMatchesBruteForce() {
+        for (int q = 0; q < 50; q++) {
+            double lat1 = 45.5 + (random.nextDouble() - 0.5) * 4;
+            double lat2 = 45.5 + (random.nextDouble() - 0.5) * 4;
+            double lon1 = -110.6 + (random.nextDouble() - 0.5) * 4;
+            double lon2 = -110.6 + (random.nextDouble() - 0.5) * 4;
+
+            Set<String> expected = truth.values().stream()
+                    .filter(p -> p.latitude() >= Math.min(lat1, lat2) && p.latitude() <= Math.max(lat1, lat2))
+                    .filter(p -> p.longitude() >= Math.min(lon1, lon2) && p.longitude() <= Math.max(lon1, lon2))
+                    .map(LocationIndex.Point::sha256)
+                    .collect(Collectors.toSet());
+
+            assertEquals(expected, hashes(index.boundingBox(lat1, lon1, lat2, lon2, 0, Integer.MAX_VALUE)),
+                    "bbox query " + q);
+        }
+    }
+
+    @Test
+    void nearestMatchesBruteForce() {
+        for (int q = 0; q < 50; q++) {
+            double lat = 45.5 + (random.nextDouble() - 0.5) * 6;
+            double lon = -110.6 + (random.nextDouble() - 0.5) * 6;
+            int k = 1 + random.nextInt(25);
+            assertNearestMatches(lat, lon, k);
+        }
+    }
+
+    @Test
+    void nearestHandlesAntimeridian() {
+        index.upsert(new LocationIndex.Point("east", 10.0, 179.95, null, 1));
+        index.upsert(new LocationIndex.Point("west", 10.0, -179.95, null, 1));
+        truth.put("east", new LocationIndex.Point("east", 10.0, 179.95, null, 1));
+        truth.put("west", new LocationIndex.Point("west", 10.0, -179.95, null, 1));
+
+        List<LocationIndex.Hit> hits = index.nearest(10.0, 179.99, 2, 0);
+        assertEquals(Set.of("east", "west"), hashes(hits));
+    }
+
+    @Test
+    void incrementalUpdatesAndRebuildsStayConsistent() {
+        // Enough writes to cross the delta threshold and force at least one rebuild.
+        for (int i = 0; i < 5_000; i++) {
+            int action = random.nextInt(3);
+            if (action == 0) {
+                LocationIndex.Point p = randomPoint("new" + i, 45.5, -110.6, 2.0);
+                index.upsert(p);
+                truth.put(p.sha256(), p);
+            } else if (action == 1) {
+                String hash = "p" + random.nextInt(POINTS);
+                LocationIndex.Point moved = randomPoint(hash, 45.5, -110.6, 2.0);
+                index.upsert(moved);
+                truth.put(hash, moved);
+            } else {
+                String hash = random.nextBoolean() ? "p" + random.nextInt(POINTS) : "new" + random.nextInt(i + 1);
+                index.remove(hash);
+                truth.remove(hash);
+            }
+        }
+
+        assertEquals(truth.size(), index.size());
+        long elkSum = truth.values().stream().filter(p -> p.elkCount() != null).mapToLong(LocationIndex.Point::elkCount).sum();
+        assertEquals(truth.size(), index.stats().count());
+        assertEquals(elkSum, index.stats().elkSum());
+
+        for (int q = 0; q < 20; q++) {
+            double lat = 45.5 + (random.nextDouble() - 0.5) * 3;
+            double lon = -110.6 + (random.nextDouble() - 0.5) * 3;
+            assertNearestMatches(lat, lon, 10);
+
+            double radiusKm = 5 + random.nextDouble() * 10;
+            Set<String> expected = truth.values().stream()
+                    .filter(p -> LocationIndex.haversineKm(lat, lon, p.latitude(), p.longitude()) <= radiusKm)
+                    .map(LocationIndex.Point::sha256)
+                    .collect(Collectors.toSet());
+            assertEquals(expected, hashes(index.radius(lat, lon, radiusKm, 0, Integer.MAX_VALUE)));
+        }
+    }
+
+    @Test
+    void gridClustersPartitionTheViewport() {
+        double cellDeg = ImageStatsController.clusterCellDegrees(8, 3.0, 3.0);
+        assertTrue(3.0 / cellDeg <= 64, "viewport must fit in the cell budget");
+
+        List<LocationIndex.Cluster> clusters = index.grid(44.0, -112.0, 47.0, -109.0, cellDeg, 1);
+
+        List<LocationIndex.Point> inBox = truth.values().stream()
+                .filter(p -> p.elkCount() != null && p.elkCount() >= 1)
+                .filter(p -> p.latitude() >= 44.0 && p.latitude() <= 47.0)
+                .filter(p -> p.longitude() >= -112.0 && p.longitude() <= -109.0)
+                .collect(Collectors.toList());
+        assertEquals(inBox.size(), clusters.stream().mapToLong(LocationIndex.Cluster::count).sum());
+        assertEquals(inBox.stream().mapToLong(LocationIndex.Point::elkCount).sum(),
+                clusters.stream().mapToLong(LocationIndex.Cluster::elkSum).sum());
+
+        for (LocationIndex.Cluster c : clusters) {
+            // A cell of undated images has neither bound; otherwise both are set and ordered.
+            assertEquals(c.firstTakenMillis() == null, c.lastTakenMillis() == null);
+            if (c.firstTakenMillis() != null) {
+                assertTrue(c.firstTakenMillis() <= c.lastTakenMillis());
+            }
+        }
+        long distinctCells = inBox.stream()
+                .map(p -> Math.floor(p.latitude() / cellDeg) + ":" + Math.floor(p.longitude() / cellDeg))
+                .distinct().count();
+        assertEquals(distinctCells, clusters.size());
+    }
+
+    @Test
+    void notLoadedIndexIgnoresWrites() {
+        LocationIndex fresh = new LocationIndex();
+        fresh.upsert(new LocationIndex.Point("x", 1, 1, null, 1));
+        assertFalse(fresh.isLoaded());
+        assertEquals(0, fresh.size());
+    }
+
+    private void assertNearestMatches(double lat, double lon, int k) {
+        List<Double> expected = truth.values().stream()
+                .map(p -> LocationIndex.haversineKm(lat, lon, p.latitude(), p.longitude()))
+                .sorted()
+                .limit(k)
+                .collect(Collectors.toList());
+        List<Double> actual = index.nearest(lat, lon, k, 0).stream()
+                .map(LocationIndex.Hit::distanceKm)
+                .collect(Collectors.toList());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), actual.get(i), 1e-9, "k-th distance " + i);
+        }
+    }
+
+    private LocationIndex.Point randomPoint(String hash, double lat, double lon, double spread) {
+        Integer elk = random.nextInt(10) == 0 ? null : random.nextInt(5);
+        Long taken = random.nextInt(10) == 0 ? null : 1_700_000_000_000L + random.nextInt(1_000_000) * 1000L;
+        return new LocationIndex.Point(hash,
+                lat + (random.nextDouble() - 0.5) * 2 * spread,
+                lon + (random.nextDouble() - 0.5) * 2 * spread,
+                taken,
+                elk);
+    }
+
+    private static Set<String> hashes(List<LocationIndex.Hit> hits) {
+        return hits.stream().map(LocationIndex.Hit::sha256).collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,85 @@
+package com.example;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Parallel extraction to NDJSON, checked against ImageUtils and for checkpoint resume.
+ */
+public class MetadataExtractorTest {
+
+    private static final Path TEST_DIR = Paths.get("src", "test", "java", "com", "example");
+    private static final String[] IMAGES = {"test_image_1.jpg", "test_image_2.jpg", "test_image_2.png", "test_image_1.heic"};
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void extractsTreeAndResumesFromCheckpoint() throws Exception {
+        Path root = Files.createDirectories(tmp.resolve("archive"));
+        Path nested = Files.createDirectories(root.resolve("cam2").resolve("2026-02"));
+        Map<String, String> expectedHashes = new HashMap<>();
+        for (int i = 0; i < IMAGES.length; i++) {
+            Path dest = (i % 2 == 0 ? root : nested).resolve(IMAGES[i]);
+            Files.copy(TEST_DIR.resolve(IMAGES[i]), dest);
+            expectedHashes.put(MetadataExtractor.relativeName(root, dest), ImageUtils.sha256(dest.toFile()));
+        }
+        Files.write(root.resolve("broken.jpg"), "not an image".getBytes(StandardCharsets.UTF_8));
+        Files.write(root.resolve("notes.txt"), "ignored".getBytes(StandardCharsets.UTF_8));
+
+        Path out = tmp.resolve("meta.ndjson");
+        Path checkpoint = tmp.resolve("meta.ndjson.checkpoint");
+        MetadataExtractor.Summary first;
+        try (MetadataExtractor.Sink sink = new MetadataExtractor.NdjsonSink(out, false)) {
+            first = MetadataExtractor.run(root, 3, checkpoint, sink, 2);
+        }
+        assertEquals(5, first.found());
+        assertEquals(0, first.skipped());
+        assertEquals(4, first.extracted());
+        assertEquals(1, first.failed());
+
+        ObjectMapper mapper = new ObjectMapper();
+        List<String> lines = Files.readAllLines(out, StandardCharsets.UTF_8);
+        assertEquals(4, lines.size());
+        for (String line : lines) {
+            JsonNode row = mapper.readTree(line);
+            String path = row.get("path").asText();
+            assertEquals(expectedHashes.get(path), row.get("sha256").asText(), path);
+            File f = root.resolve(path).toFile();
+            assertEquals(f.length(), row.get("filesize").asLong(), path);
+            assertEquals(ImageUtils.probeDimensions(f).width(), row.get("width").asInt(), path);
+            if (path.endsWith("test_image_1.jpg")) {
+                assertEquals("2026:02:08 09:45:39", row.get("datetime").asText());
+                assertTrue(row.get("gps_flag").asBoolean());
+                assertEquals(33.79, row.get("latitude").asDouble(), 0.01);
+            }
+        }
+        assertEquals(expectedHashes.keySet(),
+                Set.copyOf(Files.readAllLines(checkpoint, StandardCharsets.UTF_8)));
+
+        // Second run: everything committed is skipped, only the broken file is retried.
+        MetadataExtractor.Summary second;
+        try (MetadataExtractor.Sink sink = new MetadataExtractor.NdjsonSink(out, true)) {
+            second = MetadataExtractor.run(root, 3, checkpoint, sink, 2);
+        }
+        assertEquals(4, second.skipped());
+        assertEquals(0, second.extracted());
+        assertEquals(1, second.failed());
+        assertEquals(4, Files.readAllLines(out, StandardCharsets.UTF_8).size());
+    }
+}
@@ -0,0 +1,85 @@
+package com.example;
+
+import org.junit.jupiter.api.*;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * OpenMeteoClient parsing and HTTP handling against a local stub server.
+ */
+public class OpenMeteoClientTest {
+
+    private static final String BODY = "{\"latitude\":45.5,\"hourly_units\":{\"time\":\"iso8601\"},"
+            + "\"hourly\":{\"weather_code\":[3,null],\"relative_humidity_2m\":[80,null],"
+            + "\"extra\":[[1,2],{\"a\":1}],\"temperature_2m\":[-1.5,null],"
+            + "\"time\":[\"2026-02-07T00:00\",\"2026-02-07T01:00\"]},\"elevation\":1500}";
+
+    private HttpServer server;
+    private final AtomicReference<String> query = new AtomicReference<>();
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/archive", exchange -> {
+            query.set(exchange.getRequestURI().getQuery());
+            boolean fail = query.get().contains("start_date=1900");
+            byte[] body = (fail ? "{\"error\":true,\"reason\":\"Out of range\"}" : BODY)
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(fail ? 400 : 200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    void parsesFieldsInAnyOrderAndMapsNulls() throws Exception {
+        OpenMeteoClient client = new OpenMeteoClient("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+        LocalDate day = LocalDate.parse("2026-02-07");
+        OpenMeteoClient.Hourly h = client.archiveHourly(45.5, -110.6, day, day);
+
+        assertTrue(query.get().contains("latitude=45.5000"));
+        assertTrue(query.get().contains("start_date=2026-02-07"));
+        assertEquals(2, h.size());
+        assertEquals(day, h.date()[1]);
+        assertArrayEquals(new int[] {0, 1}, h.hour());
+        assertEquals(-1.5, h.temperatureC()[0]);
+        assertEquals(80.0, h.humidity()[0]);
+        assertEquals(3, h.weatherCode()[0]);
+        assertTrue(Double.isNaN(h.temperatureC()[1]));
+        assertTrue(Double.isNaN(h.humidity()[1]));
+        assertEquals(-1, h.weatherCode()[1]);
+    }
+
+    @Test
+    void errorStatusCarriesReason() {
+        OpenMeteoClient client = new OpenMeteoClient("http://127.0.0.1:" + server.getAddress().getPort());
+        LocalDate day = LocalDate.parse("1900-01-01");
+        IOException e = assertThrows(IOException.class, () -> client.archiveHourly(0, 0, day, day));
+        assertTrue(e.getMessage().contains("HTTP 400"));
+        assertTrue(e.getMessage().contains("Out of range"));
+    }
+
+    @Test
+    void missingHourlyGivesEmptySeries() throws Exception {
+        OpenMeteoClient.Hourly h = OpenMeteoClient.parseHourly(
+                new ByteArrayInputStream("{\"latitude\":1}".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(0, h.size());
+    }
+}
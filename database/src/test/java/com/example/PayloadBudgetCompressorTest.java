@@ -0,0 +1,56 @@
+package com.example;
+
+import org.junit.jupiter.api.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Budget fitting, remembered settings and the unreachable-budget error.
+ */
+public class PayloadBudgetCompressorTest {
+
+    private static final Path TEST_IMAGE = Paths.get("src", "test", "java", "com", "example", "test_image_1.jpg");
+    private static final int BUDGET = 200_000;
+
+    @Test
+    void fitsBudgetAndReusesSettingsForSameResolution() throws Exception {
+        byte[] source = Files.readAllBytes(TEST_IMAGE);
+        PayloadBudgetCompressor compressor = new PayloadBudgetCompressor(16);
+
+        PayloadBudgetCompressor.Result first = compressor.fit(source, BUDGET);
+        assertTrue(first.bytes().length <= BUDGET, "size " + first.bytes().length);
+        assertTrue(first.quality() >= PayloadBudgetCompressor.MIN_QUALITY
+                && first.quality() <= PayloadBudgetCompressor.MAX_QUALITY);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(first.bytes()));
+        assertNotNull(decoded);
+        assertTrue(Math.max(decoded.getWidth(), decoded.getHeight()) <= first.maxSide());
+
+        PayloadBudgetCompressor.Result second = compressor.fit(source, BUDGET);
+        assertEquals(1, second.encodes());
+        assertEquals(first.maxSide(), second.maxSide());
+        assertEquals(first.quality(), second.quality());
+        assertArrayEquals(first.bytes(), second.bytes());
+    }
+
+    @Test
+    void unreachableBudgetIsReported() throws Exception {
+        byte[] source = Files.readAllBytes(TEST_IMAGE);
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> new PayloadBudgetCompressor(16).fit(source, 1_000));
+        assertTrue(e.getMessage().startsWith("Image is too large"), e.getMessage());
+    }
+
+    @Test
+    void unreadablePayloadIsRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new PayloadBudgetCompressor(16).fit(new byte[] {1, 2, 3, 4}, BUDGET));
+    }
+}
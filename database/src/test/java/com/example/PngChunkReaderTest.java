@@ -0,0 +1,75 @@
+package com.example;
+
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * PngChunkReader on the bundled PNG and on hand-built chunk layouts.
+ */
+public class PngChunkReaderTest {
+
+    private static final byte[] TIFF = {'M', 'M', 0, 42, 0, 0, 0, 8, 0, 0, 0, 0, 0, 0};
+
+    @Test
+    void readsIhdrOfBundledPng() throws Exception {
+        Path png = Paths.get("src", "test", "java", "com", "example", "test_image_2.png");
+        PngChunkReader.Headers fromFile = PngChunkReader.scan(png);
+        PngChunkReader.Headers fromMemory = PngChunkReader.scan(ByteBuffer.wrap(Files.readAllBytes(png)));
+        assertTrue(fromFile.png());
+        assertEquals(ImageUtils.probeDimensions(png.toFile()), fromFile.dimensions());
+        assertEquals(fromFile.dimensions(), fromMemory.dimensions());
+        assertEquals(fromFile.exif(), fromMemory.exif());
+    }
+
+    @Test
+    void findsExifBeforeIdatAndIgnoresImageData() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[] {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A});
+        chunk(out, "IHDR", ByteBuffer.allocate(13).putInt(640).putInt(480).array());
+        chunk(out, "tEXt", "Comment\0hello".getBytes(StandardCharsets.ISO_8859_1));
+        chunk(out, "eXIf", TIFF);
+        chunk(out, "IDAT", new byte[4 << 20]);
+        chunk(out, "IEND", new byte[0]);
+
+        Path tmp = Files.createTempFile("chunks", ".png");
+        try {
+            Files.write(tmp, out.toByteArray());
+            PngChunkReader.Headers h = PngChunkReader.scan(tmp);
+            assertEquals(new ImageUtils.Dimensions(640, 480), h.dimensions());
+            assertEquals(ByteBuffer.wrap(TIFF), h.exif());
+            assertNotNull(ImageUtils.parseExifFromPng(tmp.toFile()));
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Test
+    void truncatedAndNonPngInputs() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[] {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A});
+        chunk(out, "IHDR", ByteBuffer.allocate(13).putInt(2).putInt(3).array());
+        chunk(out, "eXIf", TIFF);
+        byte[] full = out.toByteArray();
+        for (int len = 0; len < full.length; len++) {
+            byte[] cut = Arrays.copyOf(full, len);
+            assertDoesNotThrow(() -> PngChunkReader.scan(ByteBuffer.wrap(cut)), "length " + len);
+        }
+        assertFalse(PngChunkReader.scan(ByteBuffer.wrap("GIF89a".getBytes(StandardCharsets.ISO_8859_1))).png());
+    }
+
+    private static void chunk(ByteArrayOutputStream out, String type, byte[] body) {
+        out.writeBytes(ByteBuffer.allocate(4).putInt(body.length).array());
+        out.writeBytes(type.getBytes(StandardCharsets.ISO_8859_1));
+        out.writeBytes(body);
+        out.writeBytes(new byte[4]); // CRC is not checked
+    }
+}
@@ -0,0 +1,100 @@
+package com.example;
+
+import org.junit.jupiter.api.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pure checks of ResponseCache hit/miss accounting, invalidation and ETag matching.
+ */
+public class ResponseCacheTest {
+
+    @Test
+    void secondReadIsAHitUntilInvalidated() throws Exception {
+        ResponseCache cache = new ResponseCache(TimeUnit.MINUTES.toNanos(1));
+        AtomicInteger loads = new AtomicInteger();
+        ResponseCache.Loader loader = () -> Map.of("n", loads.incrementAndGet());
+
+        ResponseCache.Entry first = cache.get("k", loader);
+        ResponseCache.Entry second = cache.get("k", loader);
+        assertSame(first, second);
+        assertEquals(1, loads.get());
+
+        cache.invalidateAll();
+        ResponseCache.Entry third = cache.get("k", loader);
+        assertEquals(2, loads.get());
+        assertNotEquals(first.etag(), third.etag(), "Different body must get a different ETag");
+
+        Map<String, Object> stats = cache.stats();
+        assertEquals(1L, stats.get("hits"));
+        assertEquals(2L, stats.get("misses"));
+        assertEquals(1L, stats.get("invalidations"));
+    }
+
+    @Test
+    void invalidationDuringLoadIsNotCached() throws Exception {
+        ResponseCache cache = new ResponseCache(TimeUnit.MINUTES.toNanos(1));
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("k", () -> {
+            cache.invalidateAll(); // a write lands while the query is running
+            return Map.of("n", loads.incrementAndGet());
+        });
+        cache.get("k", () -> Map.of("n", loads.incrementAndGet()));
+
+        assertEquals(2, loads.get(), "Entry loaded across a write must not be served");
+    }
+
+    @Test
+    void zeroTtlDisablesCaching() throws Exception {
+        ResponseCache cache = new ResponseCache(0);
+        AtomicInteger loads = new AtomicInteger();
+        cache.get("k", () -> Map.of("n", loads.incrementAndGet()));
+        cache.get("k", () -> Map.of("n", loads.incrementAndGet()));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void ifNoneMatchHandlesListsWeakTagsAndWildcard() throws Exception {
+        ResponseCache cache = new ResponseCache(TimeUnit.MINUTES.toNanos(1));
+        String etag = cache.get("k", () -> Map.of("a", 1)).etag();
+
+        assertTrue(etag.startsWith("\"") && etag.endsWith("\""), "ETag must be quoted");
+        assertTrue(cache.notModified(etag, etag));
+        assertTrue(cache.notModified("\"other\", W/" + etag, etag));
+        assertTrue(cache.notModified("*", etag));
+        assertFalse(cache.notModified("\"other\"", etag));
+        assertFalse(cache.notModified(null, etag));
+        assertEquals(3L, cache.stats().get("notModified"));
+    }
+
+    @Test
+    void versionTagIsWeakAndChangesOnWrite() {
+        ResponseCache cache = new ResponseCache(TimeUnit.MINUTES.toNanos(1));
+        String tag = cache.versionTag("locations");
+
+        assertTrue(tag.startsWith("W/\"") && tag.endsWith("\""), "Version tag must be weak: " + tag);
+        assertEquals(tag, cache.versionTag("locations"));
+        assertTrue(cache.notModified(tag, tag));
+        assertTrue(cache.notModified(tag.substring(2), tag));
+
+        cache.invalidateAll();
+        assertFalse(cache.notModified(tag, cache.versionTag("locations")));
+    }
+
+    @Test
+    void leaseOnlyWritesKeepTheSharedCache() {
+        ResponseCache cache = ResponseCache.shared();
+        Object before = cache.stats().get("invalidations");
+
+        db.notifyRowChanged(new db.ChangedRow("lease-only", null, false));
+        assertEquals(before, cache.stats().get("invalidations"), "Claims and lease releases keep cached entries");
+
+        db.notifyRowChanged(new db.ChangedRow("lease-only", null, true));
+        assertEquals((Long) before + 1, cache.stats().get("invalidations"));
+    }
+}
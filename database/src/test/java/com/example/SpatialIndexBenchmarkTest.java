@@ -0,0 +1,166 @@
+package com.example;
+
+import org.junit.jupiter.api.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+/**
+ * Compares the old full-scan haversine radius query against db.getImagesByLocation on
+ * 1M synthetic rows. Rows are inserted inside a transaction that is rolled back at the
+ * end, but the run still writes ~1M dead tuples: point it at a scratch database.
+ *
+ * Enable with RUN_DB_BENCHMARKS=true (and the usual CLOUD_SQL_* / DB_* settings).
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class SpatialIndexBenchmarkTest {
+
+    private static final int SYNTHETIC_ROWS = 1_000_000;
+    private static final int RUNS = 5;
+
+    // Arbitrary center in southwest Montana.
+    private static final double CENTER_LAT = 45.50;
+    private static final double CENTER_LON = -110.60;
+    private static final double RADIUS_KM = 5.0;
+
+    // The pre-index query, kept verbatim as the baseline.
+    private static final String LEGACY_SQL = "SELECT * FROM ( " +
+            "  SELECT *, " +
+            "    (6371 * acos( " +
+            "      cos(radians(?)) * cos(radians(latitude)) * " +
+            "      cos(radians(longitude) - radians(?)) + " +
+            "      sin(radians(?)) * sin(radians(latitude)) " +
+            "    )) AS distance_km " +
+            "  FROM postgres.images " +
+            "  WHERE gps_flag = true " +
+            "    AND latitude IS NOT NULL " +
+            "    AND longitude IS NOT NULL " +
+            "    AND processed_status = true " +
+            ") AS subquery " +
+            "WHERE distance_km <= ? " +
+            "ORDER BY distance_km";
+
+    private Connection conn;
+
+    @BeforeAll
+    void seedSyntheticRows() throws Exception {
+        assumeTrue("true".equalsIgnoreCase(System.getenv("RUN_DB_BENCHMARKS")),
+                "Set RUN_DB_BENCHMARKS=true to run the spatial index benchmark");
+
+        conn = db.connect();
+        db.setupSchema(conn, false);
+        System.out.println("Spatial backend: " + db.spatialBackend(conn));
+
+        conn.setAutoCommit(false);
+        long start = System.nanoTime();
+        try (Statement s = conn.createStatement()) {
+            // ~4 x 4 degree square around the center, uniformly spread.
+            s.executeUpdate("insert into postgres.images (img_hash, cloud_uri, filename, gps_flag, "
+                    + "latitude, longitude, processed_status, elk_count) "
+                    + "select 'bench-' || g, 'gs://bench/' || g, 'bench-' || g || '.jpg', true, "
+                    + CENTER_LAT + " - 2 + random() * 4, " + CENTER_LON + " - 2 + random() * 4, true, 0 "
+                    + "from generate_series(1, " + SYNTHETIC_ROWS + ") g");
+            s.execute("analyze postgres.images");
+        }
+        System.out.printf(Locale.ROOT, "Seeded %d rows in %.1fs%n", SYNTHETIC_ROWS,
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    @AfterAll
+    void rollbackAndClose() throws Exception {
+        if (conn != null) {
+            conn.rollback();
+            conn.setAutoCommit(true);
+            conn.close();
+        }
+    }
+
+    @Test
+    void indexedRadiusQueryMatchesAndBeatsFullScan() throws Exception {
+        Set<String> legacyHashes = new HashSet<>();
+        long legacyNanos = medianNanos(() -> {
+            legacyHashes.clear();
+            try (PreparedStatement ps = conn.prepareStatement(LEGACY_SQL)) {
+                ps.setDouble(1, CENTER_LAT);
+                ps.setDouble(2, CENTER_LON);
+                ps.setDouble(3, CENTER_LAT);
+                ps.setDouble(4, RADIUS_KM);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        legacyHashes.add(rs.getString("img_hash"));
+                    }
+                }
+            }
+        });
+
+        Set<String> indexedHashes = new HashSet<>();
+        long indexedNanos = medianNanos(() -> {
+            indexedHashes.clear();
+            for (Metadata m : db.getImagesByLocation(conn, CENTER_LAT, CENTER_LON, RADIUS_KM)) {
+                indexedHashes.add(m.sha256);
+            }
+        });
+
+        System.out.printf(Locale.ROOT, "Radius %.1f km: legacy=%.1f ms (%d rows), indexed=%.1f ms (%d rows), %.1fx%n",
+                RADIUS_KM, legacyNanos / 1e6, legacyHashes.size(), indexedNanos / 1e6, indexedHashes.size(),
+                (double) legacyNanos / Math.max(1, indexedNanos));
+
+        // PostGIS measures on the spheroid, the legacy query on a sphere: allow boundary disagreement.
+        Set<String> symmetricDiff = new HashSet<>(legacyHashes);
+        symmetricDiff.addAll(indexedHashes);
+        Set<String> both = new HashSet<>(legacyHashes);
+        both.retainAll(indexedHashes);
+        symmetricDiff.removeAll(both);
+        assertTrue(symmetricDiff.size() <= Math.max(5, legacyHashes.size() / 100),
+                "Indexed and legacy results diverge by " + symmetricDiff.size() + " rows");
+
+        assertTrue(indexedNanos < legacyNanos,
+                "Expected the indexed radius query to be faster than the full scan");
+    }
+
+    @Test
+    void boundingBoxQueryUsesIndex() throws Exception {
+        double[] box = db.boundingBox(CENTER_LAT, CENTER_LON, RADIUS_KM);
+        long nanos = medianNanos(() -> db.getImagesInBoundingBox(conn, box[0], box[1], box[2], box[3]));
+        System.out.printf(Locale.ROOT, "Bounding box: %.1f ms%n", nanos / 1e6);
+
+        StringBuilder plan = new StringBuilder();
+        try (PreparedStatement ps = conn.prepareStatement("explain select img_hash from postgres.images "
+                + "where latitude is not null and longitude is not null "
+                + "and latitude between ? and ? and longitude between ? and ? and processed_status = true")) {
+            ps.setDouble(1, box[0]);
+            ps.setDouble(2, box[2]);
+            ps.setDouble(3, box[1]);
+            ps.setDouble(4, box[3]);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    plan.append(rs.getString(1)).append('\n');
+                }
+            }
+        }
+        System.out.println(plan);
+        assertTrue(plan.toString().contains("images_lat_lon_idx"), "Expected a scan on images_lat_lon_idx");
+    }
+
+    private interface Query {
+        void run() throws Exception;
+    }
+
+    private static long medianNanos(Query query) throws Exception {
+        query.run(); // warm the buffer cache
+        long[] samples = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            query.run();
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        return samples[RUNS / 2];
+    }
+}
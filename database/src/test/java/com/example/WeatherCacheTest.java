@@ -0,0 +1,158 @@
+package com.example;
+
+import org.junit.jupiter.api.*;
+
+import com.google.common.base.Ticker;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * WeatherCache hits, misses, expiry and failed fetches against a local Open-Meteo stub.
+ */
+public class WeatherCacheTest {
+
+    private static final LocalDate DAY = LocalDate.parse("2024-06-01");
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicBoolean fail = new AtomicBoolean();
+    private final AtomicLong nanos = new AtomicLong();
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/archive", exchange -> {
+            requests.incrementAndGet();
+            String query = exchange.getRequestURI().getQuery();
+            byte[] body = (fail.get() ? "{\"error\":true,\"reason\":\"busy\"}" : archiveBody(query))
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(fail.get() ? 503 : 200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    /** 24 hours per requested day; temperature is the hour, so results are easy to check. */
+    static String archiveBody(String query) {
+        LocalDate from = LocalDate.parse(param(query, "start_date"));
+        LocalDate to = LocalDate.parse(param(query, "end_date"));
+        StringBuilder time = new StringBuilder();
+        StringBuilder temp = new StringBuilder();
+        StringBuilder hum = new StringBuilder();
+        StringBuilder code = new StringBuilder();
+        for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1)) {
+            for (int h = 0; h < 24; h++) {
+                String sep = time.length() == 0 ? "" : ",";
+                time.append(sep).append(String.format("\"%sT%02d:00\"", d, h));
+                temp.append(sep).append(h);
+                hum.append(sep).append(50);
+                code.append(sep).append(3);
+            }
+        }
+        return "{\"hourly\":{\"time\":[" + time + "],\"temperature_2m\":[" + temp
+                + "],\"relative_humidity_2m\":[" + hum + "],\"weathercode\":[" + code + "]}}";
+    }
+
+    private static String param(String query, String name) {
+        for (String pair : query.split("&")) {
+            if (pair.startsWith(name + "=")) {
+                return pair.substring(name.length() + 1);
+            }
+        }
+        throw new IllegalArgumentException(name + " missing from " + query);
+    }
+
+    private WeatherCache cache() {
+        OpenMeteoClient client = new OpenMeteoClient("http://127.0.0.1:" + server.getAddress().getPort());
+        return new WeatherCache(100, 60, client, false, ticker);
+    }
+
+    @Test
+    void missLoadsOnceAndSameCellHits() {
+        WeatherCache cache = cache();
+
+        WeatherCache.Day first = cache.day(45.51, -110.62, DAY);
+        assertNotNull(first);
+        assertTrue(first.complete());
+        assertEquals(14.0, first.temperatureC()[14]);
+
+        // 45.49/-110.58 rounds to the same 0.1-degree cell.
+        assertSame(first, cache.day(45.49, -110.58, DAY));
+        assertSame(first, cache.peek(45.51, -110.62, DAY));
+        assertEquals(1, requests.get());
+        assertEquals(1, cache.stats().missCount());
+        assertEquals(2, cache.stats().hitCount(), "The second day() and the peek");
+
+        assertNull(cache.peek(45.51, -110.62, DAY.plusDays(1)), "peek never loads");
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    void entryExpiresAfterTtl() {
+        WeatherCache cache = cache();
+        assertNotNull(cache.day(45.51, -110.62, DAY));
+
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(59));
+        assertNotNull(cache.day(45.51, -110.62, DAY));
+        assertEquals(1, requests.get());
+
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(2));
+        assertNotNull(cache.day(45.51, -110.62, DAY));
+        assertEquals(2, requests.get(), "An expired entry is fetched again");
+    }
+
+    @Test
+    void failedFetchIsNotCached() {
+        WeatherCache cache = cache();
+        fail.set(true);
+        assertNull(cache.day(45.51, -110.62, DAY));
+        assertNull(cache.peek(45.51, -110.62, DAY));
+
+        fail.set(false);
+        assertNotNull(cache.day(45.51, -110.62, DAY));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    void daysFetchesOnlyWhatIsMissingInOneRequest() {
+        WeatherCache cache = cache();
+        WeatherCache.Key cell = WeatherCache.Key.of(45.51, -110.62, null);
+        assertNotNull(cache.day(45.51, -110.62, DAY));
+
+        TreeSet<LocalDate> dates = new TreeSet<>();
+        dates.add(DAY);
+        dates.add(DAY.plusDays(3));
+        dates.add(DAY.plusDays(5));
+        Map<LocalDate, WeatherCache.Day> days = cache.days(cell.latCell(), cell.lonCell(), dates);
+
+        assertEquals(dates, days.keySet());
+        assertEquals(2, requests.get(), "Cached day reused; the two missing days share one request");
+        assertNotNull(cache.peek(45.51, -110.62, DAY.plusDays(4)), "Days in between are cached too");
+    }
+}
@@ -0,0 +1,165 @@
+package com.example;
+
+import org.junit.jupiter.api.*;
+
+import com.google.common.base.Ticker;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+/**
+ * WeatherEnricher.enrichCell outcomes against a local Open-Meteo stub.
+ * The re-enrichment test needs a database: enable it with RUN_DB_TESTS=true.
+ */
+public class WeatherEnricherTest {
+
+    private static final LocalDate DAY = LocalDate.parse("2024-06-01");
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicBoolean fail = new AtomicBoolean();
+    private final AtomicBoolean dropLastHour = new AtomicBoolean();
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/archive", exchange -> {
+            requests.incrementAndGet();
+            String body = WeatherCacheTest.archiveBody(exchange.getRequestURI().getQuery());
+            if (dropLastHour.get()) {
+                body = body.replace(",23]", ",null]");
+            }
+            byte[] bytes = (fail.get() ? "{\"error\":true,\"reason\":\"busy\"}" : body)
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(fail.get() ? 500 : 200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    private WeatherCache cache() {
+        OpenMeteoClient client = new OpenMeteoClient("http://127.0.0.1:" + server.getAddress().getPort());
+        return new WeatherCache(100, 60, client, false, Ticker.systemTicker());
+    }
+
+    private static db.WeatherTask task(long id, LocalDate date, int hour) {
+        return new db.WeatherTask(id, 45.51, -110.62, date, hour, false);
+    }
+
+    private static List<db.WeatherUpdate> enrich(WeatherCache cache, db.WeatherTask... tasks) {
+        WeatherCache.Key cell = WeatherCache.Key.of(45.51, -110.62, null);
+        List<db.WeatherUpdate> updates = new ArrayList<>(
+                WeatherEnricher.enrichCell(cache, cell, List.of(tasks)));
+        updates.sort(Comparator.comparingLong(db.WeatherUpdate::id));
+        return updates;
+    }
+
+    @Test
+    void cellIsResolvedWithOneRequest() {
+        List<db.WeatherUpdate> updates = enrich(cache(), task(1, DAY, 9), task(2, DAY.plusDays(2), 17));
+
+        assertEquals(1, requests.get());
+        assertEquals(2, updates.size());
+        assertEquals(WeatherEnricher.DONE, updates.get(0).status());
+        assertEquals(9.0, updates.get(0).temperatureC());
+        assertEquals(50.0, updates.get(0).humidity());
+        assertEquals(db.weatherCodeToString(3), updates.get(0).weatherDesc());
+        assertEquals(17.0, updates.get(1).temperatureC());
+    }
+
+    @Test
+    void failedArchiveLeavesRowsForRetry() {
+        fail.set(true);
+        WeatherCache cache = cache();
+        assertTrue(enrich(cache, task(1, DAY, 9), task(2, DAY, 10)).isEmpty(),
+                "Rows without weather keep their claim and are retried");
+
+        fail.set(false);
+        assertEquals(2, enrich(cache, task(1, DAY, 9), task(2, DAY, 10)).size());
+    }
+
+    @Test
+    void missingHourOnSettledDayIsUnavailable() {
+        dropLastHour.set(true);
+        List<db.WeatherUpdate> updates = enrich(cache(), task(1, DAY, 23), task(2, DAY, 22));
+
+        assertEquals(WeatherEnricher.UNAVAILABLE, updates.get(0).status());
+        assertNull(updates.get(0).temperatureC());
+        assertEquals(WeatherEnricher.DONE, updates.get(1).status());
+    }
+
+    @Test
+    void correctedLocationOrTimeIsEnrichedAgain() throws Exception {
+        assumeTrue("true".equalsIgnoreCase(System.getenv("RUN_DB_TESTS")),
+                "Set RUN_DB_TESTS=true to run the weather reset against the database");
+        try (Connection conn = db.connect()) {
+            db.setupSchema(conn, false);
+            String hash = "weathertest-" + System.nanoTime();
+            try {
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "insert into postgres.images (img_hash, filename, cloud_uri, weather_status, "
+                                + "weather_desc, temperature_c, humidity) "
+                                + "values (?, 'weather.jpg', 'gs://test/weather.jpg', 'done', 'Overcast', 9, 50)")) {
+                    ps.setString(1, hash);
+                    ps.executeUpdate();
+                }
+
+                assertTrue(db.updateLocation(conn, hash, 45.51, -110.62));
+                assertWeatherCleared(conn, hash);
+
+                markDone(conn, hash);
+                assertTrue(db.updateDatetime(conn, hash, "2024-06-01 09:00:00"));
+                assertWeatherCleared(conn, hash);
+            } finally {
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "delete from postgres.images where img_hash = ?")) {
+                    ps.setString(1, hash);
+                    ps.executeUpdate();
+                }
+            }
+        }
+    }
+
+    private static void markDone(Connection conn, String hash) throws Exception {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "update postgres.images set weather_status = 'done', weather_desc = 'Overcast' where img_hash = ?")) {
+            ps.setString(1, hash);
+            ps.executeUpdate();
+        }
+    }
+
+    private static void assertWeatherCleared(Connection conn, String hash) throws Exception {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "select weather_status, weather_desc, temperature_c from postgres.images where img_hash = ?")) {
+            ps.setString(1, hash);
+            try (ResultSet rs = ps.executeQuery()) {
+                assertTrue(rs.next());
+                assertEquals("pending", rs.getString("weather_status"));
+                assertNull(rs.getString("weather_desc"), "Old weather must not mark the row done again");
+                assertNull(rs.getObject("temperature_c"));
+            }
+        }
+    }
+}